@@ -6,6 +6,8 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Helper-class to access and execute commands on the outside environment, e.g. to invoke Git.
@@ -113,12 +115,26 @@ public class Executor{
      * @return an ExecutionResult object containing the output of the command
      */
     public static ExecutionResult execute(String string, File executionEnvironment) throws IOException {
+        return execute(string, executionEnvironment, null);
+    }
+
+    /**
+     * Executes a command on the OS runtime in a given directory.
+     *
+     * @param string : the command to be executed, should not contain any special
+     *                 characters like (")
+     * @param executionEnvironment : directory where to execute the command
+     * @param additionalVariables : environment variables to set in addition to the ones
+     *                              of this process, may be 'null'
+     * @return an ExecutionResult object containing the output of the command
+     */
+    public static ExecutionResult execute(String string, File executionEnvironment, Map<String, String> additionalVariables) throws IOException {
         String[] arr = string.split(" ");
         ArrayList<String> list = new ArrayList<>(arr.length);
         for (String s : arr){
             if (!s.trim().isEmpty()) list.add(s);
         }
-        return execute(list.toArray(new String[list.size()]),executionEnvironment);
+        return execute(list.toArray(new String[list.size()]),executionEnvironment, additionalVariables);
     }
 
     /**
@@ -132,12 +148,38 @@ public class Executor{
      * @throws IllegalArgumentException : if the given execution environment is invalid
      */
     public static ExecutionResult execute(String[] tokens, File executionEnvironment) throws IOException, IllegalArgumentException {
+        return execute(tokens, executionEnvironment, null);
+    }
+
+    /**
+     * Executes a command on the OS runtime in a given directory.
+     *
+     * @param tokens : the individual tokens of the command (e.g. ["git", "checkout", "master"])
+     * @param executionEnvironment : directory where to execute the command
+     * @param additionalVariables : environment variables to set in addition to the ones
+     *                              of this process, may be 'null'
+     * @return an ExecutionResult object containing the output of the command
+     *
+     * @throws IOException : if external factors interfere with the execution
+     * @throws IllegalArgumentException : if the given execution environment is invalid
+     */
+    public static ExecutionResult execute(String[] tokens, File executionEnvironment, Map<String, String> additionalVariables)
+            throws IOException, IllegalArgumentException {
         if (! (executionEnvironment.isDirectory() && executionEnvironment.exists())){
             Tool.printError("'"+executionEnvironment.getAbsolutePath()+"' is not a directory!");
             throw new IllegalArgumentException("'"+executionEnvironment.getAbsolutePath()+"' is not a directory!");
         }
         Runtime r = Runtime.getRuntime();
-        Process proc = r.exec(tokens, null, executionEnvironment);
+        String[] environment = null; //inherit everything
+        if (additionalVariables != null && !additionalVariables.isEmpty()){
+            HashMap<String, String> variables = new HashMap<>(System.getenv());
+            variables.putAll(additionalVariables);
+            environment = new String[variables.size()];
+            int i = 0;
+            for (Map.Entry<String, String> e : variables.entrySet())
+                environment[i++] = e.getKey()+"="+e.getValue();
+        }
+        Process proc = r.exec(tokens, environment, executionEnvironment);
 
         //Error and Output handlers
         StreamWrapper errors = new StreamWrapper(proc.getErrorStream(), OutputType.ERROR);
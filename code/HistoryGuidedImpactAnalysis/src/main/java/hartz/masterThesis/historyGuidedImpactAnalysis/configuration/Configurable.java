@@ -59,6 +59,17 @@ public class Configurable extends Configuration {
     private boolean injectCoverageObserverTwice;
     private boolean noRepoMode;
     private boolean enableInstrumentationCompatibilityMode;
+    private boolean streamBinaryTraces;
+    private boolean fingerprintValues;
+    private boolean countCoverage;
+    private boolean basicBlockProbes;
+    private boolean loadTimeInstrumentation;
+    private int impactScopeDistance;
+    private int instrumentationThreads;
+    private int analysisThreads;
+    private int maximalTraceDistance;
+    private boolean cacheInstrumentation;
+    private boolean cacheDivergences;
     private boolean filterObjectCharacteristics;
 
 
@@ -74,6 +85,10 @@ public class Configurable extends Configuration {
 
         //fill in default paths
         this.outputDir = new File("./output");
+        this.impactScopeDistance = -1; //instrument everything
+        this.instrumentationThreads = 1;
+        this.analysisThreads = 1;
+        this.maximalTraceDistance = Integer.MAX_VALUE; //compute the exact distance
 
         //fill in default values
         buildCommand = new String[0];
@@ -1111,6 +1126,16 @@ public class Configurable extends Configuration {
         this.distanceBasedTraces = true;
     }
 
+    @Override
+    public int getMaximalTraceDistance() {
+        return maximalTraceDistance;
+    }
+
+    public void setMaximalTraceDistance(int distance) {
+        assert(distance >= 1);
+        maximalTraceDistance = distance;
+    }
+
     public void enableCoverageBasedTraces(){
         this.coverageBasedTraces = true;
     }
@@ -1182,6 +1207,89 @@ public class Configurable extends Configuration {
         enableInstrumentationCompatibilityMode = true;
     }
 
+    @Override
+    public boolean streamBinaryTraces() {
+        return streamBinaryTraces;
+    }
+
+    public void enableBinaryTraceStreaming() {
+        streamBinaryTraces = true;
+    }
+
+    @Override
+    public boolean fingerprintValues() {
+        return fingerprintValues;
+    }
+
+    public void enableValueFingerprints() {
+        fingerprintValues = true;
+    }
+
+    @Override
+    public boolean countCoverage() {
+        return countCoverage;
+    }
+
+    public void enableCoverageCounting() {
+        countCoverage = true;
+    }
+
+    @Override
+    public boolean useBasicBlockProbes() {
+        return basicBlockProbes;
+    }
+
+    public void enableBasicBlockProbes() {
+        basicBlockProbes = true;
+    }
+
+    @Override
+    public boolean useLoadTimeInstrumentation() {
+        return loadTimeInstrumentation;
+    }
+
+    public void enableLoadTimeInstrumentation() {
+        loadTimeInstrumentation = true;
+    }
+
+    @Override
+    public int getImpactScopeDistance() {
+        return impactScopeDistance;
+    }
+
+    public void setImpactScopeDistance(int distance) {
+        impactScopeDistance = distance;
+    }
+
+    @Override
+    public int getNumberOfInstrumentationThreads() {
+        return instrumentationThreads;
+    }
+
+    public void setNumberOfInstrumentationThreads(int threads) {
+        assert(threads >= 1);
+        instrumentationThreads = threads;
+    }
+
+    @Override
+    public int getNumberOfAnalysisThreads() {
+        return analysisThreads;
+    }
+
+    public void setNumberOfAnalysisThreads(int threads) {
+        assert(threads >= 1);
+        analysisThreads = threads;
+    }
+
+    @Override
+    public boolean useInstrumentationCache() {
+        return cacheInstrumentation;
+    }
+
+    public void enableInstrumentationCache() {
+        cacheInstrumentation = true;
+    }
+
     public void injectCoverageObserverTwice() {
         injectCoverageObserverTwice = true;
     }
@@ -1194,4 +1302,13 @@ public class Configurable extends Configuration {
     public void enableFilteringOfObjectCharacteristics() {
         filterObjectCharacteristics = true;
     }
+
+    @Override
+    public boolean useDivergenceCache() {
+        return cacheDivergences;
+    }
+
+    public void enableDivergenceCache() {
+        cacheDivergences = true;
+    }
 }
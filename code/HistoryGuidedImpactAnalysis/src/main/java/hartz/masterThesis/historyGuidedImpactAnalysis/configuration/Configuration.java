@@ -184,10 +184,78 @@ public abstract class Configuration extends MetricScaling implements FileIOConfi
      */
     public abstract boolean useMoreCompatibleInstrumentation();
 
+    /**
+     * @return 'true' if instrumented code should stream its traces to
+     *         disk in a binary format during execution instead of
+     *         keeping them in memory until it terminates
+     */
+    public abstract boolean streamBinaryTraces();
+
+    /**
+     * @return 'true' if instrumented code should only record a
+     *         fingerprint of parameters and return values when
+     *         they are passed instead of keeping the objects alive
+     *         until the traces are exported
+     */
+    public abstract boolean fingerprintValues();
+
+    /**
+     * @return 'true' if instrumented code should only count how
+     *         often each instruction is executed instead of
+     *         recording execution traces
+     */
+    public abstract boolean countCoverage();
+
+    /**
+     * @return 'true' if only the first instruction of each basic block
+     *         should be probed during instrumentation instead of every
+     *         single instruction
+     */
+    public abstract boolean useBasicBlockProbes();
+
+    /**
+     * @return 'true' if classes should be instrumented in memory by a
+     *         Java agent while they are being loaded instead of being
+     *         rewritten on disc
+     */
+    public abstract boolean useLoadTimeInstrumentation();
+
+    /**
+     * @return maximum number of calls between a changed method and
+     *         one that is instrumented, a negative value means that
+     *         all methods are instrumented no matter the changes
+     */
+    public abstract int getImpactScopeDistance();
+
+    /**
+     * @return number of classes that may be instrumented concurrently
+     */
+    public abstract int getNumberOfInstrumentationThreads();
+
+    /**
+     * @return number of trace files that may be imported and trace
+     *         pairs that may be compared concurrently
+     */
+    public abstract int getNumberOfAnalysisThreads();
+
+    /**
+     * @return 'true' if instrumented classes should be stored in the
+     *         output directory and reused for identical classes of
+     *         other versions
+     */
+    public abstract boolean useInstrumentationCache();
+
     /**
      * @return 'true' if parameters and return values that have '@' in
      *         their string-representation should be ignored during
      *         the trace divergence analysis
      */
     public abstract boolean filterObjectCharacteristics();
+
+    /**
+     * @return 'true' if the trace divergences of each version should
+     *         be stored and reused as long as neither the traces nor
+     *         the syntactic changes nor the settings have changed
+     */
+    public abstract boolean useDivergenceCache();
 }
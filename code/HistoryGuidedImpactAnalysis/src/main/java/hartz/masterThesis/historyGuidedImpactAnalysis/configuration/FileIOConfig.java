@@ -74,6 +74,12 @@ public interface FileIOConfig{
      */
 	public boolean compareTraceDistance();
 
+    /**
+     * @return distance at which the computation of the trace distance
+     *         may stop, the metric is capped at this value
+     */
+	public int getMaximalTraceDistance();
+
     /**
      * @return 'true' if all instrumented code should be exported into
      *         each versions directory in human-readable form
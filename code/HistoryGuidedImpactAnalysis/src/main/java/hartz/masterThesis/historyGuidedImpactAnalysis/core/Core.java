@@ -8,9 +8,16 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.fil
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.newClasses.NewClassDetection;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.ChangeDistillerAdapter;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.BinaryTraceReader;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.JSONTraceReader;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.Trace;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.TraceStore;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.InstrumentationCache;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.Instrumenter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.LoadTimeInstrumenter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.MethodIdentifierTable;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.callGraph.CallGraph;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.TypeHierarchy;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodSource;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.TraceUtil;
@@ -19,13 +26,20 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONException;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONStreamWriter;
 import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.Commands;
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.OutputType;
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * This class statically implements the core functionality of the tool, that is extraction, compilation,
@@ -128,38 +142,105 @@ public class Core {
      *                                     Coverage Observation functionality into this classpath as well.
      * @param safeInstrumentation : set to 'true' to use a static max-stack increase instead of
      *                              recomputing this value
+     * @param streamBinaryTraces : set to 'true' to make the injected observer stream traces to disk in a
+     *                             binary format during execution instead of keeping them in memory
+     * @param fingerprintValues : set to 'true' to make the injected observer record only fingerprints of
+     *                            parameters and return values instead of keeping the objects alive
+     * @param countCoverage : set to 'true' to make the injected observer only count how often each instruction
+     *                        is executed instead of recording execution traces
+     * @param basicBlockProbes : set to 'true' to probe only the first instruction of each basic block, requires
+     *                           the source to be exported as probes are expanded again based on it
+     * @param loadTimeInstrumentation : set to 'true' to leave the classes on disc untouched, they are instrumented
+     *                                  in memory by our Java agent when being loaded instead. See
+     *                                  {@link hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.LoadTimeInstrumenter}
+     * @param changedEntities : keys of all syntax changes affecting this version, i.e. the ones of this version and of
+     *                          the versions compared against it. If given, only methods in the change cone and entry
+     *                          points are instrumented. Use 'null' to instrument everything.
+     * @param impactScopeDistance : maximum number of calls between a changed method and an instrumented one,
+     *                              ignored if no changes are given
+     * @param instrumentationThreads : number of classes to instrument at the same time
+     * @param cache : instrumentation results shared by all versions, its method identifier table is used for this
+     *                version. Use 'null' to instrument every class, must be 'null' for load-time instrumentation.
      * @return the call graph of the code, including the non-instrumented parts
      * @throws IOException
      */
     public static CallGraph instrumentVersion(Version v, boolean exportSource, boolean injectIntoAdditionalFolder,
-                                              boolean safeInstrumentation) throws IOException {
+                                              boolean safeInstrumentation, boolean streamBinaryTraces,
+                                              boolean fingerprintValues, boolean countCoverage, boolean basicBlockProbes,
+                                              boolean loadTimeInstrumentation, Set<String> changedEntities, int impactScopeDistance,
+                                              int instrumentationThreads, InstrumentationCache cache) throws IOException {
         assert(v.dataIsComplete());
+        assert(cache == null || !loadTimeInstrumentation);
+        assert(exportSource || !basicBlockProbes);
         assert(!v.getNonInstrumentedDir().exists());
         assert(!v.getHumanReadableBytecodeDir().exists());
+        v.getLoadTimeInstrumentationSettings().delete(); //never keep the settings of a previous run
 
         //create a copy of the compiled source before instrumenting, so that the user has the original files somewhere! :-)
         String compiledSourcesRelativePath = FileUtils.convertToRelativePath(v.getCompiledSourcesDir(), v.getActualExtractedRepo());
         File nonInstrumented = new File(v.getNonInstrumentedDir().getAbsolutePath()+"/"+compiledSourcesRelativePath);
-        nonInstrumented.mkdirs();
         v.getHumanReadableBytecodeDir().mkdirs();
-        FileUtils.copyWithSuffixFromAtoB(v.getCompiledSourcesDir(), nonInstrumented, ".class");
+        if (FileUtils.isArchive(v.getCompiledSourcesDir())){
+            //archives are instrumented in place, the backup is simply a copy of the whole archive
+            nonInstrumented.getParentFile().mkdirs();
+            if (!loadTimeInstrumentation)
+                Files.copy(v.getCompiledSourcesDir().toPath(), nonInstrumented.toPath());
+        } else {
+            nonInstrumented.mkdirs();
+            if (!loadTimeInstrumentation) //nothing on disc will be modified otherwise
+                FileUtils.copyWithSuffixFromAtoB(v.getCompiledSourcesDir(), nonInstrumented, ".class");
+        }
         HashMap<String, List<String>> callGraph = new HashMap<>();
+        //shared by both classpaths, cached classes contain the IDs of the cache's table so it must be used for everything!
+        MethodIdentifierTable methodIdentifierTable = cache != null ? cache.getMethodIdentifierTable() : new MethodIdentifierTable();
+
+        boolean hasAdditionalClasspath = v.getAdditionalCompiledSourcesDir().exists() && !v.getAdditionalCompiledSourcesDir().equals(v.getCompiledSourcesDir())
+                && !v.getAdditionalCompiledSourcesDir().equals(v.getActualExtractedRepo());
+        HashSet<String> methodsToIgnore = v.getSignaturesOfIgnoredMethods();
+        List<File> filesToInstrument = listClassFiles(v, v.getCompiledSourcesDir());
+        List<File> additionalClassFiles = hasAdditionalClasspath ? listClassFiles(v, v.getAdditionalCompiledSourcesDir()) : null;
+
+        /* stack map frames need the common super classes of types used in the code. Reading the headers of all classes
+         * up front allows computing them without loading the code, which would be slow and fail if dependencies are missing */
+        TypeHierarchy typeHierarchy = new TypeHierarchy(v.getClassLoader());
+        addToTypeHierarchy(typeHierarchy, v.getCompiledSourcesDir(), filesToInstrument);
+        if (hasAdditionalClasspath) addToTypeHierarchy(typeHierarchy, v.getAdditionalCompiledSourcesDir(), additionalClassFiles);
+
+        boolean callGraphIsComplete = false;
+        if (changedEntities != null){
+            /* Only the change cone is instrumented, which means we need the call graph beforehand. Everything
+             * that is neither in the cone nor an entry point is treated as if the user had excluded it. */
+            HashSet<String> declaredMethods = new HashSet<>();
+            HashSet<String> entryPoints = new HashSet<>();
+            buildCallGraph(callGraph, declaredMethods, entryPoints, filesToInstrument, v.getCompiledSourcesDir());
+            if (hasAdditionalClasspath)
+                buildCallGraph(callGraph, declaredMethods, entryPoints, additionalClassFiles, v.getAdditionalCompiledSourcesDir());
+            callGraphIsComplete = true;
+
+            HashSet<String> cone = new CallGraph(callGraph).getImpactCone(changedEntities, declaredMethods, impactScopeDistance);
+            methodsToIgnore = new HashSet<>(methodsToIgnore);
+            int outsideOfCone = 0;
+            for (String method : declaredMethods)
+                if (!cone.contains(method) && !entryPoints.contains(method)){
+                    methodsToIgnore.add(method);
+                    ++outsideOfCone;
+                }
+            Tool.printExtraInfo("     - change cone of '"+v.identifier+"' contains "+(declaredMethods.size()-outsideOfCone)+" of "+
+                    declaredMethods.size()+" methods, the others will not be instrumented");
+        }
 
         //start the actual instrumentation
-        List<File> filesToInstrument = FileUtils.listAllFilesInDirectoryAsFile(v.getCompiledSourcesDir(), v.getIgnoredDirectories());
-        Iterator<File> iter = filesToInstrument.iterator();
-        while(iter.hasNext()){
-            File f = iter.next();
-            if (!f.getName().toLowerCase().endsWith(".class") || !FileUtils.isSubDirectoryOrFile(v.getCompiledSourcesDir(), f))
-                iter.remove();
-        }
-        boolean instrumentedAnything = instrument(callGraph, filesToInstrument, v, v.getCompiledSourcesDir(),
-                exportSource, v.getHumanReadableBytecodeDir(), safeInstrumentation);
+        boolean instrumentedAnything = instrument(callGraphIsComplete ? null : callGraph, methodIdentifierTable, filesToInstrument, v,
+                v.getCompiledSourcesDir(), methodsToIgnore, exportSource, v.getHumanReadableBytecodeDir(), safeInstrumentation,
+                basicBlockProbes, !loadTimeInstrumentation, instrumentationThreads, cache, typeHierarchy);
+        boolean instrumentedAnyClasspath = instrumentedAnything;
+        File exportTracesTo =  new File(v.getMainDirectory()+"/observedTrace");
 
         if (instrumentedAnything){
-            //if we instrumented anything, it means we need to provide our coverage observer!
-            File exportTracesTo =  new File(v.getMainDirectory()+"/observedTrace");
-            FileUtils.injectCodeIntoProjectUnderTest(v.getCompiledSourcesDir(), exportTracesTo);
+            //if we instrumented anything, it means we need to provide our coverage observer (the agent brings its own)!
+            if (!loadTimeInstrumentation)
+                FileUtils.injectCodeIntoProjectUnderTest(v.getCompiledSourcesDir(), exportTracesTo, streamBinaryTraces, fingerprintValues,
+                        countCoverage);
         } else {
                 /* Since we did not instrument anything, we can remove the backup! While this will obviously make the tool
                  * attempt recompilation again in the next step, that is still a lot better than trying to execute this
@@ -173,31 +254,32 @@ public class Core {
         }
 
         //if the source code has an additional classpath, basically do the same actions again but for that classpath!
-        if (v.getAdditionalCompiledSourcesDir().exists() && !v.getAdditionalCompiledSourcesDir().equals(v.getCompiledSourcesDir())
-                && !v.getAdditionalCompiledSourcesDir().equals(v.getActualExtractedRepo())){
+        if (hasAdditionalClasspath){
 
             //make certain that the copies are not shared!
             v.getAdditionalNonInstrumentedDir().mkdirs();
             v.getAdditionalHumanReadableBytecodeDir().mkdirs();
-            FileUtils.copyWithSuffixFromAtoB(v.getAdditionalCompiledSourcesDir(), v.getAdditionalNonInstrumentedDir(), ".class");
+            if (!loadTimeInstrumentation){
+                if (FileUtils.isArchive(v.getAdditionalCompiledSourcesDir()))
+                    Files.copy(v.getAdditionalCompiledSourcesDir().toPath(),
+                            new File(v.getAdditionalNonInstrumentedDir(), v.getAdditionalCompiledSourcesDir().getName()).toPath());
+                else FileUtils.copyWithSuffixFromAtoB(v.getAdditionalCompiledSourcesDir(), v.getAdditionalNonInstrumentedDir(), ".class");
+            }
 
             //start the actual instrumentation, DO NOT INCLUDE THIS IN THE CALL GRAPH!!!!
-            filesToInstrument = FileUtils.listAllFilesInDirectoryAsFile(v.getAdditionalCompiledSourcesDir(), v.getIgnoredDirectories());
-            iter = filesToInstrument.iterator();
-            while(iter.hasNext()){
-                File f = iter.next();
-                if (!f.getName().toLowerCase().endsWith(".class") || !FileUtils.isSubDirectoryOrFile(v.getAdditionalCompiledSourcesDir(), f))
-                    iter.remove();
-            }
+            filesToInstrument = listClassFiles(v, v.getAdditionalCompiledSourcesDir());
 
             //instrument the additional files as well, remember that we do not store its call graph!
-            instrumentedAnything = instrument(callGraph, filesToInstrument, v, v.getAdditionalCompiledSourcesDir(),
-                    exportSource, v.getAdditionalHumanReadableBytecodeDir(), safeInstrumentation);
+            instrumentedAnything = instrument(callGraphIsComplete ? null : callGraph, methodIdentifierTable, filesToInstrument, v,
+                    v.getAdditionalCompiledSourcesDir(), methodsToIgnore, exportSource, v.getAdditionalHumanReadableBytecodeDir(),
+                    safeInstrumentation, basicBlockProbes, !loadTimeInstrumentation, instrumentationThreads, cache, typeHierarchy);
+            instrumentedAnyClasspath |= instrumentedAnything;
             if (instrumentedAnything){
-                if (injectIntoAdditionalFolder) {
+                if (injectIntoAdditionalFolder && !loadTimeInstrumentation) {
                     //most of the time, we do not need to inject this code twice but the option exists...
                     File coverageOutput =  new File(v.getMainDirectory()+"/observedTrace");
-                    FileUtils.injectCodeIntoProjectUnderTest(v.getAdditionalNonInstrumentedDir(), coverageOutput);
+                    FileUtils.injectCodeIntoProjectUnderTest(v.getAdditionalNonInstrumentedDir(), coverageOutput, streamBinaryTraces,
+                            fingerprintValues, countCoverage);
                 }
             } else {
                 FileUtils.removeDirectory(v.getAdditionalNonInstrumentedDir());
@@ -208,80 +290,368 @@ public class Core {
         //export call graph!
         CallGraph result = new CallGraph(callGraph);
         File callGraphOutput = new File(v.getMainDirectory(),"callGraph");
-        callGraphOutput.createNewFile(); //overwrite without warning!
-        BufferedWriter writer = new BufferedWriter(new FileWriter(callGraphOutput));
-        writer.write(result.toJSON().toString(Globals.jsonIndentFactor));//store call graph as JSON
-        writer.close();
+        JSONStreamWriter writer = new JSONStreamWriter(callGraphOutput, Globals.jsonIndentFactor); //overwrite without warning!
+        try {
+            result.write(writer);//store call graph as JSON
+        } finally {
+            writer.close();
+        }
 
+        if (loadTimeInstrumentation){
+            if (instrumentedAnyClasspath) {
+                //hand everything the agent needs to know over to it, IDs are assigned by the agent itself
+                new LoadTimeInstrumenter(v, methodsToIgnore, exportTracesTo, streamBinaryTraces, fingerprintValues, countCoverage,
+                        safeInstrumentation, basicBlockProbes)
+                        .exportToFile(v.getLoadTimeInstrumentationSettings());
+                v.createFreshClassLoader(); //JUnit tests run by us need to be instrumented as well
+            }
+        }
+        else //export the IDs used by the probes, without this table the observed IDs cannot be translated back!
+            methodIdentifierTable.exportToFile(new File(v.getMainDirectory(),"methodIdentifiers"));
 
         return result;
     }
 
+    /**
+     * @param v : version the classpath belongs to
+     * @param classpathBase : directory or JAR/ZIP archive containing compiled classes
+     * @return all .class-files inside the directory that are not in an excluded directory, always
+     *         empty for archives since their entries are processed without unpacking them
+     */
+    private static List<File> listClassFiles(Version v, File classpathBase){
+        if (FileUtils.isArchive(classpathBase)) return new ArrayList<>();
+        List<File> files = FileUtils.listAllFilesInDirectoryAsFile(classpathBase, v.getIgnoredDirectories());
+        Iterator<File> iter = files.iterator();
+        while(iter.hasNext()){
+            File f = iter.next();
+            if (!f.getName().toLowerCase().endsWith(".class") || !FileUtils.isSubDirectoryOrFile(classpathBase, f))
+                iter.remove();
+        }
+        return files;
+    }
+
+    /**
+     * Reads .class-files without instrumenting them, only to derive the call graph.
+     *
+     * @param callGraph : container which will be extended by the call graph information
+     * @param declaredMethods : container which will be extended by all methods found
+     * @param entryPoints : container which will be extended by all main methods and JUnit tests
+     * @param files : .class-files to read
+     * @param classpathBase : directory containing these files, or an archive whose classes are read instead
+     * @throws IOException : if any file cannot be accessed
+     */
+    private static void buildCallGraph(final HashMap<String, List<String>> callGraph, final HashSet<String> declaredMethods,
+                                       final HashSet<String> entryPoints, List<File> files, File classpathBase) throws IOException {
+        if (FileUtils.isArchive(classpathBase)){
+            FileUtils.readArchive(classpathBase, new ClassEntryHandler() {
+                @Override
+                public byte[] handle(String entryName, byte[] content) throws IOException {
+                    Instrumenter.updateCallGraph(new ByteArrayInputStream(content), getClassName(entryName),
+                            callGraph, declaredMethods, entryPoints);
+                    return null;
+                }
+            });
+            return;
+        }
+        for (File f : files)
+            Instrumenter.updateCallGraph(new FileInputStream(f), FileUtils.obtainFullyQualifiedNameFromDirectoryStructure(classpathBase, f),
+                    callGraph, declaredMethods, entryPoints);
+    }
+
+    /**
+     * Adds the headers of all classes of a classpath to a type hierarchy.
+     *
+     * @param typeHierarchy : index to extend
+     * @param classpathBase : directory or JAR/ZIP archive containing compiled classes
+     * @param classFiles : .class-files of the directory, ignored for archives
+     * @throws IOException : if any file cannot be accessed
+     */
+    private static void addToTypeHierarchy(final TypeHierarchy typeHierarchy, File classpathBase, List<File> classFiles) throws IOException {
+        if (!FileUtils.isArchive(classpathBase)){
+            typeHierarchy.addAll(classFiles);
+            return;
+        }
+        FileUtils.readArchive(classpathBase, new ClassEntryHandler() {
+            @Override
+            public byte[] handle(String entryName, byte[] content) {
+                try {
+                    typeHierarchy.add(content);
+                } catch (IllegalArgumentException e){
+                    Tool.printDebug(e); //unsupported class file version, looked up on demand instead
+                }
+                return null;
+            }
+        });
+    }
+
+    /** Handles the classes of an archive, ignoring everything in 'META-INF' e.g. versioned classes */
+    private static abstract class ClassEntryHandler implements FileUtils.ArchiveEntryHandler {
+        @Override
+        public boolean accepts(String entryName) {
+            return entryName.toLowerCase().endsWith(".class") && !entryName.startsWith("META-INF/");
+        }
+
+        /** @return the fully qualified name of the class stored in the given entry */
+        protected static String getClassName(String entryName){
+            return entryName.substring(0, entryName.length()-".class".length()).replace("/", ".");
+        }
+    }
+
 
     /**
      * Instrument .class-files to output execution traces.
      *
      * @param callGraph: container which will hold call graph information when this method returns,
      *                   use 'null' to skip call graph generation
+     * @param methodIdentifierTable : assigns the IDs used by the injected probes, shared by all
+     *                                classes of a version
      * @param filesToInstrument : list of files to instrument (non .class entries are skipped)
      * @param version : version to which these files belong to
      * @param classpathBase : directory containing classes to instrument, explicitly not decided
-     *                        through the also provided version
+     *                        through the also provided version. If this is a JAR or ZIP archive,
+     *                        its classes are instrumented in place instead of the given files.
+     * @param methodsToIgnore : methods excluded from instrumentation, see
+     *                          {@link Instrumenter#instrumentClass(InputStream, String, HashSet, MethodIdentifierTable, ClassLoader, boolean)}
      * @param exportSource : set to 'true' to export a human-readable version of the bytecode
      * @param safeInstrumentation : set to 'true' to use a static max-stack increase instead of
      *                              recomputing this value
+     * @param basicBlockProbes : set to 'true' to probe only the first instruction of each basic block,
+     *                           which is only possible if the source is exported as well
+     * @param rewriteClasses : set to 'false' to leave the class files untouched, e.g. because they will be
+     *                         instrumented at load-time. Bytecode is still exported if requested.
+     * @param threads : number of classes to instrument at the same time, the result does not depend on it
+     * @param cache : results of previous instrumentation to reuse, may be 'null'. Must be 'null' if classes
+     *                are not rewritten.
+     * @param typeHierarchy : super classes and interfaces of all classes of the version, used to compute stack map frames
      * @return 'true' if anything was instrumented, false otherwise
      * @throws IOException : if any file cannot be accessed
      */
-    private static boolean instrument(HashMap<String, List<String>> callGraph, List<File> filesToInstrument,
-                                      Version version, File classpathBase, boolean exportSource, File exportTo,
-                                      boolean safeInstrumentation) throws IOException {
-        boolean instrumentedAnything = false;
-
-        for (File f : filesToInstrument){
-            assert(f.getName().toLowerCase().endsWith(".class") );
+    private static boolean instrument(final HashMap<String, List<String>> callGraph, final MethodIdentifierTable methodIdentifierTable,
+                                      final List<File> filesToInstrument,
+                                      final Version version, final File classpathBase, final HashSet<String> methodsToIgnore,
+                                      final boolean exportSource, final File exportTo,
+                                      final boolean safeInstrumentation, final boolean basicBlockProbes,
+                                      final boolean rewriteClasses, int threads,
+                                      final InstrumentationCache cache, final TypeHierarchy typeHierarchy) throws IOException {
+        if (FileUtils.isArchive(classpathBase))
+            return instrumentArchive(callGraph, methodIdentifierTable, version, classpathBase, methodsToIgnore, exportSource,
+                    exportTo, safeInstrumentation, basicBlockProbes, rewriteClasses, cache, typeHierarchy);
+
+        if (threads <= 1 || filesToInstrument.size() < 2){
+            boolean instrumentedAnything = false;
+            for (File f : filesToInstrument)
+                instrumentedAnything |= instrumentClassFile(callGraph, methodIdentifierTable, f, version, classpathBase, methodsToIgnore,
+                        exportSource, exportTo, safeInstrumentation, basicBlockProbes, rewriteClasses, cache, typeHierarchy);
+            return instrumentedAnything;
+        }
 
-            String fullyQualifiedClassName = FileUtils.obtainFullyQualifiedNameFromDirectoryStructure(classpathBase, f);
+        final int amount = filesToInstrument.size();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            /* IDs are handed out in the order in which methods are visited. To end up with exactly the same IDs (and
+             * thus the same bytecode) as a sequential run, the methods of all classes are registered in file order
+             * before any class is instrumented. Only the method headers are read for this, which is cheap. */
+            final String[][] methodsOfClass = new String[amount][];
+            if (rewriteClasses || exportSource)
+                processInParallel(pool, amount, new FileJob() {
+                    @Override
+                    public void process(int index) throws IOException {
+                        File f = filesToInstrument.get(index);
+                        if (!version.isClassToBeIgnored(f.getName().substring(0, f.getName().lastIndexOf("."))))
+                            methodsOfClass[index] = Instrumenter.getMethodsToInstrument(new FileInputStream(f),
+                                    FileUtils.obtainFullyQualifiedNameFromDirectoryStructure(classpathBase, f), methodsToIgnore);
+                    }
+                });
+            for (String[] methods : methodsOfClass)
+                if (methods != null)
+                    for (String method : methods) methodIdentifierTable.getIdOf(method);
+
+            //every class contributes its own fragment of the call graph, merged in file order afterwards
+            final List<HashMap<String, List<String>>> callGraphFragments =
+                    new ArrayList<>(Collections.<HashMap<String, List<String>>>nCopies(amount, null));
+            final boolean[] instrumented = new boolean[amount];
+            processInParallel(pool, amount, new FileJob() {
+                @Override
+                public void process(int index) throws IOException {
+                    HashMap<String, List<String>> fragment = callGraph != null ? new LinkedHashMap<String, List<String>>() : null;
+                    callGraphFragments.set(index, fragment); //each job only writes its own slot
+                    instrumented[index] = instrumentClassFile(fragment, methodIdentifierTable, filesToInstrument.get(index),
+                            version, classpathBase, methodsToIgnore, exportSource, exportTo, safeInstrumentation, basicBlockProbes,
+                            rewriteClasses, cache, typeHierarchy);
+                }
+            });
 
-            if (callGraph != null)
-                //no matter if the class is ignored or not, we will parse its call graph (but not modify it)
-                Instrumenter.updateCallGraph(new FileInputStream(f), fullyQualifiedClassName, callGraph);
+            boolean instrumentedAnything = false;
+            for (int i = 0; i<amount; ++i){
+                instrumentedAnything |= instrumented[i];
+                if (callGraph != null) mergeCallGraph(callGraph, callGraphFragments.get(i));
+            }
+            return instrumentedAnything;
+        } finally {
+            pool.shutdown();
+        }
+    }
 
-            //make sure that this does not fit any suffix or prefix that is to be ignored!
-            if (version.isClassToBeIgnored(f.getName().substring(0, f.getName().lastIndexOf(".")))) {
-                Tool.printExtraInfo("     - skipping instrumentation of '" + fullyQualifiedClassName +
-                        "' since its name matches a pre- or suffix that is to be ignored");
-                continue;
+    /**
+     * Instruments all classes of a JAR or ZIP archive in a single pass without unpacking it, see {@link #instrument(HashMap,
+     * MethodIdentifierTable, List, Version, File, HashSet, boolean, File, boolean, boolean, boolean, int,
+     * InstrumentationCache, TypeHierarchy)} for the parameters. Classes are processed one after another in archive order.
+     *
+     * @return 'true' if anything was instrumented, false otherwise
+     * @throws IOException : if the archive cannot be accessed
+     */
+    private static boolean instrumentArchive(final HashMap<String, List<String>> callGraph, final MethodIdentifierTable methodIdentifierTable,
+                                             final Version version, File archive, final HashSet<String> methodsToIgnore,
+                                             final boolean exportSource, final File exportTo, final boolean safeInstrumentation,
+                                             final boolean basicBlockProbes, final boolean rewriteClasses,
+                                             final InstrumentationCache cache, final TypeHierarchy typeHierarchy) throws IOException {
+        final boolean[] instrumentedAnything = new boolean[]{false};
+        ClassEntryHandler instrumenter = new ClassEntryHandler() {
+            @Override
+            public byte[] handle(String entryName, byte[] content) throws IOException {
+                String fullyQualifiedClassName = getClassName(entryName);
+                InstrumentedClass result = instrumentClassCode(callGraph, methodIdentifierTable, content, fullyQualifiedClassName,
+                        fullyQualifiedClassName.substring(fullyQualifiedClassName.lastIndexOf(".")+1), version, methodsToIgnore,
+                        exportSource, exportTo, safeInstrumentation, basicBlockProbes, rewriteClasses, cache, typeHierarchy);
+                instrumentedAnything[0] |= result.instrumentedAnything;
+                return rewriteClasses ? result.code : null;
             }
+        };
+
+        if (rewriteClasses) FileUtils.rewriteArchive(archive, instrumenter, null);
+        else FileUtils.readArchive(archive, instrumenter);
+        return instrumentedAnything[0];
+    }
+
+    /**
+     * Instruments a single .class-file, see {@link #instrument(HashMap, MethodIdentifierTable, List, Version, File,
+     * HashSet, boolean, File, boolean, boolean, boolean, int, InstrumentationCache, TypeHierarchy)} for the parameters.
+     *
+     * @return 'true' if anything was instrumented, false otherwise
+     * @throws IOException : if the file cannot be accessed
+     */
+    private static boolean instrumentClassFile(HashMap<String, List<String>> callGraph, MethodIdentifierTable methodIdentifierTable,
+                                               File f, Version version, File classpathBase, HashSet<String> methodsToIgnore,
+                                               boolean exportSource, File exportTo, boolean safeInstrumentation,
+                                               boolean basicBlockProbes, boolean rewriteClasses,
+                                               InstrumentationCache cache, TypeHierarchy typeHierarchy) throws IOException {
+        assert(f.getName().toLowerCase().endsWith(".class") );
+        InstrumentedClass result = instrumentClassCode(callGraph, methodIdentifierTable, Files.readAllBytes(f.toPath()),
+                FileUtils.obtainFullyQualifiedNameFromDirectoryStructure(classpathBase, f),
+                f.getName().substring(0, f.getName().lastIndexOf(".")), version, methodsToIgnore, exportSource, exportTo,
+                safeInstrumentation, basicBlockProbes, rewriteClasses, cache, typeHierarchy);
+        if (result.code != null && rewriteClasses)
+            writeClassFile(f, result.code);
+        return result.instrumentedAnything;
+    }
 
-            HashMap<String, ArrayList<String>> sourceCodeContainer = exportSource ? new HashMap<String, ArrayList<String>>() : null;
-            HashMap<String, HashMap<Integer, Integer> > lineMappingContainer = exportSource ? new HashMap<String, HashMap<Integer, Integer>>() : null;
-            HashMap<String, Integer > maxJavaLinesContainer = exportSource ? new HashMap<String, Integer >() : null;
+    /** Outcome of instrumenting a single class */
+    private static class InstrumentedClass {
+        private final byte[] code; //'null' if the class is to be left as it is
+        private final boolean instrumentedAnything;
 
-            //instrument this class:
-            Tool.printExtraInfo("     - instrumenting class '"+fullyQualifiedClassName+"'");
-            byte[] instrumentedCode = exportSource ?
-                    Instrumenter.instrumentClass(new FileInputStream(f), fullyQualifiedClassName, version.getSignaturesOfIgnoredMethods(),
-                            sourceCodeContainer, lineMappingContainer, maxJavaLinesContainer, version.getClassLoader(), safeInstrumentation) :
-                    Instrumenter.instrumentClass(new FileInputStream(f), fullyQualifiedClassName, version.getSignaturesOfIgnoredMethods(),
-                            version.getClassLoader(), safeInstrumentation);
-            if (instrumentedCode!=null){
-                File instrumentedClass = new File(f.toURI());
-                instrumentedClass.createNewFile(); //overwrite old file
+        private InstrumentedClass(byte[] code, boolean instrumentedAnything) {
+            this.code = code;
+            this.instrumentedAnything = instrumentedAnything;
+        }
+    }
 
-                //write the code
-                DataOutputStream dout = new DataOutputStream(new FileOutputStream(instrumentedClass));
-                dout.write(instrumentedCode);
-                dout.close();
+    /**
+     * Instruments the bytecode of a single class, no matter where it is stored. See {@link #instrument(HashMap,
+     * MethodIdentifierTable, List, Version, File, HashSet, boolean, File, boolean, boolean, boolean, int,
+     * InstrumentationCache, TypeHierarchy)} for the other parameters.
+     *
+     * @param originalCode : bytecode of the class as it is on disc
+     * @param fullyQualifiedClassName : name of the class
+     * @param simpleClassName : name of the class without its package, used to decide whether it is ignored
+     * @return the instrumented code, which must only be written back if classes are rewritten
+     * @throws IOException : if exported bytecode or the cache cannot be written
+     */
+    private static InstrumentedClass instrumentClassCode(HashMap<String, List<String>> callGraph, MethodIdentifierTable methodIdentifierTable,
+                                                     byte[] originalCode, String fullyQualifiedClassName, String simpleClassName,
+                                                     Version version, HashSet<String> methodsToIgnore,
+                                                     boolean exportSource, File exportTo, boolean safeInstrumentation,
+                                                     boolean basicBlockProbes, boolean rewriteClasses,
+                                                     InstrumentationCache cache, TypeHierarchy typeHierarchy) throws IOException {
+        assert(cache == null || rewriteClasses);
+        boolean instrumentedAnything = false;
+        boolean classIsIgnored = version.isClassToBeIgnored(simpleClassName);
+
+        String cacheKey = null;
+        String[] methods = null;
+        InstrumentationCache.Entry cached = null;
+        if (cache != null && !classIsIgnored){
+            methods = Instrumenter.getMethodsToInstrument(new ByteArrayInputStream(originalCode), fullyQualifiedClassName,
+                    methodsToIgnore);
+            cacheKey = InstrumentationCache.computeKey(fullyQualifiedClassName, originalCode, methods, exportSource,
+                    safeInstrumentation, basicBlockProbes);
+            cached = cache.lookup(cacheKey, typeHierarchy);
+        }
 
-                //export sources in human-readable form if there are any!
-                if (exportSource && !sourceCodeContainer.isEmpty()) {
-                    instrumentedAnything = true; //we actually instrumented something!
-                    File sourceOutput = new File(exportTo,fullyQualifiedClassName);
-                    sourceOutput.createNewFile();
+        /* No matter if the class is ignored or not, we will parse its call graph (but not modify it). Classes that are
+         * instrumented contribute their call graph in the same pass, everything else is read just for it. */
+        boolean instrumentNow = cached == null && !classIsIgnored && (rewriteClasses || exportSource);
+        LinkedHashMap<String, List<String>> callGraphOfClass = null;
+        if (cached != null){
+            if (callGraph != null) mergeCallGraph(callGraph, cached.getCallGraphEdges());
+        }
+        else if (cacheKey != null)
+            callGraphOfClass = new LinkedHashMap<>(); //needs to be stored in the cache even if we do not need it now
+        else if (callGraph != null && !instrumentNow)
+            Instrumenter.updateCallGraph(new ByteArrayInputStream(originalCode), fullyQualifiedClassName, callGraph);
+
+        //make sure that this does not fit any suffix or prefix that is to be ignored!
+        if (classIsIgnored) {
+            Tool.printExtraInfo("     - skipping instrumentation of '" + fullyQualifiedClassName +
+                    "' since its name matches a pre- or suffix that is to be ignored");
+            return new InstrumentedClass(null, false);
+        }
 
-                    JSONArray methodCodeArray = new JSONArray();
+        if (!rewriteClasses && !exportSource){
+            //will be instrumented when loaded, no need to do anything with it now
+            return new InstrumentedClass(null, true);
+        }
 
+        if (cached != null){
+            Tool.printExtraInfo("     - reusing instrumentation of class '"+fullyQualifiedClassName+"'");
+            if (cached.getBytecodeListing() == null) //same as below, nothing was exported because there was no method
+                return new InstrumentedClass(cached.getInstrumentedCode(), !exportSource);
+            File sourceOutput = new File(exportTo,fullyQualifiedClassName);
+            sourceOutput.createNewFile();
+            BufferedWriter writer = new BufferedWriter(new FileWriter(sourceOutput));
+            writer.write(cached.getBytecodeListing());
+            writer.close();
+            return new InstrumentedClass(cached.getInstrumentedCode(), true);
+        }
+
+        HashMap<String, ArrayList<String>> sourceCodeContainer = exportSource ? new HashMap<String, ArrayList<String>>() : null;
+        HashMap<String, HashMap<Integer, Integer> > lineMappingContainer = exportSource ? new HashMap<String, HashMap<Integer, Integer>>() : null;
+        HashMap<String, Integer > maxJavaLinesContainer = exportSource ? new HashMap<String, Integer >() : null;
+        HashMap<String, ArrayList<Integer>> basicBlockContainer = exportSource && basicBlockProbes ? new HashMap<String, ArrayList<Integer>>() : null;
+
+        //instrument this class:
+        Tool.printExtraInfo("     - instrumenting class '"+fullyQualifiedClassName+"'");
+        List<String[]> commonSuperClassQueries = cacheKey != null ? new ArrayList<String[]>() : null;
+        byte[] instrumentedCode = Instrumenter.instrumentClass(new ByteArrayInputStream(originalCode), fullyQualifiedClassName,
+                methodsToIgnore, methodIdentifierTable, sourceCodeContainer, lineMappingContainer, maxJavaLinesContainer,
+                basicBlockContainer, typeHierarchy, safeInstrumentation, commonSuperClassQueries,
+                callGraphOfClass != null ? callGraphOfClass : callGraph);
+        if (callGraphOfClass != null && callGraph != null)
+            mergeCallGraph(callGraph, callGraphOfClass);
+        String bytecodeListing = null;
+        if (instrumentedCode!=null){
+            //export sources in human-readable form if there are any!
+            if (exportSource && !sourceCodeContainer.isEmpty()) {
+                instrumentedAnything = true; //we actually instrumented something!
+                File sourceOutput = new File(exportTo,fullyQualifiedClassName);
+
+                //each method is written as soon as its listing is complete, the cache needs the whole listing as text though
+                StringWriter listingForCache = cacheKey != null ? new StringWriter() : null;
+                JSONStreamWriter writer = listingForCache != null ?
+                        new JSONStreamWriter(listingForCache, Globals.jsonIndentFactor) :
+                        new JSONStreamWriter(sourceOutput, Globals.jsonIndentFactor);
+                try {
+                    writer.array();
                     for (String method : sourceCodeContainer.keySet()){
                         JSONObject methodObject = new JSONObject();
                         ArrayList<String> source = sourceCodeContainer.get(method);
@@ -324,22 +694,115 @@ public class Core {
                             ++bytecodeLineNumber;
                         }
                         methodObject.put("source", sourceCodeJSON);
-                        methodCodeArray.put(methodObject); //store this method's code!
+                        if (basicBlockContainer != null) //only these instructions were probed, see MethodSource
+                            methodObject.put("basicBlocks", new JSONArray(basicBlockContainer.get(method)));
+                        writer.value(methodObject); //store this method's code!
                     }
-
-                    BufferedWriter writer = new BufferedWriter(new FileWriter(sourceOutput));
-                    writer.write(methodCodeArray.toString(Globals.jsonIndentFactor));//store code as JSON
+                    writer.endArray();
+                } finally {
                     writer.close();
+                }
 
-                } else {
-                        /* Since we have no idea if any method was actually instrumented in this case, we simply need to assume that
-                           we actually DID instrument something which is reasonable. In the worst case, we are making a senseless
-                           backup here :-) */
-                    instrumentedAnything = true;
+                if (listingForCache != null){
+                    bytecodeListing = listingForCache.toString();
+                    BufferedWriter listingWriter = new BufferedWriter(new FileWriter(sourceOutput));
+                    listingWriter.write(bytecodeListing);//store code as JSON
+                    listingWriter.close();
+                }
+
+            } else {
+                    /* Since we have no idea if any method was actually instrumented in this case, we simply need to assume that
+                       we actually DID instrument something which is reasonable. In the worst case, we are making a senseless
+                       backup here :-) */
+                instrumentedAnything = true;
+            }
+
+            if (cacheKey != null){
+                int[] ids = new int[methods.length];
+                for (int i = 0; i<methods.length; ++i) ids[i] = methodIdentifierTable.getIdOf(methods[i]);
+                cache.store(cacheKey, new InstrumentationCache.Entry(methods, ids, instrumentedCode, bytecodeListing,
+                        callGraphOfClass, commonSuperClassQueries));
+            }
+        } else Tool.printError("Instrumentation failed for class '"+fullyQualifiedClassName+"' (class on disc has not been changed)");
+        return new InstrumentedClass(instrumentedCode, instrumentedAnything);
+    }
+
+    /**
+     * Adds the call graph of a single class to the call graph of all classes.
+     *
+     * @param callGraph : call graph to extend
+     * @param callGraphOfClass : edges to add, the lists are taken over and must not be used anymore
+     */
+    private static void mergeCallGraph(HashMap<String, List<String>> callGraph, HashMap<String, List<String>> callGraphOfClass){
+        for (Map.Entry<String, List<String>> e : callGraphOfClass.entrySet()){
+            if (callGraph.containsKey(e.getKey())) callGraph.get(e.getKey()).addAll(e.getValue());
+            else callGraph.put(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * Replaces a .class-file with new code. Other workers may load this class through the version's class loader
+     * while we are writing, so the old file is replaced in one go instead of being overwritten.
+     *
+     * @param f : file to replace
+     * @param code : new content
+     * @throws IOException : if the file cannot be written
+     */
+    private static void writeClassFile(File f, byte[] code) throws IOException {
+        File temporary = new File(f.getPath()+".tmp");
+        Files.write(temporary.toPath(), code);
+        Files.move(temporary.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Work done for a single file (or other element) out of a list, see {@link #processInParallel(ForkJoinPool, int, FileJob)} */
+    private interface FileJob {
+        void process(int index) throws IOException;
+    }
+
+    /** Splits a range of files in halves until every task is left with a single file. */
+    private static class FileRangeTask extends RecursiveAction {
+        private final FileJob job;
+        private final int from;
+        private final int to;
+        private final IOException[] failures;
+
+        private FileRangeTask(FileJob job, int from, int to, IOException[] failures){
+            this.job = job;
+            this.from = from;
+            this.to = to;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1){
+                try {
+                    job.process(from);
+                } catch (IOException e){
+                    failures[from] = e;
                 }
-            } else Tool.printError("Instrumentation failed for class '"+fullyQualifiedClassName+"' (class on disc has not been changed)");
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new FileRangeTask(job, from, middle, failures), new FileRangeTask(job, middle, to, failures));
         }
-        return instrumentedAnything;
+    }
+
+    /**
+     * Processes the files with the given indices on a pool and waits until all of them are done.
+     *
+     * @param pool : pool to use
+     * @param amount : number of files, indices range from 0 to amount-1
+     * @param job : what to do with each file
+     * @throws IOException : the first exception in file order, if any file could not be accessed
+     */
+    private static void processInParallel(ForkJoinPool pool, int amount, FileJob job) throws IOException {
+        IOException[] failures = new IOException[amount];
+        FileRangeTask task = new FileRangeTask(job, 0, amount, failures);
+        if (ForkJoinTask.getPool() == pool) task.invoke(); //already running on that pool, e.g. while processing a file
+        else pool.invoke(task);
+        for (IOException e : failures)
+            if (e != null) throw e;
     }
 
     /**
@@ -410,14 +873,16 @@ public class Core {
             );
 
             assert(!changes.exists());
-            changes.createNewFile();
-            JSONArray array = new JSONArray();
-            for (SyntaxChange s : syntaxChanges){
-                array.put(s.toJSONObject());
+            JSONStreamWriter writer = new JSONStreamWriter(changes, Globals.jsonIndentFactor);
+            try {
+                writer.array();
+                for (SyntaxChange s : syntaxChanges){
+                    writer.value(s.toJSONObject());//store as JSON
+                }
+                writer.endArray();
+            } finally {
+                writer.close();
             }
-            BufferedWriter writer = new BufferedWriter(new FileWriter(changes));
-            writer.write(array.toString(Globals.jsonIndentFactor));//store as JSON
-            writer.close();
             Tool.printExtraInfo("   - exported syntactic changes to file '"+changes.getAbsolutePath()+"'");
 
 
@@ -456,75 +921,145 @@ public class Core {
      *                                        based one. Can be combined with the above
      *                                        which causes both distance and coverage to
      *                                        be computed
+     * @param threads : number of trace files (and traces inside binary trace files) of a version that are imported
+     *                  at the same time, the result does not depend on it
      * @return map containing traces for each version (a version might have 0 traces though)
      */
     public static TreeMap<Version, Trace[]> gatherTraces(Version[] versions, TreeMap<Version,HashMap<String, List<SyntaxChange>>> syntaxChanges,
-                                                         boolean coverageBasedComputation, boolean traceDistanceBasedComputation){
+                                                         boolean coverageBasedComputation, boolean traceDistanceBasedComputation, int threads){
         TreeMap<Version, Trace[]> result = new TreeMap<>();
         MethodData.setCoverageBasedComparison(coverageBasedComputation);
         MethodData.setTraceDistanceBasedComparison(traceDistanceBasedComputation);
 
         for (int i = 0; i<versions.length; ++i){
             Version v = versions[i];
-            assert(v.dataIsComplete());
-            File mainDir = v.getMainDirectory();
-            ArrayList<Trace> tmp = new ArrayList<>();
-
-            int numberOfObservedTracesFiles = 0;
-            File[] files = mainDir.listFiles();
-            Arrays.sort(files); //lexical ordering
-            for (File f : files) {
-                if (f.isFile() && f.getName().startsWith("observedTrace")){
-                    try{
-                        assert(f.exists());
-                        Tool.printExtraInfo("   - starting import of trace '" + f.getName() + "'");
-                        String data = FileUtils.readData(f);
-                        JSONObject o = new JSONObject(data);
-                        JSONArray coverageData = o.getJSONArray("executionTraces");
-                        if (o.has("errors") &&  o.getJSONArray("errors").length() != 0)
-                            Tool.printExtraInfo("   - WARNING: Trace File '"+f.getName()+"' of version '"+v.identifier+"' contains errors!");
-
-                        for (int j = 0; j < coverageData.length(); ++j){
-                            HashMap<String, List<SyntaxChange>> syntaxChangesForVersion;
-                            if (syntaxChanges.containsKey(v)) syntaxChangesForVersion = syntaxChanges.get(v);
-                            else syntaxChangesForVersion = new HashMap<>();
-
-                            JSONObject trace = coverageData.getJSONObject(j);
-                            Trace t = new Trace(v, trace, syntaxChangesForVersion,
-                                    "file"+numberOfObservedTracesFiles+"_trace"+trace.getInt("traceIndex"));
+            HashMap<String, List<SyntaxChange>> syntaxChangesForVersion = syntaxChanges.get(v);
+            if (syntaxChangesForVersion == null) syntaxChangesForVersion = new HashMap<>();
+            //these traces are never released, so the IDs retained by the import are kept for good
+            result.put(v, importTraces(v, syntaxChangesForVersion, "["+(i+1)+"/"+versions.length+"]", threads));
+        }
+        return result;
+    }
 
-                            tmp.add(t); //since were was no exception thus far, this trace is valid and can be processed further...
-                        }
-                    }
-                    catch (JSONException e){
-                        Tool.print("   - import of trace '" + f.getName() + "' for version '"+v.identifier+
-                                "' because the contained JSON is malformed: '"+e.getMessage()+"' ["+(i+1)+"/"+versions.length+"]");
-                    }
-		    catch (Throwable t){
-                        Tool.print("   - import of trace '" + f.getName() + "' for version '"+v.identifier+
-                                "' failed due to '"+t.getMessage()+"' ["+(i+1)+"/"+versions.length+"]");
-                    }
+    /**
+     * Prepares the import of the traces of all given versions without importing anything yet. Traces are
+     * imported as soon as they are requested from the store, which allows to keep only those of the versions
+     * currently compared in memory, see {@link TraceStore}.
+     *
+     * @param versions : versions to construct traces for
+     * @param syntaxChanges : syntax changes for these versions, see {@link #gatherTraces(Version[], TreeMap, boolean, boolean, int)}
+     * @param coverageBasedComputation : see {@link #gatherTraces(Version[], TreeMap, boolean, boolean, int)}
+     * @param traceDistanceBasedComputation : see {@link #gatherTraces(Version[], TreeMap, boolean, boolean, int)}
+     * @param threads : number of trace files (and traces inside binary trace files) of a version that are imported
+     *                  at the same time, the result does not depend on it
+     * @return store providing the traces of each version, the same ones {@link #gatherTraces(Version[], TreeMap, boolean, boolean, int)} yields
+     */
+    public static TraceStore openTraceStore(Version[] versions, TreeMap<Version,HashMap<String, List<SyntaxChange>>> syntaxChanges,
+                                            boolean coverageBasedComputation, boolean traceDistanceBasedComputation, int threads){
+        MethodData.setCoverageBasedComparison(coverageBasedComputation);
+        MethodData.setTraceDistanceBasedComparison(traceDistanceBasedComputation);
+        return new TraceStore(versions, syntaxChanges, threads);
+    }
 
-                    ++numberOfObservedTracesFiles;
-                }
+    /**
+     * Imports all 'observedTrace' files of a single version, exactly like {@link #gatherTraces(Version[], TreeMap, boolean, boolean, int)}
+     * does for all versions. The settings of the trace comparison must have been set already. IDs assigned while
+     * importing are kept until {@link MethodData#releaseIds()} is called for the version.
+     *
+     * @param v : version to construct traces for
+     * @param syntaxChangesForVersion : syntax changes of that version
+     * @param progress : appended to messages, e.g. '[1/3]'
+     * @param threads : number of trace files (and traces inside binary trace files) that are imported at the
+     *                  same time, the result does not depend on it
+     * @return traces of the version, may be empty
+     */
+    public static Trace[] importTraces(final Version v, final HashMap<String, List<SyntaxChange>> syntaxChangesForVersion,
+                                       final String progress, int threads){
+        assert(v.dataIsComplete());
+        MethodData.retainIds();
+        final List<File> traceFiles = getTraceFiles(v);
+        //every file ends up in its own slot, so the order of the traces does not depend on the order of the import
+        final List<List<Trace>> tracesOfFile = new ArrayList<>(Collections.<List<Trace>>nCopies(traceFiles.size(), null));
+        final ForkJoinPool pool = threads > 1 && traceFiles.size() > 0 ? new ForkJoinPool(threads) : null;
+        FileJob job = new FileJob() {
+            @Override
+            public void process(int index) throws IOException {
+                tracesOfFile.set(index, importTraceFile(traceFiles.get(index), v, syntaxChangesForVersion, "file"+index, progress));
             }
+        };
+        try{
+            if (pool == null)
+                for (int i = 0; i<traceFiles.size(); ++i) job.process(i);
+            else processInParallel(pool, traceFiles.size(), job);
+        } catch (IOException e){
+            throw new IllegalStateException(e); //cannot happen, failures are reported for each file
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
 
-            if (tmp != null){
-                if (tmp.isEmpty()){
-                    Tool.print("   - no traces found for version '"+v.identifier+"' ["+(i+1)+"/"+versions.length+"]");
-                    result.put(v, new Trace[0]);
-                }
-                else{
-                    Tool.print("   - obtained " + tmp.size()+" trace"+(tmp.size()==1?"":"s")
-                            +" for version '"+v.identifier+"'["+(i+1)+"/"+versions.length+"] ");
-                    result.put(v, tmp.toArray(new Trace[tmp.size()]));
-                }
-            } //else import failed!
+        ArrayList<Trace> tmp = new ArrayList<>();
+        for (List<Trace> traces : tracesOfFile)
+            tmp.addAll(traces);
+        if (tmp.isEmpty())
+            Tool.print("   - no traces found for version '"+v.identifier+"' "+progress);
+        else Tool.print("   - obtained " + tmp.size()+" trace"+(tmp.size()==1?"":"s")+" for version '"+v.identifier+"'"+progress+" ");
+        return tmp.toArray(new Trace[tmp.size()]);
+    }
 
-        }
+    /**
+     * @param v : any version
+     * @return all 'observedTrace' files of the version, in lexical order
+     */
+    private static List<File> getTraceFiles(Version v){
+        List<File> result = new ArrayList<>();
+        File[] files = v.getMainDirectory().listFiles();
+        Arrays.sort(files); //lexical ordering
+        for (File f : files)
+            if (f.isFile() && f.getName().startsWith("observedTrace"))
+                result.add(f);
         return result;
     }
 
+    /**
+     * Imports a single 'observedTrace' file. Import errors are reported but do not stop the import, all
+     * traces read before the error occurred are kept.
+     *
+     * @param f : file to import
+     * @param v : version the file belongs to
+     * @param syntaxChangesForVersion : syntax changes of that version
+     * @param fileIdentifier : prefix for the identifiers of the traces in this file, e.g. 'file0'
+     * @param progress : appended to messages, e.g. '[1/3]'
+     * @return traces inside this file, in order
+     */
+    private static List<Trace> importTraceFile(File f, Version v, HashMap<String, List<SyntaxChange>> syntaxChangesForVersion,
+                                               String fileIdentifier, String progress){
+        List<Trace> tmp = new ArrayList<>();
+        try{
+            assert(f.exists());
+            Tool.printExtraInfo("   - starting import of trace '" + f.getName() + "'");
+
+            List<String> errors = new ArrayList<>();
+            if (BinaryTraceReader.isBinaryTrace(f)){
+                //was streamed to disk during execution, decoded straight from the file as well
+                BinaryTraceReader.readTraces(f, v, syntaxChangesForVersion, fileIdentifier, tmp, errors);
+            } else {
+                //read straight from the file, trace files can be way too large to hold them in memory as JSON
+                JSONTraceReader.readTraces(f, v, syntaxChangesForVersion, fileIdentifier, tmp, errors);
+            }
+            if (!errors.isEmpty())
+                Tool.printExtraInfo("   - WARNING: Trace File '"+f.getName()+"' of version '"+v.identifier+"' contains errors!");
+        }
+        catch (JSONException e){
+            Tool.print("   - import of trace '" + f.getName() + "' for version '"+v.identifier+
+                    "' because the contained JSON is malformed: '"+e.getMessage()+"' "+progress);
+        }
+        catch (Throwable t){
+            Tool.print("   - import of trace '" + f.getName() + "' for version '"+v.identifier+
+                    "' failed due to '"+t.getMessage()+"' "+progress);
+        }
+        return tmp;
+    }
+
     /**
      * Matches all traces from two versions onto each other, which yields trace divergences.
      *
@@ -536,11 +1071,14 @@ public class Core {
      *            file, aka the parameter above is 'true'.
      * @param filterObjectCharacteristic : 'true' to filter out parameter and return value divergences
      *                                     if their string representation contains the '@' character
+     * @param threads : number of trace pairs (and large parts of them) that are compared at the same time,
+     *                  the result does not depend on it
      * @return list containing for each newer trace, either a list of divergences (which may be empty) or
      *         'null' if this trace could not be matched to any of the older ones
      */
-    public static ArrayList<List<TraceDivergence>> obtainTraceDivergences(Trace[] tracesInNew, Trace[] tracesInOld,
-                                                                          boolean lookForMatchFile, Version v, boolean filterObjectCharacteristic) {
+    public static ArrayList<List<TraceDivergence>> obtainTraceDivergences(final Trace[] tracesInNew, final Trace[] tracesInOld,
+                                                                          boolean lookForMatchFile, Version v,
+                                                                          final boolean filterObjectCharacteristic, int threads) {
         ArrayList<List<TraceDivergence>> differencesByNewerTrace = new ArrayList<>(Math.max(tracesInOld.length, tracesInNew.length));
 
         /* First, use our MethodCall Matcher to match traces onto another by their entry function. Note that this basically
@@ -605,11 +1143,14 @@ public class Core {
         }
 
 
-        /** Compute Divergences! */
-        int matched = 0;
-        for (int indexOfTraceInNew = 0; indexOfTraceInNew < traceMatching.length; ++indexOfTraceInNew) {
-            int indexOfTraceInOld = traceMatching[indexOfTraceInNew];
-            if (indexOfTraceInOld != Integer.MIN_VALUE) {
+        /** Compute Divergences! Every pair of traces is independent of all others and has its own slot. */
+        final int[] matching = traceMatching;
+        final List<List<TraceDivergence>> divergencesOfPair =
+                new ArrayList<>(Collections.<List<TraceDivergence>>nCopies(matching.length, null));
+        FileJob job = new FileJob() {
+            @Override
+            public void process(int indexOfTraceInNew) {
+                int indexOfTraceInOld = matching[indexOfTraceInNew];
                 Trace newTrace = tracesInNew[indexOfTraceInNew];
                 Trace oldTrace = tracesInOld[indexOfTraceInOld];
                 Tool.printExtraInfo("        -> comparing newer " + newTrace.getTraceIdentifier() + " to "
@@ -618,13 +1159,46 @@ public class Core {
                 if (Tool.isExtraInfoEnabled() && divergences.isEmpty())
                     Tool.printExtraInfo("        -> found " + divergences.size() + " divergences between these traces");
                 else Tool.printExtraInfo("        -> traces " + divergences.size() + " are identical, no divergences detected");
-                differencesByNewerTrace.add(divergences);
-                matched++; //remember this for output
-            } else {
-                /** Could not be matched! This happens. Rather than comparing incomparable data, we decide to report
-                 *   these further down below, it makes no sense anyway... */
-                differencesByNewerTrace.add(null /* to differentiate from 'did not find anything */);
+                divergencesOfPair.set(indexOfTraceInNew, divergences);
             }
+        };
+
+        int matched = 0;
+        for (int indexOfTraceInOld : matching)
+            if (indexOfTraceInOld != Integer.MIN_VALUE) ++matched; //remember this for output
+        try {
+            if (threads <= 1 || matched < 1){
+                for (int indexOfTraceInNew = 0; indexOfTraceInNew < matching.length; ++indexOfTraceInNew)
+                    if (matching[indexOfTraceInNew] != Integer.MIN_VALUE) job.process(indexOfTraceInNew);
+            }
+            else {
+                //large traces are split up further while they are compared, so a single pair is worth a pool already
+                final int[] matchedPairs = new int[matched];
+                int k = 0;
+                for (int indexOfTraceInNew = 0; indexOfTraceInNew < matching.length; ++indexOfTraceInNew)
+                    if (matching[indexOfTraceInNew] != Integer.MIN_VALUE) matchedPairs[k++] = indexOfTraceInNew;
+
+                final FileJob pairJob = job;
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    processInParallel(pool, matched, new FileJob() {
+                        @Override
+                        public void process(int index) throws IOException {
+                            pairJob.process(matchedPairs[index]);
+                        }
+                    });
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        } catch (IOException e){
+            throw new IllegalStateException(e); //cannot happen, comparisons do not access any files
+        }
+
+        for (int indexOfTraceInNew = 0; indexOfTraceInNew < matching.length; ++indexOfTraceInNew){
+            /** Could not be matched if 'null'! This happens. Rather than comparing incomparable data, we decide to report
+             *   these further down below, it makes no sense anyway... */
+            differencesByNewerTrace.add(divergencesOfPair.get(indexOfTraceInNew) /* 'null' to differentiate from 'did not find anything */);
         }
 
         if (matched != 0) {
@@ -642,23 +1216,25 @@ public class Core {
 
 
 
-    private static final HashMap<Version, HashMap<String, MethodSource>> sourceLookupCache = new HashMap<>();
+    private static final ConcurrentHashMap<Version, ConcurrentHashMap<String, MethodSource>> sourceLookupCache = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Version, ConcurrentHashMap<String, MethodSource>> injectedSources = new ConcurrentHashMap<>(); //cannot be loaded again
     /**
      * Returns the sources of a given class if that source is available for the given version. Does cache,
-     * so repeated requests are efficient and not limited by FileIO.
+     * so repeated requests are efficient and not limited by FileIO. May be called concurrently, all callers
+     * obtain the same instance for the same method.
      *
      * @param version : version to lookup sources for
      * @param fullyQualifiedMethodName : class to obtain sources of
      * @return 'null' or the requested sources
      */
     public static MethodSource lookupSources(Version version, String fullyQualifiedMethodName) {
-        HashMap<String, MethodSource> source = sourceLookupCache.get(version);
+        ConcurrentHashMap<String, MethodSource> source = sourceLookupCache.get(version);
         String className = fullyQualifiedMethodName.substring(0,fullyQualifiedMethodName.lastIndexOf("."));
 
         if (source == null){
-            HashMap<String, MethodSource> newCache = new HashMap<>();
-            sourceLookupCache.put(version, newCache);
-            source = newCache;
+            ConcurrentHashMap<String, MethodSource> newCache = new ConcurrentHashMap<>();
+            source = sourceLookupCache.putIfAbsent(version, newCache);
+            if (source == null) source = newCache;
         }
 
 
@@ -675,7 +1251,7 @@ public class Core {
                         JSONArray a = new JSONArray(data);
                         for (int j = 0; j < a.length(); ++j) {
                             MethodSource methodSource = new MethodSource(a.getJSONObject(j));
-                            source.put(methodSource.identifier, methodSource);
+                            source.putIfAbsent(methodSource.identifier, methodSource); //another thread may have been faster
                         }
 
                         //now, the method should be present
@@ -695,6 +1271,20 @@ public class Core {
         }
     }
 
+    /**
+     * Drops the cached sources of a version, e.g. once its traces have been released. Invocations that have
+     * been imported already keep their sources, they are looked up again if traces of the version are imported
+     * again. Sources injected by {@link #DEBUG_ONLY_injectSourceCode(Version, String, MethodSource)} do not exist
+     * on disk and are therefore kept.
+     *
+     * @param version : version to drop the sources of
+     */
+    public static void releaseSources(Version version) {
+        ConcurrentHashMap<String, MethodSource> injected = injectedSources.get(version);
+        if (injected == null) sourceLookupCache.remove(version);
+        else sourceLookupCache.put(version, new ConcurrentHashMap<>(injected));
+    }
+
 
 
 
@@ -759,10 +1349,12 @@ public class Core {
     /** Only used for scaffolding testing and debugging purposes, DO NOT CALL THIS METHOD UNLESS YOU ARE THE
      *  AUTHOR OF THIS TOOL AND KNOW EXACTLY WHAT YOU ARE DOING! User, you have been warned! Take care. */
     public static void DEBUG_ONLY_injectSourceCode(Version v, String methodIdentifier, MethodSource source){
+        if (!injectedSources.containsKey(v)) injectedSources.put(v, new ConcurrentHashMap<String, MethodSource>());
+        injectedSources.get(v).put(methodIdentifier, source);
         if (sourceLookupCache.containsKey(v)){
             sourceLookupCache.get(v).put(methodIdentifier,source);
         }else {
-            HashMap<String, MethodSource> h = new HashMap<>();
+            ConcurrentHashMap<String, MethodSource> h = new ConcurrentHashMap<>();
             h.put(methodIdentifier, source);
             sourceLookupCache.put(v,h);
         }
@@ -789,11 +1381,11 @@ public class Core {
 
         //then, get the compiled sources :
         if (binFolder.exists()){
-            if (binFolder.isDirectory()){
+            if (binFolder.isDirectory() || FileUtils.isArchive(binFolder)){
                 return binFolder;
             }
             else{
-                String s = "Path to compiled sources is invalid, '"+binFolder.getAbsolutePath()+"' is not a directory (or compilation failed)!";
+                String s = "Path to compiled sources is invalid, '"+binFolder.getAbsolutePath()+"' is neither a directory nor a JAR/ZIP archive (or compilation failed)!";
                 Tool.printError(s);
                 throw new IllegalArgumentException(s);
             }
@@ -854,6 +1446,7 @@ public class Core {
                     FileUtils.removeDirectory(v.getAdditionalNonInstrumentedDir()); //dito
 
                     new File(v.getMainDirectory(),"callGraph").delete(); //delete the CallGraph file
+                    v.getLoadTimeInstrumentationSettings().delete(); //dito for the settings of our Java agent
 
                 } else {
                     Tool.print("   - detected that instrumented sources for this version are already present! Skipping compilation of version!");
@@ -12,6 +12,7 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -50,27 +51,26 @@ public class NewClassDetection {
                     String packageName = FileUtils.obtainPackageNameFromJava(newClassFileInSourceFolder);
                     String tmp = packageName;
                     tmp = tmp.replace(".", "/");
-                    String pathToCompiledPackage = v.getCompiledSourcesDir().getAbsolutePath()+"/"+tmp;
 
                     /* Now, go through all the files in that package and scan if there are new ones related to the new class,
                      * this is necessary to also obtain new inner classes, which will only be visible as '.class' files with '$'
                      * characters in their name. Alternative would be to scan the Java-Code of course, but sadly ChangeDistiller
                      * can only compare classes and now analyze new ones. I will not start using another framework just for
                      * this use case.*/
-                    File packageFile =  new File(pathToCompiledPackage);
+                    List<String> filesInPackage = listPackage(v.getCompiledSourcesDir(), tmp);
                     String publicClassName = newClassFileInSourceFolder.getName(); //simply use the file
 
-                    if (packageFile.exists()) {
+                    if (filesInPackage != null) {
                         publicClassName = publicClassName.substring(0, publicClassName.indexOf(".")); //we want the name only
                         /* TODO: this does not support the HORRIBLE practice of having multiple classes in the same file (which is
                          * valid java for some reason). Since ChangeDistiller does not support multiple classes in one file either
                          * however and this class implements functionality to complement Change Distiller, it is at least a
                          * consistently missing feature! */
 
-                        for (File f : packageFile.listFiles()) {
-                            if (f.getName().startsWith(publicClassName) //inner classes will look like 'ClassName$InnerClassName.class'
-                                    && f.getName().toLowerCase().endsWith(".class")) {
-                                String fullyQualifiedName = packageName + "." + f.getName().substring(0, f.getName().indexOf("."));
+                        for (String f : filesInPackage) {
+                            if (f.startsWith(publicClassName) //inner classes will look like 'ClassName$InnerClassName.class'
+                                    && f.toLowerCase().endsWith(".class")) {
+                                String fullyQualifiedName = packageName + "." + f.substring(0, f.indexOf("."));
 
                                 //load the class and create the target
                                 Class<?> clazz = v.loadClass(fullyQualifiedName);
@@ -95,4 +95,35 @@ public class NewClassDetection {
 
         return newClasses;
     }
+
+    /**
+     * @param compiledSources : classpath directory or JAR/ZIP archive
+     * @param packagePath : package as a relative path, e.g. 'a/b'
+     * @return names of all files directly inside the package or 'null' if it cannot be found
+     * @throws IOException : if the archive cannot be read
+     */
+    private static List<String> listPackage(File compiledSources, String packagePath) throws IOException {
+        List<String> names = new LinkedList<>();
+        if (FileUtils.isArchive(compiledSources)){
+            final String prefix = packagePath.isEmpty() ? "" : packagePath+"/";
+            final List<String> found = names;
+            FileUtils.readArchive(compiledSources, new FileUtils.ArchiveEntryHandler() {
+                @Override
+                public boolean accepts(String entryName) {
+                    if (entryName.startsWith(prefix) && entryName.indexOf('/', prefix.length()) < 0)
+                        found.add(entryName.substring(prefix.length()));
+                    return false; //the names are all we need
+                }
+
+                @Override
+                public byte[] handle(String entryName, byte[] content) { return null; }
+            });
+            return names.isEmpty() ? null : names;
+        }
+
+        File packageFile = new File(compiledSources.getAbsolutePath()+"/"+packagePath);
+        if (!packageFile.exists()) return null;
+        for (File f : packageFile.listFiles()) names.add(f.getName());
+        return names;
+    }
 }
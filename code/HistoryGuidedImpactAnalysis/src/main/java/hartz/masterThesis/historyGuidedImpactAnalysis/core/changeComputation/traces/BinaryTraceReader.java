@@ -0,0 +1,386 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.BinaryTraceOutput;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.NotReturnedYetSingleton;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.ObservedMethod;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.OpcodeTranslator;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Imports trace files written in streaming mode (see {@link BinaryTraceOutput}). The records of each thread
+ * are decoded straight from the chunks in the file, one chunk at a time, and every method invocation becomes
+ * {@link MethodData} as soon as it has returned, just like {@link JSONTraceReader} does it for JSON files.
+ * Files cut short, e.g. because the observed program was killed, are read as far as possible; methods
+ * without a RETURN record are treated like methods that have not returned.
+ */
+public class BinaryTraceReader {
+
+   /**
+    * @param f : any file
+    * @return 'true' if the given file has been written in streaming mode
+    * @throws IOException if the file cannot be read
+    */
+   public static boolean isBinaryTrace(File f) throws IOException {
+      if (f.length() < 8) return false;
+      DataInputStream in = new DataInputStream(new FileInputStream(f));
+      try{
+         return in.readInt() == BinaryTraceOutput.MAGIC;
+      } finally {
+         in.close();
+      }
+   }
+
+   /**
+    * Reads all execution traces of a trace file written in streaming mode.
+    *
+    * @param f : file to read
+    * @param version : version the traces belong to
+    * @param syntaxChanges : map of all syntax changes of this version
+    * @param identifierPrefix : traces are named after it and their index, e.g. 'file0' yields 'file0_trace1'
+    * @param traces : all traces are added to this list, ordered by the time they were started at
+    * @param errors : errors reported by the observer or found while reading are added to this list
+    * @throws IOException if the file cannot be read or is not a streamed trace file
+    */
+   public static void readTraces(File f, final Version version, final HashMap<String, List<SyntaxChange>> syntaxChanges,
+                                 String identifierPrefix, List<Trace> traces, List<String> errors) throws IOException {
+      TreeMap<Long, MethodData> entryPoints = decode(f, new InvocationFactory<MethodData>() {
+         @Override
+         public MethodData create(String identifier, JSONArray parameters, JSONObject returned, List<Object> trace){
+            return new MethodData(version, identifier, ObservedMethod.getTypeOf(identifier), parameters, returned,
+                    "---", trace, null, syntaxChanges);
+         }
+      }, errors);
+
+      int traceIndex = 0;
+      for (MethodData entryPoint : entryPoints.values())
+         traces.add(new Trace(version, entryPoint, identifierPrefix+"_trace"+(++traceIndex)));
+   }
+
+   /**
+    * Reads a trace file written in streaming mode into JSON, for inspecting such a file. Use
+    * {@link #readTraces(File, Version, HashMap, String, List, List)} to import it instead, this
+    * holds the whole trace in memory as JSON.
+    *
+    * @param f : file to read
+    * @return the traces as JSON, exactly like they would have been exported by the non-streaming observer
+    * @throws IOException if the file cannot be read or is not a streamed trace file
+    */
+   public static JSONObject readTrace(File f) throws IOException {
+      List<String> errors = new ArrayList<>();
+      TreeMap<Long, JSONObject> entryPoints = decode(f, new InvocationFactory<JSONObject>() {
+         @Override
+         public JSONObject create(String identifier, JSONArray parameters, JSONObject returned, List<Object> trace){
+            JSONObject method = new JSONObject();
+            method.put("type", ObservedMethod.getTypeOf(identifier));
+            method.put("called", identifier);
+            method.put("calledWithParameters", parameters);
+            method.put("trace", new JSONArray(trace));
+            method.put("returned", returned);
+            return method;
+         }
+      }, errors);
+
+      JSONArray executionTraces = new JSONArray();
+      int traceIndex = 0;
+      for (JSONObject entryPoint : entryPoints.values()){
+         entryPoint.put("traceIndex", ++traceIndex);
+         executionTraces.put(entryPoint);
+      }
+
+      JSONObject result = new JSONObject();
+      result.put("executionTraces", executionTraces);
+      if (!errors.isEmpty())
+         result.put("errors", new JSONArray(errors));
+      return result;
+   }
+
+   /** Turns a method invocation that has been read completely into whatever the caller wants to have */
+   private interface InvocationFactory<T> {
+      T create(String identifier, JSONArray parameters, JSONObject returned, List<Object> trace);
+   }
+
+   /**
+    * Decodes all records of a file, one thread after another.
+    *
+    * @return entry points ordered globally by their sequence number
+    */
+   private static <T> TreeMap<Long, T> decode(File f, InvocationFactory<T> factory, List<String> errors) throws IOException {
+      TreeMap<Long, T> entryPoints = new TreeMap<>();
+      RandomAccessFile in = new RandomAccessFile(f, "r");
+      try{
+         LinkedHashMap<Integer, Chunks> chunksOfThreads = indexChunks(f, in, errors);
+
+         int largestChunk = 0;
+         for (Chunks c : chunksOfThreads.values())
+            for (int i = 0; i<c.amount; ++i)
+               largestChunk = Math.max(largestChunk, c.lengths[i]);
+         byte[] buffer = new byte[largestChunk]; //shared since threads are decoded one after another
+
+         for (Map.Entry<Integer, Chunks> e : chunksOfThreads.entrySet()){
+            if (e.getKey() == BinaryTraceOutput.errorThreadNumber) continue;
+            decodeThread(e.getKey(), new Records(in, e.getValue(), buffer), factory, entryPoints, errors);
+         }
+         Chunks errorChunks = chunksOfThreads.get(BinaryTraceOutput.errorThreadNumber);
+         if (errorChunks != null)
+            decodeThread(BinaryTraceOutput.errorThreadNumber, new Records(in, errorChunks, buffer), factory, entryPoints, errors);
+      } finally {
+         in.close();
+      }
+      return entryPoints;
+   }
+
+   /**
+    * Finds out where the chunks of each thread are stored, without reading their content.
+    *
+    * @return chunks of each thread, in the order in which the threads appear in the file
+    */
+   private static LinkedHashMap<Integer, Chunks> indexChunks(File f, RandomAccessFile in, List<String> errors) throws IOException {
+      LinkedHashMap<Integer, Chunks> chunksOfThreads = new LinkedHashMap<>();
+      long fileLength = in.length();
+      if (fileLength < 8 || in.readInt() != BinaryTraceOutput.MAGIC)
+         throw new IOException("'"+f.getAbsolutePath()+"' is not a binary trace file!");
+      int version = in.readInt();
+      if (version != BinaryTraceOutput.FORMAT_VERSION)
+         throw new IOException("'"+f.getAbsolutePath()+"' has unsupported format version "+version+"!");
+
+      long position = 8;
+      while (position < fileLength){
+         if (fileLength - position < 8){
+            errors.add("Trace file ends unexpectedly, the last chunk has been dropped!");
+            break;
+         }
+         in.seek(position);
+         int threadNumber = in.readInt();
+         int length = in.readInt();
+         if (length < 0)
+            throw new IOException("'"+f.getAbsolutePath()+"' is corrupted, found chunk of negative length!");
+         if (fileLength - position - 8 < length){
+            errors.add("Trace file ends unexpectedly, the last chunk has been dropped!");
+            break;
+         }
+
+         Chunks chunks = chunksOfThreads.get(threadNumber);
+         if (chunks == null){
+            chunks = new Chunks();
+            chunksOfThreads.put(threadNumber, chunks);
+         }
+         chunks.add(position + 8, length);
+         position += 8 + length;
+      }
+      return chunksOfThreads;
+   }
+
+   /** A method that has been entered but has not returned yet */
+   private static class Frame {
+      private final String identifier;
+      private final JSONArray parameters;
+      private final long sequence; //only for entry points, -1 otherwise
+      private final List<Object> trace;
+
+      private Frame(String identifier, JSONArray parameters, long sequence){
+         this.identifier = identifier;
+         this.parameters = parameters;
+         this.sequence = sequence;
+         this.trace = new ArrayList<>();
+      }
+   }
+
+   private static <T> void decodeThread(int threadNumber, Records r, InvocationFactory<T> factory,
+                                        TreeMap<Long, T> entryPoints, List<String> errors){
+      HashMap<Integer, String> identifiers = new HashMap<>();
+      ArrayDeque<Frame> callstack = new ArrayDeque<>();
+
+      try{
+         while (r.hasMore()){
+            byte tag = r.readByte();
+            switch (tag){
+               case BinaryTraceOutput.TAG_DEFINE: {
+                  int methodId = (int) r.readVarLong();
+                  identifiers.put(methodId, r.readString());
+                  break;
+               }
+               case BinaryTraceOutput.TAG_ENTER_ROOT:
+               case BinaryTraceOutput.TAG_ENTER: {
+                  int methodId = (int) r.readVarLong();
+                  long sequence = tag == BinaryTraceOutput.TAG_ENTER_ROOT ? r.readVarLong() : -1;
+                  String identifier = identifiers.get(methodId);
+                  if (identifier == null)
+                     throw new IOException("method ID "+methodId+" has not been defined");
+
+                  JSONArray parameters = new JSONArray();
+                  long amount = r.readVarLong();
+                  for (long i = 0; i<amount; ++i)
+                     parameters.put(new JSONObject(r.readString()));
+
+                  if (tag == BinaryTraceOutput.TAG_ENTER_ROOT){
+                     if (!callstack.isEmpty())
+                        throw new IOException("new execution trace started inside '"+callstack.peek().identifier+"'");
+                  } else {
+                     if (callstack.isEmpty())
+                        throw new IOException("call to '"+identifier+"' without observed caller");
+                  }
+                  callstack.push(new Frame(identifier, parameters, sequence));
+                  break;
+               }
+               case BinaryTraceOutput.TAG_INSTRUCTION: {
+                  int opcode = r.readByte() & 0xFF;
+                  long bytecodeIndex = r.readVarLong();
+                  if (callstack.isEmpty())
+                     throw new IOException("instruction executed outside of any observed method");
+                  callstack.peek().trace.add("["+bytecodeIndex+"]> "+OpcodeTranslator.getInstructionStr(opcode));
+                  break;
+               }
+               case BinaryTraceOutput.TAG_RETURN: {
+                  String returned = r.readString();
+                  if (callstack.isEmpty())
+                     throw new IOException("return outside of any observed method");
+                  finish(callstack, new JSONObject(returned), factory, entryPoints);
+                  break;
+               }
+               case BinaryTraceOutput.TAG_ERROR: {
+                  errors.add(r.readString());
+                  break;
+               }
+               default:
+                  throw new IOException("unknown record tag "+tag);
+            }
+         }
+      }
+      catch (EOFException e){
+         errors.add("Records of thread "+threadNumber+" end unexpectedly, the execution was still being recorded when the file was closed!");
+      }
+      catch (IOException e){
+         errors.add("Records of thread "+threadNumber+" are corrupted and have been read partially: "+e.getMessage());
+      }
+
+      //just like in the non-streaming mode, methods that have not returned still have a return value
+      while (!callstack.isEmpty()){
+         JSONObject notReturned = new JSONObject();
+         notReturned.put("stringRepresentation", NotReturnedYetSingleton.getInstance().toString());
+         finish(callstack, notReturned, factory, entryPoints);
+      }
+   }
+
+   /** Completes the method on top of the stack, it becomes part of its caller's trace or an entry point */
+   private static <T> void finish(ArrayDeque<Frame> callstack, JSONObject returned, InvocationFactory<T> factory,
+                                  TreeMap<Long, T> entryPoints){
+      Frame frame = callstack.pop();
+      T method = factory.create(frame.identifier, frame.parameters, returned, frame.trace);
+      if (callstack.isEmpty()) entryPoints.put(frame.sequence, method);
+      else callstack.peek().trace.add(method); //nothing else has been added to the caller's trace in the meantime
+   }
+
+   /**
+    * Positions of all chunks of a single thread inside the file.
+    */
+   private static class Chunks {
+      private long[] offsets = new long[16];
+      private int[] lengths = new int[16];
+      private int amount = 0;
+
+      private void add(long offset, int length){
+         if (amount == offsets.length){
+            long[] largerOffsets = new long[amount*2];
+            System.arraycopy(offsets, 0, largerOffsets, 0, amount);
+            offsets = largerOffsets;
+            int[] largerLengths = new int[amount*2];
+            System.arraycopy(lengths, 0, largerLengths, 0, amount);
+            lengths = largerLengths;
+         }
+         offsets[amount] = offset;
+         lengths[amount] = length;
+         ++amount;
+      }
+   }
+
+   /**
+    * Cursor over the records of a single thread, reads its chunks from the file one after another. Records
+    * may span several chunks.
+    */
+   private static class Records {
+      private final RandomAccessFile in;
+      private final Chunks chunks;
+      private final byte[] data;
+      private int nextChunk;
+      private int readAt;
+      private int available;
+      private long remaining; //bytes not read yet, including those of later chunks
+
+      private Records(RandomAccessFile in, Chunks chunks, byte[] buffer){
+         this.in = in;
+         this.chunks = chunks;
+         this.data = buffer;
+         this.nextChunk = 0;
+         this.readAt = 0;
+         this.available = 0;
+         this.remaining = 0;
+         for (int i = 0; i<chunks.amount; ++i)
+            remaining += chunks.lengths[i];
+      }
+
+      private boolean hasMore() throws IOException {
+         while (readAt == available){
+            if (nextChunk == chunks.amount) return false;
+            in.seek(chunks.offsets[nextChunk]);
+            available = chunks.lengths[nextChunk];
+            in.readFully(data, 0, available);
+            readAt = 0;
+            ++nextChunk;
+         }
+         return true;
+      }
+
+      private byte readByte() throws IOException {
+         if (!hasMore()) throw new EOFException();
+         --remaining;
+         return data[readAt++];
+      }
+
+      private long readVarLong() throws IOException {
+         long value = 0;
+         int shift = 0;
+         byte b;
+         do {
+            if (shift > 63) throw new IOException("malformed number");
+            b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+         } while ((b & 0x80) != 0);
+         return value;
+      }
+
+      private String readString() throws IOException {
+         long length = readVarLong();
+         if (length > remaining) throw new EOFException();
+         byte[] bytes = new byte[(int) length];
+         int copied = 0;
+         while (copied < bytes.length){
+            hasMore();
+            int amount = Math.min(bytes.length - copied, available - readAt);
+            System.arraycopy(data, readAt, bytes, copied, amount);
+            readAt += amount;
+            copied += amount;
+         }
+         remaining -= length;
+         return new String(bytes, "UTF-8");
+      }
+   }
+}
@@ -0,0 +1,324 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.divergences.*;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * Persistent store of the trace divergences of a version, kept in a binary file inside its directory. The
+ * divergences only depend on the traces, syntactic changes, method identifiers and bytecode listings of the
+ * version and the one it is compared against and on the settings of the comparison. As long as none of these change, e.g. when only testing
+ * targets are generated again, the divergences are taken from here instead of comparing all traces again.
+ *
+ * Divergences refer to invocations inside the traces of the version, these are stored as the path of call
+ * indices that leads from the entry point of a trace to them.
+ */
+public class DivergenceCache {
+
+    /** Increase whenever the comparison or the stored data changes, entries of other formats are never used */
+    private static final int format = 1;
+    private static final String fileName = "traceDivergenceCache";
+
+    /**
+     * Computes the key under which the divergences of a version are stored, i.e. a hash of all comparison settings
+     * and of the contents of all files of both versions that are read when their traces are imported: the trace
+     * files, syntactic changes, method identifiers and the human-readable bytecode, which determines the basic
+     * blocks and the sizes used for coverage.
+     *
+     * @param v : version to compute the key for, must be compared against another one
+     * @param manualMatching : whether a user-provided trace matching file is used
+     * @param filterObjectCharacteristics : whether objects with '@' in their string representation are filtered
+     * @return key of the divergences
+     * @throws IOException if any of the files cannot be read
+     */
+    public static String computeKey(Version v, boolean manualMatching, boolean filterObjectCharacteristics) throws IOException {
+        assert(v.getVersionComparingAgainst() != null);
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError("SHA-1 is not supported by this JVM");
+        }
+        digest.update((format+"|"+MethodData.isCoverageBasedComparison()+"|"+MethodData.isTraceDistanceBasedComparison()+"|"+
+                MethodData.getMaximalTraceDistance()+"|"+filterObjectCharacteristics+"|"+manualMatching).getBytes(StandardCharsets.UTF_8));
+
+        byte[] buffer = new byte[1 << 16];
+        for (Version version : new Version[]{v, v.getVersionComparingAgainst()}){
+            digest.update(("|"+version.identifier).getBytes(StandardCharsets.UTF_8));
+            File[] files = version.getMainDirectory().listFiles();
+            Arrays.sort(files); //same order as the import
+            for (File f : files)
+                if (f.isFile() && f.getName().startsWith("observedTrace"))
+                    updateWithFile(digest, f, buffer);
+            updateWithFile(digest, new File(version.getMainDirectory(), "syntacticCodeChanges"), buffer);
+            updateWithFile(digest, new File(version.getMainDirectory(), "methodIdentifiers"), buffer);
+            updateWithDirectory(digest, version.getHumanReadableBytecodeDir(), buffer);
+            updateWithDirectory(digest, version.getAdditionalHumanReadableBytecodeDir(), buffer);
+        }
+        if (manualMatching) updateWithFile(digest, new File(v.getMainDirectory(), "traceMatching"), buffer);
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b & 0xff));
+        return key.toString();
+    }
+
+    private static void updateWithFile(MessageDigest digest, File f, byte[] buffer) throws IOException {
+        digest.update(("|"+f.getName()+"|").getBytes(StandardCharsets.UTF_8));
+        if (!f.isFile()){
+            digest.update((byte) 0); //missing, which must differ from an empty file
+            return;
+        }
+        digest.update((byte) 1);
+        InputStream in = new FileInputStream(f);
+        try {
+            int read;
+            while ((read = in.read(buffer)) > 0) digest.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void updateWithDirectory(MessageDigest digest, File dir, byte[] buffer) throws IOException {
+        digest.update(("|"+dir.getName()+"/").getBytes(StandardCharsets.UTF_8));
+        File[] files = dir.listFiles();
+        if (files == null){
+            digest.update((byte) 0); //missing, which must differ from an empty directory
+            return;
+        }
+        digest.update((byte) 1);
+        Arrays.sort(files);
+        for (File f : files){
+            if (f.isDirectory()) updateWithDirectory(digest, f, buffer);
+            else updateWithFile(digest, f, buffer);
+        }
+        digest.update((byte) 2); //end of the directory, files of the parent must not be mistaken for its own
+    }
+
+    /**
+     * Looks up the divergences of a version.
+     *
+     * @param v : version to look up the divergences of
+     * @param key : key computed by {@link #computeKey(Version, boolean, boolean)}
+     * @param tracesInNew : traces of the version, in the order they were compared
+     * @return divergences in the format of {@link hartz.masterThesis.historyGuidedImpactAnalysis.main.MainFunctionality#step7_compareTraces(
+     *         Version[], java.util.TreeMap, boolean, boolean, boolean, int, boolean)} or 'null' if there are none that can be used
+     */
+    public static TraceDivergence[][] lookup(Version v, String key, Trace[] tracesInNew){
+        File f = new File(v.getMainDirectory(), fileName);
+        if (!f.exists()) return null;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            try {
+                if (in.readInt() != format || !in.readUTF().equals(key)) return null; //outdated
+                if (in.readInt() != tracesInNew.length) throw new IOException("Number of traces does not match");
+
+                TraceDivergence[][] result = new TraceDivergence[tracesInNew.length][];
+                for (int i = 0; i<result.length; ++i){
+                    int divergences = in.readInt();
+                    if (divergences < 0) continue; //could not be matched
+                    MethodData entryPoint = tracesInNew[i].getEntryMethod();
+                    result[i] = new TraceDivergence[divergences];
+                    for (int j = 0; j<divergences; ++j)
+                        result[i][j] = readDivergence(in, entryPoint);
+                }
+                return result;
+            } finally {
+                in.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            Tool.printDebug(e);
+            return null; //treat broken entries like missing ones, they will be overwritten
+        }
+    }
+
+    /**
+     * Stores the divergences of a version, existing ones are replaced.
+     *
+     * @param v : version the divergences belong to
+     * @param key : key computed by {@link #computeKey(Version, boolean, boolean)}
+     * @param tracesInNew : traces of the version, in the order they were compared
+     * @param divergences : divergences for each of these traces, 'null' if a trace could not be matched
+     * @throws IOException if the divergences cannot be written
+     */
+    public static void store(Version v, String key, Trace[] tracesInNew, TraceDivergence[][] divergences) throws IOException {
+        assert(tracesInNew.length == divergences.length);
+        File f = new File(v.getMainDirectory(), fileName);
+        File temporary = File.createTempFile(fileName, ".tmp", v.getMainDirectory());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(format);
+            out.writeUTF(key);
+            out.writeInt(divergences.length);
+            for (int i = 0; i<divergences.length; ++i){
+                if (divergences[i] == null){
+                    out.writeInt(-1);
+                    continue;
+                }
+                out.writeInt(divergences[i].length);
+                IdentityHashMap<MethodData, int[]> paths = new IdentityHashMap<>();
+                for (TraceDivergence d : divergences[i])
+                    writeDivergence(out, d, tracesInNew[i].getEntryMethod(), paths);
+            }
+        } catch (IOException e) {
+            out.close();
+            temporary.delete();
+            throw e;
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeDivergence(DataOutputStream out, TraceDivergence d, MethodData entryPoint,
+                                        IdentityHashMap<MethodData, int[]> paths) throws IOException {
+        out.writeUTF(d.type.name());
+        writePath(out, d.getMethodData(), entryPoint, paths);
+        switch (d.type){
+            case RETURN_VALUE:
+            case PARAMETER:
+                ObjectValueDivergence o = (ObjectValueDivergence) d;
+                writePath(out, o.methodCalledOrReturning, entryPoint, paths);
+                writeLongString(out, o.newClassOfReturnedValue);
+                writeLongString(out, o.newToStringOfReturnedValue);
+                out.writeInt(o.newHashCodeOfReturnedValue);
+                out.writeLong(o.newFingerprintOfReturnedValue);
+                writeLongString(out, o.oldClassOfReturnedValue);
+                writeLongString(out, o.oldToStringOfReturnedValue);
+                out.writeInt(o.oldHashCodeOfReturnedValue);
+                out.writeLong(o.oldFingerprintOfReturnedValue);
+                break;
+            case ADDITIONAL_METHOD_CALLED:
+            case DIFFERENT_METHOD_CALLED:
+            case NOT_CALLED_METHOD:
+                MethodCallDivergence c = (MethodCallDivergence) d;
+                writeLongString(out, c.methodCalledInOld);
+                writeLongString(out, c.methodCalledInNew);
+                break;
+            case TRACE_DISTANCE:
+            case TRACE_DIVERGENT_SECTIONS:
+                out.writeInt(((MetricDivergence) d).metricValue);
+                break;
+            case COVERAGE:
+                CoverageDivergence coverage = (CoverageDivergence) d;
+                out.writeInt(coverage.instrIndex);
+                out.writeInt(coverage.numberOfExecutionsInOld);
+                out.writeInt(coverage.numberOfExecutionsInNew);
+                break;
+            default:
+                throw new IOException("Divergences of type '"+d.type+"' cannot be stored");
+        }
+    }
+
+    private static TraceDivergence readDivergence(DataInputStream in, MethodData entryPoint) throws IOException {
+        DivergenceType type = DivergenceType.valueOf(in.readUTF());
+        MethodData m = readPath(in, entryPoint);
+        switch (type){
+            case RETURN_VALUE:
+            case PARAMETER:
+                MethodData methodCalledOrReturning = readPath(in, entryPoint);
+                String newClass = readLongString(in);
+                String newToString = readLongString(in);
+                int newHashCode = in.readInt();
+                long newFingerprint = in.readLong();
+                String oldClass = readLongString(in);
+                String oldToString = readLongString(in);
+                int oldHashCode = in.readInt();
+                long oldFingerprint = in.readLong();
+                return new ObjectValueDivergence(m, methodCalledOrReturning, type, newClass, newToString, newHashCode,
+                        newFingerprint, oldClass, oldToString, oldHashCode, oldFingerprint);
+            case ADDITIONAL_METHOD_CALLED:
+            case DIFFERENT_METHOD_CALLED:
+            case NOT_CALLED_METHOD:
+                String calledInOld = readLongString(in);
+                String calledInNew = readLongString(in);
+                return new MethodCallDivergence(m, type, calledInOld, calledInNew);
+            case TRACE_DISTANCE:
+            case TRACE_DIVERGENT_SECTIONS:
+                return new MetricDivergence(m, type, in.readInt());
+            case COVERAGE:
+                int instrIndex = in.readInt();
+                int executedInOld = in.readInt();
+                int executedInNew = in.readInt();
+                /* the constructor takes the counts the other way round than the fields are named, see there */
+                return new CoverageDivergence(m, instrIndex, executedInOld, executedInNew);
+            default:
+                throw new IOException("Divergences of type '"+type+"' cannot be read");
+        }
+    }
+
+    /**
+     * Stores where an invocation is located in its trace, i.e. the index of the call in each caller starting
+     * from the entry point. '-1' stands for no invocation at all.
+     */
+    private static void writePath(DataOutputStream out, MethodData m, MethodData entryPoint,
+                                  IdentityHashMap<MethodData, int[]> paths) throws IOException {
+        if (m == null){
+            out.writeInt(-1);
+            return;
+        }
+        int[] path = getPath(m, entryPoint, paths);
+        out.writeInt(path.length);
+        for (int index : path) out.writeInt(index);
+    }
+
+    private static int[] getPath(MethodData m, MethodData entryPoint, IdentityHashMap<MethodData, int[]> paths) throws IOException {
+        if (m == entryPoint) return new int[0];
+        int[] path = paths.get(m);
+        if (path != null) return path;
+
+        MethodData caller = m.getCaller();
+        if (caller == null) throw new IOException("Divergence of '"+m.getIdentifier()+"' does not belong to its trace");
+        int index = 0;
+        while (index < caller.getAmountOfMethodCalls() && caller.getCalledMethod(index) != m) ++index;
+        assert(index < caller.getAmountOfMethodCalls()); //every invocation is a callee of its caller
+
+        int[] pathOfCaller = getPath(caller, entryPoint, paths);
+        path = Arrays.copyOf(pathOfCaller, pathOfCaller.length + 1);
+        path[pathOfCaller.length] = index;
+        paths.put(m, path);
+        return path;
+    }
+
+    private static MethodData readPath(DataInputStream in, MethodData entryPoint) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        MethodData m = entryPoint;
+        for (int i = 0; i<length; ++i){
+            int index = in.readInt();
+            if (index < 0 || index >= m.getAmountOfMethodCalls())
+                throw new IOException("Stored divergence does not belong to the trace of '"+entryPoint.getIdentifier()+"'");
+            m = m.getCalledMethod(index);
+        }
+        return m;
+    }
+
+    /* 'writeUTF' is limited to 64KB, which a string representation of a value easily exceeds */
+    private static void writeLongString(DataOutputStream out, String s) throws IOException {
+        if (s == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
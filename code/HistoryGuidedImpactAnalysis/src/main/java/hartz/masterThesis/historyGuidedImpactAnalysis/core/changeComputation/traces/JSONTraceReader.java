@@ -0,0 +1,344 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONException;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Imports trace files exported by the observer in JSON format without ever holding the whole file in memory.
+ * The bytes of the file are tokenized directly and every method invocation becomes {@link MethodData} as soon
+ * as its JSON object has been read. Apart from the result, only the traces of the methods that are still being
+ * read are kept, in contrast to reading the file into a string and parsing that into a JSON object first.
+ * Small values like parameters are still read as JSON objects since {@link MethodData} expects them that way.
+ */
+public class JSONTraceReader {
+
+   private static final int bufferSize = 1 << 16;
+
+   private final InputStream in;
+   private final byte[] buffer;
+   private int position;
+   private int limit;
+   private long bytesBefore; //bytes of the file before the current buffer content, for error messages
+   private final StringBuilder text; //reused for all strings and literals
+   private byte[] nonAscii; //reused to decode characters that take more than one byte
+   private final Charset charset;
+
+   private final Version version;
+   private final HashMap<String, List<SyntaxChange>> syntaxChanges;
+   private int traceIndex; //of the method read last
+
+   private JSONTraceReader(InputStream in, Version version, HashMap<String, List<SyntaxChange>> syntaxChanges){
+      this.in = in;
+      this.buffer = new byte[bufferSize];
+      this.position = 0;
+      this.limit = 0;
+      this.bytesBefore = 0;
+      this.text = new StringBuilder();
+      this.nonAscii = new byte[16];
+      this.charset = Charset.defaultCharset(); //the observer exports with the default charset as well
+      this.version = version;
+      this.syntaxChanges = syntaxChanges;
+   }
+
+   /**
+    * Reads all execution traces of a trace file in JSON format.
+    *
+    * @param f : file to read
+    * @param version : version the traces belong to
+    * @param syntaxChanges : map of all syntax changes of this version
+    * @param identifierPrefix : traces are named after it and their index, e.g. 'file0' yields 'file0_trace1'
+    * @param traces : every trace is added to this list as soon as it has been read completely
+    * @param errors : errors reported by the observer are added to this list
+    * @throws IOException : if the file cannot be read
+    * @throws JSONException : if the file does not contain valid JSON or traces are incomplete
+    */
+   public static void readTraces(File f, Version version, HashMap<String, List<SyntaxChange>> syntaxChanges,
+                                 String identifierPrefix, List<Trace> traces, List<String> errors) throws IOException {
+      InputStream in = new FileInputStream(f);
+      try{
+         new JSONTraceReader(in, version, syntaxChanges).readFile(identifierPrefix, traces, errors);
+      } finally {
+         in.close();
+      }
+   }
+
+   private void readFile(String identifierPrefix, List<Trace> traces, List<String> errors) throws IOException {
+      expect('{');
+      if (!consume('}')){
+         do{
+            String key = readString();
+            expect(':');
+            if (key.equals("executionTraces")){
+               expect('[');
+               if (!consume(']')){
+                  do{
+                     expect('{');
+                     Object entryPoint = readObjectInTrace();
+                     if (!(entryPoint instanceof MethodData)) throw syntaxError("Execution trace does not start with a method");
+                     traces.add(new Trace(version, (MethodData) entryPoint, identifierPrefix+"_trace"+traceIndex));
+                  } while (hasNext(']'));
+                  expect(']');
+               }
+            }
+            else if (key.equals("errors")){
+               Object reported = readValue();
+               if (!(reported instanceof JSONArray)) throw syntaxError("Errors are not stored in an array");
+               for (int i = 0; i<((JSONArray) reported).length(); ++i)
+                  errors.add(((JSONArray) reported).getString(i));
+            }
+            else readValue(); //unknown, skip it
+         } while (hasNext('}'));
+         expect('}');
+      }
+   }
+
+   /**
+    * Reads an object inside a trace whose opening brace has been consumed already. Since the keys of an object
+    * can be in any order, we only know at its end whether it is a loop or a method invocation.
+    *
+    * @return either {@link MethodData} or a {@link MethodData.RecordedLoop}
+    */
+   private Object readObjectInTrace() throws IOException {
+      String called = null;
+      String type = null;
+      String classOfReturnedValue = "---";
+      JSONArray parameters = null;
+      JSONObject returned = null;
+      List<Object> trace = null;
+      Integer iterations = null; //only loops have iterations
+      int[] counts = null; //only if the observer counted coverage instead of recording it
+      int index = 0;
+
+      if (!consume('}')){
+         do{
+            String key = readString();
+            expect(':');
+            switch (key){
+               case "called": called = readString(); break;
+               case "type": type = readString(); break;
+               case "class":
+                  Object c = readValue();
+                  if (!JSONObject.NULL.equals(c)) classOfReturnedValue = c.toString();
+                  break;
+               case "calledWithParameters": parameters = (JSONArray) readValue(JSONArray.class, key); break;
+               case "returned": returned = (JSONObject) readValue(JSONObject.class, key); break;
+               case "trace": trace = readTrace(); break;
+               case "iterations": iterations = ((Number) readValue(Number.class, key)).intValue(); break;
+               case "traceIndex": index = ((Number) readValue(Number.class, key)).intValue(); break;
+               case "coverage": counts = readCounts(); break;
+               default: readValue(); //unknown, skip it
+            }
+         } while (hasNext('}'));
+         expect('}');
+      }
+
+      if (trace == null) throw new JSONException("JSONObject[\"trace\"] not found.");
+      if (iterations != null) return new MethodData.RecordedLoop(iterations, trace);
+
+      if (called == null) throw new JSONException("JSONObject[\"called\"] not found.");
+      if (type == null) throw new JSONException("JSONObject[\"type\"] not found.");
+      if (parameters == null) throw new JSONException("JSONObject[\"calledWithParameters\"] not found.");
+      if (returned == null) throw new JSONException("JSONObject[\"returned\"] not found.");
+      traceIndex = index;
+      return new MethodData(version, called, type, parameters, returned, classOfReturnedValue, trace, counts, syntaxChanges);
+   }
+
+   /** Reads how often each instruction was executed, see {@link MethodData#MethodData(Version, String, String, JSONArray, JSONObject, String, List, int[], HashMap)} */
+   private int[] readCounts() throws IOException {
+      int[] counts = new int[16];
+      int length = 0;
+      expect('[');
+      if (!consume(']')){
+         do{
+            if (length == counts.length){
+               int[] larger = new int[length*2];
+               System.arraycopy(counts, 0, larger, 0, length);
+               counts = larger;
+            }
+            counts[length++] = ((Number) readValue(Number.class, "coverage")).intValue();
+         } while (hasNext(']'));
+         expect(']');
+      }
+      int[] result = new int[length];
+      System.arraycopy(counts, 0, result, 0, length);
+      return result;
+   }
+
+   /** Reads the elements of a trace, see {@link MethodData#MethodData(Version, String, String, JSONArray, JSONObject, String, List, int[], HashMap)} */
+   private List<Object> readTrace() throws IOException {
+      ArrayList<Object> trace = new ArrayList<>();
+      expect('[');
+      if (!consume(']')){
+         do{
+            int next = peek();
+            if (next == '"') trace.add(readString());
+            else if (next == '{'){
+               ++position;
+               trace.add(readObjectInTrace());
+            }
+            else trace.add(readValue());
+         } while (hasNext(']'));
+         expect(']');
+      }
+      trace.trimToSize();
+      return trace;
+   }
+
+   private Object readValue(Class<?> expected, String key) throws IOException {
+      Object value = readValue();
+      if (!expected.isInstance(value))
+         throw new JSONException("JSONObject[\""+key+"\"] is not a "+expected.getSimpleName()+".");
+      return value;
+   }
+
+   /** Reads any value, objects and arrays are read as JSON objects and arrays */
+   private Object readValue() throws IOException {
+      int next = peek();
+      if (next == '"') return readString();
+      if (next == '{'){
+         ++position;
+         JSONObject o = new JSONObject();
+         if (!consume('}')){
+            do{
+               String key = readString();
+               expect(':');
+               o.put(key, readValue());
+            } while (hasNext('}'));
+            expect('}');
+         }
+         return o;
+      }
+      if (next == '['){
+         ++position;
+         JSONArray a = new JSONArray();
+         if (!consume(']')){
+            do{
+               a.put(readValue());
+            } while (hasNext(']'));
+            expect(']');
+         }
+         return a;
+      }
+
+      //numbers, booleans and 'null', parsed exactly like the JSON library does
+      text.setLength(0);
+      while (true){
+         if (position == limit && !fill()) break;
+         int b = buffer[position] & 0xFF;
+         if (b <= ' ' || ",:]}/\\\"[{;=#".indexOf(b) >= 0) break;
+         text.append((char) b);
+         ++position;
+      }
+      if (text.length() == 0) throw syntaxError("Missing value");
+      return JSONObject.stringToValue(text.toString());
+   }
+
+   private String readString() throws IOException {
+      expect('"');
+      text.setLength(0);
+      while (true){
+         if (position == limit && !fill()) throw syntaxError("Unterminated string");
+         int b = buffer[position++] & 0xFF;
+         if (b == '"') return text.toString();
+         if (b == '\\') readEscapeSequence();
+         else if (b < 0x80) text.append((char) b);
+         else{
+            //decode the whole run of non-ASCII bytes at once
+            int length = 0;
+            nonAscii[length++] = (byte) b;
+            while ((position < limit || fill()) && (buffer[position] & 0x80) != 0){
+               if (length == nonAscii.length){
+                  byte[] larger = new byte[length*2];
+                  System.arraycopy(nonAscii, 0, larger, 0, length);
+                  nonAscii = larger;
+               }
+               nonAscii[length++] = buffer[position++];
+            }
+            text.append(new String(nonAscii, 0, length, charset));
+         }
+      }
+   }
+
+   private void readEscapeSequence() throws IOException {
+      if (position == limit && !fill()) throw syntaxError("Unterminated string");
+      int b = buffer[position++];
+      switch (b){
+         case 'b': text.append('\b'); break;
+         case 't': text.append('\t'); break;
+         case 'n': text.append('\n'); break;
+         case 'f': text.append('\f'); break;
+         case 'r': text.append('\r'); break;
+         case 'u':
+            int c = 0;
+            for (int i = 0; i<4; ++i){
+               if (position == limit && !fill()) throw syntaxError("Unterminated string");
+               int digit = Character.digit(buffer[position++], 16);
+               if (digit < 0) throw syntaxError("Illegal escape.");
+               c = (c << 4) | digit;
+            }
+            text.append((char) c);
+            break;
+         case '"':
+         case '\'':
+         case '\\':
+         case '/':
+            text.append((char) b);
+            break;
+         default:
+            throw syntaxError("Illegal escape.");
+      }
+   }
+
+   /** @return the next non-whitespace character without consuming it, -1 at the end of the file */
+   private int peek() throws IOException {
+      while (true){
+         if (position == limit && !fill()) return -1;
+         int b = buffer[position] & 0xFF;
+         if (b > ' ') return b;
+         ++position;
+      }
+   }
+
+   /** Consumes the next non-whitespace character if it is the given one */
+   private boolean consume(char c) throws IOException {
+      if (peek() != c) return false;
+      ++position;
+      return true;
+   }
+
+   /** Consumes a comma between two elements, the JSON library tolerates a trailing comma before the closing one */
+   private boolean hasNext(char closing) throws IOException {
+      return consume(',') && peek() != closing;
+   }
+
+   private void expect(char c) throws IOException {
+      if (!consume(c)) throw syntaxError("Expected '"+c+"'");
+   }
+
+   private boolean fill() throws IOException {
+      bytesBefore += limit;
+      position = 0;
+      limit = 0;
+      int read = in.read(buffer);
+      if (read <= 0) return false;
+      limit = read;
+      return true;
+   }
+
+   private JSONException syntaxError(String message){
+      return new JSONException(message+" at "+(bytesBefore+position)+" [byte "+(bytesBefore+position+1)+"]");
+   }
+}
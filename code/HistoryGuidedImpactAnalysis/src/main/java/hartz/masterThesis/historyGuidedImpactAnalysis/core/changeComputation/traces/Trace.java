@@ -35,6 +35,19 @@ public class Trace {
         this.identifier = identifier;
     }
 
+    /**
+     * Creates a trace whose data has been imported already, see {@link JSONTraceReader}.
+     *
+     * @param belongsTo : version this trace belongs to
+     * @param entryMethod : data of the method the trace starts in
+     * @param identifier : unique identifier for this trace (unique for version, not globally)
+     */
+    public Trace(Version belongsTo, MethodData entryMethod, String identifier) {
+        version = belongsTo;
+        this.entryMethod = entryMethod;
+        this.identifier = identifier;
+    }
+
     public String getEntryMethodIdentifier(){
         return entryMethod.getIdentifier();
     }
@@ -43,6 +56,10 @@ public class Trace {
         return identifier;
     }
 
+    public MethodData getEntryMethod(){
+        return entryMethod;
+    }
+
     /**
      * Performs trace divergence analysis.
      *
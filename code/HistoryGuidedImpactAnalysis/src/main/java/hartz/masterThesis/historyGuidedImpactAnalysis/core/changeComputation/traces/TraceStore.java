@@ -0,0 +1,95 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.Core;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Provides the traces of each version. Traces are either imported on demand, in which case they can be
+ * released again once no longer needed, or handed over already imported. Comparing traces only ever needs
+ * those of a version and of the one it is compared against, so an analysis of many versions does not need
+ * to hold all of their traces at the same time. Take note that divergences refer to the invocations of the
+ * traces they were found in, so these stay in memory as long as their divergences do.
+ */
+public class TraceStore {
+
+    private final Version[] versions; //'null' if all traces have been handed over
+    private final TreeMap<Version,HashMap<String, List<SyntaxChange>>> syntaxChanges;
+    private final int threads;
+    private final TreeMap<Version, Trace[]> traces;
+
+    /**
+     * Creates a store that imports the traces of a version once they are requested, use
+     * {@link Core#openTraceStore(Version[], TreeMap, boolean, boolean, int)} to create one.
+     *
+     * @param versions : versions whose traces can be requested
+     * @param syntaxChanges : syntax changes for these versions (a method inside a trace
+     *                        knows if it was modified in this version)
+     * @param threads : number of trace files of a version that are imported at the same time
+     */
+    public TraceStore(Version[] versions, TreeMap<Version,HashMap<String, List<SyntaxChange>>> syntaxChanges, int threads){
+        this.versions = versions;
+        this.syntaxChanges = syntaxChanges;
+        this.threads = threads;
+        this.traces = new TreeMap<>();
+    }
+
+    /**
+     * Creates a store holding traces that have been imported already, e.g. by
+     * {@link Core#gatherTraces(Version[], TreeMap, boolean, boolean, int)}. They are never released.
+     *
+     * @param traces : traces of each version
+     */
+    public TraceStore(TreeMap<Version, Trace[]> traces){
+        this.versions = null;
+        this.syntaxChanges = null;
+        this.threads = 1;
+        this.traces = new TreeMap<>(traces);
+    }
+
+    /**
+     * @param v : version to get the traces of
+     * @return traces of the version, imported now if necessary, or 'null' if the version is unknown
+     */
+    public synchronized Trace[] getTraces(Version v){
+        Trace[] result = traces.get(v);
+        if (result != null || versions == null) return result;
+
+        for (int i = 0; i<versions.length; ++i){
+            if (versions[i].equals(v)){
+                HashMap<String, List<SyntaxChange>> syntaxChangesForVersion = syntaxChanges != null ? syntaxChanges.get(v) : null;
+                if (syntaxChangesForVersion == null) syntaxChangesForVersion = new HashMap<>();
+                result = Core.importTraces(v, syntaxChangesForVersion, "["+(i+1)+"/"+versions.length+"]", threads);
+                traces.put(v, result);
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param v : any version
+     * @return 'true' if the traces of this version are currently held by this store
+     */
+    public synchronized boolean isLoaded(Version v){
+        return traces.containsKey(v);
+    }
+
+    /**
+     * Drops the traces of a version and the sources cached for them, they will be imported again if requested
+     * again. Traces that have been handed over cannot be imported again and are therefore kept. Once no traces
+     * are held anymore, the IDs assigned to methods during import are dropped as well, see {@link MethodData#releaseIds()}.
+     *
+     * @param v : version to release the traces of
+     */
+    public synchronized void release(Version v){
+        if (versions == null) return;
+        if (traces.remove(v) != null) MethodData.releaseIds();
+        Core.releaseSources(v);
+    }
+}
@@ -0,0 +1,300 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.TypeHierarchy;
+import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
+import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent, content-addressed store of instrumentation results that is shared by all versions extracted
+ * into the same output directory. Consecutive commits share most of their class files byte for byte, so
+ * instead of instrumenting such a class again, the instrumented bytecode, its human-readable listing and
+ * its call graph edges are taken from here.
+ *
+ * Since the injected probes contain method IDs, all versions using the cache also share one method identifier
+ * table that is stored with it. An entry is only used if the IDs it was created with are still the ones of the
+ * table and if every class hierarchy lookup made while computing its stack map frames still yields the same
+ * result in the version at hand.
+ */
+public class InstrumentationCache {
+
+    /** Increase whenever instrumented code changes, entries of other formats are never used */
+    private static final int format = 1;
+
+    private final File directory;
+    private final File tableFile;
+    private final MethodIdentifierTable methodIdentifierTable;
+    private int hits;
+    private int misses;
+
+    /**
+     * Opens the cache stored in a directory, which is created if necessary.
+     *
+     * @param directory : where the cache is located
+     * @throws IOException if the directory cannot be accessed
+     */
+    public InstrumentationCache(File directory) throws IOException {
+        this.directory = directory;
+        this.tableFile = new File(directory, "methodIdentifiers");
+        if (!tableFile.exists() && directory.exists())
+            FileUtils.removeDirectory(directory); //entries are useless without the IDs they were created with
+        directory.mkdirs();
+        if (!directory.isDirectory())
+            throw new IOException("Instrumentation cache '"+directory.getAbsolutePath()+"' cannot be created");
+        this.methodIdentifierTable = MethodIdentifierTable.importFromFile(tableFile);
+        this.hits = 0;
+        this.misses = 0;
+    }
+
+    /**
+     * @return the method identifier table all instrumentation using this cache has to use
+     */
+    public MethodIdentifierTable getMethodIdentifierTable(){
+        return methodIdentifierTable;
+    }
+
+    /**
+     * Stores the method identifier table, must be called after instrumenting with this cache.
+     *
+     * @throws IOException if the table cannot be written
+     */
+    public void persist() throws IOException {
+        methodIdentifierTable.exportToFile(tableFile);
+    }
+
+    /**
+     * @return a short summary of how often the cache was used so far
+     */
+    public synchronized String getStatistics(){
+        return hits+" classes taken from cache, "+misses+" instrumented so far";
+    }
+
+    /**
+     * Computes the key under which the instrumentation of a class is stored.
+     *
+     * @param fullyQualifiedClassName : name of the class
+     * @param originalCode : bytecode of the class before instrumentation
+     * @param methodsToInstrument : identifiers of the methods that are instrumented, see
+     *                              {@link Instrumenter#getMethodsToInstrument(InputStream, String, java.util.HashSet)}
+     * @param exportSource : whether the human-readable bytecode is exported
+     * @param safeInstrumentation : whether a static max-stack increase is used
+     * @param basicBlockProbes : whether only the first instruction of basic blocks is probed
+     * @return key of the entry
+     */
+    public static String computeKey(String fullyQualifiedClassName, byte[] originalCode, String[] methodsToInstrument,
+                                    boolean exportSource, boolean safeInstrumentation, boolean basicBlockProbes){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new InternalError("SHA-1 is not supported by this JVM");
+        }
+        digest.update((format+"|"+exportSource+"|"+safeInstrumentation+"|"+basicBlockProbes+"|"+fullyQualifiedClassName)
+                .getBytes(StandardCharsets.UTF_8));
+        for (String method : methodsToInstrument) //covers all methods that are excluded from instrumentation
+            digest.update(("|"+method).getBytes(StandardCharsets.UTF_8));
+        digest.update(originalCode);
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b & 0xff));
+        return key.toString();
+    }
+
+    /**
+     * Looks up the instrumentation of a class.
+     *
+     * @param key : key computed by {@link #computeKey(String, byte[], String[], boolean, boolean, boolean)}
+     * @param typeHierarchy : type hierarchy of the version the class belongs to
+     * @return the entry or 'null' if there is none that can be used
+     */
+    public Entry lookup(String key, TypeHierarchy typeHierarchy){
+        File f = getFile(key);
+        Entry e = null;
+        if (f.exists()) {
+            try {
+                e = readEntry(f);
+                if (!e.isValid(methodIdentifierTable, typeHierarchy)) e = null;
+            } catch (IOException ex) {
+                Tool.printDebug(ex);
+                e = null; //treat broken entries like missing ones, they will be overwritten
+            }
+        }
+        synchronized (this){
+            if (e == null) ++misses;
+            else ++hits;
+        }
+        return e;
+    }
+
+    /**
+     * Stores the instrumentation of a class, an existing entry is replaced.
+     *
+     * @param key : key computed by {@link #computeKey(String, byte[], String[], boolean, boolean, boolean)}
+     * @param e : entry to store
+     * @throws IOException if the entry cannot be written
+     */
+    public void store(String key, Entry e) throws IOException {
+        File f = getFile(key);
+        f.getParentFile().mkdirs();
+        //multiple workers may store the same class at once, never expose half-written entries
+        File temporary = File.createTempFile(key, ".tmp", f.getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(format);
+            writeStrings(out, e.methods);
+            for (int id : e.ids) out.writeInt(id);
+            out.writeInt(e.instrumentedCode.length);
+            out.write(e.instrumentedCode);
+            writeLongString(out, e.bytecodeListing);
+            out.writeInt(e.callGraphEdges.size());
+            for (Map.Entry<String, List<String>> edges : e.callGraphEdges.entrySet()){
+                out.writeUTF(edges.getKey());
+                writeStrings(out, edges.getValue().toArray(new String[edges.getValue().size()]));
+            }
+            out.writeInt(e.commonSuperClassQueries.size());
+            for (String[] query : e.commonSuperClassQueries)
+                writeStrings(out, query);
+        } finally {
+            out.close();
+        }
+        Files.move(temporary.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getFile(String key){
+        return new File(new File(directory, key.substring(0, 2)), key.substring(2));
+    }
+
+    private static Entry readEntry(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != format) throw new IOException("Cache entry '"+f.getName()+"' has an outdated format");
+            String[] methods = readStrings(in);
+            int[] ids = new int[methods.length];
+            for (int i = 0; i<ids.length; ++i) ids[i] = in.readInt();
+            byte[] code = new byte[in.readInt()];
+            in.readFully(code);
+            String bytecodeListing = readLongString(in);
+            int callers = in.readInt();
+            LinkedHashMap<String, List<String>> callGraphEdges = new LinkedHashMap<>();
+            for (int i = 0; i<callers; ++i){
+                String caller = in.readUTF();
+                List<String> callees = new LinkedList<>();
+                for (String callee : readStrings(in)) callees.add(callee);
+                callGraphEdges.put(caller, callees);
+            }
+            int queries = in.readInt();
+            List<String[]> commonSuperClassQueries = new ArrayList<>(queries);
+            for (int i = 0; i<queries; ++i) commonSuperClassQueries.add(readStrings(in));
+            return new Entry(methods, ids, code, bytecodeListing, callGraphEdges, commonSuperClassQueries);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String s : strings) out.writeUTF(s);
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i<strings.length; ++i) strings[i] = in.readUTF();
+        return strings;
+    }
+
+    /* 'writeUTF' is limited to 64KB, which a listing of a large class easily exceeds */
+    private static void writeLongString(DataOutputStream out, String s) throws IOException {
+        if (s == null){
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readLongString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Everything instrumentation produces for a single class.
+     */
+    public static class Entry {
+        private final String[] methods;
+        private final int[] ids;
+        private final byte[] instrumentedCode;
+        private final String bytecodeListing;
+        private final LinkedHashMap<String, List<String>> callGraphEdges;
+        private final List<String[]> commonSuperClassQueries;
+
+        /**
+         * @param methods : identifiers of all instrumented methods
+         * @param ids : IDs of these methods that are used by the probes
+         * @param instrumentedCode : the instrumented bytecode
+         * @param bytecodeListing : exported human-readable bytecode, 'null' if none was exported
+         * @param callGraphEdges : call graph edges of all methods of the class
+         * @param commonSuperClassQueries : every class hierarchy lookup made to compute stack map frames,
+         *                                  as triples of both types and the result
+         */
+        public Entry(String[] methods, int[] ids, byte[] instrumentedCode, String bytecodeListing,
+                     LinkedHashMap<String, List<String>> callGraphEdges, List<String[]> commonSuperClassQueries) {
+            assert(methods.length == ids.length);
+            this.methods = methods;
+            this.ids = ids;
+            this.instrumentedCode = instrumentedCode;
+            this.bytecodeListing = bytecodeListing;
+            this.callGraphEdges = callGraphEdges;
+            this.commonSuperClassQueries = commonSuperClassQueries;
+        }
+
+        /**
+         * @param table : the table used by the current instrumentation
+         * @param typeHierarchy : type hierarchy of the version the class belongs to
+         * @return 'true' if the instrumented code is still correct
+         */
+        private boolean isValid(MethodIdentifierTable table, TypeHierarchy typeHierarchy){
+            for (int i = 0; i<methods.length; ++i)
+                if (table.getIdOf(methods[i]) != ids[i]) return false;
+            for (String[] query : commonSuperClassQueries)
+                if (!query[2].equals(typeHierarchy.getCommonSuperClass(query[0], query[1])))
+                    return false; //the class hierarchy has changed, frames might be wrong
+            return true;
+        }
+
+        public byte[] getInstrumentedCode() {
+            return instrumentedCode;
+        }
+
+        /**
+         * @return exported human-readable bytecode, 'null' if none was exported
+         */
+        public String getBytecodeListing() {
+            return bytecodeListing;
+        }
+
+        /**
+         * @return call graph edges of all methods of the class, in the order they were encountered
+         */
+        public LinkedHashMap<String, List<String>> getCallGraphEdges() {
+            return callGraphEdges;
+        }
+    }
+}
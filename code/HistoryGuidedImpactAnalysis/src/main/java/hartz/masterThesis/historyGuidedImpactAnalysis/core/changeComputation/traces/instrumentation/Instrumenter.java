@@ -3,12 +3,15 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.tr
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.callGraph.ClassCallGraphGenerator;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.ClassInstrumenter;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.ClassWriterWithCustomLoader;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.TypeHierarchy;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.special.CoverageObserverInstrumenter;
 import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.MemorizingClassLoader;
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 import java.io.*;
@@ -25,7 +28,9 @@ public class Instrumenter {
     *
     * @param args : first argument is the classpath, second the fully qualified class name
     *               and the third is interpreted as a file where the observed data is to be
-    *               stored upon execution of the instrumented class
+    *               stored upon execution of the instrumented class. The IDs of instrumented
+    *               methods are kept in a 'methodIdentifiers' file next to that file, so that
+    *               multiple calls for the same project do not hand out the same ID twice.
     */
    public static void main(String[] args) throws IOException{
       if (args.length<3)
@@ -55,7 +60,11 @@ public class Instrumenter {
       }
 
       if (clazzAsStream !=null){
-         byte[] instrumentedCode = instrumentClass(clazzAsStream, fullyQualifiedClassName, ignoreMethods, loader, false);
+         File methodIdentifierFile = new File(outputTargetDir.getAbsoluteFile().getParentFile(), "methodIdentifiers");
+         MethodIdentifierTable methodIdentifierTable = MethodIdentifierTable.importFromFile(methodIdentifierFile);
+         byte[] instrumentedCode = instrumentClass(clazzAsStream, fullyQualifiedClassName, ignoreMethods, methodIdentifierTable, loader, false);
+         methodIdentifierFile.getParentFile().mkdirs();
+         methodIdentifierTable.exportToFile(methodIdentifierFile);
          if (instrumentedCode!=null){
             classFile.createNewFile(); //overwrite classfile in-place!
             DataOutputStream dout = new DataOutputStream(new FileOutputStream(classFile));
@@ -66,7 +75,7 @@ public class Instrumenter {
                  "' (class on disc has not been changed)");
 
          FileUtils.clearCodeFromProjectUnderTest(baseDir); //remove previously injected code
-         FileUtils.injectCodeIntoProjectUnderTest(baseDir, outputTargetDir);
+         FileUtils.injectCodeIntoProjectUnderTest(baseDir, outputTargetDir, false, false, false);
       }
       else Tool.printError("Instrumentation failed for class '"+fullyQualifiedClassName+"' since it could not be loaded");
    }
@@ -79,14 +88,18 @@ public class Instrumenter {
     *                                  match the contents of the stream or the generated traces
     *                                  will have corrupt output!
     * @param methodsToIgnore : which methods are to be excluded from instrumentation, given by
-    *                          name and type descriptior e.g. 'main([Ljava/lang/String;)V'
+    *                          name and type descriptior e.g. 'main([Ljava/lang/String;)V' for
+    *                          all classes or fully qualified to exclude a single method
+    * @param methodIdentifierTable : assigns the IDs used by the injected probes, will contain
+    *                                all instrumented methods of this class when this method returns
     * @param loader : class loader which with this class and referenced classes can be loaded
     * @param safeMode : set to 'true' to use a static max-stack increase instead of recomputing!
     * @throws IOException if class cannot be accessed/read
     */
    public static byte[] instrumentClass(InputStream clazzAsStream, String fullyQualifiedClassName,
-                                        HashSet<String> methodsToIgnore, ClassLoader loader, boolean safeMode) throws IOException{
-      return instrumentClass(clazzAsStream, fullyQualifiedClassName, methodsToIgnore, null, null, null, loader, safeMode);
+                                        HashSet<String> methodsToIgnore, MethodIdentifierTable methodIdentifierTable,
+                                        ClassLoader loader, boolean safeMode) throws IOException{
+      return instrumentClass(clazzAsStream, fullyQualifiedClassName, methodsToIgnore, methodIdentifierTable, null, null, null, null, loader, safeMode);
    }
 
 
@@ -98,7 +111,10 @@ public class Instrumenter {
     *                                  match the contents of the stream or the generated traces
     *                                  will have corrupt output!
     * @param methodsToIgnore : which methods are to be excluded from instrumentation, given by
-    *                          name and type descriptior e.g. 'main([Ljava/lang/String;)V'
+    *                          name and type descriptior e.g. 'main([Ljava/lang/String;)V' for
+    *                          all classes or fully qualified to exclude a single method
+    * @param methodIdentifierTable : assigns the IDs used by the injected probes, will contain
+    *                                all instrumented methods of this class when this method returns
     * @param sourceCodeContainer : will contain the original bytecode for each instrumented
     *                              method when this method returns, accessible via
     *                              classname.methodnameWithTypeDescriptor, e.g.
@@ -109,24 +125,59 @@ public class Instrumenter {
     *                               all instrumented methods. Accessible akin to above.
     * @param maxJavaLinesContainer : will contain the highest java line number encountered during
     *                                instrumentation, accessible akin to above
+    * @param basicBlockContainer : if not 'null', only the first instruction of each basic block is
+    *                              probed and this will contain the indices of these instructions for
+    *                              all instrumented methods. Accessible akin to above.
     * @param loader : class loader which with this class and referenced classes can be loaded
     * @param safeMode : set to 'true' to use a static max-stack increase instead of recomputing!
     * @return instrumented code of the entire class!
     * @throws IOException if class cannot be accessed/read
     */
    public static byte[] instrumentClass(InputStream clazzAsStream, String fullyQualifiedClassName,
-                                        HashSet<String> methodsToIgnore, HashMap<String, ArrayList<String>> sourceCodeContainer,
+                                        HashSet<String> methodsToIgnore, MethodIdentifierTable methodIdentifierTable,
+                                        HashMap<String, ArrayList<String>> sourceCodeContainer,
                                         HashMap<String, HashMap<Integer, Integer>> lineMappingContainer,
-                                        HashMap<String, Integer> maxJavaLinesContainer, ClassLoader loader, boolean safeMode)
+                                        HashMap<String, Integer> maxJavaLinesContainer,
+                                        HashMap<String, ArrayList<Integer>> basicBlockContainer, ClassLoader loader, boolean safeMode)
+           throws IOException{
+      return instrumentClass(clazzAsStream, fullyQualifiedClassName, methodsToIgnore, methodIdentifierTable, sourceCodeContainer,
+              lineMappingContainer, maxJavaLinesContainer, basicBlockContainer, new TypeHierarchy(loader), safeMode, null, null);
+   }
+
+   /**
+    * Instruments a class out of an Input Stream, see
+    * {@link #instrumentClass(InputStream, String, HashSet, MethodIdentifierTable, HashMap, HashMap, HashMap, HashMap, ClassLoader, boolean)}.
+    *
+    * @param typeHierarchy : super classes and interfaces of this class and referenced classes, used instead of a
+    *                        class loader to compute stack map frames
+    * @param commonSuperClassQueries : if not 'null', will contain every common super class that had to be looked
+    *                                  up via the loader to compute stack map frames as triples of both types and
+    *                                  the result. The instrumented code remains correct as long as these do not change.
+    * @param callGraph : if not 'null', it is updated with the class' call graph while the class is instrumented, which
+    *                    saves reading the class a second time via {@link #updateCallGraph(InputStream, String, HashMap)}.
+    *                    Calls injected by the instrumentation are not part of it.
+    * @return instrumented code of the entire class!
+    * @throws IOException if class cannot be accessed/read
+    */
+   public static byte[] instrumentClass(InputStream clazzAsStream, String fullyQualifiedClassName,
+                                        HashSet<String> methodsToIgnore, MethodIdentifierTable methodIdentifierTable,
+                                        HashMap<String, ArrayList<String>> sourceCodeContainer,
+                                        HashMap<String, HashMap<Integer, Integer>> lineMappingContainer,
+                                        HashMap<String, Integer> maxJavaLinesContainer,
+                                        HashMap<String, ArrayList<Integer>> basicBlockContainer, TypeHierarchy typeHierarchy, boolean safeMode,
+                                        List<String[]> commonSuperClassQueries, HashMap<String, List<String>> callGraph)
            throws IOException{
       ClassReader classReader = new ClassReader(clazzAsStream);
-      ClassWriter actualWriter = safeMode ? new ClassWriterWithCustomLoader(0, loader) :
-              new ClassWriterWithCustomLoader(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, loader);
+      ClassWriterWithCustomLoader actualWriter = safeMode ? new ClassWriterWithCustomLoader(0, typeHierarchy) :
+              new ClassWriterWithCustomLoader(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, typeHierarchy);
+      actualWriter.recordCommonSuperClassQueries(commonSuperClassQueries);
 
       //wrap a standard class writer inside the custom reader we call a 'instrumenter class writer'
       ClassInstrumenter instrumenter = new ClassInstrumenter(Opcodes.ASM5, actualWriter, fullyQualifiedClassName,
-              methodsToIgnore, sourceCodeContainer, lineMappingContainer, maxJavaLinesContainer);
-      classReader.accept(instrumenter,0);
+              methodsToIgnore, methodIdentifierTable, sourceCodeContainer, lineMappingContainer, maxJavaLinesContainer, basicBlockContainer);
+      if (callGraph != null) //sees the original code only, as it comes before the instrumenter
+         classReader.accept(new ClassCallGraphGenerator(Opcodes.ASM5, instrumenter, fullyQualifiedClassName, callGraph, null, null), 0);
+      else classReader.accept(instrumenter,0);
       clazzAsStream.close();
 
       try{
@@ -152,25 +203,93 @@ public class Instrumenter {
      * @throws IOException : in case stream is broken or invalid
      */
    public static void updateCallGraph(InputStream clazzAsStream, String fullyQualifiedClassName, HashMap<String, List<String>> callGraph) throws IOException {
-      ClassCallGraphGenerator callGraphGen = new ClassCallGraphGenerator(Opcodes.ASM5, fullyQualifiedClassName, callGraph);
+      updateCallGraph(clazzAsStream, fullyQualifiedClassName, callGraph, null, null);
+   }
+
+    /**
+     * Goes through a class and updates the given call graph with that class' information.
+     *
+     * @param clazzAsStream : class to be read, stream will be closed by this method
+     * @param fullyQualifiedClassName : fully qualified name of the class contained in the
+     *                                  stream
+     * @param callGraph : call graph to update, is obviously modified by this method
+     * @param declaredMethods : will be extended by all methods of the class, may be 'null'
+     * @param entryPoints : will be extended by the main methods and JUnit tests of the class,
+     *                      may be 'null'
+     * @throws IOException : in case stream is broken or invalid
+     */
+   public static void updateCallGraph(InputStream clazzAsStream, String fullyQualifiedClassName, HashMap<String, List<String>> callGraph,
+                                      HashSet<String> declaredMethods, HashSet<String> entryPoints) throws IOException {
+      ClassCallGraphGenerator callGraphGen = new ClassCallGraphGenerator(Opcodes.ASM5, fullyQualifiedClassName, callGraph,
+              declaredMethods, entryPoints);
       ClassReader c = new ClassReader(clazzAsStream);
       c.accept(callGraphGen,0);
       clazzAsStream.close();
    }
 
+   /**
+    * Lists the methods of a class that {@link #instrumentClass(InputStream, String, HashSet, MethodIdentifierTable, ClassLoader, boolean)}
+    * would assign an ID to, in the order in which it would do so. Only the headers of the methods are read.
+    *
+    * @param clazzAsStream : class to be read, stream will be closed by this method
+    * @param fullyQualifiedClassName : fully qualified name of the class contained in the stream
+    * @param methodsToIgnore : which methods are to be excluded from instrumentation
+    * @return identifiers of the methods that are to be instrumented
+    * @throws IOException : in case stream is broken or invalid
+    */
+   public static String[] getMethodsToInstrument(InputStream clazzAsStream, final String fullyQualifiedClassName,
+                                                 final HashSet<String> methodsToIgnore) throws IOException {
+      final ArrayList<String> methods = new ArrayList<>();
+      ClassReader c = new ClassReader(clazzAsStream);
+      c.accept(new ClassVisitor(Opcodes.ASM5) {
+         @Override
+         public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            if (!ClassInstrumenter.isToBeIgnored(methodsToIgnore, fullyQualifiedClassName, name, desc))
+               methods.add(fullyQualifiedClassName+"."+name+desc);
+            return null;
+         }
+      }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+      clazzAsStream.close();
+      return methods.toArray(new String[methods.size()]);
+   }
+
    /**
     * Special instrumentation routine intended for the 'CoverageObserver'-class only!
     *
     * @param fullyQualifiedClassName : name of coverage observer class to instrument
     * @param storeWhere : file in which to store the data of this run
+    * @param streamBinaryTraces : 'true' to stream traces to disk in binary format during execution
+    * @param fingerprintValues : 'true' to store only fingerprints of parameters and return values
+    * @param countCoverage : 'true' to count how often each instruction is executed instead of recording traces
     * @return instrumented bytecode of the given class
     */
-   public static byte[] instrumentCoverageObserver(String fullyQualifiedClassName, File storeWhere) throws IOException{
-      ClassReader classReader = new ClassReader(fullyQualifiedClassName);
+   public static byte[] instrumentCoverageObserver(String fullyQualifiedClassName, File storeWhere, boolean streamBinaryTraces, boolean fingerprintValues,
+                                                   boolean countCoverage) throws IOException{
+      return instrumentCoverageObserver(new ClassReader(fullyQualifiedClassName), storeWhere, streamBinaryTraces, fingerprintValues, countCoverage);
+   }
+
+   /**
+    * Special instrumentation routine intended for the 'CoverageObserver'-class only!
+    *
+    * @param classfileBuffer : bytecode of the coverage observer class to instrument
+    * @param storeWhere : file in which to store the data of this run
+    * @param streamBinaryTraces : 'true' to stream traces to disk in binary format during execution
+    * @param fingerprintValues : 'true' to store only fingerprints of parameters and return values
+    * @param countCoverage : 'true' to count how often each instruction is executed instead of recording traces
+    * @return instrumented bytecode of the given class
+    */
+   public static byte[] instrumentCoverageObserver(byte[] classfileBuffer, File storeWhere, boolean streamBinaryTraces, boolean fingerprintValues,
+                                                   boolean countCoverage){
+      return instrumentCoverageObserver(new ClassReader(classfileBuffer), storeWhere, streamBinaryTraces, fingerprintValues, countCoverage);
+   }
+
+   private static byte[] instrumentCoverageObserver(ClassReader classReader, File storeWhere, boolean streamBinaryTraces, boolean fingerprintValues,
+                                                    boolean countCoverage){
       ClassWriter actualWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
 
       //wrap a standard class writer inside the custom reader we call a 'instrumenter class writer'
-      CoverageObserverInstrumenter instrumenter = new CoverageObserverInstrumenter(Opcodes.ASM5, actualWriter, storeWhere);
+      CoverageObserverInstrumenter instrumenter = new CoverageObserverInstrumenter(Opcodes.ASM5, actualWriter, storeWhere, streamBinaryTraces,
+            fingerprintValues, countCoverage);
       classReader.accept(instrumenter,0);
       return actualWriter.toByteArray();
    }
@@ -0,0 +1,328 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.configuration.constants.Globals;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.TypeHierarchy;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
+import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.WeakHashMap;
+
+/**
+ * Instruments classes in memory while they are being loaded instead of rewriting them on disc. Used as
+ * a Java agent by the JVMs executing a version ('-javaagent:jHisteg.jar=settingsFile') and by the class
+ * loader running JUnit tests inside our own JVM. Only classes that originate from the version's compiled
+ * sources and pass the same exclusion rules as during regular instrumentation are touched, the settings
+ * are derived from a {@link hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version} and
+ * handed to the agent as a JSON file.
+ */
+public class LoadTimeInstrumenter implements ClassFileTransformer{
+
+   /** name of the settings file inside a version's main directory */
+   public static final String settingsFileName = "loadTimeInstrumentation";
+
+   /* do not use class literals here, loading the observer before the agent is registered would leave it unprepared */
+   private static final String observationPackage = "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/";
+   private static final String observerClassName = observationPackage+"CoverageObserver";
+
+   private final File[] classpaths;
+   private final HashSet<File> excludedDirectories;
+   private final HashSet<String> ignoreByPrefix;
+   private final HashSet<String> ignoreBySuffix;
+   private final HashSet<String> excludedMethods;
+   private final File exportTracesTo; //may be 'null' if the observer is not to be touched
+   private final boolean streamBinaryTraces;
+   private final boolean fingerprintValues;
+   private final boolean countCoverage;
+   private final boolean safeMode;
+   private final boolean basicBlockProbes;
+
+   private final MethodIdentifierTable methodIdentifierTable; //only valid for this JVM, traces carry the identifiers anyway
+   private final WeakHashMap<ClassLoader, TypeHierarchy> typeHierarchies = new WeakHashMap<>(); //headers are read on demand
+
+   /**
+    * Derives the settings for load-time instrumentation from a version.
+    *
+    * @param v : version to instrument
+    * @param exportTracesTo : file the observer is supposed to export traces to
+    * @param streamBinaryTraces : set to 'true' to make the observer stream traces to disk
+    * @param fingerprintValues : set to 'true' to make the observer fingerprint parameters and return values
+    * @param countCoverage : set to 'true' to make the observer count executed instructions instead of recording traces
+    * @param safeMode : set to 'true' to use a static max-stack increase instead of recomputing
+    * @param basicBlockProbes : set to 'true' to probe only the first instruction of each basic block
+    */
+   public LoadTimeInstrumenter(Version v, File exportTracesTo, boolean streamBinaryTraces, boolean fingerprintValues,
+                               boolean countCoverage, boolean safeMode, boolean basicBlockProbes){
+      this(v, v.getSignaturesOfIgnoredMethods(), exportTracesTo, streamBinaryTraces, fingerprintValues, countCoverage, safeMode,
+            basicBlockProbes);
+   }
+
+   /**
+    * Derives the settings for load-time instrumentation from a version.
+    *
+    * @param v : version to instrument
+    * @param methodsToIgnore : methods excluded from instrumentation, replaces the ones set for the version
+    * @param exportTracesTo : file the observer is supposed to export traces to
+    * @param streamBinaryTraces : set to 'true' to make the observer stream traces to disk
+    * @param fingerprintValues : set to 'true' to make the observer fingerprint parameters and return values
+    * @param countCoverage : set to 'true' to make the observer count executed instructions instead of recording traces
+    * @param safeMode : set to 'true' to use a static max-stack increase instead of recomputing
+    * @param basicBlockProbes : set to 'true' to probe only the first instruction of each basic block
+    */
+   public LoadTimeInstrumenter(Version v, HashSet<String> methodsToIgnore, File exportTracesTo, boolean streamBinaryTraces,
+                               boolean fingerprintValues, boolean countCoverage, boolean safeMode, boolean basicBlockProbes){
+      ArrayList<File> classpaths = new ArrayList<>();
+      classpaths.add(v.getCompiledSourcesDir());
+      if (v.getAdditionalCompiledSourcesDir().exists() && !v.getAdditionalCompiledSourcesDir().equals(v.getCompiledSourcesDir())
+              && !v.getAdditionalCompiledSourcesDir().equals(v.getActualExtractedRepo()))
+         classpaths.add(v.getAdditionalCompiledSourcesDir());
+      this.classpaths = classpaths.toArray(new File[classpaths.size()]);
+      this.excludedDirectories = new HashSet<>(v.getIgnoredDirectories());
+      this.ignoreByPrefix = new HashSet<>(v.getIgnoredPrefixes());
+      this.ignoreBySuffix = new HashSet<>(v.getIgnoredSuffixes());
+      this.excludedMethods = new HashSet<>(methodsToIgnore);
+      this.exportTracesTo = exportTracesTo;
+      this.streamBinaryTraces = streamBinaryTraces;
+      this.fingerprintValues = fingerprintValues;
+      this.countCoverage = countCoverage;
+      this.safeMode = safeMode;
+      this.basicBlockProbes = basicBlockProbes;
+      this.methodIdentifierTable = new MethodIdentifierTable();
+   }
+
+   /**
+    * Imports settings previously exported with {@link #toJSON()}.
+    *
+    * @param o : JSON representation of the settings
+    */
+   public LoadTimeInstrumenter(JSONObject o){
+      JSONArray a = o.getJSONArray("classpaths");
+      this.classpaths = new File[a.length()];
+      for (int i = 0; i<a.length(); ++i)
+         classpaths[i] = new File(a.getString(i));
+      this.excludedDirectories = new HashSet<>();
+      a = o.getJSONArray("excludedDirectories");
+      for (int i = 0; i<a.length(); ++i)
+         excludedDirectories.add(new File(a.getString(i)));
+      this.ignoreByPrefix = toSet(o.getJSONArray("ignoreByPrefix"));
+      this.ignoreBySuffix = toSet(o.getJSONArray("ignoreBySuffix"));
+      this.excludedMethods = toSet(o.getJSONArray("excludedMethods"));
+      this.exportTracesTo = o.has("exportTracesTo") ? new File(o.getString("exportTracesTo")) : null;
+      this.streamBinaryTraces = o.getBoolean("streamBinaryTraces");
+      this.fingerprintValues = o.getBoolean("fingerprintValues");
+      this.countCoverage = o.getBoolean("countCoverage");
+      this.safeMode = o.getBoolean("safeMode");
+      this.basicBlockProbes = o.getBoolean("basicBlockProbes");
+      this.methodIdentifierTable = new MethodIdentifierTable();
+   }
+
+   private static HashSet<String> toSet(JSONArray a){
+      HashSet<String> set = new HashSet<>();
+      for (int i = 0; i<a.length(); ++i)
+         set.add(a.getString(i));
+      return set;
+   }
+
+   /**
+    * @return JSON representation of these settings
+    */
+   public JSONObject toJSON(){
+      JSONObject o = new JSONObject();
+      JSONArray a = new JSONArray();
+      for (File f : classpaths) a.put(f.getAbsolutePath());
+      o.put("classpaths", a);
+      a = new JSONArray();
+      for (File f : excludedDirectories) a.put(f.getAbsolutePath());
+      o.put("excludedDirectories", a);
+      o.put("ignoreByPrefix", new JSONArray(ignoreByPrefix));
+      o.put("ignoreBySuffix", new JSONArray(ignoreBySuffix));
+      o.put("excludedMethods", new JSONArray(excludedMethods));
+      if (exportTracesTo != null) o.put("exportTracesTo", exportTracesTo.getAbsolutePath());
+      o.put("streamBinaryTraces", streamBinaryTraces);
+      o.put("fingerprintValues", fingerprintValues);
+      o.put("countCoverage", countCoverage);
+      o.put("safeMode", safeMode);
+      o.put("basicBlockProbes", basicBlockProbes);
+      return o;
+   }
+
+   /**
+    * Exports these settings into a file, overwriting it without warning.
+    *
+    * @param f : file to write to
+    * @throws IOException if the file cannot be written
+    */
+   public void exportToFile(File f) throws IOException {
+      f.createNewFile(); //overwrite without warning!
+      BufferedWriter writer = new BufferedWriter(new FileWriter(f));
+      writer.write(toJSON().toString(Globals.jsonIndentFactor));
+      writer.close();
+   }
+
+   /**
+    * Entry point of the Java agent, registers the instrumenter on the JVM.
+    *
+    * @param agentArgs : absolute path to the settings file
+    * @param instrumentation : provided by the JVM
+    */
+   public static void premain(String agentArgs, Instrumentation instrumentation) {
+      if (agentArgs == null || agentArgs.isEmpty())
+         throw new IllegalArgumentException("Expecting the path to a load-time instrumentation settings file as agent argument!");
+      try {
+         File settings = new File(agentArgs);
+         instrumentation.addTransformer(new LoadTimeInstrumenter(new JSONObject(FileUtils.readData(settings))));
+
+         /* Instrumenting a class refers to the observer, but classes loaded while a transformer is running never
+          * pass through any transformer. Load it right now so that it is prepared before that can happen. */
+         Class.forName(observerClassName.replace("/", "."), false, LoadTimeInstrumenter.class.getClassLoader());
+      } catch (IOException e) {
+         Tool.printError("Failed to read load-time instrumentation settings from '"+agentArgs+"', nothing will be instrumented!");
+         Tool.printDebug(e);
+      } catch (ClassNotFoundException e) {
+         Tool.printError("Failed to prepare the coverage observer, no traces will be exported!");
+         Tool.printDebug(e);
+      }
+   }
+
+   /**
+    * @return the JAR this class was loaded from, which can be used as a Java agent, or 'null'
+    *         if the tool is not being run from a JAR
+    */
+   public static File getAgentJar(){
+      CodeSource source = LoadTimeInstrumenter.class.getProtectionDomain().getCodeSource();
+      if (source == null) return null;
+      try {
+         File f = new File(source.getLocation().toURI());
+         return f.isFile() && f.getName().toLowerCase().endsWith(".jar") ? f : null;
+      } catch (URISyntaxException e) {
+         return null;
+      }
+   }
+
+   /**
+    * @param settingsFile : the settings to use
+    * @return the JVM option that makes a JVM load the agent with the given settings, 'null' if the
+    *         tool is not being run from a JAR
+    */
+   public static String getAgentOption(File settingsFile){
+      File jar = getAgentJar();
+      if (jar == null) return null;
+      return "-javaagent:"+jar.getAbsolutePath()+"="+settingsFile.getAbsolutePath();
+   }
+
+   @Override
+   public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                           ProtectionDomain protectionDomain, byte[] classfileBuffer) {
+      if (className == null || classBeingRedefined != null) return null; //no retransformation!
+
+      if (className.startsWith(observationPackage)){
+         if (className.equals(observerClassName) && exportTracesTo != null){
+            //the observer stems from our JAR and needs to know where to export to, just like when injecting it
+            try {
+               return Instrumenter.instrumentCoverageObserver(classfileBuffer, exportTracesTo, streamBinaryTraces, fingerprintValues,
+                     countCoverage);
+            } catch (Exception e) {
+               Tool.printError("Failed to prepare the coverage observer, no traces will be exported!");
+               Tool.printDebug(e);
+            }
+         }
+         return null; //never instrument our own code
+      }
+
+      if (protectionDomain == null || protectionDomain.getCodeSource() == null) return null;
+      URL location = protectionDomain.getCodeSource().getLocation();
+      if (location == null || !"file".equals(location.getProtocol())) return null;
+      try {
+         File classpath = new File(location.toURI());
+         return instrument(className, new File(classpath, className+".class"), classfileBuffer, loader);
+      } catch (URISyntaxException e) {
+         return null;
+      }
+   }
+
+   /**
+    * Instruments a class if it originates from the version's compiled sources and is not excluded.
+    *
+    * @param className : internal name of the class, e.g. 'myPackage/MyClass'
+    * @param classFile : file the class has been loaded from
+    * @param classfileBuffer : bytecode of the class, will not be modified
+    * @param loader : loader loading the class, used to compute stack map frames
+    * @return the instrumented bytecode or 'null' if the class is to be left untouched
+    */
+   public byte[] instrument(String className, File classFile, byte[] classfileBuffer, ClassLoader loader){
+      if (!isToBeInstrumented(className, classFile)) return null;
+
+      String fullyQualifiedClassName = className.replace("/", ".");
+      HashMap<String, ArrayList<Integer>> basicBlockContainer = basicBlockProbes ? new HashMap<String, ArrayList<Integer>>() : null;
+      try {
+         byte[] result = Instrumenter.instrumentClass(new ByteArrayInputStream(classfileBuffer), fullyQualifiedClassName,
+                 excludedMethods, methodIdentifierTable, null, null, null, basicBlockContainer, getTypeHierarchy(loader), safeMode,
+                 null, null);
+         if (result == null && !safeMode){
+            //the static increase does not need any frames, maybe that works
+            Tool.printDebug("retrying instrumentation of '"+fullyQualifiedClassName+"' with a static max-stack increase");
+            result = Instrumenter.instrumentClass(new ByteArrayInputStream(classfileBuffer), fullyQualifiedClassName,
+                    excludedMethods, methodIdentifierTable, null, null, null, basicBlockContainer, getTypeHierarchy(loader), true,
+                    null, null);
+         }
+         if (result == null)
+            Tool.printError("Instrumentation failed for class '"+fullyQualifiedClassName+"', it will not be observed");
+         return result;
+      } catch (Throwable t) {
+         //never let anything escape, the JVM would silently discard our result anyway
+         Tool.printError("Instrumentation failed for class '"+fullyQualifiedClassName+"', it will not be observed");
+         Tool.printDebug(t);
+         return null;
+      }
+   }
+
+   /**
+    * Classes must not be loaded while another one is being loaded, so frames are computed from class headers
+    * that are read through the loader as resources.
+    *
+    * @param loader : loader loading the class to instrument
+    * @return type hierarchy as seen by this loader
+    */
+   private TypeHierarchy getTypeHierarchy(ClassLoader loader){
+      synchronized (typeHierarchies){
+         TypeHierarchy hierarchy = typeHierarchies.get(loader);
+         if (hierarchy == null){
+            hierarchy = TypeHierarchy.withWeakFallback(loader); //must not keep its key alive
+            typeHierarchies.put(loader, hierarchy);
+         }
+         return hierarchy;
+      }
+   }
+
+   private boolean isToBeInstrumented(String className, File classFile){
+      boolean fromCompiledSources = false;
+      for (File classpath : classpaths)
+         if (FileUtils.isSubDirectoryOrFile(classpath, classFile)) {
+            fromCompiledSources = true;
+            break;
+         }
+      if (!fromCompiledSources) return false;
+
+      for (File excluded : excludedDirectories)
+         if (FileUtils.isSubDirectoryOrFile(excluded, classFile)) return false;
+
+      String simpleName = className.substring(className.lastIndexOf("/")+1);
+      return !Version.isClassToBeIgnored(simpleName, ignoreByPrefix, ignoreBySuffix);
+   }
+}
@@ -0,0 +1,111 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.configuration.constants.Globals;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Side-table of instrumentation that assigns a dense integer ID to every instrumented method.
+ * Injected probes pass these IDs instead of the full 'ClassName.FullMethodSignature' identifier
+ * so that the observer only has to compare integers for every executed instruction. The table
+ * is persisted next to the traces, as a JSON array in which the position of a method's identifier
+ * is its ID, and can thus always be used to translate IDs back to methods.
+ */
+public class MethodIdentifierTable {
+
+    private final HashMap<String, Integer> idOfMethod;
+    private final ArrayList<String> methodOfId;
+
+    /**
+     * Creates a new, empty table.
+     */
+    public MethodIdentifierTable(){
+        idOfMethod = new HashMap<>();
+        methodOfId = new ArrayList<>();
+    }
+
+    /**
+     * Imports a table from JSON.
+     *
+     * @param a : JSONArray containing the method identifiers, ordered by ID
+     */
+    public MethodIdentifierTable(JSONArray a){
+        this();
+        for (int i = 0; i<a.length(); ++i)
+            getIdOf(a.getString(i));
+    }
+
+    /**
+     * Imports a table from a file if it exists, otherwise an empty table is created.
+     *
+     * @param f : file containing a previously exported table
+     * @return the table
+     * @throws IOException if the file exists but cannot be read
+     */
+    public static MethodIdentifierTable importFromFile(File f) throws IOException {
+        if (f.exists() && f.isFile())
+            return new MethodIdentifierTable(new JSONArray(FileUtils.readData(f)));
+        return new MethodIdentifierTable();
+    }
+
+    /**
+     * Returns the ID of a method, a new one is assigned if the method has not been encountered before.
+     *
+     * @param identifierOfMethod : identifier of the method aka 'ClassName.FullMethodSignature'
+     * @return ID of the method
+     */
+    public synchronized int getIdOf(String identifierOfMethod){
+        Integer id = idOfMethod.get(identifierOfMethod);
+        if (id == null){
+            id = methodOfId.size();
+            methodOfId.add(identifierOfMethod);
+            idOfMethod.put(identifierOfMethod, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param id : ID of a method
+     * @return identifier of the method aka 'ClassName.FullMethodSignature', 'null' if the ID is unknown
+     */
+    public synchronized String getIdentifierOf(int id){
+        if (id < 0 || id >= methodOfId.size()) return null;
+        return methodOfId.get(id);
+    }
+
+    /**
+     * @return amount of methods in this table
+     */
+    public synchronized int size(){
+        return methodOfId.size();
+    }
+
+    /**
+     * Exports this table to JSON.
+     *
+     * @return new JSONArray containing all method identifiers, ordered by ID
+     */
+    public synchronized JSONArray toJSON(){
+        return new JSONArray(methodOfId);
+    }
+
+    /**
+     * Exports this table into a file, overwriting it without warning.
+     *
+     * @param f : file to write to
+     * @throws IOException if the file cannot be written
+     */
+    public void exportToFile(File f) throws IOException {
+        f.createNewFile(); //overwrite without warning!
+        BufferedWriter writer = new BufferedWriter(new FileWriter(f));
+        writer.write(toJSON().toString(Globals.jsonIndentFactor));
+        writer.close();
+    }
+}
@@ -2,11 +2,13 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.tr
 
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONWriter;
 
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Models the call graph of an entire version, aka contains data about which method *CAN* call
@@ -64,6 +66,23 @@ public class CallGraph {
         return result;
     }
 
+    /**
+     * Exports this call graph to JSON without building it in memory first, the result is the same as
+     * the one of {@link #toJSON()}.
+     *
+     * @param writer : writer to add the call graph to as an array
+     */
+    public void write(JSONWriter writer){
+        writer.array();
+        for (String s : callGraph.keySet()){
+            writer.object().key("canCall").array();
+            for (String callee : callGraph.get(s))
+                writer.value(callee);
+            writer.endArray().key("method").value(s).endObject();
+        }
+        writer.endArray();
+    }
+
     /**
      * Shortest-path method.
      *
@@ -146,4 +165,107 @@ public class CallGraph {
         return getDistanceTo(caller, h).get(callee);
     }
 
+    /**
+     * Computes the 'change cone' of a set of changes, that is all methods that can be called by a
+     * changed method or that can call a changed method with at most the given number of calls in
+     * between. Since the call graph only knows the static target of a call, a call is assumed to
+     * possibly reach every method with the same name and descriptor (overriding methods).
+     *
+     * @param changedEntities : fully qualified identifiers of changed methods, a fully qualified
+     *                          class name marks all methods of that class as changed
+     * @param declaredMethods : all methods that have been read to build this call graph, including
+     *                          the ones that do not call anything
+     * @param maxDistance : maximum number of calls between a method in the cone and a changed one,
+     *                      use 0 to obtain only the changed methods themselves
+     * @return identifiers of all declared methods inside the cone
+     */
+    public HashSet<String> getImpactCone(Set<String> changedEntities, Set<String> declaredMethods, int maxDistance){
+        assert(maxDistance >= 0);
+        HashMap<String, List<String>> bySignature = new HashMap<>();
+        LinkedList<String> changedMethods = new LinkedList<>();
+        for (String method : declaredMethods){
+            if (changedEntities.contains(method) || changedEntities.contains(getClassOfMethod(method)))
+                changedMethods.add(method);
+            String signature = getSignatureOfMethod(method);
+            if (!bySignature.containsKey(signature))
+                bySignature.put(signature, new LinkedList<String>());
+            bySignature.get(signature).add(method);
+        }
+
+        //resolve the targets of all calls once, in both directions
+        HashMap<String, List<String>> callees = new HashMap<>();
+        HashMap<String, List<String>> callers = new HashMap<>();
+        for (String method : callGraph.keySet()){
+            List<String> targets = new LinkedList<>();
+            for (String called : callGraph.get(method)){
+                String signature = getSignatureOfMethod(called);
+                if (signature.startsWith("<") || !bySignature.containsKey(signature)) //constructors are never overridden
+                    targets.add(called);
+                else {
+                    targets.addAll(bySignature.get(signature));
+                    if (!declaredMethods.contains(called)) targets.add(called);
+                }
+            }
+            callees.put(method, targets);
+            for (String target : targets){
+                if (!callers.containsKey(target))
+                    callers.put(target, new LinkedList<String>());
+                callers.get(target).add(method);
+            }
+        }
+
+        HashSet<String> cone = new HashSet<>();
+        cone.addAll(collectWithinDistance(changedMethods, maxDistance, callers)); //what can reach a change
+        cone.addAll(collectWithinDistance(changedMethods, maxDistance, callees)); //what a change can reach
+        cone.retainAll(declaredMethods); //foreign methods are never instrumented anyway
+        return cone;
+    }
+
+    /**
+     * Breadth-first search starting at multiple methods at once.
+     *
+     * @param start : methods at distance 0
+     * @param maxDistance : maximum distance to explore
+     * @param edges : edges to follow
+     * @return all methods found
+     */
+    private static HashSet<String> collectWithinDistance(List<String> start, int maxDistance, HashMap<String, List<String>> edges){
+        HashSet<String> visitedAlready = new HashSet<>(start);
+        List<String> currentDistance = start;
+        for (int distance = 0; distance < maxDistance && !currentDistance.isEmpty(); ++distance){
+            LinkedList<String> nextDistance = new LinkedList<>();
+            for (String method : currentDistance){
+                List<String> neighbours = edges.get(method);
+                if (neighbours == null) continue; //foreign source code, calls nothing or is never called
+
+                for (String s : neighbours)
+                    if (visitedAlready.add(s))
+                        nextDistance.add(s);
+            }
+            currentDistance = nextDistance;
+        }
+        return visitedAlready;
+    }
+
+    /**
+     * @param methodIdentifier : fully qualified identifier of a method including its descriptor
+     * @return fully qualified name of the class declaring the method
+     */
+    private static String getClassOfMethod(String methodIdentifier){
+        int endOfName = methodIdentifier.indexOf('(');
+        if (endOfName < 0) endOfName = methodIdentifier.length();
+        int endOfClass = methodIdentifier.lastIndexOf('.', endOfName);
+        return endOfClass < 0 ? methodIdentifier : methodIdentifier.substring(0, endOfClass);
+    }
+
+    /**
+     * @param methodIdentifier : fully qualified identifier of a method including its descriptor
+     * @return name and descriptor of the method
+     */
+    private static String getSignatureOfMethod(String methodIdentifier){
+        int endOfName = methodIdentifier.indexOf('(');
+        if (endOfName < 0) endOfName = methodIdentifier.length();
+        return methodIdentifier.substring(methodIdentifier.lastIndexOf('.', endOfName)+1);
+    }
+
 }
@@ -2,20 +2,53 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.tr
 
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
-/** Special instrumenter that does not instrument anything but only goes through source code to create a call graph !*/
+/** Special instrumenter that does not instrument anything but only goes through source code to create a call graph! It may
+ *  be put in front of another visitor, e.g. the actual instrumenter, to obtain the call graph in the same pass. */
 public class ClassCallGraphGenerator extends ClassVisitor{
 
    private final String fullyQualifiedClassName;
    private final HashMap<String, List<String>> callGraph;
+   private final HashSet<String> declaredMethods;
+   private final HashSet<String> entryPoints;
 
    public ClassCallGraphGenerator(int api, String fullyQualifiedClassName, HashMap<String, List<String>> callGraph) {
-      super(api);
+      this(api, fullyQualifiedClassName, callGraph, null, null);
+   }
+
+   /**
+    * @param api : ASM api version
+    * @param fullyQualifiedClassName : name of the class that is being read
+    * @param callGraph : call graph to update
+    * @param declaredMethods : will contain all methods of this class, even the ones that do not call
+    *                          anything and are thus missing in the call graph. May be 'null'
+    * @param entryPoints : will contain all main methods and JUnit tests of this class, may be 'null'
+    */
+   public ClassCallGraphGenerator(int api, String fullyQualifiedClassName, HashMap<String, List<String>> callGraph,
+                                  HashSet<String> declaredMethods, HashSet<String> entryPoints) {
+      this(api, null, fullyQualifiedClassName, callGraph, declaredMethods, entryPoints);
+   }
+
+   /**
+    * @param api : ASM api version
+    * @param cv : visitor to which all events are passed on unchanged, may be 'null'
+    * @param fullyQualifiedClassName : name of the class that is being read
+    * @param callGraph : call graph to update
+    * @param declaredMethods : will contain all methods of this class, may be 'null'
+    * @param entryPoints : will contain all main methods and JUnit tests of this class, may be 'null'
+    */
+   public ClassCallGraphGenerator(int api, ClassVisitor cv, String fullyQualifiedClassName, HashMap<String, List<String>> callGraph,
+                                  HashSet<String> declaredMethods, HashSet<String> entryPoints) {
+      super(api, cv);
       this.fullyQualifiedClassName = fullyQualifiedClassName;
       this.callGraph = callGraph;
+      this.declaredMethods = declaredMethods;
+      this.entryPoints = entryPoints;
    }
 
    @Override
@@ -23,7 +56,17 @@ public class ClassCallGraphGenerator extends ClassVisitor{
       MethodVisitor methodVisitor = super.visitMethod(access, methodName, methodDescriptor, signature, exceptions);
 
       String identifierOfMethod = fullyQualifiedClassName+"."+methodName+methodDescriptor;
-      return new MethodCallGraphGenerator(api, methodVisitor, identifierOfMethod, callGraph);
+      if (declaredMethods != null)
+         declaredMethods.add(identifierOfMethod);
+      if (entryPoints != null){
+         boolean isPublic = (access & Opcodes.ACC_PUBLIC) != 0;
+         boolean isStatic = (access & Opcodes.ACC_STATIC) != 0;
+         if (isPublic && isStatic && methodName.equals("main") && methodDescriptor.equals("([Ljava/lang/String;)V"))
+            entryPoints.add(identifierOfMethod);
+         else if (isPublic && !isStatic && methodName.startsWith("test") && methodDescriptor.equals("()V"))
+            entryPoints.add(identifierOfMethod); //JUnit 3 style, annotated tests are detected by the method visitor
+      }
+      return new MethodCallGraphGenerator(api, methodVisitor, identifierOfMethod, callGraph, entryPoints);
    }
 }
 
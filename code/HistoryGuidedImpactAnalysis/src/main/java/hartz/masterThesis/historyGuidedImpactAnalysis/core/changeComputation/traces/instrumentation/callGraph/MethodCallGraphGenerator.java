@@ -1,9 +1,11 @@
 package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.callGraph;
 
+import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.Handle;
 import org.objectweb.asm.MethodVisitor;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -12,12 +14,19 @@ public class MethodCallGraphGenerator extends MethodVisitor{
 
     private final String myIdentifier;
     private final HashMap<String, List<String>> callGraph;
+    private final HashSet<String> entryPoints;
 
     public MethodCallGraphGenerator(int api, MethodVisitor methodVisitor, String myIdentifier,
                                     HashMap<String, List<String>> callGraph) {
+        this(api, methodVisitor, myIdentifier, callGraph, null);
+    }
+
+    public MethodCallGraphGenerator(int api, MethodVisitor methodVisitor, String myIdentifier,
+                                    HashMap<String, List<String>> callGraph, HashSet<String> entryPoints) {
         super(api, methodVisitor);
         this.myIdentifier = myIdentifier;
         this.callGraph = callGraph;
+        this.entryPoints = entryPoints;
     }
 
     /** Stores that a method can call another :-) */
@@ -27,6 +36,13 @@ public class MethodCallGraphGenerator extends MethodVisitor{
         callGraph.get(myIdentifier).add(called);
     }
 
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        if (entryPoints != null && desc.equals("Lorg/junit/Test;"))
+            entryPoints.add(myIdentifier); //JUnit 4 test, will be called by the test runner
+        return super.visitAnnotation(desc, visible);
+    }
+
     @Override
     /**
      * INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC or INVOKEINTERFACE.
@@ -0,0 +1,53 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import java.util.HashSet;
+
+/**
+ * Buffers an entire method before handing it to a {@link MethodInstrumenter} that places one probe per basic
+ * block. Backward jumps (e.g. loops) target labels that have long been visited when the jump is encountered,
+ * so we need to know all targets of jumps, switches and exception handlers before instrumentation starts.
+ */
+public class BasicBlockAnalyzer extends MethodNode {
+
+   private final MethodInstrumenter instrumenter;
+
+   public BasicBlockAnalyzer(int api, int access, String methodName, String methodDescriptor, String signature,
+                             String[] exceptions, MethodInstrumenter instrumenter) {
+      super(api, access, methodName, methodDescriptor, signature, exceptions);
+      this.instrumenter = instrumenter;
+   }
+
+   @Override
+   public void visitEnd() {
+      HashSet<Label> jumpTargets = new HashSet<>();
+      for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()){
+         if (insn instanceof JumpInsnNode)
+            jumpTargets.add(((JumpInsnNode) insn).label.getLabel());
+         else if (insn instanceof TableSwitchInsnNode){
+            TableSwitchInsnNode s = (TableSwitchInsnNode) insn;
+            jumpTargets.add(s.dflt.getLabel());
+            for (Object l : s.labels) jumpTargets.add(((LabelNode) l).getLabel());
+         }
+         else if (insn instanceof LookupSwitchInsnNode){
+            LookupSwitchInsnNode s = (LookupSwitchInsnNode) insn;
+            jumpTargets.add(s.dflt.getLabel());
+            for (Object l : s.labels) jumpTargets.add(((LabelNode) l).getLabel());
+         }
+      }
+      for (Object t : tryCatchBlocks) //ASM 5 still uses raw lists here
+         jumpTargets.add(((TryCatchBlockNode) t).handler.getLabel());
+
+      //now that the whole method is known, instrument it
+      instrumenter.setJumpTargets(jumpTargets);
+      accept(instrumenter);
+   }
+}
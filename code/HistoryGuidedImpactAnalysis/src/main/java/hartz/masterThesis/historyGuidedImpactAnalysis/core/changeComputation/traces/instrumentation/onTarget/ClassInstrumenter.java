@@ -1,5 +1,6 @@
 package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget;
 
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.MethodIdentifierTable;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.MethodVisitor;
@@ -23,10 +24,12 @@ public class ClassInstrumenter extends ClassVisitor{
    private final int asmAPI;
    private final String className;
    private final HashSet<String> methodsToIgnore;
+   private final MethodIdentifierTable methodIdentifierTable;
 
    private final HashMap<String, ArrayList<String>> methodSourceCode;
    private final HashMap<String, HashMap<Integer, Integer>> methodJavaLinesToBytecodeInstr;
    private final HashMap<String, Integer> maxJavaLines;
+   private final HashMap<String, ArrayList<Integer>> basicBlockStarts;
 
     /**
      * Creates a new class instrumenter that will add code to make the subject class
@@ -36,7 +39,10 @@ public class ClassInstrumenter extends ClassVisitor{
      * @param writer : class writer to use
      * @param fullyQualifiedClassName : fully qualified name of the class that is
      *                                  being instrumented
-     * @param methodsToIgnore : signatures of methods to skip
+     * @param methodsToIgnore : signatures of methods to skip, either for all classes or
+     *                          fully qualified for a single method
+    * @param methodIdentifierTable : table assigning IDs to instrumented methods, may
+    *                                already contain methods of other classes
      * @param methodSourceCodeContainer : container to store encountered source code in,
      *                                    can be set to 'null' to disable this feature
      * @param lineMappingContainer : container to store encountered jave line lables in,
@@ -44,18 +50,25 @@ public class ClassInstrumenter extends ClassVisitor{
      * @param maxJavaLinesContainer : container to store the maximum line label
      *                                encountered in, can be set to 'null' to disable
      *                                this feature
+     * @param basicBlockContainer : container to store the first instruction of each
+     *                              basic block in, only these are probed if given. Can
+     *                              be set to 'null' to probe every instruction instead
      */
    public ClassInstrumenter(int api, ClassWriter writer, String fullyQualifiedClassName, HashSet<String> methodsToIgnore,
+                            MethodIdentifierTable methodIdentifierTable,
                             HashMap<String, ArrayList<String>> methodSourceCodeContainer,
                             HashMap<String, HashMap<Integer, Integer>> lineMappingContainer,
-                            HashMap<String, Integer> maxJavaLinesContainer) {
+                            HashMap<String, Integer> maxJavaLinesContainer,
+                            HashMap<String, ArrayList<Integer>> basicBlockContainer) {
       super(api, writer);
       this.asmAPI = api;
       this.className = fullyQualifiedClassName;
       this.methodsToIgnore = methodsToIgnore;
+      this.methodIdentifierTable = methodIdentifierTable;
       this.methodSourceCode = methodSourceCodeContainer;
       this.methodJavaLinesToBytecodeInstr = lineMappingContainer;
       this.maxJavaLines = maxJavaLinesContainer;
+      this.basicBlockStarts = basicBlockContainer;
       assert( //either the feature is disabled or enabled but no hybrid setting may be used!
               (methodSourceCode != null && methodJavaLinesToBytecodeInstr != null) ||
               (methodSourceCode == null && methodJavaLinesToBytecodeInstr == null)
@@ -66,11 +79,27 @@ public class ClassInstrumenter extends ClassVisitor{
    public MethodVisitor visitMethod(int access, String methodName, String methodDescriptor, String signature, String[] exceptions) {   
       MethodVisitor methodVisitor = super.visitMethod(access, methodName, methodDescriptor, signature, exceptions);    
       boolean isStatic = ((access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC); //this works, tested by the singleThread Test!
+      if (isToBeIgnored(methodsToIgnore, className, methodName, methodDescriptor))
+         return methodVisitor; //we need to ignore it, return the standard visitor (and do not waste an ID on it)
+
       MethodInstrumenter instrumenter = new MethodInstrumenter(asmAPI, isStatic, methodVisitor, className, methodDescriptor, methodName,
-              methodSourceCode, methodJavaLinesToBytecodeInstr, maxJavaLines);
-      if (methodsToIgnore.contains(instrumenter.getSignatureOfMethod()))
-         return methodVisitor; //we need to ignore it, return the standard visitor after all
-      else return instrumenter; //instrument it!
+              methodIdentifierTable, methodSourceCode, methodJavaLinesToBytecodeInstr, maxJavaLines, basicBlockStarts);
+      if (basicBlockStarts == null)
+         return instrumenter; //instrument it!
+      else //we need to know all jump targets first, instrument it once it has been read completely!
+         return new BasicBlockAnalyzer(asmAPI, access, methodName, methodDescriptor, signature, exceptions, instrumenter);
    }
-}
 
+   /**
+    * @param methodsToIgnore : signatures of methods to skip, either for all classes or fully qualified
+    * @param fullyQualifiedClassName : name of the class declaring the method
+    * @param methodName : name of the method
+    * @param methodDescriptor : type descriptor of the method
+    * @return 'true' if the method is not to be instrumented
+    */
+   public static boolean isToBeIgnored(HashSet<String> methodsToIgnore, String fullyQualifiedClassName,
+                                       String methodName, String methodDescriptor){
+      return methodsToIgnore.contains(methodName+methodDescriptor) ||
+              methodsToIgnore.contains(fullyQualifiedClassName+"."+methodName+methodDescriptor);
+   }
+}
@@ -3,10 +3,13 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.tr
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
 
+import java.util.List;
+
 /** Overwrites some functionality of ASM so that they are compatible with our own purposes... */
 public class ClassWriterWithCustomLoader extends ClassWriter{
 
-    private final ClassLoader loader;
+    private final TypeHierarchy typeHierarchy;
+    private List<String[]> commonSuperClassQueries;
 
     /**
      * Creates a custom asm class writer that uses a given class loader to obtain
@@ -25,8 +28,21 @@ public class ClassWriterWithCustomLoader extends ClassWriter{
      * @param loader      Class loader used to obtain referenced classes
      */
     public ClassWriterWithCustomLoader(ClassReader classReader, int flags, ClassLoader loader) {
+        this(classReader, flags, new TypeHierarchy(loader));
+    }
+
+    /**
+     * Creates a custom asm class writer that obtains referenced classes from a type hierarchy
+     * if necessary (e.g. if the instrumented class extends something)
+     *
+     * @param classReader the {@link org.objectweb.asm.ClassReader} used to read the original class
+     * @param flags       option flags that can be used to modify the default behavior
+     *                    of this class. See {@link #COMPUTE_MAXS}, {@link #COMPUTE_FRAMES}.
+     * @param typeHierarchy super classes and interfaces of referenced classes
+     */
+    public ClassWriterWithCustomLoader(ClassReader classReader, int flags, TypeHierarchy typeHierarchy) {
         super(classReader, flags);
-        this.loader = loader;
+        this.typeHierarchy = typeHierarchy;
     }
 
     /**
@@ -39,18 +55,28 @@ public class ClassWriterWithCustomLoader extends ClassWriter{
      * @param loader class loader used to obtain referenced classes
      */
     public ClassWriterWithCustomLoader(int flags, ClassLoader loader) {
+        this(flags, new TypeHierarchy(loader));
+    }
+
+    /**
+     * Creates a custom asm class writer that obtains referenced classes from a type hierarchy
+     * if necessary (e.g. if the instrumented class extends something)
+     *
+     * @param flags  option flags that can be used to modify the default behavior
+     *               of this class. See {@link #COMPUTE_MAXS},
+     *               {@link #COMPUTE_FRAMES}.
+     * @param typeHierarchy super classes and interfaces of referenced classes
+     */
+    public ClassWriterWithCustomLoader(int flags, TypeHierarchy typeHierarchy) {
         super(flags);
-        this.loader = loader;
+        this.typeHierarchy = typeHierarchy;
     }
 
     /**
      * Returns the common super type of the two given types. The default
      * implementation of this method <i>loads</i> the two given classes and uses
-     * the java.lang.Class methods to find the common super class. It can be
-     * overridden to compute this common super type in other ways, in particular
-     * without actually loading any class, or to take into account the class
-     * that is currently being generated by this ClassWriter, which can of
-     * course not be loaded since it is under construction.
+     * the java.lang.Class methods to find the common super class. We look them
+     * up in our type hierarchy instead, which only reads class headers.
      *
      * @param type1
      *            the internal name of a class.
@@ -60,26 +86,19 @@ public class ClassWriterWithCustomLoader extends ClassWriter{
      *         classes.
      */
     protected String getCommonSuperClass(final String type1, final String type2) {
-        Class<?> c, d;
-        try {
-            c = Class.forName(type1.replace('/', '.'), false, loader);
-            d = Class.forName(type2.replace('/', '.'), false, loader);
-        } catch (Exception e) {
-            throw new RuntimeException(e.toString());
-        }
-        if (c.isAssignableFrom(d)) {
-            return type1;
-        }
-        if (d.isAssignableFrom(c)) {
-            return type2;
-        }
-        if (c.isInterface() || d.isInterface()) {
-            return "java/lang/Object";
-        } else {
-            do {
-                c = c.getSuperclass();
-            } while (!c.isAssignableFrom(d));
-            return c.getName().replace('.', '/');
-        }
+        String result = typeHierarchy.getCommonSuperClass(type1, type2);
+        if (commonSuperClassQueries != null)
+            commonSuperClassQueries.add(new String[]{type1, type2, result});
+        return result;
+    }
+
+    /**
+     * Records every common super class that is computed from now on, allowing to check later whether
+     * the computed stack map frames are still correct for a given class hierarchy.
+     *
+     * @param queries : list to which triples of both types and the result are added
+     */
+    public void recordCommonSuperClassQueries(List<String[]> queries) {
+        this.commonSuperClassQueries = queries;
     }
 }
@@ -1,11 +1,13 @@
 package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget;
 
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.MethodIdentifierTable;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserver;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.OpcodeTranslator;
 import org.objectweb.asm.*;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Set;
 
 /**
  * Instruments methods so that they observe and store their own execution. This instrumenter injects
@@ -23,27 +25,36 @@ public class MethodInstrumenter extends MethodVisitor{
     private final String methodDescriptor;
     private final String className;
     private final String identifierOfMethod;
+    private final int idOfMethod; //passed by all probes except the first one, much cheaper to compare than the identifier
     private final boolean isStatic;
     private final Type[] parameterTypes;
 
     private final ArrayList<String> sourceCode;
     private final HashMap<Integer, Integer> bytecodeIndexToJavaLineMapping;
     private final HashMap<String, Integer> maxJavaLineEncountered;
+    private final ArrayList<Integer> basicBlockStarts; //'null' unless we place one probe per basic block
+
+    private Set<Label> jumpTargets; //only known in basic block mode, see BasicBlockAnalyzer
+    private boolean startsNewBasicBlock; //'true' if the next instruction is the first one of a basic block
 
     private final int maxStackIncreaser = 12;
+    private static final String parameterStageClass = "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/ParameterStage";
 
     private int bytecodeInstructionCounter;
     private int javaLineNumber; //only used if there are debug line number statements
 
     public MethodInstrumenter(int api, boolean isStatic, MethodVisitor methodVisitor, String fullyQualifiedClassName, String methodDescriptor,
-                              String methodName, HashMap<String, ArrayList<String>> methodSourceCodeContainer,
+                              String methodName, MethodIdentifierTable methodIdentifierTable,
+                              HashMap<String, ArrayList<String>> methodSourceCodeContainer,
                               HashMap<String, HashMap<Integer, Integer>> lineMappingContainer,
-                              HashMap<String, Integer> maxJavaLinesContainer) {
+                              HashMap<String, Integer> maxJavaLinesContainer,
+                              HashMap<String, ArrayList<Integer>> basicBlockContainer) {
         super(api, methodVisitor);
         this.methodName = methodName;
         this.methodDescriptor = methodDescriptor;
         this.className = fullyQualifiedClassName;
         this.identifierOfMethod = fullyQualifiedClassName+"."+methodName+methodDescriptor;
+        this.idOfMethod = methodIdentifierTable.getIdOf(identifierOfMethod);
         this.parameterTypes = Type.getArgumentTypes(methodDescriptor);
         this.isStatic = isStatic;
         this.javaLineNumber = -1; //not all classes come with line labels
@@ -66,6 +77,15 @@ public class MethodInstrumenter extends MethodVisitor{
             maxJavaLineEncountered = null;
         }
 
+        if (basicBlockContainer != null){
+            /* Probe only the first instruction of each basic block, the exported starts make it possible
+             * to expand these probes back into all instructions of the block during analysis */
+            this.basicBlockStarts = new ArrayList<>();
+            basicBlockContainer.put(identifierOfMethod, this.basicBlockStarts);
+        } else this.basicBlockStarts = null;
+        this.jumpTargets = null;
+        this.startsNewBasicBlock = true; //the first instruction always starts one
+
         bytecodeInstructionCounter = 0;
     }
 
@@ -73,6 +93,54 @@ public class MethodInstrumenter extends MethodVisitor{
         return methodName+methodDescriptor;
     }
 
+    /**
+     * Must be called before the code of the method is visited if probes are placed per basic block.
+     *
+     * @param jumpTargets : all labels that are targeted by jumps, switches or exception handlers
+     */
+    public void setJumpTargets(Set<Label> jumpTargets){
+        assert(basicBlockStarts != null);
+        this.jumpTargets = jumpTargets;
+    }
+
+    /**
+     * A basic block ends with any instruction that modifies the control flow. We also end it after each
+     * invocation, so that the nested trace of an invoked method is stored behind the block in which the
+     * invocation happened and the instruction sequence matches the one obtained when probing every
+     * instruction. Note that instructions that may throw implicitly (e.g. a GETFIELD on 'null') do not
+     * end a block, an exception thrown by them is the only case in which a block is not executed fully.
+     *
+     * @param opcode : opcode of an instruction
+     * @return 'true' if the instruction after this one starts a new basic block
+     */
+    private static boolean endsBasicBlock(int opcode){
+        return OpcodeTranslator.modifiesControlFlow(opcode) ||
+                (opcode >= Opcodes.INVOKEVIRTUAL && opcode <= Opcodes.INVOKEDYNAMIC);
+    }
+
+    /**
+     * Pushes an integer constant onto the stack using the shortest instruction available, which
+     * avoids creating constant pool entries for all the small values our probes need.
+     *
+     * @param value : constant to push
+     */
+    private void pushIntConstant(int value){
+        if (value >= -1 && value <= 5)
+            super.visitInsn(Opcodes.ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+            super.visitIntInsn(Opcodes.BIPUSH, value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+            super.visitIntInsn(Opcodes.SIPUSH, value);
+        else super.visitLdcInsn(value);
+    }
+
+
+    @Override
+    public void visitLabel(Label label) {
+        super.visitLabel(label);
+        if (jumpTargets != null && jumpTargets.contains(label))
+            startsNewBasicBlock = true; //control may arrive here from elsewhere
+    }
 
     @Override
     public void visitLineNumber(int line, Label start) {
@@ -89,137 +157,91 @@ public class MethodInstrumenter extends MethodVisitor{
         super.visitMethodInsn(Opcodes.INVOKESTATIC, CoverageObserver.coverageObserverClass,
                 "getCurrentInstance", "()L" + CoverageObserver.coverageObserverClass +";", false);//instance to call for
 
-        super.visitLdcInsn(identifierOfMethod); //first parameter of coverage method call!
-
-      /* Second parameter is more difficult, its an Object-Array holding the method's parameters! */
-        super.visitLdcInsn(parameterTypes.length); //how large the array should be
-        super.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object"); //will leave a reference to the new array on the stack
-
-        //if there are parameters, we need to fill the array now!
-        if (parameterTypes.length != 0){
-            int storeAtPosInArray = 0;
-            for (Type type : parameterTypes /* which is sadly not an enum in ASM for some stupid reason :-( */) {
-
-                super.visitInsn(Opcodes.DUP); //duplicate value reference to the array currently on the stack
-                super.visitLdcInsn(storeAtPosInArray); //this is position to store the parameter in the array!
-
-                int loadParam = (isStatic?storeAtPosInArray:storeAtPosInArray+1); //non-static methods have *this* as first parameter!
-            /* One could of course distinguish between the instances as well, but at the moment I consider this to be too
-             * much of an overhead for too little gain, after all it will probably be a different one for each execution. */
-
-            /* Next, get the object to store on the stack! We box all the primitives in my non-boxed
-             * classes to remember that they were primitives! */
-                if (type.equals(Type.INT_TYPE)) {
-                    super.visitVarInsn(Opcodes.ILOAD, loadParam);
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC, //static-access is just easier to construct than the whole new-object-init calls...
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedInteger",
-                            "staticAccessToConstructor",
-                            "(I)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedInteger;",
-                            false
-                    );
-                }
-                else if (type.equals(Type.BOOLEAN_TYPE)) {
-                    super.visitVarInsn(Opcodes.ILOAD, loadParam); //booleans are encoded in 32-bit integers
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC,
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedBoolean",
-                            "staticAccessToConstructor",
-                            "(Z)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedBoolean;",
-                            false
-                    );
-                }
-                else if (type.equals(Type.BYTE_TYPE)) {
-                    super.visitVarInsn(Opcodes.ILOAD, loadParam); //booleans are encoded in 32-bit integers
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC,
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedByte",
-                            "staticAccessToConstructor",
-                            "(B)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedByte;",
-                            false
-                    );
-                }
-                else if (type.equals(Type.CHAR_TYPE)) {
-                    super.visitVarInsn(Opcodes.ILOAD, loadParam); //booleans are encoded in 32-bit integers
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC,
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedChar",
-                            "staticAccessToConstructor",
-                            "(C)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedChar;",
-                            false
-                    );
-                }
-                else if (type.equals(Type.SHORT_TYPE)) {
-                    super.visitVarInsn(Opcodes.ILOAD, loadParam); //booleans are encoded in 32-bit integers
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC,
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedShort",
-                            "staticAccessToConstructor",
-                            "(S)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedShort;",
-                            false
-                    );
-                }
-                else if (type.equals(Type.FLOAT_TYPE)) {
-                    super.visitVarInsn(Opcodes.FLOAD, loadParam);
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC,
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedFloat",
-                            "staticAccessToConstructor",
-                            "(F)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedFloat;",
-                            false
-                    );
-                }
-                else if (type.equals(Type.LONG_TYPE)) {
-                    super.visitVarInsn(Opcodes.LLOAD, loadParam);
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC,
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedLong",
-                            "staticAccessToConstructor",
-                            "(J)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedLong;",
-                            false
-                    );
-                }
-                else if (type.equals(Type.DOUBLE_TYPE)) {
-                    super.visitVarInsn(Opcodes.DLOAD, loadParam);
-                    super.visitMethodInsn(
-                            Opcodes.INVOKESTATIC,
-                            "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedDouble",
-                            "staticAccessToConstructor",
-                            "(D)Lhartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxedDouble;",
-                            false
-                    );
-                }
-                else super.visitVarInsn(Opcodes.ALOAD, loadParam); //load an object
-
-                super.visitInsn(Opcodes.AASTORE);//store parameter in the array
-                ++storeAtPosInArray;
-            }
+        if (parameterTypes.length == 0){
+            super.visitLdcInsn(identifierOfMethod); //first parameter of coverage method call!
+            pushIntConstant(idOfMethod); //second parameter, all later probes of this method will only use this ID!
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
+                    CoverageObserver.coverageObserverClass,
+                    "enterNewMethod",
+                    "(Ljava/lang/String;I)V",
+                    false /* my method is not an interface */);
+            super.visitCode();
+            return;
+        }
+
+      /* The parameters are pushed onto the stage of the current thread one by one, primitives are handed over
+       * through methods specific to their type so that they never need to be boxed. */
+        super.visitInsn(Opcodes.DUP); //we need the observer again for entering the method
+        pushIntConstant(parameterTypes.length);
+        super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
+                "stageParameters", "(I)L" + parameterStageClass + ";", false); //leaves the stage on the stack
+
+        int loadParam = isStatic ? 0 : 1; //non-static methods have *this* as first parameter!
+        /* One could of course distinguish between the instances as well, but at the moment I consider this to be too
+         * much of an overhead for too little gain, after all it will probably be a different one for each execution. */
+        for (Type type : parameterTypes /* which is sadly not an enum in ASM for some stupid reason :-( */) {
+            super.visitInsn(Opcodes.DUP); //duplicate reference to the stage currently on the stack
+            super.visitVarInsn(type.getOpcode(Opcodes.ILOAD), loadParam); //booleans, bytes, chars and shorts are 32-bit integers here
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, parameterStageClass,
+                    getStagingMethod(type), "(" + getStagedDescriptor(type) + ")V", false);
+            loadParam += type.getSize(); //longs and doubles occupy two slots!
         }
 
-        //finally, load the third parameter for our coverage method call!
-        super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
-                "()L" + "java/lang/Thread" +";", false);
+        super.visitLdcInsn(identifierOfMethod);
+        pushIntConstant(idOfMethod); //all later probes of this method will only use this ID!
 
         //call the observer method with the parameters on the stack
         super.visitMethodInsn(Opcodes.INVOKEVIRTUAL,
                 CoverageObserver.coverageObserverClass,
                 "enterNewMethod",
-                "(Ljava/lang/String;[Ljava/lang/Object;Ljava/lang/Thread;)V",
+                "(L" + parameterStageClass + ";Ljava/lang/String;I)V",
                 false /* my method is not an interface */);
 
         super.visitCode();
     }
 
+    /**
+     * @param type : type of a parameter
+     * @return name of the method of the parameter stage that accepts values of this type
+     */
+    private static String getStagingMethod(Type type){
+        switch (type.getSort()){
+            case Type.BOOLEAN: return "putBoolean";
+            case Type.BYTE: return "putByte";
+            case Type.CHAR: return "putChar";
+            case Type.SHORT: return "putShort";
+            case Type.INT: return "putInt";
+            case Type.LONG: return "putLong";
+            case Type.FLOAT: return "putFloat";
+            case Type.DOUBLE: return "putDouble";
+            default: return "putObject";
+        }
+    }
+
+    /**
+     * @param type : type of a parameter
+     * @return descriptor of the parameter of the staging method for this type
+     */
+    private static String getStagedDescriptor(Type type){
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY ? "Ljava/lang/Object;" : type.getDescriptor();
+    }
+
     private void registerLine(int opcode){
-        super.visitMethodInsn(Opcodes.INVOKESTATIC, CoverageObserver.coverageObserverClass,
-                "getCurrentInstance", "()L" + CoverageObserver.coverageObserverClass +";", false);
-        super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
-                "()L" + "java/lang/Thread" +";", false);//first parameter!
-        super.visitLdcInsn(identifierOfMethod);//second parameter!
-        super.visitLdcInsn(opcode); //third parameter!
-        super.visitLdcInsn(bytecodeInstructionCounter); //fourth parameter!
-        super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                "storeExecutedInstruction", "(Ljava/lang/Thread;Ljava/lang/String;II)V", false);
+        if (basicBlockStarts == null || startsNewBasicBlock){
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, CoverageObserver.coverageObserverClass,
+                    "getCurrentInstance", "()L" + CoverageObserver.coverageObserverClass +";", false);
+            super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
+                    "()L" + "java/lang/Thread" +";", false);//first parameter!
+            pushIntConstant(idOfMethod);//second parameter!
+            pushIntConstant(basicBlockStarts == null ? opcode : OpcodeTranslator.BASIC_BLOCK); //third parameter!
+            pushIntConstant(bytecodeInstructionCounter); //fourth parameter!
+            super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
+                    "storeExecutedInstruction", "(Ljava/lang/Thread;III)V", false);
+
+            if (basicBlockStarts != null) basicBlockStarts.add(bytecodeInstructionCounter);
+        }
+        if (basicBlockStarts != null)
+            startsNewBasicBlock = endsBasicBlock(opcode);
 
         //source code exportation feature can be disabled, in which case the variable is 'null'
         if (sourceCode != null) {
@@ -260,25 +282,25 @@ public class MethodInstrumenter extends MethodVisitor{
                 super.visitInsn(Opcodes.SWAP); //swap instance with duplicate to get first parameter!
                 super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
                         "()L" + "java/lang/Thread" +";", false);//second parameter!
-                super.visitLdcInsn(identifierOfMethod);//third parameter!
+                pushIntConstant(idOfMethod);//third parameter!
 
                 //the int-case is a bit of a bitch, since 32-bit integers can encode a whole lot of primitives!
                 Type returns = Type.getReturnType(identifierOfMethod);
                 if (returns.equals(Type.BYTE_TYPE))
                     super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                            "returnFromMethodWithByte", "(BLjava/lang/Thread;Ljava/lang/String;)V", false);
+                            "returnFromMethodWithByte", "(BLjava/lang/Thread;I)V", false);
                 else if (returns.equals(Type.SHORT_TYPE))
                     super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                            "returnFromMethodWithShort", "(SLjava/lang/Thread;Ljava/lang/String;)V", false);
+                            "returnFromMethodWithShort", "(SLjava/lang/Thread;I)V", false);
                 else if (returns.equals(Type.CHAR_TYPE))
                     super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                            "returnFromMethodWithChar", "(CLjava/lang/Thread;Ljava/lang/String;)V", false);
+                            "returnFromMethodWithChar", "(CLjava/lang/Thread;I)V", false);
                 else if (returns.equals(Type.INT_TYPE))
                     super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                            "returnFromMethodWithInteger", "(ILjava/lang/Thread;Ljava/lang/String;)V", false);
+                            "returnFromMethodWithInteger", "(ILjava/lang/Thread;I)V", false);
                 else if (returns.equals(Type.BOOLEAN_TYPE))
                     super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                            "returnFromMethodWithBoolean", "(ZLjava/lang/Thread;Ljava/lang/String;)V", false);
+                            "returnFromMethodWithBoolean", "(ZLjava/lang/Thread;I)V", false);
                 else throw new InternalError("This should never be reached because a 32-bit integer can only encode BYTE, SHORT, CHAR, INT or BOOLEAN."+
                             " Since it was reached however, this means that either Java's specification has changed or the ASM framework is broken...s");
                 break;
@@ -290,9 +312,9 @@ public class MethodInstrumenter extends MethodVisitor{
                 super.visitInsn(Opcodes.SWAP); //swap instance with duplicate to get first parameter!
                 super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
                         "()L" + "java/lang/Thread" +";", false);//second parameter!
-                super.visitLdcInsn(identifierOfMethod);//third parameter!
+                pushIntConstant(idOfMethod);//third parameter!
                 super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                        "returnFromMethodWithFloat", "(FLjava/lang/Thread;Ljava/lang/String;)V", false);
+                        "returnFromMethodWithFloat", "(FLjava/lang/Thread;I)V", false);
                 break;
             }
             case Opcodes.LRETURN :{
@@ -303,9 +325,9 @@ public class MethodInstrumenter extends MethodVisitor{
                 super.visitInsn(Opcodes.POP); //remove the duplicated instance on the stack's top, now the first parameter is on top!
                 super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
                         "()L" + "java/lang/Thread" +";", false);//second parameter!
-                super.visitLdcInsn(identifierOfMethod);//third parameter!
+                pushIntConstant(idOfMethod);//third parameter!
                 super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                        "returnFromMethodWithLong", "(JLjava/lang/Thread;Ljava/lang/String;)V", false);
+                        "returnFromMethodWithLong", "(JLjava/lang/Thread;I)V", false);
                 break;
             }
             case Opcodes.DRETURN :{
@@ -316,9 +338,9 @@ public class MethodInstrumenter extends MethodVisitor{
                 super.visitInsn(Opcodes.POP); //remove the duplicated instance on the stack's top, now the first parameter is on top!
                 super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
                         "()L" + "java/lang/Thread" +";", false);//second parameter!
-                super.visitLdcInsn(identifierOfMethod);//third parameter!
+                pushIntConstant(idOfMethod);//third parameter!
                 super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                        "returnFromMethodWithDouble", "(DLjava/lang/Thread;Ljava/lang/String;)V", false);
+                        "returnFromMethodWithDouble", "(DLjava/lang/Thread;I)V", false);
                 break;
             }
             case Opcodes.ARETURN :{
@@ -328,9 +350,9 @@ public class MethodInstrumenter extends MethodVisitor{
                 super.visitInsn(Opcodes.SWAP); //swap instance with duplicate to get first parameter!
                 super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
                         "()L" + "java/lang/Thread" +";", false);//second parameter!
-                super.visitLdcInsn(identifierOfMethod);//third parameter!
+                pushIntConstant(idOfMethod);//third parameter!
                 super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                        "returnFromMethodWithObject", "(Ljava/lang/Object;Ljava/lang/Thread;Ljava/lang/String;)V", false);
+                        "returnFromMethodWithObject", "(Ljava/lang/Object;Ljava/lang/Thread;I)V", false);
                 break;
             }
             //void-case, nothing is returned
@@ -339,9 +361,9 @@ public class MethodInstrumenter extends MethodVisitor{
                         "getCurrentInstance", "()L" + CoverageObserver.coverageObserverClass +";", false);
                 super.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Thread", "currentThread",
                         "()L" + "java/lang/Thread" +";", false);//first parameter!
-                super.visitLdcInsn(identifierOfMethod);//third parameter!
+                pushIntConstant(idOfMethod);//third parameter!
                 super.visitMethodInsn(Opcodes.INVOKEVIRTUAL, CoverageObserver.coverageObserverClass,
-                        "returnFromMethodWithVoid", "(Ljava/lang/Thread;Ljava/lang/String;)V", false);
+                        "returnFromMethodWithVoid", "(Ljava/lang/Thread;I)V", false);
                 break;
             }
         }
@@ -0,0 +1,171 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of super classes and interfaces that is used to compute stack map frames without loading any classes of
+ * the code under test. Headers of compiled classes are read with ASM, which is a lot faster than loading them and
+ * works even if some of their dependencies are missing. Types not added beforehand, e.g. the ones of the JDK or of
+ * libraries, are looked up on demand and remembered. Safe to be used by multiple threads.
+ */
+public class TypeHierarchy {
+
+    /** Header of a single type, all names are internal names e.g. 'java/lang/Object' */
+    private static class TypeInfo {
+        private final String superName; //'null' for 'java/lang/Object'
+        private final String[] interfaces;
+        private final boolean isInterface;
+
+        private TypeInfo(String superName, String[] interfaces, boolean isInterface) {
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.isInterface = isInterface;
+        }
+    }
+
+    private static final TypeInfo unknown = new TypeInfo(null, new String[0], false);
+
+    private final ConcurrentHashMap<String, TypeInfo> types;
+    private final ClassLoader fallbackLoader;
+    private final WeakReference<ClassLoader> weakFallbackLoader; //used instead if the loader must not be kept alive
+
+    /**
+     * Creates an empty index.
+     *
+     * @param fallbackLoader : loader used to look up types that have not been added, may be 'null'
+     */
+    public TypeHierarchy(ClassLoader fallbackLoader) {
+        this(fallbackLoader, null);
+    }
+
+    private TypeHierarchy(ClassLoader fallbackLoader, WeakReference<ClassLoader> weakFallbackLoader) {
+        this.types = new ConcurrentHashMap<>();
+        this.fallbackLoader = fallbackLoader;
+        this.weakFallbackLoader = weakFallbackLoader;
+    }
+
+    /**
+     * Creates an empty index that does not keep its loader alive, so that it can be cached per loader. Types
+     * must only be looked up while the loader is in use anyway, e.g. while it is loading a class.
+     *
+     * @param fallbackLoader : loader used to look up types that have not been added, may be 'null'
+     * @return the index
+     */
+    public static TypeHierarchy withWeakFallback(ClassLoader fallbackLoader) {
+        return new TypeHierarchy(null, new WeakReference<>(fallbackLoader));
+    }
+
+    /**
+     * Adds the header of a class to this index.
+     *
+     * @param classFile : bytecode of a class
+     */
+    public void add(byte[] classFile){
+        ClassReader reader = new ClassReader(classFile); //only the constant pool is parsed here
+        types.put(reader.getClassName(), new TypeInfo(reader.getSuperName(), reader.getInterfaces(),
+                (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0));
+    }
+
+    /**
+     * Adds the headers of compiled classes to this index.
+     *
+     * @param classFiles : .class-files to read
+     * @throws IOException : if any file cannot be accessed
+     */
+    public void addAll(Iterable<File> classFiles) throws IOException {
+        for (File f : classFiles){
+            try {
+                add(Files.readAllBytes(f.toPath()));
+            } catch (IllegalArgumentException e){
+                //unsupported class file version, looked up on demand instead
+                Tool.printDebug(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the common super type of two types, with the same result as loading both and
+     * walking their hierarchy. If any type involved cannot be found, 'java/lang/Object' is
+     * used, it is the only common super class that is always correct for classes.
+     *
+     * @param type1 : the internal name of a class
+     * @param type2 : the internal name of another class
+     * @return the internal name of the common super class of the two given classes
+     */
+    public String getCommonSuperClass(String type1, String type2){
+        if (isAssignableFrom(type1, type2)) return type1;
+        if (isAssignableFrom(type2, type1)) return type2;
+        TypeInfo info1 = getInfo(type1);
+        if (info1 == unknown || info1.isInterface || getInfo(type2).isInterface) return "java/lang/Object";
+
+        String current = type1;
+        do {
+            current = getInfo(current).superName;
+            if (current == null) return "java/lang/Object"; //hierarchy is incomplete
+        } while (!isAssignableFrom(current, type2));
+        return current;
+    }
+
+    /** @return 'true' if a value of type 'subType' may be stored in a variable of type 'type' */
+    private boolean isAssignableFrom(String type, String subType){
+        if (type.equals(subType) || type.equals("java/lang/Object")) return true;
+        TypeInfo info = getInfo(subType);
+        if (info == unknown) return false;
+        if (info.superName != null && isAssignableFrom(type, info.superName)) return true;
+        for (String implemented : info.interfaces)
+            if (isAssignableFrom(type, implemented)) return true;
+        return false;
+    }
+
+    private TypeInfo getInfo(String type){
+        TypeInfo info = types.get(type);
+        if (info == null){
+            info = lookUp(type);
+            types.put(type, info);
+        }
+        return info;
+    }
+
+    /** Finds a type that has not been added to the index, still without loading our subject's classes if possible */
+    private TypeInfo lookUp(String type){
+        ClassLoader loader = weakFallbackLoader == null ? fallbackLoader : weakFallbackLoader.get();
+        if (loader == null) return unknown;
+        InputStream in = loader.getResourceAsStream(type+".class");
+        if (in != null){
+            try {
+                return readHeader(in);
+            } catch (IOException | IllegalArgumentException e) {
+                //e.g. JDK classes that are too new for our version of ASM
+            } finally {
+                try { in.close(); } catch (IOException ignored) {}
+            }
+        }
+        try {
+            //JDK and library classes are most likely loaded already anyway
+            Class<?> c = Class.forName(type.replace('/', '.'), false, loader);
+            Class<?>[] implemented = c.getInterfaces();
+            String[] interfaces = new String[implemented.length];
+            for (int i = 0; i<implemented.length; ++i)
+                interfaces[i] = implemented[i].getName().replace('.', '/');
+            return new TypeInfo(c.getSuperclass() == null ? null : c.getSuperclass().getName().replace('.', '/'),
+                    interfaces, c.isInterface());
+        } catch (ClassNotFoundException | LinkageError e) {
+            Tool.printDebug("type '"+type+"' cannot be found, 'java/lang/Object' is used as its super class");
+            return unknown;
+        }
+    }
+
+    private static TypeInfo readHeader(InputStream in) throws IOException {
+        ClassReader reader = new ClassReader(in);
+        return new TypeInfo(reader.getSuperName(), reader.getInterfaces(), (reader.getAccess() & Opcodes.ACC_INTERFACE) != 0);
+    }
+}
@@ -14,10 +14,17 @@ import java.io.File;
 public class CoverageObserverInstrumenter extends ClassVisitor{
 
    private final String replacementForTraceFileValue;
+   private final String replacementForStreamingValue;
+   private final String replacementForFingerprintValue;
+   private final String replacementForCountingValue;
 
-   public CoverageObserverInstrumenter(int api, ClassWriter writer, File fileToFill) {
+   public CoverageObserverInstrumenter(int api, ClassWriter writer, File fileToFill, boolean streamBinaryTraces,
+                                       boolean fingerprintValues, boolean countCoverage) {
       super(api, writer);
       this.replacementForTraceFileValue = fileToFill.getAbsolutePath();
+      this.replacementForStreamingValue = Boolean.toString(streamBinaryTraces);
+      this.replacementForFingerprintValue = Boolean.toString(fingerprintValues);
+      this.replacementForCountingValue = Boolean.toString(countCoverage);
    }
 
    @Override
@@ -31,6 +38,15 @@ public class CoverageObserverInstrumenter extends ClassVisitor{
             //replace the target directory to store output!
             if (cst.equals(CoverageObserver.ldcValueToReplace))
                super.visitLdcInsn(replacementForTraceFileValue);
+            //and how to record traces!
+            else if (cst.equals(CoverageObserver.ldcStreamingValueToReplace))
+               super.visitLdcInsn(replacementForStreamingValue);
+            //and how to record values!
+            else if (cst.equals(CoverageObserver.ldcFingerprintValueToReplace))
+               super.visitLdcInsn(replacementForFingerprintValue);
+            //and whether to record coverage only!
+            else if (cst.equals(CoverageObserver.ldcCountingValueToReplace))
+               super.visitLdcInsn(replacementForCountingValue);
             else super.visitLdcInsn(cst);
          }
          
@@ -5,11 +5,16 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syn
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChangeType;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.divergences.*;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.OpcodeTranslator;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.ValueFingerprints;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Special data container for storing a method's execution during actual runtime of the instrumented project.
@@ -20,26 +25,35 @@ public class MethodData {
 
     private static boolean coverageBasedTraceComparison = false;
     private static boolean  traceDistanceBasedComparison = false;
+    private static int maximalTraceDistance = Integer.MAX_VALUE;
+    private static int versionsInUse = 0; //whose traces may still be compared, see 'retainIds()'
+    private static final int minimalSizeForParallelComparison = 1 << 14; //smaller call trees are compared right away
 
-    private final String methodIdentifier;
+    private final String methodIdentifier; //shared by all invocations of the method, see 'MethodSymbol'
     private final String classIdentifier;
+    private final int methodId; //compared instead of the identifier
     private final MethodType methodType; //just for easier access, you can actually see the type in the identifier
-    private final MethodData calledFrom; //may be null
+    private MethodData calledFrom; //may be null, set by the caller while it is imported
     private final MethodData[] calledMethods; //may be empty
+    private final long sizeOfCallTree; //number of trace entries of this invocation and everything it called
+    private final long hashOfCallTree; //covers everything the comparison looks at, including the hashes of the callees
 
     private final int[] executedInstrIndices; //contains the i-th  instruction index executed (also contains negative numbers, which refer to method calls)
-    private final String[] traceDescription; //contains the i-th instruction executed
+    private final byte[] executedOpcodes; //contains the opcode of the i-th instruction executed, see 'describeTraceEntry(...)'
+    private final Loop[] loops; //'null' unless loops were compressed during recording, then non-null at each index holding one
 
-    private final TreeMap<Integer, Integer> coverageData; //counts which instruction index was executed how often...  (precomputed)
+    private int[] coverageData; //counts how often each instruction index was executed, indexed by it...  (precomputed)
 
     //return value
     private final String classOfReturnedValue;
     private final String toStringOfReturnedValue;
     private final int hashCodeOfReturnedValue;
+    private final long fingerprintOfReturnedValue; //0 if the value was not fingerprinted
 
     private final String[] classOfParameter; //may be empty
     private final String[] toStringOfParameter; //may be empty
     private final int[] hashCodeOfParameter; //may be empty
+    private final long[] fingerprintOfParameter; //may be empty, 0 if a value was not fingerprinted
     private final MethodSource source; //may be 'null'
 
     private boolean hasSyntaxModification;
@@ -54,72 +68,96 @@ public class MethodData {
      * @param allSyntaxChanges : map of all syntax changes OF THIS VERSION
      */
     public MethodData(Version belongsTo, JSONObject o, MethodData caller, HashMap<String, List<SyntaxChange>> allSyntaxChanges) {
+        this(belongsTo, o.getString("called"), o.getString("type"), o.getJSONArray("calledWithParameters"),
+                o.getJSONObject("returned"), o.optString("class", "---"),
+                toTraceElements(belongsTo, o.getJSONArray("trace"), allSyntaxChanges), toCounts(o.optJSONArray("coverage")),
+                allSyntaxChanges);
+        calledFrom = caller;
+    }
+
+    /**
+     * Creates the data of a method invocation whose trace has been read already, the methods it called become
+     * its callees. See {@link hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.JSONTraceReader}.
+     *
+     * @param belongsTo : the version this trace was derived from
+     * @param methodIdentifier : identifier of the invoked method
+     * @param methodType : name of its {@link MethodType}
+     * @param parameters : JSON descriptions of the parameters the method was invoked with
+     * @param returnedValue : JSON description of the returned value
+     * @param classOfReturnedValue : class of the returned value
+     * @param trace : elements of the trace in order, i.e. trace lines like '[86]> INVOKESTATIC', {@link RecordedLoop}s
+     *                and the data of called methods
+     * @param countedCoverage : how often each bytecode index was executed if the observer only counted this, in which
+     *                          case the trace holds only the called methods. 'null' if the whole trace was recorded.
+     * @param allSyntaxChanges : map of all syntax changes OF THIS VERSION
+     */
+    public MethodData(Version belongsTo, String methodIdentifier, String methodType, JSONArray parameters,
+                      JSONObject returnedValue, String classOfReturnedValue, List<Object> trace, int[] countedCoverage,
+                      HashMap<String, List<SyntaxChange>> allSyntaxChanges) {
         versionThisDataBelongsTo = belongsTo;
 
         /** Identifier of this method */
-        methodIdentifier = o.getString("called");
-        classIdentifier = methodIdentifier.substring(0,methodIdentifier.lastIndexOf("."));
         assert(methodIdentifier != null && !methodIdentifier.isEmpty());
-        methodType = MethodType.valueOf(o.getString("type"));
+        MethodSymbol symbol = MethodSymbol.of(methodIdentifier);
+        this.methodIdentifier = symbol.identifier;
+        classIdentifier = symbol.classIdentifier;
+        methodId = symbol.id;
+        this.methodType = MethodType.valueOf(methodType);
 
         /** Parameters of method */
-        JSONArray parameters = o.getJSONArray("calledWithParameters");
         this.classOfParameter = new String[parameters.length()];
         this.toStringOfParameter = new String[parameters.length()];
         this.hashCodeOfParameter = new int[parameters.length()];
+        this.fingerprintOfParameter = new long[parameters.length()];
         for (int i = 0; i<parameters.length(); ++i){
             JSONObject obj = parameters.getJSONObject(i);
             this.classOfParameter[i] = obj.optString("class", "---");
-            this.toStringOfParameter[i] = obj.has("stringRepresentation")?obj.getString("stringRepresentation"):obj.getString("value");
+            this.toStringOfParameter[i] = getStringRepresentation(obj);
             this.hashCodeOfParameter[i] = obj.optInt("hashCode", -1);
+            this.fingerprintOfParameter[i] = obj.optLong("fingerprint", 0);
         }
 
-        /** From which other method this one was called */
-        calledFrom = caller;
-
         /** What the method returned */
-        JSONObject returnedValue = o.getJSONObject("returned");
-        classOfReturnedValue = o.optString("class", "---");
-        toStringOfReturnedValue = returnedValue.has("stringRepresentation")?returnedValue.getString("stringRepresentation"):returnedValue.getString("value");
+        this.classOfReturnedValue = classOfReturnedValue;
+        toStringOfReturnedValue = getStringRepresentation(returnedValue);
         hashCodeOfReturnedValue = returnedValue.optInt("hashCode", -1);
+        fingerprintOfReturnedValue = returnedValue.optLong("fingerprint", 0);
 
         /** What the method actually executed! */
-        JSONArray trace = o.getJSONArray("trace");
         ArrayList<MethodData> calledMethods = new ArrayList<>();
 
-        coverageData = coverageBasedTraceComparison ? new TreeMap<Integer, Integer>() /*= feature enabled */ : null /*= feature disabled */;
-
-        this.executedInstrIndices = new int[trace.length()];
-        this.traceDescription = new String[trace.length()];
-        for (int i = 0; i<trace.length(); ++i){
-            Object traceElement = trace.get(i);
-            if (traceElement instanceof String){
-                //format for a trace line is '[86]> INVOKESTATIC'
-                String s = (String) traceElement;
-                this.executedInstrIndices[i] = Integer.parseInt(s.substring(1,s.indexOf("]")));
-                this.traceDescription[i] = s.substring(s.indexOf(">")+1);
-
-                if (coverageBasedTraceComparison /* = feature enabled */){
-                    if (coverageData.containsKey(executedInstrIndices[i]))
-                        coverageData.put(executedInstrIndices[i], //overwrite
-                                coverageData.get(executedInstrIndices[i])+1 );
-                    else coverageData.put(executedInstrIndices[i], 1);
-                }
-
-            } else {
-                //called another method here
-                assert(traceElement instanceof JSONObject);
-                MethodData calledMethod = new MethodData(belongsTo, (JSONObject)traceElement, this, allSyntaxChanges);
-                calledMethods.add(calledMethod);
-                this.executedInstrIndices[i] = (-calledMethods.size()); //negative numbers encode call index of call + 1 (a bit hacky, I know)
-                this.traceDescription[i] = calledMethod.getIdentifier();
+        this.source = Core.lookupSources(belongsTo, methodIdentifier);
+        boolean expandBasicBlocks = source != null && source.basicBlocksWereProbed;
+
+        coverageData = coverageBasedTraceComparison /*= feature enabled */
+                ? new int[source != null ? source.instructions.length : (countedCoverage != null ? countedCoverage.length : 16)]
+                : null /*= feature disabled */;
+        if (countedCoverage != null)
+            for (int index = 0; index<countedCoverage.length; ++index){
+                if (countedCoverage[index] == 0) continue;
+                if (expandBasicBlocks) //the count of a block is the one of all its instructions
+                    for (int instr : source.basicBlocksToInstr[source.instrToBasicBlocks[index]])
+                        countCoverage(instr, countedCoverage[index]);
+                else countCoverage(index, countedCoverage[index]);
             }
-        }
+
+        /* if only basic blocks were probed, every block entry stands for all instructions of that block,
+         * so we need to know how many entries the trace will have once expanded. Loops that were compressed
+         * during recording stay compressed, each one is a single entry (see 'Loop') */
+        int traceLength = countTraceEntries(trace, expandBasicBlocks);
+        this.executedInstrIndices = new int[traceLength];
+        this.executedOpcodes = new byte[traceLength];
+        this.loops = containsLoop(trace) ? new Loop[traceLength] : null;
+        int k = importTrace(trace, 0, expandBasicBlocks, calledMethods);
+        assert(k == traceLength);
         //no need to import the java line numbers!
 
 
         this.calledMethods = calledMethods.toArray(new MethodData[calledMethods.size()]);
-        this.source = Core.lookupSources(belongsTo, methodIdentifier);
+        long size = traceLength;
+        for (MethodData calledMethod : this.calledMethods) size += calledMethod.sizeOfCallTree;
+        this.sizeOfCallTree = size;
+        this.hashOfCallTree = computeHashOfCallTree();
 
 
 
@@ -138,6 +176,297 @@ public class MethodData {
         }
     }
 
+    /**
+     * Copies an invocation including everything it called, used for loops that are expanded on import since
+     * every iteration must be a distinct invocation. All data apart from the callees is shared.
+     */
+    private MethodData(MethodData original){
+        versionThisDataBelongsTo = original.versionThisDataBelongsTo;
+        methodIdentifier = original.methodIdentifier;
+        classIdentifier = original.classIdentifier;
+        methodId = original.methodId;
+        methodType = original.methodType;
+        executedInstrIndices = original.executedInstrIndices;
+        executedOpcodes = original.executedOpcodes;
+        loops = original.loops;
+        coverageData = original.coverageData;
+        classOfReturnedValue = original.classOfReturnedValue;
+        toStringOfReturnedValue = original.toStringOfReturnedValue;
+        hashCodeOfReturnedValue = original.hashCodeOfReturnedValue;
+        fingerprintOfReturnedValue = original.fingerprintOfReturnedValue;
+        classOfParameter = original.classOfParameter;
+        toStringOfParameter = original.toStringOfParameter;
+        hashCodeOfParameter = original.hashCodeOfParameter;
+        fingerprintOfParameter = original.fingerprintOfParameter;
+        source = original.source;
+        hasSyntaxModification = original.hasSyntaxModification;
+        syntacticChanges = original.syntacticChanges;
+
+        sizeOfCallTree = original.sizeOfCallTree;
+        hashOfCallTree = original.hashOfCallTree; //the callees are copied as they are
+        calledMethods = new MethodData[original.calledMethods.length];
+        for (int i = 0; i<calledMethods.length; ++i){
+            calledMethods[i] = new MethodData(original.calledMethods[i]);
+            calledMethods[i].calledFrom = this;
+        }
+    }
+
+    /**
+     * Computes a Merkle-style hash of this invocation, i.e. over the data of this invocation and the hashes of
+     * the methods it called. Two invocations of the same method with equal hashes will not yield any divergences
+     * when compared, so that unchanged parts of a trace can be skipped. The opcodes are not included since only
+     * the instruction indices are compared, the identifiers of callees are part of their hashes.
+     */
+    private long computeHashOfCallTree(){
+        long hash = mix(0, ValueFingerprints.fingerprintOf(methodIdentifier));
+
+        hash = mix(hash, ValueFingerprints.fingerprintOf(classOfReturnedValue));
+        hash = mix(hash, ValueFingerprints.fingerprintOf(toStringOfReturnedValue));
+        hash = mix(hash, hashCodeOfReturnedValue);
+        hash = mix(hash, fingerprintOfReturnedValue);
+        hash = mix(hash, classOfParameter.length);
+        for (int i = 0; i<classOfParameter.length; ++i){
+            hash = mix(hash, ValueFingerprints.fingerprintOf(classOfParameter[i]));
+            hash = mix(hash, ValueFingerprints.fingerprintOf(toStringOfParameter[i]));
+            hash = mix(hash, hashCodeOfParameter[i]);
+            hash = mix(hash, fingerprintOfParameter[i]);
+        }
+
+        hash = mix(hash, executedInstrIndices.length);
+        for (int i = 0; i<executedInstrIndices.length; ++i){
+            hash = mix(hash, executedInstrIndices[i]);
+            if (loops != null && loops[i] != null) hash = mix(hash, loops[i].iterations); //the ID stands for the body
+        }
+
+        if (coverageData != null){ //might have been counted instead of recorded
+            int length = coverageData.length;
+            while (length > 0 && coverageData[length-1] == 0) --length; //not visited, like behind the end
+            hash = mix(hash, length);
+            for (int i = 0; i<length; ++i) hash = mix(hash, coverageData[i]);
+        }
+
+        hash = mix(hash, calledMethods.length);
+        for (MethodData calledMethod : calledMethods)
+            hash = mix(hash, calledMethod.hashOfCallTree);
+        return hash;
+    }
+
+    private static long mix(long hash, long value){
+        hash = (hash + value) * 0x9e3779b97f4a7c15L;
+        return hash ^ (hash >>> 29);
+    }
+
+    /**
+     * @param value : JSON description of a parameter or return value
+     * @return its string representation. Only a fingerprint is stored for objects if these were fingerprinted,
+     *         in which case '@' marks a string that depended on identity hash codes (and nothing else is known)
+     */
+    private static String getStringRepresentation(JSONObject value){
+        if (value.has("stringRepresentation")) return value.getString("stringRepresentation");
+        if (value.has("fingerprint")) return value.optBoolean("identityDependent") ? "@" : "";
+        return value.getString("value");
+    }
+
+    /**
+     * Converts a trace as stored in the file into trace elements, called methods are imported right away.
+     */
+    private static List<Object> toTraceElements(Version belongsTo, JSONArray trace, HashMap<String, List<SyntaxChange>> allSyntaxChanges){
+        ArrayList<Object> elements = new ArrayList<>(trace.length());
+        for (int i = 0; i<trace.length(); ++i){
+            Object traceElement = trace.get(i);
+            if (traceElement instanceof JSONObject){
+                JSONObject o = (JSONObject) traceElement;
+                if (o.has("iterations"))
+                    elements.add(new RecordedLoop(o.getInt("iterations"), toTraceElements(belongsTo, o.getJSONArray("trace"), allSyntaxChanges)));
+                else elements.add(new MethodData(belongsTo, o, null, allSyntaxChanges));
+            }
+            else elements.add(traceElement);
+        }
+        return elements;
+    }
+
+    /**
+     * Imports a (part of a) trace, recursing into loops that cannot be kept compressed.
+     *
+     * @param trace : the trace elements
+     * @param k : index to store the first element at
+     * @param expandBasicBlocks : 'true' if the trace holds basic block entries that must be expanded
+     * @param calledMethods : called methods are added to this list
+     * @return index behind the last stored element
+     */
+    private int importTrace(List<Object> trace, int k, boolean expandBasicBlocks, ArrayList<MethodData> calledMethods){
+        for (Object traceElement : trace){
+            if (traceElement instanceof String){
+                //format for a trace line is '[86]> INVOKESTATIC'
+                String s = (String) traceElement;
+                int index = parseIndex(s);
+                int opcode = parseOpcode(s);
+                if (expandBasicBlocks && opcode == OpcodeTranslator.BASIC_BLOCK){
+                    for (int instr : source.basicBlocksToInstr[source.instrToBasicBlocks[index]]){
+                        this.executedInstrIndices[k] = instr;
+                        this.executedOpcodes[k] = source.opcodes[instr];
+                        countCoverage(instr, 1);
+                        ++k;
+                    }
+                } else {
+                    this.executedInstrIndices[k] = index;
+                    this.executedOpcodes[k] = (byte) opcode;
+                    countCoverage(index, 1);
+                    ++k;
+                }
+
+            } else if (traceElement instanceof RecordedLoop){
+                RecordedLoop loop = (RecordedLoop) traceElement;
+                if (isCompressibleLoop(loop)){
+                    int[] body = new int[countExpandedEntries(loop.trace, expandBasicBlocks)];
+                    byte[] bodyOpcodes = new byte[body.length];
+                    int end = expandLoopBody(loop.trace, body, bodyOpcodes, 0, expandBasicBlocks);
+                    assert(end == body.length);
+                    for (int instr : body) countCoverage(instr, loop.iterations);
+
+                    this.loops[k] = new Loop(body, bodyOpcodes, loop.iterations);
+                    this.executedInstrIndices[k] = this.loops[k].id;
+                    ++k;
+                }
+                else for (int n = 0; n<loop.iterations; ++n) //contains calls, cannot be compared as a whole
+                    k = importTrace(loop.trace, k, expandBasicBlocks, calledMethods);
+
+            } else {
+                //called another method here
+                MethodData calledMethod = (MethodData) traceElement;
+                if (calledMethod.calledFrom != null) calledMethod = new MethodData(calledMethod); //another iteration of an expanded loop
+                calledMethod.calledFrom = this;
+                calledMethods.add(calledMethod);
+                this.executedInstrIndices[k] = (-calledMethods.size()); //negative numbers encode call index of call + 1 (a bit hacky, I know)
+                ++k;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Expands a compressed loop into plain instruction indices, nested loops are expanded as well.
+     *
+     * @return index behind the last stored instruction
+     */
+    private int expandLoopBody(List<Object> trace, int[] body, byte[] bodyOpcodes, int k, boolean expandBasicBlocks){
+        for (Object traceElement : trace){
+            if (traceElement instanceof RecordedLoop){
+                RecordedLoop loop = (RecordedLoop) traceElement;
+                for (int n = 0; n<loop.iterations; ++n)
+                    k = expandLoopBody(loop.trace, body, bodyOpcodes, k, expandBasicBlocks);
+                continue;
+            }
+            String s = (String) traceElement;
+            int index = parseIndex(s);
+            int opcode = parseOpcode(s);
+            if (expandBasicBlocks && opcode == OpcodeTranslator.BASIC_BLOCK){
+                for (int instr : source.basicBlocksToInstr[source.instrToBasicBlocks[index]]){
+                    body[k] = instr;
+                    bodyOpcodes[k] = source.opcodes[instr];
+                    ++k;
+                }
+            } else {
+                body[k] = index;
+                bodyOpcodes[k] = (byte) opcode;
+                ++k;
+            }
+        }
+        return k;
+    }
+
+    /**
+     * @return how many entries the imported trace will have, compressed loops without calls count as one
+     */
+    private int countTraceEntries(List<Object> trace, boolean expandBasicBlocks){
+        int count = 0;
+        for (Object traceElement : trace){
+            if (traceElement instanceof RecordedLoop){
+                RecordedLoop loop = (RecordedLoop) traceElement;
+                if (isCompressibleLoop(loop)) ++count;
+                else count += loop.iterations * countTraceEntries(loop.trace, expandBasicBlocks);
+            }
+            else if (traceElement instanceof String && expandBasicBlocks && parseOpcode((String) traceElement) == OpcodeTranslator.BASIC_BLOCK)
+                count += source.basicBlocksToInstr[source.instrToBasicBlocks[parseIndex((String) traceElement)]].length;
+            else ++count;
+        }
+        return count;
+    }
+
+    /**
+     * @return how many instructions the trace contains once all loops and basic blocks are expanded
+     */
+    private int countExpandedEntries(List<Object> trace, boolean expandBasicBlocks){
+        int count = 0;
+        for (Object traceElement : trace){
+            if (traceElement instanceof RecordedLoop)
+                count += ((RecordedLoop) traceElement).iterations *
+                        countExpandedEntries(((RecordedLoop) traceElement).trace, expandBasicBlocks);
+            else if (expandBasicBlocks && parseOpcode((String) traceElement) == OpcodeTranslator.BASIC_BLOCK)
+                count += source.basicBlocksToInstr[source.instrToBasicBlocks[parseIndex((String) traceElement)]].length;
+            else ++count;
+        }
+        return count;
+    }
+
+    /**
+     * @return 'true' if a loop compressed during recording will be kept as a single entry on import
+     */
+    private static boolean containsLoop(List<Object> trace){
+        for (Object traceElement : trace)
+            if (traceElement instanceof RecordedLoop && (isCompressibleLoop((RecordedLoop) traceElement) ||
+                    containsLoop(((RecordedLoop) traceElement).trace))) return true;
+        return false;
+    }
+
+    /**
+     * @param loop : a loop compressed during recording
+     * @return 'true' if it does not contain any method calls, which would get lost if we did not expand it
+     */
+    private static boolean isCompressibleLoop(RecordedLoop loop){
+        for (Object traceElement : loop.trace)
+            if (traceElement instanceof MethodData || (traceElement instanceof RecordedLoop && !isCompressibleLoop((RecordedLoop) traceElement)))
+                return false;
+        return true;
+    }
+
+    /** @return the bytecode index of a trace line like '[86]> INVOKESTATIC', parsed without creating any strings */
+    private static int parseIndex(String traceLine){
+        int index = 0;
+        for (int i = 1; traceLine.charAt(i) != ']'; ++i){
+            assert(Character.isDigit(traceLine.charAt(i)));
+            index = index*10 + (traceLine.charAt(i) - '0');
+        }
+        return index;
+    }
+
+    /** @return the opcode of a trace line like '[86]> INVOKESTATIC', see {@link OpcodeTranslator#getOpcode(String, int)} */
+    private static int parseOpcode(String traceLine){
+        int start = traceLine.indexOf('>') + 1;
+        while (start < traceLine.length() && traceLine.charAt(start) == ' ') ++start;
+        return OpcodeTranslator.getOpcode(traceLine, start);
+    }
+
+    private void countCoverage(int instrIndex, int times){
+        if (coverageBasedTraceComparison /* = feature enabled */){
+            if (instrIndex >= coverageData.length) //no source, we do not know how many instructions there are
+                coverageData = Arrays.copyOf(coverageData, Math.max(instrIndex+1, coverageData.length*2));
+            coverageData[instrIndex] += times;
+        }
+    }
+
+    /**
+     * @param counts : coverage as counted by the observer, may be 'null'
+     * @return how often each bytecode index was executed, 'null' if nothing was counted
+     */
+    private static int[] toCounts(JSONArray counts){
+        if (counts == null) return null;
+        int[] result = new int[counts.length()];
+        for (int i = 0; i<result.length; ++i)
+            result[i] = counts.getInt(i);
+        return result;
+    }
+
     /**
      * @return 'true' if the invoked method is inside a class newly added in this version
      */
@@ -189,6 +518,18 @@ public class MethodData {
         return hashCodeOfReturnedValue;
     }
 
+    public long getFingerprintOfReturnedValue() {
+        return fingerprintOfReturnedValue;
+    }
+
+    /**
+     * @return hash of this invocation and everything it called, equal hashes mean that comparing two invocations
+     *         of the same method will not yield any divergences
+     */
+    public long getHashOfCallTree() {
+        return hashOfCallTree;
+    }
+
     public int getAmountOfParameters(){ return classOfParameter.length; }
 
     public String getClassOfParameter(int i) {
@@ -203,6 +544,10 @@ public class MethodData {
         return hashCodeOfParameter[i];
     }
 
+    public long getFingerprintOfParameter(int i) {
+        return fingerprintOfParameter[i];
+    }
+
     protected String[] getArrayOfParameterClasses() {
         return classOfParameter;
     }
@@ -226,20 +571,114 @@ public class MethodData {
         return hashCodeOfParameter;
     }
 
+    protected long[] getArrayOfParameterFingerprints() {
+        return fingerprintOfParameter;
+    }
+
     /**
-     * @return string representation of the instructions that were executed, in order of execution
+     * @return string representation of the instructions that were executed, in order of execution. Instructions
+     *         are described like ' INVOKESTATIC', calls by the identifier of the called method.
      */
     public String[] getTrace() {
-        return traceDescription;
+        String[] expanded = new String[getExpandedTraceLength()];
+        int k = 0;
+        for (int i = 0; i<executedInstrIndices.length; ++i){
+            if (loops == null || loops[i] == null) expanded[k++] = describeTraceEntry(i);
+            else for (int n = 0; n<loops[i].iterations; ++n)
+                for (byte opcode : loops[i].bodyOpcodes)
+                    expanded[k++] = describeOpcode(opcode);
+        }
+        return expanded;
+    }
+
+    /**
+     * @param i : index in the compressed trace
+     * @return description of the entry, a compressed loop is described like ' 1000x LOOP'
+     */
+    private String describeTraceEntry(int i){
+        if (executedInstrIndices[i] < 0) return calledMethods[-executedInstrIndices[i]-1].getIdentifier();
+        if (loops != null && loops[i] != null) return " "+loops[i].iterations+"x LOOP";
+        return describeOpcode(executedOpcodes[i]);
+    }
+
+    private static String describeOpcode(byte opcode){
+        return " "+OpcodeTranslator.getInstructionStr(opcode & 0xFF);
     }
 
     /**
      * @return the indices of the instructions that were executed, in order of execution
      */
     public int[] getBytecodeIndices() {
+        if (loops == null) return executedInstrIndices;
+
+        int[] expanded = new int[getExpandedTraceLength()];
+        int k = 0;
+        for (int i = 0; i<executedInstrIndices.length; ++i){
+            if (loops[i] == null) expanded[k++] = executedInstrIndices[i];
+            else for (int n = 0; n<loops[i].iterations; ++n){
+                System.arraycopy(loops[i].body, 0, expanded, k, loops[i].body.length);
+                k += loops[i].body.length;
+            }
+        }
+        return expanded;
+    }
+
+    private int getExpandedTraceLength(){
+        int length = 0;
+        for (int i = 0; i<executedInstrIndices.length; ++i)
+            length += getExpandedLengthOfTraceEntry(i);
+        return length;
+    }
+
+    /**
+     * @return the trace as it is compared, compressed loops are a single entry holding the ID of their body
+     */
+    protected int[] getCompressedBytecodeIndices() {
         return executedInstrIndices;
     }
 
+    /**
+     * @return the IDs of all invoked methods, in order of invocation. A negative entry '-i' of the trace refers
+     *         to the method with the (i-1)-th ID, which is equal for all invocations of the same method.
+     */
+    protected int[] getCalledMethodIds() {
+        int[] ids = new int[calledMethods.length];
+        for (int i = 0; i<calledMethods.length; ++i)
+            ids[i] = calledMethods[i].methodId;
+        return ids;
+    }
+
+    /**
+     * @return 'true' if the trace contains loops that were compressed during recording
+     */
+    protected boolean hasCompressedLoops() {
+        return loops != null;
+    }
+
+    /**
+     * @param i : index in the compressed trace
+     * @return how often the entry was executed in a row, '1' unless it is a compressed loop
+     */
+    protected int getIterationsOfTraceEntry(int i) {
+        return loops == null || loops[i] == null ? 1 : loops[i].iterations;
+    }
+
+    /**
+     * @param i : index in the compressed trace
+     * @return how many instructions a single execution of the entry consists of, '1' unless it is a compressed loop
+     */
+    protected int getLengthOfTraceEntry(int i) {
+        return loops == null || loops[i] == null ? 1 : loops[i].body.length;
+    }
+
+    /**
+     * @param i : index in the compressed trace
+     * @return how many instructions the entry stands for
+     */
+    protected int getExpandedLengthOfTraceEntry(int i) {
+        return getIterationsOfTraceEntry(i) * getLengthOfTraceEntry(i);
+    }
+
     public boolean wasSyntacticallyModifiedInThisVersion(){ return hasSyntaxModification; }
 
     /**
@@ -252,7 +691,7 @@ public class MethodData {
      */
     public boolean isSameMethod(MethodData m){
         if (m == null) return false;
-        return m.getIdentifier().equals(getIdentifier());
+        return m.methodId == methodId;
     }
 
     /** Expensive operation! This is not an equals-method, it is used by tests mainly!*/
@@ -263,9 +702,11 @@ public class MethodData {
         if (!getClassOfReturnedValue().equals(m.getClassOfReturnedValue())) return false;
         if (!getToStringOfReturnedValue().equals(m.getToStringOfReturnedValue())) return false;
         if (hashCodeOfReturnedValue != m.getHashCodeOfReturnedValue()) return false;
+        if (fingerprintOfReturnedValue != m.getFingerprintOfReturnedValue()) return false;
         if (!Arrays.equals(getArrayOfParameterClasses(), m.getArrayOfParameterClasses())) return false;
         if (!Arrays.equals(getArrayofParameterToStrings(), m.getArrayofParameterToStrings())) return false;
         if (!Arrays.equals(getArrayOfParameterHashCodes(), m.getArrayOfParameterHashCodes())) return false;
+        if (!Arrays.equals(getArrayOfParameterFingerprints(), m.getArrayOfParameterFingerprints())) return false;
         if (!Arrays.equals(getBytecodeIndices(), m.getBytecodeIndices())) return false;
 
         MethodData[] mine = getArrayOfCalledMethods();
@@ -288,9 +729,9 @@ public class MethodData {
         }
 
         String trace = "";
-        if (traceDescription.length>0) {
-            for (String s : traceDescription) {
-                trace += s + ", ";
+        if (executedInstrIndices.length>0) {
+            for (int i = 0; i<executedInstrIndices.length; ++i) {
+                trace += describeTraceEntry(i) + ", ";
             }
             trace = trace.substring(0, trace.length() - 2);
         }
@@ -348,32 +789,45 @@ public class MethodData {
         }
 
 
+        //################      Skip identical call trees!   ###########################################################
+        if (hashOfCallTree == olderData.hashOfCallTree && sizeOfCallTree == olderData.sizeOfCallTree){
+            /* the common case for unchanged code, nothing below would detect a divergence anyway */
+            if (traceDistanceBasedComparison)
+                traceDivergenceContainer.add(new MetricDivergence(this, DivergenceType.TRACE_DISTANCE, 0));
+            return;
+        }
+
+
 
         //################      Compare the return value!   ############################################################
         {
             String classOf = getClassOfReturnedValue();
             String stringOf = getToStringOfReturnedValue();
             int hashOf = getHashCodeOfReturnedValue();
+            long fingerprintOf = getFingerprintOfReturnedValue();
             String oldClassOf = olderData.getClassOfReturnedValue();
             String oldStringOf = olderData.getToStringOfReturnedValue();
             int oldHashOf = olderData.getHashCodeOfReturnedValue();
+            long oldFingerprintOf = olderData.getFingerprintOfReturnedValue();
 
             if (filterObjectsOnAtChar) {
                 if (stringOf.contains("@")) {
                     stringOf = "";
                     hashOf = 0;
+                    fingerprintOf = 0;
                 }
                 if (oldStringOf.contains("@")) {
                     oldStringOf = "";
                     oldHashOf = 0;
+                    oldFingerprintOf = 0;
                 }
             }
 
             String strRepOfReturnValue = classOf + " '[" + stringOf+ "]' hash: " + hashOf;
             String oldStrRepOfReturnValue = oldClassOf + " '[" + oldStringOf +"]' hash: " + oldHashOf;
-            if (!strRepOfReturnValue.equals(oldStrRepOfReturnValue)) {
+            if (!strRepOfReturnValue.equals(oldStrRepOfReturnValue) || fingerprintOf != oldFingerprintOf) {
                 traceDivergenceContainer.add(new ObjectValueDivergence(this, this, DivergenceType.RETURN_VALUE,
-                        classOf, stringOf, hashOf, oldClassOf, oldStringOf, oldHashOf
+                        classOf, stringOf, hashOf, fingerprintOf, oldClassOf, oldStringOf, oldHashOf, oldFingerprintOf
                 ));
             }
         }
@@ -390,28 +844,32 @@ public class MethodData {
                     String classOf = getClassOfParameter(i);
                     String stringOf = getToStringOfParameter(i);
                     int hashOf = getHashCodeOfParameter(i);
+                    long fingerprintOf = getFingerprintOfParameter(i);
                     String oldClassOf = olderData.getClassOfParameter(i);
                     String oldStringOf = olderData.getToStringOfParameter(i);
                     int oldHashOf = olderData.getHashCodeOfParameter(i);
+                    long oldFingerprintOf = olderData.getFingerprintOfParameter(i);
 
                     if (filterObjectsOnAtChar) {
                         if (stringOf.contains("@")) {
                             stringOf = "";
                             hashOf = 0;
+                            fingerprintOf = 0;
                         }
                         if (oldStringOf.contains("@")) {
                             oldStringOf = "";
                             oldHashOf = 0;
+                            oldFingerprintOf = 0;
                         }
                     }
 
                     String strRepOfParameter = classOf + " '[" + stringOf + "]' hash: " + hashOf;
                     String strRepOfOldParameter = oldClassOf  + " '[" + oldStringOf + "]' hash: " + oldHashOf;
-                    if (!strRepOfParameter.equals(strRepOfOldParameter) &&
+                    if ((!strRepOfParameter.equals(strRepOfOldParameter) || fingerprintOf != oldFingerprintOf) &&
                             olderData.calledFrom != null && calledFrom != null) {
                         /* note that we ignore parameter differences for the entry point, we generate warnings for that in the Trace-class though*/
                         traceDivergenceContainer.add(new ObjectValueDivergence(calledFrom/* this is a difference in the CALLER!!! */, this,
-                                DivergenceType.PARAMETER, classOf, stringOf, hashOf, oldClassOf, oldStringOf, oldHashOf
+                                DivergenceType.PARAMETER, classOf, stringOf, hashOf, fingerprintOf, oldClassOf, oldStringOf, oldHashOf, oldFingerprintOf
                         ));
                     }
                 }
@@ -423,39 +881,35 @@ public class MethodData {
         if (coverageBasedTraceComparison || traceDistanceBasedComparison) {
             if (coverageBasedTraceComparison) {
                 /** Coverage-based approach like Javalanche, simply check how often which line was executed. */
-                TreeMap<Integer, Integer> olderCoverageData = olderData.getCoverageData();
-                int maxInstrIndex = Math.max(coverageData.lastKey(), olderCoverageData.lastKey());
-
-                for (int i = 0; i < maxInstrIndex; ++i) {
-                    Integer newInstrCount = coverageData.get(i);
-                    Integer oldInstrCount = olderCoverageData.get(i);
-                    if (newInstrCount == null && oldInstrCount == null) continue; //no trace visited this
-                    else if (newInstrCount == null && oldInstrCount != null)
-                        //one trace visited it!
-                        traceDivergenceContainer.add(new CoverageDivergence(this, i , 0, oldInstrCount));
-                    else if (newInstrCount != null && oldInstrCount == null)
-                        //the other trace visited it!
-                        traceDivergenceContainer.add(new CoverageDivergence(this, i , newInstrCount, 0));
-                    else if (!newInstrCount.equals(oldInstrCount))
-                        //both traces visited this instruction!
-                        traceDivergenceContainer.add(new CoverageDivergence(this, i , newInstrCount, oldInstrCount));
-                    //else it is equal and there is no difference in coverage!
-                }
+                int[] olderCoverageData = olderData.getCoverageData();
+                int instructions = Math.max(coverageData.length, olderCoverageData.length);
+
+                if (!Arrays.equals(coverageData, olderCoverageData)) //instructions not visited by a trace count as 0
+                    for (int i = 0; i < instructions; ++i) {
+                        int newInstrCount = i < coverageData.length ? coverageData[i] : 0;
+                        int oldInstrCount = i < olderCoverageData.length ? olderCoverageData[i] : 0;
+                        if (newInstrCount != oldInstrCount)
+                            traceDivergenceContainer.add(new CoverageDivergence(this, i , newInstrCount, oldInstrCount));
+                        //else it is equal and there is no difference in coverage!
+                    }
             }
             if (traceDistanceBasedComparison) {
                 /** Levenshtein-based approach that gives the edit distance between the two traces  */
-                final int[] olderExecutedTraceStatement = olderData.getBytecodeIndices();
-                final String[] olderTraceDesc = olderData.getTrace();
+                final int[] olderExecutedTraceStatement = olderData.getCompressedBytecodeIndices();
                 int index = 0;
-                int differenceMetric = TraceUtil.computeTraceDistanceQuick( //how different was this actually? Do compare methods!
-                        executedInstrIndices, traceDescription, olderExecutedTraceStatement, olderTraceDesc, index);
+                int differenceMetric = (loops == null && !olderData.hasCompressedLoops())
+                        ? TraceUtil.computeTraceDistanceQuick( //how different was this actually? Do compare methods!
+                            executedInstrIndices, getCalledMethodIds(), olderExecutedTraceStatement,
+                            olderData.getCalledMethodIds(), index, maximalTraceDistance)
+                        : TraceUtil.computeCompressedTraceDistanceQuick(this, olderData, true, index, maximalTraceDistance);
                 traceDivergenceContainer.add(new MetricDivergence(this, DivergenceType.TRACE_DISTANCE, differenceMetric));
             }
         } else { /* ---------- FULL METRIC EXECUTION ------------------------------------------------*/
             /** Try to compute the minimal difference between the two traces (based on new data).
              *  Tries to obtain the points were it actually diverged, that means it outputs how
              *  *OFTEN* it was different first while coverage can only give you a rough estimate. */
-            final int[] olderExecutedTraceStatement = olderData.getBytecodeIndices();
+            final int[] olderExecutedTraceStatement = olderData.getCompressedBytecodeIndices();
+            final boolean compressed = loops != null || olderData.hasCompressedLoops();
             int lengthOfNewTrace = executedInstrIndices.length;
             int lengthOfOldTrace = olderExecutedTraceStatement.length;
 
@@ -467,7 +921,8 @@ public class MethodData {
                 while (index < lengthOfNewTrace /* their lengths are equal, no worries */) {
                     int valNew = executedInstrIndices[index];
                     int valOld = olderExecutedTraceStatement[index];
-                    if (!( (valOld == valNew) || (valOld < 0 && valNew < 0) /* we treat all method calls as equal here */)) {
+                    if (!( (valOld == valNew) || (valOld < 0 && valNew < 0) /* we treat all method calls as equal here */) ||
+                            (compressed && getIterationsOfTraceEntry(index) != olderData.getIterationsOfTraceEntry(index))) {
                         differenceDetected = true;
                         break;
                     }
@@ -477,10 +932,10 @@ public class MethodData {
 
             if (differenceDetected) {
 
-                TraceUtil.TraceInstrDiff data = TraceUtil.computeTraceDistanceFull(
+                TraceUtil.TraceInstrDiff data = compressed
                         /* note that we use the "method-calls are equal"-mode here */
-                        executedInstrIndices, olderExecutedTraceStatement, index
-                );
+                        ? TraceUtil.computeCompressedTraceDistance(this, olderData, false, index)
+                        : TraceUtil.computeTraceDistanceFull(executedInstrIndices, olderExecutedTraceStatement, index);
                 int differenceMetric = data.distanceMetricValue;
                 assert (differenceMetric != 0); //otherwise it should not have been called!
 
@@ -504,7 +959,26 @@ public class MethodData {
             int[] matchedMethodCalls = TraceUtil.matchMethodCalls(getCalledMethodHeaders(),
                     olderData.getCalledMethodHeaders(), this, traceDivergenceContainer);
 
-            for (int indexOfTraceInNew = 0; indexOfTraceInNew < matchedMethodCalls.length ; ++indexOfTraceInNew){
+            if (ForkJoinTask.inForkJoinPool() && shouldCompareCalledMethodsInParallel(matchedMethodCalls)){
+                /* large call trees are compared by separate tasks, each one collects its divergences on its own and
+                 * these are added in the order of the calls afterwards, just like the sequential recursion would */
+                CalledMethodComparison[] comparisons = new CalledMethodComparison[matchedMethodCalls.length];
+                for (int indexOfTraceInNew = 0; indexOfTraceInNew < matchedMethodCalls.length ; ++indexOfTraceInNew){
+                    int indexOfTraceInOld = matchedMethodCalls[indexOfTraceInNew];
+                    if (indexOfTraceInOld == Integer.MIN_VALUE) continue; //could not be matched!
+                    comparisons[indexOfTraceInNew] = new CalledMethodComparison(getCalledMethod(indexOfTraceInNew),
+                            olderData.getCalledMethod(indexOfTraceInOld), filterObjectsOnAtChar);
+                    if (getCalledMethod(indexOfTraceInNew).sizeOfCallTree >= minimalSizeForParallelComparison)
+                        comparisons[indexOfTraceInNew].fork();
+                }
+                for (CalledMethodComparison comparison : comparisons){
+                    if (comparison == null) continue;
+                    if (comparison.calledMethodInThis.sizeOfCallTree >= minimalSizeForParallelComparison) comparison.join();
+                    else comparison.compute(); //not worth a task of its own
+                    traceDivergenceContainer.addAll(comparison.divergences);
+                }
+            }
+            else for (int indexOfTraceInNew = 0; indexOfTraceInNew < matchedMethodCalls.length ; ++indexOfTraceInNew){
                 int indexOfTraceInOld = matchedMethodCalls[indexOfTraceInNew];
                 if (indexOfTraceInOld != Integer.MIN_VALUE){
                     MethodData calledMethodInThis = getCalledMethod(indexOfTraceInNew);
@@ -515,6 +989,38 @@ public class MethodData {
         }
     }
 
+    /**
+     * @param matchedMethodCalls : matching of the methods called by this invocation
+     * @return 'true' if at least two matched calls are worth comparing at the same time
+     */
+    private boolean shouldCompareCalledMethodsInParallel(int[] matchedMethodCalls){
+        int large = 0;
+        for (int i = 0; i < matchedMethodCalls.length; ++i)
+            if (matchedMethodCalls[i] != Integer.MIN_VALUE && calledMethods[i].sizeOfCallTree >= minimalSizeForParallelComparison)
+                if (++large == 2) return true;
+        return false;
+    }
+
+    /** Compares a pair of matched calls, see {@link #computeDifferences(MethodData, List, boolean)} */
+    private static class CalledMethodComparison extends RecursiveAction {
+        private final MethodData calledMethodInThis;
+        private final MethodData calledMethodInOlder;
+        private final boolean filterObjectsOnAtChar;
+        private final List<TraceDivergence> divergences;
+
+        private CalledMethodComparison(MethodData calledMethodInThis, MethodData calledMethodInOlder, boolean filterObjectsOnAtChar){
+            this.calledMethodInThis = calledMethodInThis;
+            this.calledMethodInOlder = calledMethodInOlder;
+            this.filterObjectsOnAtChar = filterObjectsOnAtChar;
+            this.divergences = new LinkedList<>();
+        }
+
+        @Override
+        protected void compute() {
+            calledMethodInThis.computeDifferences(calledMethodInOlder, divergences, filterObjectsOnAtChar); //--> recurse!
+        }
+    }
+
     public Version getVersionThisDataBelongsTo() {
         return versionThisDataBelongsTo;
     }
@@ -524,7 +1030,7 @@ public class MethodData {
         return syntacticChanges;
     }
 
-    protected TreeMap<Integer,Integer> getCoverageData() {
+    protected int[] getCoverageData() {
         return coverageData;
     }
 
@@ -543,4 +1049,137 @@ public class MethodData {
      *  @param b : 'true' to activate, 'false' to deactivate (which is the default state)
      */
     public static void setTraceDistanceBasedComparison(boolean b){traceDistanceBasedComparison = b;}
-}
\ No newline at end of file
+
+    /** Caps the trace distance computed by the trace-distance based comparison, which allows the computation to
+     *  stop as soon as the distance is known to be at least that high.
+     *  @param distance : the maximal distance, 'Integer.MAX_VALUE' to compute the exact distance (the default)
+     */
+    public static void setMaximalTraceDistance(int distance){
+        assert (distance >= 1);
+        maximalTraceDistance = distance;
+    }
+
+    /** Is to be called before the traces of a version are imported. IDs of methods and loop bodies are assigned once
+     *  for all traces that may be compared with each other, so they are kept until 'releaseIds()' has been called
+     *  for every version this has been called for.
+     */
+    public static synchronized void retainIds(){
+        ++versionsInUse;
+    }
+
+    /** Is to be called once the traces of a version will not be compared anymore. Once this holds for all imported
+     *  versions, the IDs of methods and loop bodies are forgotten, traces imported afterwards get new ones. This way
+     *  they do not pile up over several comparisons made inside the same JVM.
+     */
+    public static synchronized void releaseIds(){
+        assert(versionsInUse > 0);
+        if (--versionsInUse == 0){
+            MethodSymbol.clear();
+            Loop.clear();
+        }
+    }
+
+    /** @return 'true' if coverage is compared, see 'setCoverageBasedComparison(...)' */
+    public static boolean isCoverageBasedComparison(){ return coverageBasedTraceComparison; }
+
+    /** @return 'true' if trace distances are computed, see 'setTraceDistanceBasedComparison(...)' */
+    public static boolean isTraceDistanceBasedComparison(){ return traceDistanceBasedComparison; }
+
+    /** @return the cap of the trace distance, see 'setMaximalTraceDistance(...)' */
+    public static int getMaximalTraceDistance(){ return maximalTraceDistance; }
+
+    /**
+     * The identifier of a method together with an ID for it. All invocations of a method share the same symbol,
+     * so that the identifier is kept only once and called methods can be compared by their ID. IDs are assigned
+     * once for all traces that may be compared with each other, see 'retainIds()'.
+     */
+    private static class MethodSymbol {
+        private static final ConcurrentHashMap<String, MethodSymbol> symbols = new ConcurrentHashMap<>();
+
+        private final String identifier;
+        private final String classIdentifier;
+        private final int id;
+
+        private MethodSymbol(String identifier, int id){
+            this.identifier = identifier;
+            this.classIdentifier = identifier.substring(0,identifier.lastIndexOf("."));
+            this.id = id;
+        }
+
+        private static MethodSymbol of(String identifier){
+            MethodSymbol symbol = symbols.get(identifier);
+            if (symbol == null){
+                synchronized (symbols){
+                    symbol = symbols.get(identifier);
+                    if (symbol == null){
+                        symbol = new MethodSymbol(identifier, symbols.size());
+                        symbols.put(identifier, symbol);
+                    }
+                }
+            }
+            return symbol;
+        }
+
+        private static void clear(){
+            synchronized (symbols){
+                symbols.clear(); //IDs are handed out by size, so they start over
+            }
+        }
+    }
+
+    /**
+     * A loop as stored in a trace file, i.e. an iteration that was recorded once together with how often it
+     * was executed in a row. Its trace consists of the same kind of elements as the one of a method.
+     */
+    public static class RecordedLoop {
+        private final int iterations;
+        private final List<Object> trace;
+
+        public RecordedLoop(int iterations, List<Object> trace){
+            this.iterations = iterations;
+            this.trace = trace;
+        }
+    }
+
+    /**
+     * A loop that was compressed during recording, i.e. the very same iteration was executed several times
+     * in a row. It is kept as a single entry in the trace, so that traces that only differ in the number of
+     * iterations can be compared without expanding them. Identical bodies share the same ID, which is larger
+     * than any instruction index.
+     */
+    protected static class Loop {
+        private static final ConcurrentHashMap<String, Integer> idsOfBodies = new ConcurrentHashMap<>();
+        private static final int firstId = 1 << 30; //no method has that many instructions
+
+        public final int id;
+        public final int[] body;
+        public final byte[] bodyOpcodes;
+        public final int iterations;
+
+        public Loop(int[] body, byte[] bodyOpcodes, int iterations){
+            assert(iterations > 0);
+            this.body = body;
+            this.bodyOpcodes = bodyOpcodes;
+            this.iterations = iterations;
+
+            String key = Arrays.toString(body);
+            Integer id = idsOfBodies.get(key);
+            if (id == null){
+                synchronized (idsOfBodies){
+                    id = idsOfBodies.get(key);
+                    if (id == null){
+                        id = firstId + idsOfBodies.size();
+                        idsOfBodies.put(key, id);
+                    }
+                }
+            }
+            this.id = id;
+        }
+
+        private static void clear(){
+            synchronized (idsOfBodies){
+                idsOfBodies.clear();
+            }
+        }
+    }
+}
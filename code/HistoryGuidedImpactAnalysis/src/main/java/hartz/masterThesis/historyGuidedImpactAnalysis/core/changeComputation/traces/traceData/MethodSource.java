@@ -18,10 +18,12 @@ public class MethodSource {
 
     public final String identifier;
     public final String[] instructions;
+    public final byte[] opcodes; //of the instructions, see 'OpcodeTranslator.getOpcode(...)'
 
     /* TODO: the block analysis could be expanded with the edges by storing the labels during instrumentation */
     public final int[][] basicBlocksToInstr;
     public final int[] instrToBasicBlocks;
+    public final boolean basicBlocksWereProbed; //'true' if traces contain one entry per block instead of per instruction
 
     public final int[] javaLines; //may be null
 
@@ -31,30 +33,14 @@ public class MethodSource {
         JSONArray a = o.getJSONArray("source");
         int[] javaLineTmp = new int[a.length()];
         instructions = new String[a.length()];
+        opcodes = new byte[a.length()];
         instrToBasicBlocks = new int[a.length()];
 
-        ArrayList<int[]> tmp = new ArrayList<>();
-
         boolean sawJavaLines = false;
-        int basicBlockCounter = 0;
-        int lastBasicBlock = 0;
-
         for (int i = 0; i<a.length(); ++i){
             String s = a.getString(i);
-            instructions[i] = s.substring(s.indexOf(":")).trim();
-
-            //deal with building basic blocks
-            instrToBasicBlocks[i] = basicBlockCounter;
-            if (OpcodeTranslator.modifiesControlFlow(s)) {
-                /** so a GOTO or IF is the *last* instruction in a block */
-                int[] instrOfThisBlock = new int[i-lastBasicBlock];
-                int counter = 0;
-                for (int j = lastBasicBlock; j<=i; ++j)
-                    instrOfThisBlock[counter++] = j;
-                tmp.add(instrOfThisBlock);
-
-                ++basicBlockCounter;
-            }
+            instructions[i] = s.substring(s.indexOf(":")+1).trim();
+            opcodes[i] = (byte) OpcodeTranslator.getOpcode(instructions[i]);
 
             //if there is a line mapping, import it as well
             if (s.contains("(") && s.contains(")")) {
@@ -63,9 +49,39 @@ public class MethodSource {
             }
             else javaLineTmp[i] = -1;
         }
-
-        basicBlocksToInstr = tmp.toArray(new int[tmp.size()][]);
         javaLines = sawJavaLines ? javaLineTmp : null;
 
+        //deal with building basic blocks, instrumentation knows them exactly if it probed them
+        boolean[] startsBlock = new boolean[instructions.length];
+        basicBlocksWereProbed = o.has("basicBlocks");
+        if (basicBlocksWereProbed){
+            JSONArray starts = o.getJSONArray("basicBlocks");
+            for (int i = 0; i<starts.length(); ++i)
+                startsBlock[starts.getInt(i)] = true;
+        } else {
+            /* otherwise, a GOTO or IF is the *last* instruction in a block (without the labels, we cannot know
+             * where jumps lead to, hence these blocks may contain more than one entry) */
+            for (int i = 1; i<instructions.length; ++i)
+                startsBlock[i] = OpcodeTranslator.modifiesControlFlow(instructions[i-1]);
+        }
+        if (instructions.length > 0) startsBlock[0] = true;
+
+        ArrayList<int[]> tmp = new ArrayList<>();
+        int basicBlockCounter = -1;
+        int firstOfBlock = 0;
+        for (int i = 0; i<=instructions.length; ++i){
+            if (i == instructions.length || startsBlock[i]) {
+                if (i > 0){
+                    int[] instrOfThisBlock = new int[i-firstOfBlock];
+                    for (int j = firstOfBlock; j<i; ++j)
+                        instrOfThisBlock[j-firstOfBlock] = j;
+                    tmp.add(instrOfThisBlock);
+                }
+                firstOfBlock = i;
+                ++basicBlockCounter;
+            }
+            if (i < instructions.length) instrToBasicBlocks[i] = basicBlockCounter;
+        }
+        basicBlocksToInstr = tmp.toArray(new int[tmp.size()][]);
     }
 }
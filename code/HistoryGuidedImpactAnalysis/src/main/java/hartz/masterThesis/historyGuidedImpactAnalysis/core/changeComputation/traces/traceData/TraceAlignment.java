@@ -0,0 +1,590 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * Computes the Levenshtein distance between two traces together with an optimal alignment of them, without ever
+ * building the full cost matrix. Traces that are nearly equal are aligned by following the furthest reaching paths
+ * along the diagonals of the (virtual) matrix, in the style of Myers' O((N+M)*D) diff but with replacements as an
+ * additional operation. That takes time and memory proportional to the number of differences only. If the traces
+ * differ too much to remember these paths, the alignment is computed by Hirschberg's divide and conquer approach
+ * instead, which needs only two rows of the matrix at any time.
+ *
+ * Traces holding compressed loops are aligned with each entry weighted by the number of instructions it stands for,
+ * see {@link TraceUtil#computeCompressedTraceDistance(MethodData, MethodData, boolean, int)}. Following the diagonals
+ * relies on every operation costing the same, so these are always aligned by Hirschberg's approach. Since every entry
+ * stands for at least one instruction, a path of costs d never leaves the diagonals from -d to d, so only that band
+ * of the matrix is computed once the distance is known, in the style of Ukkonen.
+ *
+ * The alignment is turned into diverging sections on the fly, see {@link TraceUtil.TraceInstrDiff}.
+ */
+class TraceAlignment {
+
+    /** Upper limit for the memory (in ints) used to remember the furthest reaching paths of one comparison */
+    private static final int maximalSizeOfPathHistory = 1 << 22;
+    /** For each entry of a compared section, at least this much memory may be used to remember the paths */
+    private static final int pathHistoryPerEntry = 64;
+
+    private static final int REPLACE = 0;
+    private static final int INSERT = 1;
+    private static final int DELETE = 2;
+
+    /** Costs of cells outside of the band, large enough for every distance but safe to add weights to */
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 2;
+    /** Diagonals on both sides covered by the first band when computing the distance of weighted entries */
+    private static final int initialBandWidth = 64;
+
+    private final int[] newTrace;
+    private final int[] newCalls;
+    private final int[] oldTrace;
+    private final int[] oldCalls;
+    private final int offset;
+
+    //only if entries are weighted, 'null' otherwise
+    private final MethodData newer;
+    private final MethodData older;
+    private final boolean compareCalledMethods;
+
+    private final TreeMap<Integer, int[][]> differences;
+    private int distance;
+    private int amountOfOperations;
+
+    //the band of diagonals of the cost matrix that is computed, covers the whole matrix unless weighted
+    private int lowestDiagonal;
+    private int highestDiagonal;
+
+    //the diverging section that is currently being built and where the operation added last ended
+    private boolean inDivergingSection;
+    private int sectionStart;
+    private int operationEndInNew;
+    private int operationEndInOld;
+    private int[] sectionNew;
+    private int sectionNewLength;
+    private int[] sectionOld;
+    private int sectionOldLength;
+
+    private TraceAlignment(int[] newTrace, int[] newCalls, int[] oldTrace, int[] oldCalls, int offset){
+        this(newTrace, newCalls, oldTrace, oldCalls, offset, null, null, false);
+    }
+
+    private TraceAlignment(MethodData newer, MethodData older, boolean compareCalledMethods, int offset){
+        this(newer.getCompressedBytecodeIndices(), null, older.getCompressedBytecodeIndices(), null, offset,
+                newer, older, compareCalledMethods);
+    }
+
+    private TraceAlignment(int[] newTrace, int[] newCalls, int[] oldTrace, int[] oldCalls, int offset,
+                           MethodData newer, MethodData older, boolean compareCalledMethods){
+        this.newTrace = newTrace;
+        this.newCalls = newCalls;
+        this.oldTrace = oldTrace;
+        this.oldCalls = oldCalls;
+        this.offset = offset;
+        this.newer = newer;
+        this.older = older;
+        this.compareCalledMethods = compareCalledMethods;
+        this.differences = new TreeMap<>();
+        this.distance = 0;
+        this.amountOfOperations = 0;
+        this.lowestDiagonal = -(oldTrace.length - offset);
+        this.highestDiagonal = newTrace.length - offset;
+        this.inDivergingSection = false;
+        this.sectionNew = new int[16];
+        this.sectionOld = new int[16];
+    }
+
+    /**
+     * Aligns two traces, see {@link TraceUtil#computeTraceDistanceFull(int[], int[], int[], int[], int)}.
+     */
+    static TraceUtil.TraceInstrDiff align(int[] newTrace, int[] newCalls, int[] oldTrace, int[] oldCalls, int offset){
+        TraceAlignment alignment = new TraceAlignment(newTrace, newCalls, oldTrace, oldCalls, offset);
+        int lengthOfNewTrace = newTrace.length - offset;
+        int lengthOfOldTrace = oldTrace.length - offset;
+
+        /* if the traces are nearly equal, the result is exactly the one the backtracking on the full cost matrix
+         * yields, otherwise another optimal alignment may be found that places the diverging sections differently */
+        if (!alignment.alignAlongDiagonals(0, lengthOfNewTrace, 0, lengthOfOldTrace, maximalSizeOfPathHistory))
+            alignment.alignInLinearSpace(0, lengthOfNewTrace, 0, lengthOfOldTrace, false);
+        alignment.closeDivergingSection();
+        return new TraceUtil.TraceInstrDiff(alignment.distance, alignment.differences);
+    }
+
+    /**
+     * Aligns two traces holding compressed loops, see
+     * {@link TraceUtil#computeCompressedTraceDistance(MethodData, MethodData, boolean, int)}.
+     */
+    static TraceUtil.TraceInstrDiff alignCompressed(MethodData newer, MethodData older, boolean compareCalledMethods, int offset){
+        int costs = computeCompressedDistance(newer, older, compareCalledMethods, offset, Integer.MAX_VALUE);
+        TraceAlignment alignment = new TraceAlignment(newer, older, compareCalledMethods, offset);
+        alignment.restrictToBand(costs);
+        alignment.alignInLinearSpace(0, alignment.newTrace.length - offset, 0, alignment.oldTrace.length - offset, false);
+        alignment.closeDivergingSection();
+        assert (alignment.distance == costs);
+        return new TraceUtil.TraceInstrDiff(alignment.distance, alignment.differences);
+    }
+
+    /**
+     * Computes the distance of two traces holding compressed loops in linear memory, without aligning them. Like
+     * {@link #computeDistance(int[], int[], int, int, int[], int[], int, int, int)}, the computation stops as soon
+     * as the distance is known to be at least 'maximalDistance'. Only a band of diagonals is computed, which is
+     * doubled until the distance found fits into it, so that this takes time proportional to the compressed
+     * length times the distance.
+     *
+     * @return the distance, 'maximalDistance' if it is at least that high
+     */
+    static int computeCompressedDistance(MethodData newer, MethodData older, boolean compareCalledMethods, int offset,
+                                         int maximalDistance){
+        TraceAlignment alignment = new TraceAlignment(newer, older, compareCalledMethods, offset);
+        int newStart = 0;
+        int oldStart = 0;
+        int newEnd = alignment.newTrace.length - offset;
+        int oldEnd = alignment.oldTrace.length - offset;
+        while (newStart < newEnd && oldStart < oldEnd && alignment.areEqual(newStart, oldStart)){
+            ++newStart;
+            ++oldStart;
+        }
+        while (newStart < newEnd && oldStart < oldEnd && alignment.areEqual(newEnd - 1, oldEnd - 1)){
+            --newEnd;
+            --oldEnd;
+        }
+
+        /* no operation costs less than the difference of the instructions it covers in both traces, so the
+         * difference in expanded length has to be made up for in any case */
+        long expandedLengthDifference = 0;
+        for (int x = newStart; x < newEnd; ++x) expandedLengthDifference += alignment.insertionCosts(x);
+        for (int y = oldStart; y < oldEnd; ++y) expandedLengthDifference -= alignment.deletionCosts(y);
+        if (Math.abs(expandedLengthDifference) >= maximalDistance) return maximalDistance;
+
+        int n = newEnd - newStart;
+        int m = oldEnd - oldStart;
+        for (long bandWidth = Math.max(initialBandWidth, Math.abs(n - m)); ; bandWidth *= 2){
+            boolean wholeMatrix = bandWidth >= Math.max(n, m);
+            //a distance of at most the band width is exact, larger ones may not be
+            int limit = wholeMatrix ? maximalDistance : (int) Math.min(maximalDistance, bandWidth + 1);
+            alignment.restrictToBand((int) Math.min(bandWidth, Integer.MAX_VALUE));
+            int[] costs = alignment.computeLastRow(newStart, newEnd, oldStart, oldEnd, false, limit);
+            int distance = costs == null ? limit : Math.min(costs[m], limit);
+            if (distance <= bandWidth || wholeMatrix || limit == maximalDistance) return Math.min(distance, maximalDistance);
+        }
+    }
+
+    /**
+     * Only computes the cells of the cost matrix on the diagonals from -width to width from now on, which
+     * holds every path that does not cost more than the width.
+     */
+    private void restrictToBand(int width){
+        lowestDiagonal = Math.max(-width, -(oldTrace.length - offset));
+        highestDiagonal = Math.min(width, newTrace.length - offset);
+    }
+
+    /**
+     * Aligns a part of the traces, all indices are relative to the offset. Must be called for the parts in the
+     * order they appear in the traces, since the diverging sections are built on the fly!
+     *
+     * @param alongDiagonals : 'false' if it is already known that the part is too different for
+     *                         {@link #alignAlongDiagonals(int, int, int, int, int)}
+     */
+    private void alignInLinearSpace(int newStart, int newEnd, int oldStart, int oldEnd, boolean alongDiagonals){
+        //equal entries at the beginning and end do not have to be aligned at all
+        while (newStart < newEnd && oldStart < oldEnd && areEqual(newStart, oldStart)){
+            ++newStart;
+            ++oldStart;
+        }
+        while (newStart < newEnd && oldStart < oldEnd && areEqual(newEnd - 1, oldEnd - 1)){
+            --newEnd;
+            --oldEnd;
+        }
+
+        if (newStart == newEnd){
+            for (int y = oldStart; y < oldEnd; ++y) addOperation(DELETE, newStart, y);
+            return;
+        }
+        if (oldStart == oldEnd){
+            for (int x = newStart; x < newEnd; ++x) addOperation(INSERT, x, oldStart);
+            return;
+        }
+        if (newEnd - newStart == 1){
+            if (newer == null) alignSingleEntry(newStart, oldStart, oldEnd);
+            else alignSingleWeightedEntry(newStart, oldStart, oldEnd);
+            return;
+        }
+
+        long historyLimit = Math.min(maximalSizeOfPathHistory,
+                (long) pathHistoryPerEntry * ((newEnd - newStart) + (oldEnd - oldStart)));
+        if (alongDiagonals && newer == null && alignAlongDiagonals(newStart, newEnd, oldStart, oldEnd, (int) historyLimit))
+            return;
+
+        /* Too different, Hirschberg: split the newer part in the middle, find the entry of the older part where an
+         * optimal alignment crosses that line and align both halves on their own! */
+        int newMiddle = newStart + (newEnd - newStart) / 2;
+        int[] forward = computeLastRow(newStart, newMiddle, oldStart, oldEnd, false, Integer.MAX_VALUE);
+        int[] backward = computeLastRow(newMiddle, newEnd, oldStart, oldEnd, true, Integer.MAX_VALUE);
+
+        int oldMiddle = oldStart;
+        int minimalCosts = Integer.MAX_VALUE;
+        for (int j = 0; j <= oldEnd - oldStart; ++j){
+            int costs = forward[j] + backward[(oldEnd - oldStart) - j];
+            if (costs < minimalCosts){
+                minimalCosts = costs;
+                oldMiddle = oldStart + j;
+            }
+        }
+        alignInLinearSpace(newStart, newMiddle, oldStart, oldMiddle, true);
+        alignInLinearSpace(newMiddle, newEnd, oldMiddle, oldEnd, true);
+    }
+
+    /**
+     * Aligns a single entry of the newer trace with a part of the older trace that is not empty.
+     */
+    private void alignSingleEntry(int x, int oldStart, int oldEnd){
+        int match = oldStart;
+        while (match < oldEnd && !areEqual(x, match)) ++match;
+
+        if (match == oldEnd){
+            //nothing to keep, replace the first one
+            addOperation(REPLACE, x, oldStart);
+            for (int y = oldStart + 1; y < oldEnd; ++y) addOperation(DELETE, x + 1, y);
+        } else {
+            for (int y = oldStart; y < match; ++y) addOperation(DELETE, x, y);
+            for (int y = match + 1; y < oldEnd; ++y) addOperation(DELETE, x + 1, y);
+        }
+    }
+
+    /**
+     * Aligns a single weighted entry of the newer trace with a part of the older trace that is not empty, either
+     * by replacing the entry of the older part where that is cheapest or by inserting it.
+     */
+    private void alignSingleWeightedEntry(int x, int oldStart, int oldEnd){
+        int replaced = oldStart;
+        int savedByReplacing = Integer.MIN_VALUE; //compared to inserting x and deleting everything
+        for (int y = oldStart; y < oldEnd; ++y){
+            int saved = insertionCosts(x) + deletionCosts(y) - replacementCosts(x, y);
+            if (saved > savedByReplacing){
+                savedByReplacing = saved;
+                replaced = y;
+            }
+        }
+
+        if (savedByReplacing < 0){
+            addOperation(INSERT, x, oldStart);
+            for (int y = oldStart; y < oldEnd; ++y) addOperation(DELETE, x + 1, y);
+        } else {
+            for (int y = oldStart; y < replaced; ++y) addOperation(DELETE, x, y);
+            if (!areEqual(x, replaced)) addOperation(REPLACE, x, replaced);
+            for (int y = replaced + 1; y < oldEnd; ++y) addOperation(DELETE, x + 1, y);
+        }
+    }
+
+    /**
+     * Computes the Levenshtein distances between a part of the newer trace and all prefixes (or suffixes, if
+     * 'reverse' is set) of a part of the older trace, needing memory for one row of the cost matrix only. Cells
+     * outside of the band of diagonals are not computed, they count as unreachable.
+     *
+     * @param maximalDistance : the computation stops once every cell of a row costs at least this much, since
+     *                          the costs only grow from one row to the next
+     * @return an array where the entry at index j holds the distance to the first (or last) j entries, 'null'
+     *         if the computation stopped early
+     */
+    private int[] computeLastRow(int newStart, int newEnd, int oldStart, int oldEnd, boolean reverse, int maximalDistance){
+        int lengthOfOld = oldEnd - oldStart;
+        int[] costs = new int[lengthOfOld + 1];
+        Arrays.fill(costs, UNREACHABLE);
+
+        /* the cells of row i inside the band are those from i + firstInBand to i + lastInBand, the band moves one
+         * cell to the right with every row, so that cells entering it have never been computed before */
+        long firstInBand = reverse ? (long) lowestDiagonal - (newEnd - oldEnd) : (long) newStart - oldStart - highestDiagonal;
+        long lastInBand = reverse ? (long) highestDiagonal - (newEnd - oldEnd) : (long) newStart - oldStart - lowestDiagonal;
+
+        int deletionCosts = 0;
+        for (int j = 0; j <= Math.min(lengthOfOld, lastInBand); ++j){
+            if (j > 0) deletionCosts += deletionCosts(reverse ? oldEnd - j : oldStart + j - 1);
+            if (j >= firstInBand) costs[j] = deletionCosts;
+        }
+
+        for (int i = 1; i <= newEnd - newStart; ++i){
+            int x = reverse ? newEnd - i : newStart + i - 1;
+            int insertionCosts = insertionCosts(x);
+            int first = (int) Math.max(0, i + firstInBand);
+            int last = (int) Math.min(lengthOfOld, i + lastInBand);
+            if (first > last) return null; //the band has left the matrix, nothing is reachable anymore
+
+            int costBuffer = first > 0 ? costs[first - 1] : UNREACHABLE; //the diagonal predecessor
+            if (first > 0) costs[first - 1] = UNREACHABLE; //left the band
+            int cheapestCell = UNREACHABLE;
+            for (int j = first; j <= last; ++j){
+                int costForCell = add(costs[j], insertionCosts);
+                if (j > 0){
+                    int y = reverse ? oldEnd - j : oldStart + j - 1;
+                    costForCell = Math.min(costForCell, add(costs[j - 1], deletionCosts(y)));
+                    costForCell = Math.min(costForCell, add(costBuffer, replacementCosts(x, y)));
+                }
+                costBuffer = costs[j];
+                costs[j] = costForCell;
+                cheapestCell = Math.min(cheapestCell, costForCell);
+            }
+            if (cheapestCell >= maximalDistance) return null;
+        }
+        return costs;
+    }
+
+    /**
+     * @return the sum of the costs of a cell and of an operation, cells outside of the band stay unreachable
+     */
+    private static int add(int costsOfCell, int costsOfOperation){
+        return costsOfCell >= UNREACHABLE ? UNREACHABLE : costsOfCell + costsOfOperation;
+    }
+
+    /**
+     * Aligns a part of the traces by computing, for growing numbers of differences d, how far one can get on each
+     * diagonal of the cost matrix with d operations (diagonal k holds the cells where the index in the newer part
+     * minus the index in the older part equals k). Equal entries are free, so we slide along a diagonal as long as
+     * possible. Once the lower right cell is reached, d is the distance and the paths are followed backwards.
+     *
+     * @return 'false' if more memory than allowed would have been needed, nothing has been aligned in that case
+     */
+    private boolean alignAlongDiagonals(int newStart, int newEnd, int oldStart, int oldEnd, int historyLimit){
+        int n = newEnd - newStart;
+        int m = oldEnd - oldStart;
+
+        /* furthest reaching index in the newer part on each diagonal for each amount of differences, the
+         * array for d differences covers the diagonals from max(-d,-m) to min(d,n) */
+        ArrayList<int[]> furthest = new ArrayList<>();
+        int sizeOfHistory = 1;
+
+        int[] current = new int[]{slide(newStart, oldStart, 0, n, m, 0)};
+        furthest.add(current);
+        int d = 0;
+        while (!reachedEnd(current, d, n, m)){
+            ++d;
+            sizeOfHistory += Math.min(d, n) - Math.max(-d, -m) + 1;
+            if (sizeOfHistory > historyLimit) return false;
+
+            current = computeFurthest(current, d, newStart, oldStart, n, m);
+            furthest.add(current);
+        }
+
+        /* follow the path backwards like the backtracking on the full cost matrix does, favoring diagonal moves.
+         * The operations are collected first since they are found in reverse order */
+        int[] operations = new int[d];
+        int[] positionsInNew = new int[d];
+        int[] positionsInOld = new int[d];
+        int remaining = d;
+        int x = n;
+        int y = m;
+        while (x > 0 || y > 0){
+            int currentCosts = getCosts(furthest, x, y, m);
+            if (currentCosts == 0) break; //the parts are equal up to here
+
+            //obtain costs for possible operations (= where we could have come from)
+            int diagonal = (x > 0 && y > 0) ? getCosts(furthest, x - 1, y - 1, m) : Integer.MAX_VALUE;
+            int up = (y > 0) ? getCosts(furthest, x, y - 1, m) : Integer.MAX_VALUE;
+            int left = (x > 0) ? getCosts(furthest, x - 1, y, m) : Integer.MAX_VALUE;
+
+            int operation;
+            if (diagonal <= up && diagonal <= left){
+                --x;
+                --y;
+                if (diagonal == currentCosts) continue; //no-op
+                operation = REPLACE;
+            } else if (left <= up && left <= currentCosts){
+                --x;
+                operation = INSERT;
+            } else {
+                --y;
+                operation = DELETE;
+            }
+            --remaining;
+            operations[remaining] = operation;
+            positionsInNew[remaining] = x;
+            positionsInOld[remaining] = y;
+        }
+        assert (remaining == 0);
+
+        for (int i = 0; i < d; ++i)
+            addOperation(operations[i], newStart + positionsInNew[i], oldStart + positionsInOld[i]);
+        return true;
+    }
+
+    /**
+     * Computes the distance of two parts of traces like {@link #alignAlongDiagonals(int, int, int, int, int)}
+     * does, but only remembers the furthest reaching paths of the previous amount of differences.
+     *
+     * @param newStart : index of the first entry of the newer trace to compare
+     * @param newEnd : index after the last entry of the newer trace to compare
+     * @param oldStart : index of the first entry of the older trace to compare
+     * @param oldEnd : index after the last entry of the older trace to compare
+     * @param maximalDistance : the computation stops once this distance is reached
+     * @return the distance, 'maximalDistance' if it is at least that high
+     */
+    static int computeDistance(int[] newTrace, int[] newCalls, int newStart, int newEnd,
+                               int[] oldTrace, int[] oldCalls, int oldStart, int oldEnd, int maximalDistance){
+        TraceAlignment alignment = new TraceAlignment(newTrace, newCalls, oldTrace, oldCalls, 0);
+        int n = newEnd - newStart;
+        int m = oldEnd - oldStart;
+
+        int[] current = new int[]{alignment.slide(newStart, oldStart, 0, n, m, 0)};
+        int d = 0;
+        while (!reachedEnd(current, d, n, m)){
+            if (++d >= maximalDistance) return maximalDistance;
+            current = alignment.computeFurthest(current, d, newStart, oldStart, n, m);
+        }
+        return d;
+    }
+
+    /**
+     * @return 'true' if the furthest reaching paths with d differences reach the lower right cell
+     */
+    private static boolean reachedEnd(int[] furthest, int d, int n, int m){
+        return n - m >= -d && n - m <= d && furthest[(n - m) - Math.max(-d, -m)] == n;
+    }
+
+    /**
+     * @return the furthest reaching paths with d differences, computed from the ones with one difference less
+     */
+    private int[] computeFurthest(int[] previous, int d, int newStart, int oldStart, int n, int m){
+        int lowest = Math.max(-d, -m);
+        int highest = Math.min(d, n);
+        int[] current = new int[highest - lowest + 1];
+        for (int k = lowest; k <= highest; ++k){
+            //a diagonal that already reached the end of one of the parts cannot get any further
+            int x = furthestBefore(previous, d - 1, k, m);
+            for (int operation = REPLACE; operation <= DELETE; ++operation)
+                x = Math.max(x, furthestAfterOperation(operation, previous, d - 1, k, n, m));
+            current[k - lowest] = slide(newStart, oldStart, x, n, m, k);
+        }
+        return current;
+    }
+
+    /**
+     * Computes the costs of a cell of the (virtual) cost matrix from the furthest reaching paths. The costs grow
+     * along a diagonal, so they equal the fewest differences whose furthest reaching path gets to the cell.
+     *
+     * @return the costs, 'Integer.MAX_VALUE' if these are higher than the distance of the compared parts
+     */
+    private static int getCosts(ArrayList<int[]> furthest, int x, int y, int m){
+        int k = x - y;
+        int lowest = Math.abs(k);
+        int highest = furthest.size() - 1;
+        if (lowest > highest || furthestBefore(furthest.get(highest), highest, k, m) < x) return Integer.MAX_VALUE;
+        while (lowest < highest){
+            int middle = (lowest + highest) >>> 1;
+            if (furthestBefore(furthest.get(middle), middle, k, m) >= x) highest = middle;
+            else lowest = middle + 1;
+        }
+        return lowest;
+    }
+
+    /**
+     * @return the furthest reaching index in the newer part on diagonal k with d differences, -1 if d differences
+     *         are not enough to reach that diagonal
+     */
+    private static int furthestBefore(int[] previous, int d, int k, int m){
+        int lowest = Math.max(-d, -m);
+        if (k < lowest || k - lowest >= previous.length) return -1;
+        return previous[k - lowest];
+    }
+
+    /**
+     * Determines how far one can get on diagonal k with a single operation after the furthest reaching paths of
+     * the previous amount of differences, before sliding along equal entries. The furthest reaching cell of a
+     * diagonal might be at the end of one of the parts already, in which case an earlier one is used.
+     *
+     * @return the index in the newer part, -1 if this operation cannot lead to diagonal k
+     */
+    private static int furthestAfterOperation(int operation, int[] previous, int d, int k, int n, int m){
+        switch (operation){
+            case REPLACE:
+                int replaced = Math.min(furthestBefore(previous, d, k, m), Math.min(n - 1, m - 1 + k));
+                return replaced >= Math.max(0, k) ? replaced + 1 : -1;
+            case INSERT:
+                int inserted = Math.min(furthestBefore(previous, d, k - 1, m), n - 1);
+                return inserted >= Math.max(0, k - 1) ? inserted + 1 : -1;
+            default:
+                int deleted = Math.min(furthestBefore(previous, d, k + 1, m), m + k);
+                return deleted >= Math.max(0, k + 1) ? deleted : -1;
+        }
+    }
+
+    /**
+     * @return how far one gets on diagonal k, starting at index x of the newer part, while the entries are equal
+     */
+    private int slide(int newStart, int oldStart, int x, int n, int m, int k){
+        while (x < n && x - k < m && areEqual(newStart + x, oldStart + x - k)) ++x;
+        return x;
+    }
+
+    /**
+     * @return 'true' if the entries of the traces are equal, all method calls are equal if there is no description!
+     */
+    private boolean areEqual(int x, int y){
+        if (newer != null) return replacementCosts(x, y) == 0;
+        return TraceUtil.areEqual(newTrace, newCalls, x + offset, oldTrace, oldCalls, y + offset);
+    }
+
+    /** @return the costs of inserting entry x of the newer trace, the instructions it stands for if weighted */
+    private int insertionCosts(int x){
+        return newer == null ? 1 : newer.getExpandedLengthOfTraceEntry(x + offset);
+    }
+
+    /** @return the costs of deleting entry y of the older trace, the instructions it stands for if weighted */
+    private int deletionCosts(int y){
+        return older == null ? 1 : older.getExpandedLengthOfTraceEntry(y + offset);
+    }
+
+    /** @return the costs of replacing entry y of the older trace by entry x of the newer trace, '0' if they are equal */
+    private int replacementCosts(int x, int y){
+        if (newer == null) return areEqual(x, y) ? 0 : 1;
+        return TraceUtil.getReplacementCosts(newer, older, x + offset, y + offset, compareCalledMethods);
+    }
+
+    /**
+     * Adds an operation of the alignment, these must be added in the order they appear in the traces. An operation
+     * that does not directly follow the previous one means that the traces merged in between. Just like the
+     * backtracking on the full cost matrix, which stops at its edges, operations leading to the first entry of
+     * one of the traces count towards the distance but do not show up in the diverging sections. Replacing an
+     * entry by an equal one is no operation at all.
+     *
+     * @param x : index in the newer trace relative to the offset, the position before which is inserted for deletions
+     * @param y : index in the older trace relative to the offset, the position before which is deleted for insertions
+     */
+    private void addOperation(int operation, int x, int y){
+        boolean followsPreviousOperation = amountOfOperations > 0 && x == operationEndInNew && y == operationEndInOld;
+        ++amountOfOperations;
+        if (operation == INSERT) distance += insertionCosts(x);
+        else if (operation == DELETE) distance += deletionCosts(y);
+        else distance += replacementCosts(x, y);
+        operationEndInNew = operation == DELETE ? x : x + 1;
+        operationEndInOld = operation == INSERT ? y : y + 1;
+        if (operationEndInNew == 0 || operationEndInOld == 0) return;
+
+        if (inDivergingSection && !followsPreviousOperation)
+            closeDivergingSection(); //trace has merged in between
+        if (!inDivergingSection){
+            inDivergingSection = true;
+            /* sections are stored at the equal entry before them, unless the traces are equal up to them or that
+             * entry is taken by a section that consists of deletions only */
+            sectionStart = (amountOfOperations == 1 || followsPreviousOperation || (!differences.isEmpty() && differences.lastKey() == x - 1))
+                    ? x : x - 1;
+            sectionNewLength = 0;
+            sectionOldLength = 0;
+        }
+
+        if (operation != DELETE){
+            if (sectionNewLength == sectionNew.length) sectionNew = Arrays.copyOf(sectionNew, sectionNewLength * 2);
+            sectionNew[sectionNewLength++] = newTrace[x + offset];
+        }
+        if (operation != INSERT){
+            if (sectionOldLength == sectionOld.length) sectionOld = Arrays.copyOf(sectionOld, sectionOldLength * 2);
+            sectionOld[sectionOldLength++] = oldTrace[y + offset];
+        }
+    }
+
+    private void closeDivergingSection(){
+        if (!inDivergingSection) return;
+        assert (!differences.containsKey(sectionStart));
+        differences.put(sectionStart /* store diff based on new*/, new int[][]{
+                Arrays.copyOf(sectionNew, sectionNewLength), Arrays.copyOf(sectionOld, sectionOldLength)});
+        inDivergingSection = false;
+    }
+}
@@ -6,6 +6,7 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.tra
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeMap;
@@ -30,110 +31,186 @@ public class TraceUtil {
     }
 
     /**
-     * Runs a comparison algorithm based on Levenshtein. If the 'desc'-arrays are null, every negative
+     * Runs a comparison algorithm based on Levenshtein. If the 'calls'-arrays are null, every negative
      * number will be treated as equal to every other negative number, aka every method call is equal
-     * to every method call. If the arrays are not 'null', the identifier of the called method will
-     * be used for comparison.
+     * to every method call. If the arrays are not 'null', the ID of the called method will be used
+     * for comparison.
      *
      * @param newTrace : array containing executed instruction indices for the newer trace
-     * @param newDesc : array containing the actually executed instructions (their type) for the newer trace
+     * @param newCalls : IDs of the methods called by the newer trace in order of invocation, the entry '-i' of
+     *                   the trace refers to the (i-1)-th one, see {@link MethodData#getCalledMethodIds()}
      * @param oldTrace : array containing executed instruction indices for the older trace
-     * @param oldDesc : array containing the actually executed instructions (their type) for the older trace
+     * @param oldCalls : IDs of the methods called by the older trace in order of invocation
      * @param offset : can be used to ignore a certain part of the arrays above, everything below the offset
      *                 will not be compared (that means you must provide 0 to compare the full arrays)
      * @return positive integer distance metric on how different the two arrays are
      */
-    public static int computeTraceDistanceQuick(int[] newTrace, String[] newDesc, int[] oldTrace, String[] oldDesc, int offset) {
+    public static int computeTraceDistanceQuick(int[] newTrace, int[] newCalls, int[] oldTrace, int[] oldCalls, int offset) {
+        return computeTraceDistanceQuick(newTrace, newCalls, oldTrace, oldCalls, offset, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Runs a comparison algorithm based on Levenshtein that stops as soon as it is clear that the distance is at
+     * least 'maximalDistance'. If the 'calls'-arrays are null, every negative number will be treated as equal to
+     * every other negative number, aka every method call is equal to every method call. If the arrays are not
+     * 'null', the ID of the called method will be used for comparison.
+     *
+     * Equal entries at the beginning and end of the traces are skipped. For a few differences, only the diagonals
+     * of the cost matrix they allow are followed, see {@link TraceAlignment}. If there are more, 64 rows of the
+     * cost matrix are computed at once by representing the differences between neighbouring cells as bits
+     * (Myers' bit-vector algorithm, extended to arbitrary lengths by Hyyro).
+     *
+     * @param newTrace : array containing executed instruction indices for the newer trace
+     * @param newCalls : IDs of the methods called by the newer trace in order of invocation, the entry '-i' of
+     *                   the trace refers to the (i-1)-th one, see {@link MethodData#getCalledMethodIds()}
+     * @param oldTrace : array containing executed instruction indices for the older trace
+     * @param oldCalls : IDs of the methods called by the older trace in order of invocation
+     * @param offset : can be used to ignore a certain part of the arrays above, everything below the offset
+     *                 will not be compared (that means you must provide 0 to compare the full arrays)
+     * @param maximalDistance : distance at which the computation may stop, must be positive
+     * @return positive integer distance metric on how different the two arrays are, 'maximalDistance' if it is
+     *         at least that high
+     */
+    public static int computeTraceDistanceQuick(int[] newTrace, int[] newCalls, int[] oldTrace, int[] oldCalls, int offset,
+                                                int maximalDistance) {
         assert(newTrace.length >= 0);
         assert(oldTrace.length >= 0);
-        assert (newDesc == null || newTrace.length == newDesc.length);
-        assert (oldDesc == null ||  oldTrace.length == oldDesc.length);
-        assert ((newDesc == null && oldDesc == null) || (newDesc != null && oldDesc != null));
-
-        int lengthOfNewTrace = newTrace.length - offset;
-        int lengthOfOldTrace = oldTrace.length - offset;
-
-        int[] costs = new int[lengthOfNewTrace + 1];
-        for (int j = 0; j < costs.length; j++)
-            costs[j] = j;
-        for (int i = 1; i <= lengthOfOldTrace; i++) {
-            costs[0] = i;
-            int costBuffer = i - 1;
-            for (int j = 1; j <= lengthOfNewTrace; j++) {
-                int newValue = newTrace[(j + offset) - 1];
-                int oldValue = oldTrace[(i + offset) - 1];
-
-                int costForCell = 1 + Math.min(costs[j], costs[j - 1]);
-                if (newValue < 0 || oldValue < 0)
-                    //if at least one is a method call, we need to use the more expensive comparison!
-                    costForCell = Math.min(
-                            costForCell,
-                            ( newDesc == null ? ((newValue < 0 && oldValue < 0)
-                                                     ? costBuffer /** = 'two method calls are always equal'-mode */
-                                                     : costBuffer + 1
-                                                )
-                                              : ( newDesc[(j + offset) - 1].equals(oldDesc[(i + offset) - 1])
-                                                     ? costBuffer /** = 'compare called method'-mode */
-                                                     : costBuffer + 1
-                                                )
-                           )
-                    );
-                else costForCell = Math.min(costForCell, newValue == oldValue ? costBuffer : costBuffer + 1);
-                costBuffer = costs[j];
-                costs[j] = costForCell;
-            }
+        assert ((newCalls == null && oldCalls == null) || (newCalls != null && oldCalls != null));
+        assert (maximalDistance > 0);
+
+        //equal entries at the beginning and end do not influence the distance
+        int newStart = offset;
+        int oldStart = offset;
+        int newEnd = newTrace.length;
+        int oldEnd = oldTrace.length;
+        while (newStart < newEnd && oldStart < oldEnd && areEqual(newTrace, newCalls, newStart, oldTrace, oldCalls, oldStart)){
+            ++newStart;
+            ++oldStart;
+        }
+        while (newStart < newEnd && oldStart < oldEnd && areEqual(newTrace, newCalls, newEnd - 1, oldTrace, oldCalls, oldEnd - 1)){
+            --newEnd;
+            --oldEnd;
+        }
+        int lengthOfNewTrace = newEnd - newStart;
+        int lengthOfOldTrace = oldEnd - oldStart;
+
+        //the difference in length has to be inserted or deleted in any case
+        if (Math.abs(lengthOfNewTrace - lengthOfOldTrace) >= maximalDistance) return maximalDistance;
+        if (lengthOfNewTrace == 0 || lengthOfOldTrace == 0) return Math.max(lengthOfNewTrace, lengthOfOldTrace);
+
+        /* Following the diagonals is cheaper as long as there are few differences, roughly until there are more
+         * differences than 4 times the words of a column in the bit-vector algorithm */
+        int wordsPerColumn = (Math.min(lengthOfNewTrace, lengthOfOldTrace) + 63) / 64;
+        int differencesWorthFollowing = (int) Math.min(maximalDistance, 4L * wordsPerColumn);
+        int distance = TraceAlignment.computeDistance(newTrace, newCalls, newStart, newEnd, oldTrace, oldCalls, oldStart, oldEnd,
+                differencesWorthFollowing);
+        if (distance < differencesWorthFollowing || differencesWorthFollowing == maximalDistance) return distance;
+
+        //the shorter trace forms the rows, the longer one the columns of the cost matrix
+        if (lengthOfNewTrace < lengthOfOldTrace)
+            return computeTraceDistanceBitParallel(newTrace, newCalls, newStart, newEnd, oldTrace, oldCalls, oldStart, oldEnd, maximalDistance);
+        else return computeTraceDistanceBitParallel(oldTrace, oldCalls, oldStart, oldEnd, newTrace, newCalls, newStart, newEnd, maximalDistance);
+    }
 
-            if (Tool.isDebugMode() && lengthOfNewTrace<1000 && lengthOfOldTrace<1000){
-                /** This is for DEBUG purposes only and prints out nicely how the algorithm works! Produces nice
-                 *  matrices for traces not longer than 999 entries! Otherwise, it is disabled automatically! */
-
-                String s =  "";
-                if (i == 1){
-                    String headerLine = "         e ";
-                    for (int j = 0; j < lengthOfNewTrace; j++){
-                        if (Math.abs(newTrace[j+offset]) >= 100)
-                            headerLine += (newTrace[j+offset]>=0?" ":"") + newTrace[j+offset] + " ";
-                        else if (Math.abs(newTrace[j+offset]) >= 10)
-                            headerLine += (newTrace[j+offset]>=0?"  ":" ") + newTrace[j+offset] + " ";
-                        else headerLine += (newTrace[j+offset]>=0?"   ":"  ") + newTrace[j+offset] + " ";
-                    }
-                    Tool.printDebug(headerLine);
-
-                    String hLine = "     ";
-                    for (int j = 0; j < costs.length; j++) hLine+="-----";
-                    Tool.printDebug(hLine);
-
-                    String initialLine = "   e |";
-                    for (int j = 0; j < costs.length; j++) {
-                        if (j >= 100) initialLine += " "+j + " ";
-                        else if (j >= 10) initialLine += "  " + j + " ";
-                        else initialLine += "   " + j + " ";
-                    }
-                    Tool.printDebug(initialLine);
+    /**
+     * Computes the Levenshtein distance column by column, where each column of the cost matrix is represented by
+     * the differences between vertically neighbouring cells, which are either +1, 0 or -1. These are stored as bits
+     * in two bit-vectors, so that 64 cells can be computed with a few arithmetic operations. Each entry of the
+     * rows is a symbol and for each symbol we precompute in which rows it occurs.
+     *
+     * @return the distance, 'maximalDistance' if it is at least that high
+     */
+    private static int computeTraceDistanceBitParallel(int[] rowTrace, int[] rowCalls, int rowStart, int rowEnd,
+                                                       int[] columnTrace, int[] columnCalls, int columnStart, int columnEnd,
+                                                       int maximalDistance) {
+        int rows = rowEnd - rowStart;
+        int columns = columnEnd - columnStart;
+        int words = (rows + 63) / 64;
+
+        //for each symbol, the rows in which it occurs
+        HashMap<Integer, long[]> rowsOfInstruction = new HashMap<>();
+        HashMap<Integer, long[]> rowsOfMethodCall = new HashMap<>();
+        long[] rowsOfAnyMethodCall = new long[words]; //if method calls are not distinguished
+        for (int row = 0; row < rows; ++row){
+            long[] occurrences;
+            int value = rowTrace[rowStart + row];
+            if (value >= 0){
+                occurrences = rowsOfInstruction.get(value);
+                if (occurrences == null){
+                    occurrences = new long[words];
+                    rowsOfInstruction.put(value, occurrences);
                 }
-
-                int rowVal = oldTrace[(i + offset) - 1];
-                if (Math.abs(rowVal) >= 100) s += (rowVal>=0?" ":"") + rowVal;
-                else if (Math.abs(rowVal) >= 10) s += (rowVal>=0?"  ":" ") + rowVal;
-                else s += (rowVal>=0?"   ":"  ") +rowVal;
-                s+= " |";
-
-                for (int j = 0; j < costs.length; j++) {
-                    if (costs[j] >= 100) s += " "+costs[j] + " ";
-                    else if (costs[j] >= 10) s += "  " + costs[j] + " ";
-                    else s += "   " + costs[j] + " ";
+            } else if (rowCalls != null){
+                occurrences = rowsOfMethodCall.get(rowCalls[-value-1]);
+                if (occurrences == null){
+                    occurrences = new long[words];
+                    rowsOfMethodCall.put(rowCalls[-value-1], occurrences);
                 }
-                Tool.printDebug(s);
-            }
+            } else occurrences = rowsOfAnyMethodCall;
+            occurrences[row / 64] |= 1L << (row % 64);
         }
+        long[] noOccurrences = new long[words];
+
+        long[] positive = new long[words]; //vertical differences of +1, the first column counts up
+        long[] negative = new long[words]; //vertical differences of -1
+        Arrays.fill(positive, -1L);
+        int bitOfLastRow = (rows - 1) % 64;
+        int score = rows; //the cost of the last row in the current column
+
+        for (int column = 0; column < columns; ++column){
+            int value = columnTrace[columnStart + column];
+            long[] occurrences;
+            if (value >= 0) occurrences = rowsOfInstruction.get(value);
+            else if (columnCalls != null) occurrences = rowsOfMethodCall.get(columnCalls[-value-1]);
+            else occurrences = rowsOfAnyMethodCall;
+            if (occurrences == null) occurrences = noOccurrences;
+
+            int horizontalIn = 1; //the cost of the first row grows by one in each column
+            for (int word = 0; word < words; ++word){
+                long equal = occurrences[word];
+                long positiveVertical = positive[word];
+                long negativeVertical = negative[word];
+
+                long verticalCandidates = equal | negativeVertical;
+                if (horizontalIn < 0) equal |= 1L;
+                long horizontalCandidates = (((equal & positiveVertical) + positiveVertical) ^ positiveVertical) | equal;
+                long positiveHorizontal = negativeVertical | ~(horizontalCandidates | positiveVertical);
+                long negativeHorizontal = positiveVertical & horizontalCandidates;
+
+                int bitOut = word == words - 1 ? bitOfLastRow : 63;
+                int horizontalOut = (int) ((positiveHorizontal >>> bitOut) & 1L) - (int) ((negativeHorizontal >>> bitOut) & 1L);
+
+                positiveHorizontal <<= 1;
+                negativeHorizontal <<= 1;
+                if (horizontalIn < 0) negativeHorizontal |= 1L;
+                else if (horizontalIn > 0) positiveHorizontal |= 1L;
+                positive[word] = negativeHorizontal | ~(verticalCandidates | positiveHorizontal);
+                negative[word] = positiveHorizontal & verticalCandidates;
+                horizontalIn = horizontalOut;
+            }
+            score += horizontalIn;
 
+            //every remaining column can lower the costs by one at most
+            if (score - (columns - column - 1) >= maximalDistance) return maximalDistance;
+        }
+        return Math.min(score, maximalDistance);
+    }
 
-        return costs[lengthOfNewTrace];
+    /**
+     * @return 'true' if the entries of the traces are equal, all method calls are equal if there are no IDs!
+     */
+    static boolean areEqual(int[] newTrace, int[] newCalls, int indexInNew, int[] oldTrace, int[] oldCalls, int indexInOld){
+        int newValue = newTrace[indexInNew];
+        int oldValue = oldTrace[indexInOld];
+        if (newValue < 0 || oldValue < 0) //if one is a method call
+            return newValue < 0 && oldValue < 0 && (newCalls == null /** = 'two method calls are always equal'-mode */
+                                                    || newCalls[-newValue-1] == oldCalls[-oldValue-1]);
+        return newValue == oldValue; //no method call, simply compare the instruction index
     }
 
     /**
-     * Runs a comparison algorithm based on Levenshtein, returns more information but is slower and eats
-     * more memory than the alternative implementation. All method calls will be considered equal!
+     * Runs a comparison algorithm based on Levenshtein, returns more information but is slower than the
+     * alternative implementation. All method calls will be considered equal!
      *
      * @param newTrace : array containing executed instruction indices for the newer trace
      * @param oldTrace : array containing executed instruction indices for the older trace
@@ -146,236 +223,103 @@ public class TraceUtil {
     }
 
     /**
-     * Runs a comparison algorithm based on Levenshtein, returns more information but is slower and eats
-     * more memory than the alternative implementation!  If the 'desc'-arrays are null, every negative
-     * number will be treated as equal to every other negative number, aka every method call is equal
-     * to every method call. If the arrays are not 'null', the identifier of the called method will be
-     * used for comparison.
+     * Runs a comparison algorithm based on Levenshtein, returns more information but is slower than the
+     * alternative implementation!  If the 'calls'-arrays are null, every negative number will be treated
+     * as equal to every other negative number, aka every method call is equal to every method call. If
+     * the arrays are not 'null', the ID of the called method will be used for comparison. The
+     * full cost matrix is never built: traces with few differences are compared in time and memory
+     * proportional to their length times the number of differences, all others in linear memory, see
+     * {@link TraceAlignment}. If there are several optimal alignments, the replacement of entries is
+     * favored over insertions and deletions.
      *
      * @param newTrace : array containing executed instruction indices for the newer trace
-     * @param newDesc : array containing the actually executed instructions (their type) for the newer trace
+     * @param newCalls : IDs of the methods called by the newer trace in order of invocation, the entry '-i' of
+     *                   the trace refers to the (i-1)-th one, see {@link MethodData#getCalledMethodIds()}
      * @param oldTrace : array containing executed instruction indices for the older trace
-     * @param oldDesc : array containing the actually executed instructions (their type) for the older trace
+     * @param oldCalls : IDs of the methods called by the older trace in order of invocation
      * @param offset : can be used to ignore a certain part of the arrays above, everything below the offset
      *                 will not be compared (that means you must provide 0 to compare the full arrays)
      * @return a TraceInstrDiff object, which contains the concrete differences as well as a distance metric!
      */
-    public static TraceInstrDiff computeTraceDistanceFull(int[] newTrace, String[] newDesc, int[] oldTrace, String[] oldDesc, int offset) {
+    public static TraceInstrDiff computeTraceDistanceFull(int[] newTrace, int[] newCalls, int[] oldTrace, int[] oldCalls, int offset) {
         assert (newTrace.length >= 0);
         assert (oldTrace.length >= 0);
-        assert (newDesc == null || newTrace.length == newDesc.length);
-        assert (oldDesc == null ||  oldTrace.length == oldDesc.length);
-        assert ((newDesc == null && oldDesc == null) || (newDesc != null && oldDesc != null));
-
-        int lengthOfNewTrace = newTrace.length - offset;
-        int lengthOfOldTrace = oldTrace.length - offset;
-
-         /*
-            Levenshtein is a dynamic programming algorithm to determine the minimal edit-distance (or Levenshtein-distance)
-            between two strings, the classical example is the 'republican' vs 'democrat' case seen here.
-
-                  r  e  p  u  b  l  i  c  a  n
-                  ------------------------------
-               0 | 1  2  3  4  5  6  7  8  9  10
-            d  1 | 1  2  3  4  5  6  7  8  9  10
-            e  2 | 2  1  2  3  4  5  6  7  8  9
-            m  3 | 3  2  2  3  4  5  6  7  8  9
-            o  4 | 4  3  3  3  4  5  6  7  8  9
-            c  5 | 5  4  4  4  4  5  6  6  7  8
-            r  6 | 5  5  5  5  5  5  6  7  7  8
-            a  7 | 6  6  6  6  6  6  6  7  7  8
-            t  8 | 7  7  7  7  7  7  7  7  8 [8] <- this is the result, the distance between the strings!
-
-            An optimal path through the matrix from the upper left encodes insertion, deletion or replacement operations!
-            Horizontal move means insert from upper string, vertical move is deletion from left string, diagonal move means
-            either do nothing if the number stayed the same or a replacement operation if it did not.
-        */
-
-
-        //construct the full cost matrix, then select possible operations
-        int[/*column*/][/*row*/] costs = new int[lengthOfNewTrace + 1][ lengthOfOldTrace + 1];
-        for (int col = 0; col < costs.length; col++)
-            costs[col][0] = col;
-        for (int row = 0; row < costs[0].length; row++)
-            costs[0][row] = row;
-
-        for (int row = 1; row <= lengthOfOldTrace; row++) {
-            for (int col = 1; col <= lengthOfNewTrace; col++) {
-                int newValue = newTrace[(col + offset) - 1];
-                int oldValue = oldTrace[(row + offset) - 1];
+        assert ((newCalls == null && oldCalls == null) || (newCalls != null && oldCalls != null));
 
-                boolean equals = (newValue < 0 || oldValue < 0) ? // if one is a method call
-                        ( //we are comparing indices from which at least one is a method call, need to use expensive comparison
-                                newDesc == null ? (newValue < 0 && oldValue < 0) /** = 'two method calls are always equal'-mode */
-                                                : newDesc[(col + offset) - 1].equals(oldDesc[(row + offset) - 1])
-                        ) : newValue == oldValue; //no method call, simply compare the instruction index
+        TraceInstrDiff result = TraceAlignment.align(newTrace, newCalls, oldTrace, oldCalls, offset);
 
-                int keep = equals ? costs[col - 1][row - 1] : Integer.MAX_VALUE;
-                int diagonal = costs[col - 1][row - 1]+ 1;
-                int up = costs[col][row - 1] + 1;
-                int left = costs[col - 1][row] + 1;
-
-                //store costs
-                costs[col][row] = Math.min(Math.min(up,left),Math.min(diagonal,keep));
+        if (Tool.isDebugMode() && newTrace.length - offset < 1000 && oldTrace.length - offset < 1000){
+            /** This is for DEBUG purposes only and prints out where the traces diverged! Disabled automatically
+             *  for traces longer than 999 entries! */
+            Tool.printDebug("Trace distance is "+result.distanceMetricValue+", diverged "+result.differences.size()+" time(s)");
+            for (Integer index : result.differences.keySet()){
+                int[][] section = result.differences.get(index);
+                Tool.printDebug("   at "+(index + offset)+": "+Arrays.toString(section[0])+" instead of "+Arrays.toString(section[1]));
             }
         }
+        return result;
+    }
 
-        int distance = costs[lengthOfNewTrace][lengthOfOldTrace];
-
-        if (Tool.isDebugMode() && lengthOfNewTrace<1000 && lengthOfOldTrace<1000){
-            /** This is for DEBUG purposes only and prints out nicely how the algorithm works! Produces nice
-             *  matrices for traces not longer than 999 entries! Otherwise, it is disabled automatically! */
-
-            String headerLine = "         e ";
-            for (int j = 0; j < lengthOfNewTrace; j++){
-                if (Math.abs(newTrace[j+offset]) >= 100)
-                    headerLine += (newTrace[j+offset]>=0?" ":"") + newTrace[j+offset] + " ";
-                else if (Math.abs(newTrace[j+offset]) >= 10)
-                    headerLine += (newTrace[j+offset]>=0?"  ":" ") + newTrace[j+offset] + " ";
-                else headerLine += (newTrace[j+offset]>=0?"   ":"  ") + newTrace[j+offset] + " ";
-            }
-            Tool.printDebug(headerLine);
-
-            String hLine = "     ";
-            for (int j = 0; j < costs.length; j++) hLine+="-----";
-            Tool.printDebug(hLine);
-
-
-            for (int row = 0; row <= lengthOfOldTrace; row++) {
-                String s;
-                if (row == 0){
-                    s = "   e";
-                } else{
-                    int rowVal = oldTrace[(row + offset) - 1];
-                    if (Math.abs(rowVal) >= 100) s = (rowVal>=0?" ":"") + rowVal;
-                    else if (Math.abs(rowVal) >= 10) s = (rowVal>=0?"  ":" ") + rowVal;
-                    else s = (rowVal>=0?"   ":"  ") +rowVal;
-                }
-
-                s+= " |";
-
-                for (int col = 0; col <= lengthOfNewTrace; col++) {
-                    if (costs[col][row] >= 100) s += " "+costs[col][row] + " ";
-                    else if (costs[col][row] >= 10) s += "  " + costs[col][row] + " ";
-                    else s += "   " + costs[col][row] + " ";
-                }
-                Tool.printDebug(s);
-            }
-            Tool.printDebug("");
-        }
-
-
-        //start backtracking step to obtain location of changes, begin at result cell (lowest, right cell)!
-        int columnCostIndex = lengthOfNewTrace; //columns
-        int rowCostIndex = lengthOfOldTrace; //rows
-
-        TreeMap<Integer, int[][]> differences = new TreeMap<>();
-        LinkedList<Integer>[] diff = null; //as long as this is 'null', the traces have not diverged!
-        while (columnCostIndex > 0 && rowCostIndex > 0) { //until we reach the left or top edge of the table!
-            int currentCosts = costs[columnCostIndex][rowCostIndex];
-
-            if(currentCosts == 0 /* = we are done, strings are equal from here on! */){
-                if (diff != null){
-                    assert (!differences.containsKey(columnCostIndex));
-
-                    //store the differences as sections
-                    int[] newArr = new int[diff[0].size()];
-                    int cou0 = diff[0].size()-1;
-                    for (Integer i : diff[0]){newArr[cou0--] = i.intValue();}
-                    int[] oldArr = new int[diff[1].size()];
-                    int cou1 = diff[1].size()-1;
-                    for (Integer i : diff[1]){oldArr[cou1--] = i.intValue();}
-                    differences.put(columnCostIndex /* store diff based on new*/, new int[][]{newArr,oldArr});
-                    diff = null;
-                }
-                break;
-            }
-
-            //obtain costs for possible operations (= where we could have come from)
-            int diagonal = costs[columnCostIndex - 1][rowCostIndex - 1];
-            int up = costs[columnCostIndex][rowCostIndex - 1];
-            int left = costs[columnCostIndex - 1][rowCostIndex];
-
-            /** There can be multiple optimal paths. We simply favor diagonal!
-             *  If one would want something else, just overwrite the 'if'-below... */
-
-            if (diagonal <= up && diagonal <= left) {
-                --columnCostIndex;
-                --rowCostIndex; //take diagonal
-                if (diagonal < currentCosts) {
-                    //was a replacement!
-
-                    int newValue = newTrace[(columnCostIndex + offset)];
-                    int oldValue = oldTrace[(rowCostIndex + offset)];
-
-                    if (diff == null) {
-                        /* we are in a diverging section now */
-                        diff = new LinkedList[]{new LinkedList<>(), new LinkedList<>()};
-                        diff[0].add(newValue);
-                        diff[1].add(oldValue);
-                    } else {
-                        /* we are still inside a diverging section */
-                        diff[0].add(newValue);
-                        diff[1].add(oldValue);
-                    }
-                } else {
-                    //no-op, we assume the trace has not changed
-                    if (diff != null){
-                        //if we come from a state were the trace had been changed, store that difference now!
-                        assert (!differences.containsKey(columnCostIndex));
-                        int[] newArr = new int[diff[0].size()];
-                        int cou0 = diff[0].size()-1;
-                        for (Integer i : diff[0]){newArr[cou0--] = i.intValue();}
-                        int[] oldArr = new int[diff[1].size()];
-                        int cou1 = diff[1].size()-1;
-                        for (Integer i : diff[1]){oldArr[cou1--] = i.intValue();}
-                        differences.put(columnCostIndex /* store diff based on new*/, new int[][]{newArr,oldArr});
-
-                        diff = null; //trace has merged again
-                    }
-                }
-            } else {
-                if (left <= up && left <= currentCosts) {
-                    --columnCostIndex; //take left, was an insert!
-                    int newValue = newTrace[(columnCostIndex + offset)];
-
-                    if (diff == null) {
-                        /* we are in a diverging section now */
-                        diff = new LinkedList[]{new LinkedList<>(), new LinkedList<>()};
-                        diff[0].add(newValue);
-                    } else {
-                        /* we are still inside a diverging section */
-                        diff[0].add(newValue);
-                    }
+    /**
+     * Runs a comparison algorithm based on Levenshtein directly on traces holding loops that were compressed during
+     * recording, so that it only takes time proportional to the compressed length. Each entry is weighted by the
+     * number of instructions it stands for: inserting or deleting a loop costs all of its instructions, replacing
+     * a loop by the same loop with a different number of iterations costs the instructions of the additional
+     * iterations only. Without compressed loops, the distance is the same as 'computeTraceDistanceFull(...)'
+     * computes, however the diverging sections may be located slightly differently. Diverging loops appear
+     * in the sections by the ID of their body. Like for uncompressed traces, the full cost matrix is never
+     * built, the alignment is computed in linear memory, see {@link TraceAlignment}.
+     *
+     * @param newer : the newer method invocation
+     * @param older : the older method invocation
+     * @param compareCalledMethods : 'false' to consider all method calls equal, 'true' to compare the called methods
+     * @param offset : can be used to ignore a certain part of the compressed traces, everything below the offset
+     *                 will not be compared (that means you must provide 0 to compare the full traces)
+     * @return a TraceInstrDiff object, which contains the concrete differences as well as a distance metric!
+     */
+    public static TraceInstrDiff computeCompressedTraceDistance(MethodData newer, MethodData older, boolean compareCalledMethods, int offset) {
+        return TraceAlignment.alignCompressed(newer, older, compareCalledMethods, offset);
+    }
 
-                } else {
-                    --rowCostIndex; //take top, was a delete!
-                    int oldValue = oldTrace[(rowCostIndex + offset)];
-
-                    if (diff == null) {
-                        /* we are in a diverging section now */
-                        diff = new LinkedList[]{new LinkedList<>(), new LinkedList<>()};
-                        diff[1].add(oldValue);
-                    } else {
-                        /* we are still inside a diverging section */
-                        diff[1].add(oldValue);
-                    }
-                }
-            }
-        }
+    /**
+     * Computes the distance 'computeCompressedTraceDistance(...)' yields without the diverging sections, in memory
+     * proportional to the compressed length of one trace. Equal entries at the beginning and end of the traces are
+     * skipped and the computation stops as soon as it is clear that the distance is at least 'maximalDistance'.
+     *
+     * @param newer : the newer method invocation
+     * @param older : the older method invocation
+     * @param compareCalledMethods : 'false' to consider all method calls equal, 'true' to compare the called methods
+     * @param offset : can be used to ignore a certain part of the compressed traces, everything below the offset
+     *                 will not be compared (that means you must provide 0 to compare the full traces)
+     * @param maximalDistance : distance at which the computation may stop, must be positive
+     * @return positive integer distance metric on how different the two traces are, 'maximalDistance' if it is
+     *         at least that high
+     */
+    public static int computeCompressedTraceDistanceQuick(MethodData newer, MethodData older, boolean compareCalledMethods,
+                                                          int offset, int maximalDistance) {
+        assert (maximalDistance > 0);
+        return TraceAlignment.computeCompressedDistance(newer, older, compareCalledMethods, offset, maximalDistance);
+    }
 
-        if (diff != null){
-            /* This means that there was basically one section that lasted through the end of the loop! */
-            int[] newArr = new int[diff[0].size()];
-            int cou0 = diff[0].size()-1;
-            for (Integer i : diff[0]){newArr[cou0--] = i.intValue();}
-            int[] oldArr = new int[diff[1].size()];
-            int cou1 = diff[1].size()-1;
-            for (Integer i : diff[1]){oldArr[cou1--] = i.intValue();}
-            differences.put(columnCostIndex /* store diff based on new*/, new int[][]{newArr,oldArr});
+    /**
+     * @return the costs of replacing one entry of a compressed trace by another, '0' if they are equal
+     */
+    static int getReplacementCosts(MethodData newer, MethodData older, int indexInNew, int indexInOld, boolean compareCalledMethods){
+        int newValue = newer.getCompressedBytecodeIndices()[indexInNew];
+        int oldValue = older.getCompressedBytecodeIndices()[indexInOld];
+        int newLength = newer.getExpandedLengthOfTraceEntry(indexInNew);
+        int oldLength = older.getExpandedLengthOfTraceEntry(indexInOld);
+
+        if (newValue < 0 || oldValue < 0){
+            //at least one is a method call
+            boolean equals = newValue < 0 && oldValue < 0 && (!compareCalledMethods ||
+                    newer.getCalledMethod(-newValue-1).isSameMethod(older.getCalledMethod(-oldValue-1)));
+            return equals ? 0 : Math.max(newLength, oldLength);
         }
-
-        return new TraceInstrDiff(distance, differences);
+        if (newValue == oldValue) //same instruction or same loop body, the additional iterations make the difference
+            return Math.abs(newer.getIterationsOfTraceEntry(indexInNew) - older.getIterationsOfTraceEntry(indexInOld)) *
+                    newer.getLengthOfTraceEntry(indexInNew);
+        return Math.max(newLength, oldLength);
     }
 
     /**
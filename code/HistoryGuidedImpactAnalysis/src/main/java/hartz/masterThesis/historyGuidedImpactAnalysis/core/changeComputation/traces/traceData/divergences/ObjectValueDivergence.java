@@ -10,12 +10,16 @@ public class ObjectValueDivergence extends TraceDivergence {
     public final String oldToStringOfReturnedValue;
     public final int newHashCodeOfReturnedValue;
     public final int oldHashCodeOfReturnedValue;
+    public final long newFingerprintOfReturnedValue; //0 if the value was not fingerprinted
+    public final long oldFingerprintOfReturnedValue; //0 if the value was not fingerprinted
     public final MethodData methodCalledOrReturning;
 
 
     public ObjectValueDivergence(MethodData methodWithDifferentBehavior, MethodData methodCalledOrReturning, DivergenceType type,
                                  String newClassOfReturnedValue, String newToStringOfReturnedValue, int newHashCodeOfReturnedValue,
-                                 String oldClassOfReturnedValue, String oldToStringOfReturnedValue, int oldHashCodeOfReturnedValue) {
+                                 long newFingerprintOfReturnedValue,
+                                 String oldClassOfReturnedValue, String oldToStringOfReturnedValue, int oldHashCodeOfReturnedValue,
+                                 long oldFingerprintOfReturnedValue) {
         super(methodWithDifferentBehavior, type);
         assert(type == DivergenceType.RETURN_VALUE || type == DivergenceType.PARAMETER);
 
@@ -25,6 +29,8 @@ public class ObjectValueDivergence extends TraceDivergence {
         this.oldToStringOfReturnedValue = oldToStringOfReturnedValue;
         this.newHashCodeOfReturnedValue = newHashCodeOfReturnedValue;
         this.oldHashCodeOfReturnedValue = oldHashCodeOfReturnedValue;
+        this.newFingerprintOfReturnedValue = newFingerprintOfReturnedValue;
+        this.oldFingerprintOfReturnedValue = oldFingerprintOfReturnedValue;
 
         this.methodCalledOrReturning = methodCalledOrReturning;
     }
@@ -51,6 +57,10 @@ public class ObjectValueDivergence extends TraceDivergence {
             o.put("hashCodeOfBefore", oldHashCodeOfReturnedValue);
             o.put("hashCodeOfNow", newHashCodeOfReturnedValue);
         }
+        if (oldFingerprintOfReturnedValue != newFingerprintOfReturnedValue) {
+            o.put("fingerprintOfObjectBefore", oldFingerprintOfReturnedValue);
+            o.put("fingerprintOfObjectNow", newFingerprintOfReturnedValue);
+        }
         return o;
     }
 
@@ -65,6 +75,9 @@ public class ObjectValueDivergence extends TraceDivergence {
         if (oldHashCodeOfReturnedValue != newHashCodeOfReturnedValue) {
             ++i;
         }
+        if (oldFingerprintOfReturnedValue != newFingerprintOfReturnedValue) {
+            ++i;
+        }
         return i;
     }
 }
@@ -2,6 +2,7 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.core.versions;
 
 import hartz.masterThesis.historyGuidedImpactAnalysis.commandExecution.Executor;
 import hartz.masterThesis.historyGuidedImpactAnalysis.configuration.constants.Globals;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.LoadTimeInstrumenter;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserverNoHook;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
@@ -17,6 +18,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -405,7 +407,8 @@ public class Version implements Comparable<Version> {
     /**
      * Creates a fresh class loader, capable of loading classes from the compiled and additional
      * compiled sources directory of this version (should the later not exist, it is ignored).
-     * The class loader can be accessed with {@link #getClassLoader()}.
+     * The class loader can be accessed with {@link #getClassLoader()}. If this version is to be
+     * instrumented at load-time, the loader instruments all classes it loads.
      *
      * Note: Do not execute this method UNTIL the compiled classes are actually present!
      */
@@ -417,7 +420,40 @@ public class Version implements Comparable<Version> {
                 !pathToAdditionalCompiledSources.equals(pathToCompiledSources))
             additional = pathToAdditionalCompiledSources;
 
-        this.classLoader = MemorizingClassLoader.getClassLoader(pathToCompiledSources,additional);
+        LoadTimeInstrumenter instrumenter = null;
+        File settings = getLoadTimeInstrumentationSettings();
+        if (settings.exists()){
+            try {
+                instrumenter = new LoadTimeInstrumenter(new JSONObject(FileUtils.readData(settings)));
+            } catch (IOException e) {
+                Tool.printError("Failed to read load-time instrumentation settings of version '"+identifier+"', classes will not be instrumented!");
+                Tool.printDebug(e);
+            }
+        }
+
+        this.classLoader = MemorizingClassLoader.getClassLoader(pathToCompiledSources,additional,instrumenter);
+    }
+
+    /**
+     * @return file in which the settings are stored if this version is to be instrumented at load-time
+     *         instead of on disc, the file does not exist otherwise
+     */
+    public File getLoadTimeInstrumentationSettings(){
+        return new File(pathToMainDir, LoadTimeInstrumenter.settingsFileName);
+    }
+
+    /**
+     * @return the JVM option loading our Java agent if this version is to be instrumented at load-time,
+     *         'null' otherwise or if the agent is not available
+     */
+    private String getJavaAgentOption(){
+        File settings = getLoadTimeInstrumentationSettings();
+        if (!settings.exists()) return null;
+        String option = LoadTimeInstrumenter.getAgentOption(settings);
+        if (option == null)
+            Tool.printError("Version '"+identifier+"' is to be instrumented at load-time but the Java agent is not available, " +
+                    "run this tool from its JAR! No trace will be generated!");
+        return option;
     }
 
     /**
@@ -464,10 +500,20 @@ public class Version implements Comparable<Version> {
         assert (runCommands != null);
         if ( runCommands.length == 0) return false;
 
+        /* if we instrument at load-time, every JVM started by the commands needs to load our agent. Since we
+         * cannot know how and where the commands start JVMs, use the environment variable every JVM obeys */
+        HashMap<String, String> environment = null;
+        String agentOption = getJavaAgentOption();
+        if (agentOption != null){
+            environment = new HashMap<>();
+            String presentOptions = System.getenv("JAVA_TOOL_OPTIONS");
+            environment.put("JAVA_TOOL_OPTIONS", presentOptions == null ? agentOption : presentOptions+" "+agentOption);
+        }
+
         for (String command : runCommands){
             try{
                 Tool.printToolOutput("     - ------------- output by executed command ---------------------", OutputType.OUTPUT);
-                Executor.execute(command, getActualExtractedRepo());
+                Executor.execute(command, getActualExtractedRepo(), environment);
                 Tool.printToolOutput("     - ------------- end of output by executed command --------------", OutputType.OUTPUT);
             }
             catch (IOException e){ Tool.printError("Execution of command '"+command+"' failed due to '"+e.getMessage()+"'!"); }
@@ -487,6 +533,7 @@ public class Version implements Comparable<Version> {
         assert (executeMainArguments != null);
 
         if ( executeMainClassnames.length == 0) return false;
+        String agentOption = getJavaAgentOption();
         for (String fullyQualifiedClassName : executeMainClassnames){
             Class c = classLoader.loadClass(fullyQualifiedClassName); //load the class to make sure it exists and can be loaded!
             if (c == null){
@@ -502,7 +549,11 @@ public class Version implements Comparable<Version> {
 
 
                 Tool.printToolOutput("     - ------------- output by executed program -----------------------", OutputType.OUTPUT);
-                Executor.execute("java -classpath . "+fullyQualifiedClassName+args, getCompiledSourcesDir());
+                //an archive is used as the classpath right where it is located
+                boolean isArchive = FileUtils.isArchive(getCompiledSourcesDir());
+                Executor.execute("java -classpath "+(isArchive ? getCompiledSourcesDir().getName() : ".")+" "+
+                                (agentOption == null ? "" : agentOption+" ")+fullyQualifiedClassName+args,
+                        isArchive ? getCompiledSourcesDir().getAbsoluteFile().getParentFile() : getCompiledSourcesDir());
                 Tool.printToolOutput("     - ------------- end of output by executed program ----------------", OutputType.OUTPUT);
 
 
@@ -617,6 +668,19 @@ public class Version implements Comparable<Version> {
      * @return 'true' if the name is to be ignored, 'false' otherwise
      */
     public boolean isClassToBeIgnored(String className) {
+        return isClassToBeIgnored(className, ignoreByPrefix, ignoreBySuffix);
+    }
+
+    /**
+     * Returns true if a given class name (not fully qualified class name, mind that!)
+     * matches any of the given prefixes or suffixes.
+     *
+     * @param className : class name to check
+     * @param ignoreByPrefix : prefixes of classes to ignore
+     * @param ignoreBySuffix : suffixes of classes to ignore
+     * @return 'true' if the name is to be ignored, 'false' otherwise
+     */
+    public static boolean isClassToBeIgnored(String className, Set<String> ignoreByPrefix, Set<String> ignoreBySuffix) {
         assert(!className.contains(".")); //we are talking class names, not fully qualified class names here
 
         if (ignoreBySuffix.contains(className)||ignoreByPrefix.contains(className)) return true;
@@ -638,6 +702,14 @@ public class Version implements Comparable<Version> {
         return excludedMethods;
     }
 
+    public Set<String> getIgnoredPrefixes(){
+        return ignoreByPrefix;
+    }
+
+    public Set<String> getIgnoredSuffixes(){
+        return ignoreBySuffix;
+    }
+
     public File getActualExtractedRepo() {
         return pathToActualRepoDir;
     }
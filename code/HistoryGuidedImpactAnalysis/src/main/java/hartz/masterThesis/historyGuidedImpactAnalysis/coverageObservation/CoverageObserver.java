@@ -3,65 +3,161 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation;
 import hartz.masterThesis.historyGuidedImpactAnalysis.configuration.constants.Globals;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.*;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONException;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONStreamWriter;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 
 public class CoverageObserver {
 
-    private static CoverageObserver instance; //this is a Singleton class!
+    private static volatile CoverageObserver instance; //this is a Singleton class!
 
     public final static String coverageObserverClassDots = CoverageObserver.class.getName();
     public final static String coverageObserverClass = coverageObserverClassDots.replace(".", "/");
     public final static String coverageObserverPackageStructure = coverageObserverClass.substring(0,coverageObserverClass.lastIndexOf("/"))+"/data/json";
 
     public static final String ldcValueToReplace = "!!!REPLACE-ME-INSTRUMENTER!!!"; //at runtime, the resulting LDC loads something different!
+    public static final String ldcStreamingValueToReplace = "!!!REPLACE-ME-STREAMING!!!"; //replaced with either 'true' or 'false'
+    public static final String ldcFingerprintValueToReplace = "!!!REPLACE-ME-FINGERPRINTS!!!"; //replaced with either 'true' or 'false'
+    public static final String ldcCountingValueToReplace = "!!!REPLACE-ME-COUNTERS!!!"; //replaced with either 'true' or 'false'
+    public static boolean streamBinaryTraces = Boolean.parseBoolean("!!!REPLACE-ME-STREAMING!!!");
+    public static boolean fingerprintValues = Boolean.parseBoolean("!!!REPLACE-ME-FINGERPRINTS!!!");
+    public static boolean countCoverage = Boolean.parseBoolean("!!!REPLACE-ME-COUNTERS!!!");
     public static File exportToFile = new File("!!!REPLACE-ME-INSTRUMENTER!!!"); /* this construction looks stupid but makes instrumentation
 
    /* Stores all errors that occur inside this class and its dependencies during observation */
-    protected final LinkedList<String> errors;
+    protected final ConcurrentLinkedQueue<String> errors;
 
     /*
-     * This is obviously not perfect because it will NOT deal correctly with applications that
-     * spawn numerous threads (since thread IDs will be re-used at some point). It might fail on occasion...
-     * Still, its a hell-of-a-lot better than some other solutions out there ;-)
+     * Each thread records into its own, thread-confined state which is handed out by this ThreadLocal. Since
+     * the lookup is keyed by the Thread object itself, re-used thread IDs can no longer mix up callstacks and
+     * no shared lock is required while observing (which would serialize all threads on every instruction).
      */
-    protected final HashMap<Long, ObservedMethod> currentMethods;
+    protected final ThreadLocal<ObservedThread> currentThread;
 
-    /* Might get long if the project-under-test uses a lot of Threads. Exceptions also lead to funny trees of course! */
-    protected final LinkedList<ObservedMethod> callTree;
+    /* Threads that are currently inside observed methods, only used during export to detect methods that have not
+     * returned. Threads leave this set as soon as their observed callstack is empty, hence it does not grow with
+     * the number of threads a program spawns over time. */
+    protected final Set<ObservedThread> observedThreads;
 
-    protected static boolean stringifyInProgress = false;
-   /* During object-stringification, functions like 'hashCode()' and 'toString()' are used and would thus modify the
-    * callTree or currentMethods with nonsense data if implemented by the instrumented class (and that data would
-    * only exist because of the observation, no relationship with the programmer's coding decisions exists) */
+    /* Might get long if the project-under-test uses a lot of Threads. Exceptions also lead to funny trees of course!
+     * Entry points of all threads are merged in here in the order they were entered, this is a lock-free queue! */
+    protected final ConcurrentLinkedQueue<ObservedMethod> callTree;
+
+    /* Only used in streaming mode: instead of building the call tree, every thread encodes its execution into a
+     * buffer of its own which is appended to this output whenever it is full. Is created by the first thread. */
+    protected volatile BinaryTraceOutput streamingOutput;
+    protected volatile boolean streamingFailed; //if the output cannot be created, we fall back to the call tree
 
 
     protected CoverageObserver(){
-        currentMethods = new HashMap<Long, ObservedMethod>();
-        errors = new LinkedList<String>();
-        callTree = new LinkedList<ObservedMethod> ();
+        currentThread = new ThreadLocal<ObservedThread>();
+        observedThreads = Collections.newSetFromMap(new ConcurrentHashMap<ObservedThread, Boolean>());
+        errors = new ConcurrentLinkedQueue<String>();
+        callTree = new ConcurrentLinkedQueue<ObservedMethod>();
     }
 
-    public synchronized static CoverageObserver getCurrentInstance(){
-        CoverageObserver c = null;
-        if (CoverageObserverNoHook.noHookInstance != null)
-            c = CoverageObserverNoHook.noHookInstance;
-        else if (instance == null){
+    public static CoverageObserver getCurrentInstance(){
+        //called by every single probe, hence no lock unless we actually need to create the instance
+        CoverageObserver c = CoverageObserverNoHook.noHookInstance;
+        if (c == null){
+            c = instance;
+            if (c == null) c = createInstance();
+        }
+        return c;
+    }
+
+    private synchronized static CoverageObserver createInstance(){
+        if (instance == null){
             instance = new CoverageObserver();
             //make sure that we report our findings AFTER execution of the program under test has ended...
             Runtime.getRuntime().addShutdownHook(new Thread(new ShutdownHook()));
-            c = instance;
         }
-        else c = instance;
+        return instance;
+    }
 
-        return c;
+    /**
+     * Obtains the recording state of the calling thread, creating it if this thread is observed for the
+     * first time. The state is only referenced by the thread itself and hence dies with it.
+     *
+     * @return state of the current thread
+     */
+    protected ObservedThread getObservedThread(){
+        ObservedThread o = currentThread.get();
+        if (o == null){
+            o = new ObservedThread(Thread.currentThread());
+            currentThread.set(o);
+        }
+        return o;
+    }
+
+    /**
+     * Hands out a writer for streaming mode, the output file is created upon the first call. Before a writer
+     * is created, those of threads that have terminated inside observed methods are discarded.
+     *
+     * @return a writer or 'null' if the output could not be created
+     */
+    private BinaryTraceWriter createTraceWriter(){
+        BinaryTraceOutput output = streamingOutput;
+        if (output == null){
+            output = createStreamingOutput();
+            if (output == null) return null;
+        }
+        if (!output.hasIdleWriter()) discardWritersOfTerminatedThreads(output);
+        return output.newWriter();
+    }
+
+    private synchronized BinaryTraceOutput createStreamingOutput(){
+        if (streamingOutput == null && !streamingFailed){
+            File f = findFreeExportFile();
+            try{
+                f.getParentFile().mkdirs();
+                streamingOutput = new BinaryTraceOutput(f);
+            }
+            catch(IOException e){
+                streamingFailed = true;
+                errors.add("Failed to create '"+f.getAbsolutePath()+"' for streaming, execution traces are kept in memory instead: "+e.getMessage());
+            }
+        }
+        return streamingOutput;
+    }
+
+    /**
+     * Threads that terminate inside observed methods (e.g. due to an exception) never hand their writer back,
+     * these writers are flushed and dropped here. The execution traces they were writing remain incomplete.
+     *
+     * @param output : the output of streaming mode
+     */
+    private void discardWritersOfTerminatedThreads(BinaryTraceOutput output){
+        for (ObservedThread o : observedThreads){
+            BinaryTraceWriter w = o.getTraceWriter();
+            if (w == null || !o.hasTerminated() || !observedThreads.remove(o)) continue;
+            errors.add("Thread "+o+" has terminated inside observed method "+w.getCurrentIdentifier()+", its execution trace ends there!");
+            output.discardWriter(w);
+        }
+    }
+
+    /**
+     * Called once the observed callstack of a thread has become empty. The thread does not need to be checked
+     * during export anymore and in streaming mode, its writer is flushed and handed back for the next thread.
+     *
+     * @param o : state of the current thread
+     */
+    private void leaveObservedCode(ObservedThread o){
+        observedThreads.remove(o);
+        BinaryTraceWriter w = o.getTraceWriter();
+        if (w != null){
+            o.setTraceWriter(null);
+            streamingOutput.releaseWriter(w);
+        }
     }
 
     @Override
@@ -69,52 +165,123 @@ public class CoverageObserver {
         return getCurrentInstance();
     }
 
-    public synchronized void enterNewMethod(String fullMethodIdentifier, Object[] parameters, Thread t){
-        if (stringifyInProgress) return;
+    /**
+     * Called first by the probe at the beginning of every instrumented method with parameters, these are
+     * pushed onto the returned stage one by one before the method is entered.
+     *
+     * @param numberOfParameters : number of parameters the method has
+     * @return the (emptied) parameter stage of the calling thread
+     */
+    public ParameterStage stageParameters(int numberOfParameters){
+        return getObservedThread().getParameterStage(numberOfParameters);
+    }
+
+    public void enterNewMethod(ParameterStage parameters, String fullMethodIdentifier, int methodId){
+        enterNewMethod(parameters.getOwner(), parameters, fullMethodIdentifier, methodId);
+    }
+
+    public void enterNewMethod(String fullMethodIdentifier, int methodId){
+        enterNewMethod(getObservedThread(), null, fullMethodIdentifier, methodId);
+    }
+
+    /**
+     * @param o : state of the current thread
+     * @param parameters : parameters of the entered method, 'null' if it has none
+     * @param fullMethodIdentifier : identifier of the method aka 'ClassName.FullMethodSignature'
+     * @param methodId : ID of the method as assigned during instrumentation
+     */
+    private void enterNewMethod(ObservedThread o, ParameterStage parameters, String fullMethodIdentifier, int methodId){
+        if (o.isStringifyInProgress()) return;
 
-        //replace 'null'-values with NullSingleton!
-        Object[] parametersToStore = new Object[parameters.length];
-        for (int i = 0; i<parameters.length; ++i) {
-            if (parameters[i] == null) parametersToStore[i] = NullSingleton.getInstance();
-            else parametersToStore[i] = parameters[i];
+        BinaryTraceWriter w = o.getTraceWriter();
+        if (w == null && streamBinaryTraces && !streamingFailed){
+            w = createTraceWriter(); //the observed callstack of this thread is empty
+            o.setTraceWriter(w);
+        }
+        if (w != null){
+            if (w.isStackEmpty()) observedThreads.add(o); //starts a new execution trace
+            w.enter(methodId, fullMethodIdentifier, parameters);
+            return;
         }
 
-        long id = t.getId();
-        if(currentMethods.containsKey(id) /* = we observed the caller */){
-            ObservedMethod enteredMethod = new ObservedMethod(fullMethodIdentifier, currentMethods.get(id), parametersToStore);
-            ObservedMethod callingMethod = currentMethods.put(id, enteredMethod);
+        ObservedMethod callingMethod = o.getCurrentMethod();
+        ObservedMethod enteredMethod = fingerprintValues ?
+                new ObservedMethod(fullMethodIdentifier, methodId, callingMethod, fingerprintParameters(parameters)) :
+                new ObservedMethod(fullMethodIdentifier, methodId, callingMethod, parameters);
+        if (parameters != null) parameters.reset(0); //do not keep references alive in the stage
+        o.setCurrentMethod(enteredMethod);
+
+        if(callingMethod != null /* = we observed the caller */)
             callingMethod.storeCallToMethod(enteredMethod);
-        }
-        else{
-            //there was no previous caller, this should be the main or some JUnit test method!
-            ObservedMethod enteredMethod = new ObservedMethod(fullMethodIdentifier, null, parametersToStore);
-            currentMethods.put(t.getId(), enteredMethod);
+        else{ //there was no previous caller, this should be the main or some JUnit test method!
             callTree.add(enteredMethod); //its the start of a new execution
+            observedThreads.add(o);
         }
     }
 
-    public synchronized void storeExecutedInstruction(Thread t, String fullMethodIdentifier, int opcode, int bytecodeIndex){
-        if (stringifyInProgress) return;
+    /**
+     * Fingerprints the parameters of a method invocation right away so that they do not need to be retained.
+     *
+     * @param parameters : parameters as staged by the probe, 'null' if there are none
+     * @return container with one slot for each parameter and a last one for the return value
+     */
+    private static ValueFingerprints fingerprintParameters(ParameterStage parameters){
+        int size = parameters == null ? 0 : parameters.size();
+        ValueFingerprints values = new ValueFingerprints(size+1);
+        for (int i = 0; i<size; ++i){
+            if (parameters.getType(i) == NonBoxed.TYPE_OBJECT)
+                fingerprintObject(values, i, parameters.getObject(i));
+            else values.capturePrimitive(i, parameters.getType(i), parameters.getBits(i));
+        }
+        return values;
+    }
+
+    public void storeExecutedInstruction(Thread t, int methodId, int opcode, int bytecodeIndex){
+        ObservedThread o = getObservedThread();
+        if (o.isStringifyInProgress()) return;
+
+        boolean known;
+        BinaryTraceWriter w = o.getTraceWriter();
+        if (w != null)
+            known = w.instruction(methodId, opcode, bytecodeIndex);
+        else{
+            ObservedMethod currentMethod = o.getCurrentMethod();
+            known = currentMethod != null && currentMethod.matchesIdentifier(methodId);
+            if (known) currentMethod.updateCoverage(opcode, bytecodeIndex);
+        }
 
-        ObservedMethod currentMethod = currentMethods.get(t.getId());
-        if (currentMethod != null && currentMethod.matchesIdentifier(fullMethodIdentifier))
-            currentMethod.updateCoverage(opcode, bytecodeIndex);
-        else
-            errors.add("UNKNOWN STATE: Failed to detect to which thread was executing instrumented method '"+fullMethodIdentifier+
-                    "' (bytecode index "+ bytecodeIndex+", instruction '"+OpcodeTranslator.getInstructionStr(opcode)+"'!"+
+        if (!known)
+            errors.add("UNKNOWN STATE: Failed to detect to which thread was executing instrumented method with ID "+methodId+
+                    " (bytecode index "+ bytecodeIndex+", instruction '"+OpcodeTranslator.getInstructionStr(opcode)+"'!"+
                     " Callstack observation suggested that thread "+t+" is not in any observed method at the moment."+
                     " Coverage result are likely to be corrupted!");
     }
 
 
-    public synchronized void returnFromMethodWithObject(Object returnValue, Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-
-        Object returnValueToStore = returnValue == null ? NullSingleton.getInstance() : returnValue;
+    public void returnFromMethodWithObject(Object returnValue, Thread t, int methodId){
+        returnFromMethod(returnValue == null ? NullSingleton.getInstance() : returnValue, NonBoxed.TYPE_OBJECT, 0, t, methodId);
+    }
 
-        ObservedMethod returningMethod = currentMethods.get(t.getId());
-        if (returningMethod == null){
-            errors.add("UNKNOWN RETURN: Failed to detect to which thread was executing instrumented method '"+fullMethodIdentifier+"' returning '"+stringifyObjectForExport(returnValueToStore).toString(1)+
+    /**
+     * Stores that a method has returned. Primitives are handed over as type tag and raw bits, so
+     * that no object needs to be allocated for them.
+     *
+     * @param returnValue : returned object, only used if the type tag is 'TYPE_OBJECT'
+     * @param typeTag : type of the returned value, see {@link NonBoxed}
+     * @param bits : raw bits of a returned primitive
+     * @param t : the current thread
+     * @param methodId : ID of the returning method
+     */
+    private void returnFromMethod(Object returnValue, byte typeTag, long bits, Thread t, int methodId){
+        ObservedThread o = getObservedThread();
+        if (o.isStringifyInProgress()) return;
+
+        ObservedMethod returningMethod = o.getCurrentMethod();
+        BinaryTraceWriter w = o.getTraceWriter();
+        String expectedIdentifier = w != null ? w.getCurrentIdentifier() : (returningMethod != null ? returningMethod.getIdentifier() : null);
+        if (expectedIdentifier == null){
+            errors.add("UNKNOWN RETURN: Failed to detect to which thread was executing instrumented method with ID "+methodId+" returning '"+
+                    stringifyValueForExport(returnValue, typeTag, bits).toString(1)+
                     "', thread "+t+" is now in unknown state and future results may be corrupted! Callstack observation suggested that thread is not in any observed method at the moment. "+
                     "Coverage result are likely to be corrupted!");
             return;
@@ -122,128 +289,261 @@ public class CoverageObserver {
 
 
         //thread was observed to be in a method, thats good!
-        if (returningMethod.matchesIdentifier(fullMethodIdentifier)){
-            returningMethod.storeReturnValue(returnValueToStore);
+        if (w != null){
+            if (typeTag == NonBoxed.TYPE_OBJECT ? w.exit(methodId, returnValue) : w.exit(methodId, typeTag, bits)){
+                if (w.isStackEmpty()) leaveObservedCode(o);
+                return;
+            }
+        }
+        else if (returningMethod.matchesIdentifier(methodId)){
+            if (typeTag == NonBoxed.TYPE_OBJECT)
+                returningMethod.storeReturnValue(returnValue);
+            else returningMethod.storeReturnValue(typeTag, bits);
 
             if (returningMethod.wasCalledFromInstrumentedCode())
                 //we have returned, replace the currently active method!
-                currentMethods.put(t.getId(), returningMethod.getCaller());
+                o.setCurrentMethod(returningMethod.getCaller());
             else{
                 //we are at the top-of-observed-callstack, therefore the stack is now empty!
-                currentMethods.remove(t.getId());
+                o.setCurrentMethod(null);
+                leaveObservedCode(o);
             }
-        }
-        else{
-            errors.add("UNKNOWN STATE: Failed to detect to which thread was just retunred from instrumented method '"+fullMethodIdentifier+
-                    "with '"+stringifyObjectForExport(returnValueToStore).toString(1)+"! Callstack suggested that "+t+" should be in "+returningMethod.getIdentifier()+"!");
+            return;
         }
 
+        errors.add("UNKNOWN STATE: Failed to detect to which thread was just retunred from instrumented method with ID "+methodId+
+                " with '"+stringifyValueForExport(returnValue, typeTag, bits).toString(1)+"! Callstack suggested that "+t+" should be in "+expectedIdentifier+"!");
     }
 
 
 
-    public synchronized void returnFromMethodWithVoid(Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(VoidSingleton.getInstance(),t,fullMethodIdentifier);
+    public void returnFromMethodWithVoid(Thread t, int methodId){
+        returnFromMethod(VoidSingleton.getInstance(), NonBoxed.TYPE_OBJECT, 0, t, methodId);
     }
 
-    public synchronized void returnFromMethodWithBoolean(boolean b ,Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedBoolean(b),t,fullMethodIdentifier);
+    public void returnFromMethodWithBoolean(boolean b ,Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_BOOLEAN, b ? 1 : 0, t, methodId);
     }
 
-    public synchronized void returnFromMethodWithInteger(int i ,Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedInteger(i),t,fullMethodIdentifier);
+    public void returnFromMethodWithInteger(int i ,Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_INT, i, t, methodId);
     }
 
-    public synchronized void returnFromMethodWithByte(byte b ,Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedByte(b),t,fullMethodIdentifier);
+    public void returnFromMethodWithByte(byte b ,Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_BYTE, b, t, methodId);
     }
 
-    public synchronized void returnFromMethodWithShort(short s ,Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedShort(s),t,fullMethodIdentifier);
+    public void returnFromMethodWithShort(short s ,Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_SHORT, s, t, methodId);
     }
 
-    public synchronized void returnFromMethodWithChar(char c ,Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedChar(c),t,fullMethodIdentifier);
+    public void returnFromMethodWithChar(char c ,Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_CHAR, c, t, methodId);
     }
 
-    public synchronized void returnFromMethodWithFloat(float f, Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedFloat(f),t,fullMethodIdentifier);
+    public void returnFromMethodWithFloat(float f, Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_FLOAT, Float.floatToRawIntBits(f), t, methodId);
     }
 
-    public synchronized void returnFromMethodWithLong(long l ,Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedLong(l),t,fullMethodIdentifier);
+    public void returnFromMethodWithLong(long l ,Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_LONG, l, t, methodId);
     }
 
-    public synchronized void returnFromMethodWithDouble(double d, Thread t, String fullMethodIdentifier){
-        if (stringifyInProgress) return;
-        returnFromMethodWithObject(new NonBoxedDouble(d),t,fullMethodIdentifier);
+    public void returnFromMethodWithDouble(double d, Thread t, int methodId){
+        returnFromMethod(null, NonBoxed.TYPE_DOUBLE, Double.doubleToRawLongBits(d), t, methodId);
     }
 
-    public synchronized void export(){
-        if (!currentMethods.isEmpty()){
-            errors.add("Execution Trace Data Export to file was requested even though not all methods have returned! Method(s) still on callstack:");
-            for (ObservedMethod c : currentMethods.values()){
-                errors.add("  - "+c.getIdentifier());
+    /**
+     * Merge step of the per-thread recording: checks the state of every observed thread and reports
+     * all methods that are still on some thread's callstack as errors.
+     */
+    protected void reportMethodsThatHaveNotReturned(){
+        boolean reported = false;
+        for (ObservedThread o : observedThreads){
+            ObservedMethod c = o.getCurrentMethod();
+            BinaryTraceWriter w = o.getTraceWriter();
+            String identifier = w != null ? w.getCurrentIdentifier() : (c != null ? c.getIdentifier() : null);
+            if (identifier == null) continue;
+            if (!reported){
+                errors.add("Execution Trace Data Export to file was requested even though not all methods have returned! Method(s) still on callstack:");
+                reported = true;
             }
+            errors.add("  - "+identifier+" (executed by "+o+")");
         }
+    }
 
-        JSONObject toExport = new JSONObject();
-        JSONArray callTreeJSON = new JSONArray();
-        for (ObservedMethod c : callTree){
-            callTreeJSON.put(c.toJSON());
-        }
+    /**
+     * Clears all observed data, threads that are still observed will start with an empty callstack.
+     */
+    protected void clearObservedData(){
+        callTree.clear();
+        errors.clear();
+        for (ObservedThread o : observedThreads)
+            o.setCurrentMethod(null);
+        observedThreads.clear();
+        ObservedMethod.resetTraceIndexCounter(); //need to reset in case there is a next execution
+    }
 
-        toExport.put("executionTraces", callTreeJSON);
-        if (!errors.isEmpty())
-            toExport.put("errors", new JSONArray(errors));
+    /**
+     * Although the idea is that is export is only called once and only one file is produced, it may be different
+     * in practice. E.g. ANT will execute all tests of a project in separate JVMs, hence there will be multiple
+     * calls to export. Since a static counter will not work in this case, we need to look for an unused file.
+     *
+     * @return the file to export to, does not exist yet
+     */
+    protected static File findFreeExportFile(){
+        if (!exportToFile.exists()) return exportToFile;
+        int i = 1;
+        File f = new File(exportToFile.getAbsolutePath()+"_"+i);
+        while (f.exists())
+            f = new File(exportToFile.getAbsolutePath()+"_"+(++i));
+        return f;
+    }
 
+    /**
+     * Finishes the file written in streaming mode. Buffers of all writers are flushed and the errors are
+     * appended, traces themselves have already been written during execution.
+     */
+    protected void exportStreamedData(){
+        reportMethodsThatHaveNotReturned();
+        streamingOutput.closeWriters(errors);
+
+        BinaryTraceWriter errorWriter = streamingOutput.newErrorWriter();
+        for (String e : errors)
+            errorWriter.error(e);
+        errorWriter.flush();
         try{
-         /* Although the idea is that is method is only called once and only one file is produced, it may be different
-          * in practice. E.g. ANT will execute all tests of a project in separate JVMs, hence there will be multiple
-          * calls to export. Since a static counter will not work in this case, the following code is necessary: */
-            File f = null;
-            if (exportToFile.exists()){
-                int i = 1;
-                f = new File(exportToFile.getAbsolutePath()+"_"+i);
-                while (f.exists())
-                    f = new File(exportToFile.getAbsolutePath()+"_"+(++i));
-            } else f = exportToFile;
+            streamingOutput.close(); //data arriving from now on is dropped, like it is in the other mode
+            if (errorWriter.getFailure() != null) throw new IOException(errorWriter.getFailure());
+        }
+        catch(IOException e){
+            e.printStackTrace();
+            System.err.println("Export of execution traces to '"+streamingOutput.getFile().getAbsolutePath()+"' failed, data is incomplete!");
+        }
+        errors.clear();
+    }
 
+    public synchronized void export(){
+        if (streamingOutput != null){
+            exportStreamedData();
+            return;
+        }
 
+        reportMethodsThatHaveNotReturned();
+
+        try{
+            File f = findFreeExportFile();
             f.getParentFile().mkdirs(); //directory should in fact exist in most cases by construction already
 
-            f.createNewFile(); //overwrite previous data without warning
-            BufferedWriter writer = new BufferedWriter(new FileWriter(f));
-            writer.write(toExport.toString(Globals.jsonIndentFactor));//store as JSON
-            writer.close();
+            JSONStreamWriter writer = new JSONStreamWriter(f, Globals.jsonIndentFactor); //overwrite previous data without warning
+            try{
+                writeObservedData(writer);
+            } finally {
+                writer.close();
+            }
         }
-        catch(IOException e){
+        catch(IOException | JSONException e){
             e.printStackTrace();
             System.err.println("Export of execution traces failed! Please create the file yourself to continue!");
             System.err.println("Printing results as JSON to console for manual file-creation by user:");
             System.err.println("#########-----------------   BEGIN   --------------------------#########");
-            System.err.print(toExport.toString(Globals.jsonIndentFactor));
+            JSONStreamWriter console = new JSONStreamWriter(System.err, Globals.jsonIndentFactor);
+            try{
+                writeObservedData(console);
+                console.flush();
+            }
+            catch(IOException | JSONException e2){
+                e2.printStackTrace();
+            }
+            System.err.println();
             System.err.println("#########-----------------    END    --------------------------#########");
         }
 
-        //exported all present data, clear for potential next call (if there is any)
-        callTree.clear();
-        errors.clear();
-        currentMethods.clear();
-        ObservedMethod.resetTraceIndexCounter(); //need to reset in case there is a next execution (see long comment above)
+        //exported all present data, clear for potential next call (if there is any, see long comment above)
+        clearObservedData();
+    }
+
+    /**
+     * Writes all execution traces and errors, one trace at a time. Traces that are still being recorded
+     * are dropped and reported as an error instead.
+     *
+     * @param writer : writer to use, must not have written anything yet
+     */
+    private void writeObservedData(JSONStreamWriter writer){
+        writer.object().key("executionTraces").array();
+        for (ObservedMethod c : callTree){
+            JSONObject trace;
+            try{
+                trace = c.toJSON();
+            }
+            catch(ConcurrentModificationException e){
+                //some thread (e.g. a daemon) is still running inside observed code, we cannot wait for it here
+                String error = "Execution trace starting in '"+c.getIdentifier()+"' was still being recorded during export and has been dropped!";
+                if (!errors.contains(error)) errors.add(error); //might be the second attempt
+                continue;
+            }
+            writer.value(trace);
+        }
+        writer.endArray();
+        if (!errors.isEmpty())
+            writer.key("errors").value(new JSONArray(errors));
+        writer.endObject();
+    }
+
+    /**
+     * Takes the fingerprint of an object and stores it. Calls to instrumented code made while doing so, e.g.
+     * by 'toString()', are not observed.
+     *
+     * @param target : container to store the fingerprint in
+     * @param index : where to store it
+     * @param objectToFingerprint : the object, use the NullSingleton instead of 'null'
+     */
+    public static void fingerprintObject(ValueFingerprints target, int index, Object objectToFingerprint){
+        ObservedThread o = getCurrentInstance().getObservedThread();
+        boolean wasInProgress = o.isStringifyInProgress();
+        o.setStringifyInProgress(true);
+        target.capture(index, objectToFingerprint);
+        o.setStringifyInProgress(wasInProgress);
+    }
+
+    /**
+     * Describes an object for export, either by stringifying it or by its fingerprint if values are
+     * being fingerprinted.
+     *
+     * @param o : the object, use the NullSingleton instead of 'null'
+     * @return the description as JSON
+     */
+    public static JSONObject describeObjectForExport(Object o){
+        if (!fingerprintValues) return stringifyObjectForExport(o);
+        ValueFingerprints f = new ValueFingerprints(1);
+        fingerprintObject(f, 0, o);
+        return f.toJSON(0);
+    }
+
+    /**
+     * Describes a primitive value that was recorded without boxing it, exactly like a boxed
+     * one would be described by {@link #stringifyObjectForExport(Object)}.
+     *
+     * @param typeTag : type of the value, see {@link NonBoxed}
+     * @param bits : raw bits of the value
+     * @return the description as JSON
+     */
+    public static JSONObject stringifyPrimitiveForExport(byte typeTag, long bits){
+        JSONObject result = new JSONObject();
+        result.put("class", NonBoxed.getTypeString(typeTag));
+        result.put("value", NonBoxed.valueBitsToString(typeTag, bits));
+        return result;
+    }
+
+    private static JSONObject stringifyValueForExport(Object o, byte typeTag, long bits){
+        return typeTag == NonBoxed.TYPE_OBJECT ? stringifyObjectForExport(o) : stringifyPrimitiveForExport(typeTag, bits);
     }
 
-    public synchronized static JSONObject stringifyObjectForExport(Object objectToStringify){
+    public static JSONObject stringifyObjectForExport(Object objectToStringify){
         assert(objectToStringify != null); //we want null-singletons in this case!
-        stringifyInProgress = true;
+        ObservedThread o = getCurrentInstance().getObservedThread();
+        boolean wasInProgress = o.isStringifyInProgress(); //might be nested, e.g. when called for an error message
+        o.setStringifyInProgress(true);
 
         //store some values we use to identify instances if there is a proper implementation!
         Class<?> classOfToString;
@@ -253,7 +553,7 @@ public class CoverageObserver {
             classOfHashCode = objectToStringify.getClass().getMethod("hashCode").getDeclaringClass();
         } catch (NoSuchMethodException e){
             assert (false);  /* return incomplete object, should actually never ever happen! */
-            stringifyInProgress = false;
+            o.setStringifyInProgress(wasInProgress);
             return new JSONObject();
         }
 
@@ -280,7 +580,7 @@ public class CoverageObserver {
             if (!result.has("hashCode")) result.put("hashCode","!-could not be determined -!");
         }
 
-        stringifyInProgress = false;
+        o.setStringifyInProgress(wasInProgress);
         return result;
     }
 
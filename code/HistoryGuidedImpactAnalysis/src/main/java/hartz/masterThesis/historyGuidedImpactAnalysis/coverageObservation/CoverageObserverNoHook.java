@@ -26,7 +26,7 @@ import java.util.LinkedList;
 public class CoverageObserverNoHook extends CoverageObserver {
 
     public static File exportTargetWhileAlreadyLoaded;
-    protected static CoverageObserverNoHook noHookInstance = null;
+    protected static volatile CoverageObserverNoHook noHookInstance = null;
 
     /**
      * Constructs and initializes a new instance of the CoverageObserver without a hook!
@@ -48,12 +48,7 @@ public class CoverageObserverNoHook extends CoverageObserver {
     public synchronized void export(){
         Tool.printDebug(" * exporting coverage data to file system");
 
-        if (!currentMethods.isEmpty()){
-            errors.add("Execution Trace Data Export to file was requested even though not all methods have returned! Method(s) still on callstack:");
-            for (ObservedMethod c : currentMethods.values()){
-                errors.add("  - "+c.getIdentifier());
-            }
-        }
+        reportMethodsThatHaveNotReturned();
 
         JSONObject toExport = new JSONObject();
         JSONArray callTreeJSON = new JSONArray();
@@ -73,7 +68,8 @@ public class CoverageObserverNoHook extends CoverageObserver {
                 needToGetData =  false; //success, stop trying!
             }
             catch (ConcurrentModificationException e){
-            /* something was still executing, drop incomplete data if there is any... */
+            /* something was still executing (detected by the per-thread data itself since observation
+             * does not lock anything anymore), drop incomplete data if there is any... */
                 toExport = new JSONObject();
                 callTreeJSON = new JSONArray();
                 Tool.printDebug(e);
@@ -106,10 +102,7 @@ public class CoverageObserverNoHook extends CoverageObserver {
             Tool.printDebug(e);
         }
 
-        callTree.clear();
-        errors.clear();
-        currentMethods.clear();
-        ObservedMethod.resetTraceIndexCounter(); //need to reset this for next execution!
+        clearObservedData(); //need to reset this for next execution!
     }
 }
 
@@ -0,0 +1,187 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared sink of the streaming trace mode, one instance writes one 'observedTrace' file per JVM. Instead of
+ * keeping all observed methods on the heap until the program terminates, each thread encodes its execution
+ * into a small buffer of its own (see {@link BinaryTraceWriter}) and hands it to this class whenever that
+ * buffer is full. Writers are handed back once a thread has left all observed methods and are then re-used
+ * by the next thread entering one, memory consumption is therefore bounded by the number of threads that are
+ * inside observed code at the same time, neither by the length of a run nor by how many threads it spawns.
+ *
+ * The resulting file has the following format, all numbers are big-endian:
+ * <pre>
+ *   file   := MAGIC (int) FORMAT_VERSION (int) chunk*
+ *   chunk  := threadNumber (int) length (int) byte[length]
+ * </pre>
+ * Concatenating the payloads of all chunks with the same thread number yields the record stream of that
+ * writer, records may be split across chunks. Thread number {@link #errorThreadNumber} holds ERROR records
+ * written during export. Records start with a tag byte, 'varint' is an unsigned LEB128 encoding and 'string'
+ * is a varint byte-length followed by that many UTF-8 bytes:
+ * <pre>
+ *   DEFINE      := TAG_DEFINE methodId (varint) identifier (string)    precedes the first ENTER of an ID
+ *   ENTER_ROOT  := TAG_ENTER_ROOT methodId (varint) sequence (varint) params
+ *   ENTER       := TAG_ENTER methodId (varint) params
+ *   params      := count (varint) parameter (string)*                  JSON text of each stringified object
+ *   INSTRUCTION := TAG_INSTRUCTION opcode (byte) bytecodeIndex (varint)
+ *   RETURN      := TAG_RETURN returnValue (string)                     JSON text of the stringified object
+ *   ERROR       := TAG_ERROR message (string)
+ * </pre>
+ * An ENTER is always a call from the method entered before it that has not returned yet, an ENTER_ROOT starts
+ * a new execution trace. Since writers are only handed to another thread between two execution traces, the
+ * record stream of each thread number is consistent although it may have been written by several threads. The sequence of ENTER_ROOT records is global across all threads and restores the
+ * order in which traces were started. Objects are stringified when they are observed, not when the program
+ * terminates.
+ */
+public class BinaryTraceOutput {
+
+   public static final int MAGIC = 0x6A485354; //'jHST'
+   public static final int FORMAT_VERSION = 1;
+   public static final int errorThreadNumber = -1;
+   public static final int bufferSizePerThread = 64*1024;
+
+   public static final byte TAG_DEFINE = 0;
+   public static final byte TAG_ENTER_ROOT = 1;
+   public static final byte TAG_ENTER = 2;
+   public static final byte TAG_INSTRUCTION = 3;
+   public static final byte TAG_RETURN = 4;
+   public static final byte TAG_ERROR = 5;
+
+   private final File file;
+   private final DataOutputStream out;
+   private final AtomicInteger threadCounter;
+   private final AtomicLong traceSequence;
+   private final ConcurrentLinkedQueue<BinaryTraceWriter> writers; //all writers that are in use or idle
+   private final ConcurrentLinkedQueue<BinaryTraceWriter> idleWriters; //writers not owned by any thread
+   private boolean closed;
+
+   /**
+    * Opens a new trace file, the header is written immediately.
+    *
+    * @param f : file to write, will be overwritten
+    * @throws IOException if the file cannot be created
+    */
+   public BinaryTraceOutput(File f) throws IOException {
+      file = f;
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), bufferSizePerThread));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      threadCounter = new AtomicInteger(0);
+      traceSequence = new AtomicLong(0);
+      writers = new ConcurrentLinkedQueue<BinaryTraceWriter>();
+      idleWriters = new ConcurrentLinkedQueue<BinaryTraceWriter>();
+      closed = false;
+   }
+
+   /**
+    * @return a writer for the calling thread, each thread must use its own until it hands it back!
+    */
+   public BinaryTraceWriter newWriter(){
+      BinaryTraceWriter w = idleWriters.poll();
+      if (w == null){
+         w = new BinaryTraceWriter(this, threadCounter.getAndIncrement());
+         writers.add(w);
+      }
+      return w;
+   }
+
+   /**
+    * @return 'true' if the next call to {@link #newWriter()} will not need to create a writer
+    */
+   public boolean hasIdleWriter(){
+      return !idleWriters.isEmpty();
+   }
+
+   /**
+    * Hands a writer back after its owner has left all observed methods, its data is flushed right away.
+    * The calling thread must not use it anymore afterwards.
+    *
+    * @param w : writer with an empty stack
+    */
+   public void releaseWriter(BinaryTraceWriter w){
+      assert(w.isStackEmpty());
+      w.flush();
+      idleWriters.add(w);
+   }
+
+   /**
+    * Flushes and forgets the writer of a thread that has terminated inside observed methods. Such a writer
+    * cannot be re-used since the execution trace it was writing has not ended.
+    *
+    * @param w : writer whose owner has terminated
+    */
+   public void discardWriter(BinaryTraceWriter w){
+      w.close();
+      writers.remove(w);
+   }
+
+   /**
+    * Flushes all writers for the last time, must be called before {@link #close()}. Threads that are still
+    * running can keep on using their writers but their data is dropped.
+    *
+    * @param failures : collects the descriptions of all writers that have failed
+    */
+   public void closeWriters(Collection<String> failures){
+      for (BinaryTraceWriter w : writers){
+         w.close();
+         if (w.getFailure() != null) failures.add(w.getFailure());
+      }
+   }
+
+   /**
+    * @return a new writer for ERROR records, to be used only by the exporting thread
+    */
+   public BinaryTraceWriter newErrorWriter(){
+      return new BinaryTraceWriter(this, errorThreadNumber);
+   }
+
+   /**
+    * @return next number in the global order of trace entry points
+    */
+   long nextTraceSequence(){
+      return traceSequence.getAndIncrement();
+   }
+
+   /**
+    * Appends a chunk of a thread's record stream to the file. This is the only operation in streaming
+    * mode that locks anything and it is called once per full buffer, not once per instruction.
+    *
+    * @param threadNumber : number of the thread the data belongs to
+    * @param data : buffer holding the data
+    * @param length : amount of bytes in the buffer to write
+    * @throws IOException if writing fails
+    */
+   synchronized void writeChunk(int threadNumber, byte[] data, int length) throws IOException {
+      if (closed || length == 0) return; //data arriving after export cannot be stored anymore
+      out.writeInt(threadNumber);
+      out.writeInt(length);
+      out.write(data, 0, length);
+   }
+
+   /**
+    * Finishes the file, any chunk written afterwards is dropped.
+    *
+    * @throws IOException if writing fails
+    */
+   public synchronized void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      out.close();
+   }
+
+   /**
+    * @return the file this output writes to
+    */
+   public File getFile(){
+      return file;
+   }
+}
@@ -0,0 +1,244 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserver;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Encoder of the streaming trace mode, see {@link BinaryTraceOutput} for the format. Records are written into
+ * a fixed-size buffer that is handed to the shared output whenever it is full, nothing about already executed
+ * code is retained on the heap except the identifiers of the methods currently on the stack.
+ *
+ * A writer is owned by one thread at a time and handed back to the output once that thread's observed stack
+ * is empty, so that another thread can continue its record stream. The only other thread ever touching it is
+ * the exporting one, hence all operations lock the writer itself. This lock is uncontended during observation.
+ */
+public class BinaryTraceWriter {
+
+   private final BinaryTraceOutput output;
+   private final int threadNumber;
+
+   private final byte[] buffer;
+   private int writeAt;
+
+   /* the observed callstack of this thread, needed to detect entry points and to validate probes */
+   private int[] idsOnStack;
+   private String[] identifiersOnStack;
+   private int depth;
+
+   private boolean[] definedIds; //which IDs this thread has already written a DEFINE record for
+   private String failure; //set if writing failed, no more data is written afterwards
+   private boolean closed; //set during export, buffered data is dropped afterwards
+
+   private static final int initialArraySize = 16;
+
+
+   /**
+    * Creates a new writer, use {@link BinaryTraceOutput#newWriter()} instead!
+    *
+    * @param output : shared output to hand full buffers to
+    * @param threadNumber : unique number of the thread owning this writer
+    */
+   BinaryTraceWriter(BinaryTraceOutput output, int threadNumber) {
+      this.output = output;
+      this.threadNumber = threadNumber;
+      this.buffer = new byte[BinaryTraceOutput.bufferSizePerThread];
+      this.writeAt = 0;
+      this.idsOnStack = new int[initialArraySize];
+      this.identifiersOnStack = new String[initialArraySize];
+      this.depth = 0;
+      this.definedIds = new boolean[initialArraySize];
+      this.failure = null;
+      this.closed = false;
+   }
+
+   /**
+    * Stores that a method has been entered.
+    *
+    * @param methodId : ID of the method as assigned during instrumentation
+    * @param identifier : identifier of the method aka 'ClassName.FullMethodSignature'
+    * @param parameters : parameters of the call as staged by the probe, 'null' if there are none
+    */
+   public synchronized void enter(int methodId, String identifier, ParameterStage parameters){
+      if (methodId >= definedIds.length){
+         boolean[] doubleTheSize = new boolean[Math.max(definedIds.length*2, methodId+1)];
+         System.arraycopy(definedIds, 0, doubleTheSize, 0, definedIds.length);
+         definedIds = doubleTheSize;
+      }
+      if (!definedIds[methodId]){
+         writeByte(BinaryTraceOutput.TAG_DEFINE);
+         writeVarLong(methodId);
+         writeString(identifier);
+         definedIds[methodId] = true;
+      }
+
+      if (depth == 0){
+         //there was no previous caller, this should be the main or some JUnit test method!
+         writeByte(BinaryTraceOutput.TAG_ENTER_ROOT);
+         writeVarLong(methodId);
+         writeVarLong(output.nextTraceSequence());
+      } else {
+         writeByte(BinaryTraceOutput.TAG_ENTER);
+         writeVarLong(methodId);
+      }
+      int numberOfParameters = parameters == null ? 0 : parameters.size();
+      writeVarLong(numberOfParameters);
+      for (int i = 0; i<numberOfParameters; ++i)
+         writeString((parameters.getType(i) == NonBoxed.TYPE_OBJECT ?
+               CoverageObserver.describeObjectForExport(parameters.getObject(i)) :
+               CoverageObserver.stringifyPrimitiveForExport(parameters.getType(i), parameters.getBits(i))).toString());
+
+      if (depth >= idsOnStack.length){
+         int[] doubleTheSize = new int[idsOnStack.length*2];
+         System.arraycopy(idsOnStack, 0, doubleTheSize, 0, idsOnStack.length);
+         idsOnStack = doubleTheSize;
+         String[] doubleTheSize2 = new String[identifiersOnStack.length*2];
+         System.arraycopy(identifiersOnStack, 0, doubleTheSize2, 0, identifiersOnStack.length);
+         identifiersOnStack = doubleTheSize2;
+      }
+      idsOnStack[depth] = methodId;
+      identifiersOnStack[depth] = identifier;
+      ++depth;
+   }
+
+   /**
+    * Stores that a statement was just executed.
+    *
+    * @param methodId : ID of the method executing the statement
+    * @param opcode : opcode of the statement
+    * @param bytecodeIndex : the index of this bytecode command in the method
+    * @return 'false' if this thread is not inside the given method according to our observation
+    */
+   public synchronized boolean instruction(int methodId, int opcode, int bytecodeIndex){
+      if (depth == 0 || idsOnStack[depth-1] != methodId) return false;
+      writeByte(BinaryTraceOutput.TAG_INSTRUCTION);
+      writeByte((byte) opcode);
+      writeVarLong(bytecodeIndex);
+      return true;
+   }
+
+   /**
+    * Stores that the current method has returned.
+    *
+    * @param methodId : ID of the returning method
+    * @param returnValue : returned object, a Void Singleton is used in case nothing is returned
+    * @return 'false' if this thread is not inside the given method according to our observation
+    */
+   public synchronized boolean exit(int methodId, Object returnValue){
+      if (depth == 0 || idsOnStack[depth-1] != methodId) return false;
+      writeByte(BinaryTraceOutput.TAG_RETURN);
+      writeString(CoverageObserver.describeObjectForExport(returnValue).toString());
+      --depth;
+      identifiersOnStack[depth] = null;
+      return true;
+   }
+
+   /**
+    * Stores that the current method has returned a primitive value.
+    *
+    * @param methodId : ID of the returning method
+    * @param typeTag : type of the returned value, see {@link NonBoxed}
+    * @param bits : raw bits of the returned value
+    * @return 'false' if this thread is not inside the given method according to our observation
+    */
+   public synchronized boolean exit(int methodId, byte typeTag, long bits){
+      if (depth == 0 || idsOnStack[depth-1] != methodId) return false;
+      writeByte(BinaryTraceOutput.TAG_RETURN);
+      writeString(CoverageObserver.stringifyPrimitiveForExport(typeTag, bits).toString());
+      --depth;
+      identifiersOnStack[depth] = null;
+      return true;
+   }
+
+   /**
+    * Stores an error that occurred during observation.
+    *
+    * @param message : the error message
+    */
+   public synchronized void error(String message){
+      writeByte(BinaryTraceOutput.TAG_ERROR);
+      writeString(message);
+   }
+
+   /**
+    * @return 'true' if this thread is currently not inside any observed method
+    */
+   public synchronized boolean isStackEmpty(){
+      return depth == 0;
+   }
+
+   /**
+    * @return identifier of the method this thread is currently in, 'null' if there is none
+    */
+   public synchronized String getCurrentIdentifier(){
+      return depth == 0 ? null : identifiersOnStack[depth-1];
+   }
+
+   /**
+    * @return description of the problem if writing has failed at some point, 'null' otherwise
+    */
+   public synchronized String getFailure(){
+      return failure;
+   }
+
+   /**
+    * Hands all buffered data to the output. Is called by the owning thread whenever the buffer is full or its
+    * observed stack has become empty.
+    */
+   public synchronized void flush(){
+      if (failure != null) return;
+      if (closed){
+         writeAt = 0; //the owner is still running after export, nothing of this can be stored anymore
+         return;
+      }
+      try{
+         output.writeChunk(threadNumber, buffer, writeAt);
+      } catch (IOException e){
+         failure = "Streaming trace data of thread "+threadNumber+" to '"+output.getFile()+"' failed: "+e.getMessage();
+      }
+      writeAt = 0;
+   }
+
+   /**
+    * Flushes this writer for the last time, is called by the exporting thread while the owner might still be
+    * running. Its last record may therefore be incomplete, which the reader tolerates. The owner can continue
+    * to use this writer afterwards but its data is dropped, like it is in the other mode.
+    */
+   public synchronized void close(){
+      flush();
+      closed = true;
+   }
+
+   private void writeByte(byte b){
+      if (writeAt == buffer.length) flush();
+      buffer[writeAt++] = b;
+   }
+
+   private void writeVarLong(long value){
+      assert(value >= 0);
+      while ((value & ~0x7FL) != 0){
+         writeByte((byte) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      writeByte((byte) value);
+   }
+
+   private void writeString(String s){
+      byte[] bytes;
+      try {
+         bytes = s.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         throw new InternalError("UTF-8 is always supported");
+      }
+      writeVarLong(bytes.length);
+      int written = 0;
+      while (written < bytes.length){
+         if (writeAt == buffer.length) flush();
+         int amount = Math.min(bytes.length-written, buffer.length-writeAt);
+         System.arraycopy(bytes, written, buffer, writeAt, amount);
+         writeAt += amount;
+         written += amount;
+      }
+   }
+}
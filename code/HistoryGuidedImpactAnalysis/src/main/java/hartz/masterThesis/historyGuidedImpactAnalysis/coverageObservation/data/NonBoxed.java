@@ -15,6 +15,62 @@ public abstract class NonBoxed {
     * This empty class exists only to make the instanceof-check easier.
     */
 
+   /* Tags identifying the type of a value that has been recorded without boxing it, 'TYPE_OBJECT'
+    * means that the value is a reference and must be treated as an object. */
+   public static final byte TYPE_OBJECT = 0;
+   public static final byte TYPE_BOOLEAN = 1;
+   public static final byte TYPE_BYTE = 2;
+   public static final byte TYPE_CHAR = 3;
+   public static final byte TYPE_SHORT = 4;
+   public static final byte TYPE_INT = 5;
+   public static final byte TYPE_LONG = 6;
+   public static final byte TYPE_FLOAT = 7;
+   public static final byte TYPE_DOUBLE = 8;
+   private static final String[] typeStrings = new String[]{
+           null, "boolean", "byte", "char", "short", "int", "long", "float", "double"
+   };
+
    public abstract String getTypeString();
    public abstract String getValueAsString();
+
+   /**
+    * @return the boxed primitive as raw bits, floating point values are stored
+    *         as returned by 'floatToRawIntBits' or 'doubleToRawLongBits'
+    */
+   public abstract long getValueBits();
+
+   /**
+    * @return type tag of the boxed primitive, see the constants of this class
+    */
+   public abstract byte getTypeTag();
+
+   /**
+    * Inverse of 'getValueBits()' followed by 'getValueAsString()', used when only the
+    * raw bits of a primitive value were recorded.
+    *
+    * @param typeTag : type of the primitive as returned by 'getTypeTag()'
+    * @param bits : raw bits of the value as returned by 'getValueBits()'
+    * @return string representation of the value
+    */
+   public static String valueBitsToString(byte typeTag, long bits){
+      switch (typeTag){
+         case TYPE_BOOLEAN: return Boolean.toString(bits != 0);
+         case TYPE_BYTE: return Byte.toString((byte) bits);
+         case TYPE_CHAR: return Character.toString((char) bits);
+         case TYPE_SHORT: return Short.toString((short) bits);
+         case TYPE_INT: return Integer.toString((int) bits);
+         case TYPE_LONG: return Long.toString(bits);
+         case TYPE_FLOAT: return Float.toString(Float.intBitsToFloat((int) bits));
+         case TYPE_DOUBLE: return Double.toString(Double.longBitsToDouble(bits));
+         default: throw new IllegalArgumentException(typeTag+" is not the tag of a primitive type");
+      }
+   }
+
+   /**
+    * @param typeTag : type of a primitive as returned by 'getTypeTag()'
+    * @return the name of the type, as returned by 'getTypeString()'
+    */
+   public static String getTypeString(byte typeTag){
+      return typeStrings[typeTag];
+   }
 }
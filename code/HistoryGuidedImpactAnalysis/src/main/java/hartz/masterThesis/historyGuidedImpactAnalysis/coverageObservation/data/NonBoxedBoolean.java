@@ -16,6 +16,14 @@ public class NonBoxedBoolean extends NonBoxed{
       return Boolean.toString(b);
    }
 
+   @Override public long getValueBits(){
+      return b ? 1L : 0L;
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_BOOLEAN;
+   }
+
    @Override
    public String getTypeString() {
       return "boolean";
@@ -17,6 +17,14 @@ public class NonBoxedByte extends NonBoxed{
       return Byte.toString(b);
    }
 
+   @Override public long getValueBits(){
+      return b;
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_BYTE;
+   }
+
    @Override
    public String getTypeString() {
       return "byte";
@@ -16,6 +16,14 @@ public class NonBoxedChar extends NonBoxed{
       return Character.toString(c);
    }
 
+   @Override public long getValueBits(){
+      return c;
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_CHAR;
+   }
+
    @Override
    public String getTypeString() {
       return "char";
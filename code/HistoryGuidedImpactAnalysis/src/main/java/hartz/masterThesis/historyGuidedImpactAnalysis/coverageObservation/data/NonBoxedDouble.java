@@ -16,6 +16,14 @@ public class NonBoxedDouble extends NonBoxed{
       return Double.toString(d);
    }
 
+   @Override public long getValueBits(){
+      return Double.doubleToRawLongBits(d);
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_DOUBLE;
+   }
+
    @Override
    public String getTypeString() {
       return "double";
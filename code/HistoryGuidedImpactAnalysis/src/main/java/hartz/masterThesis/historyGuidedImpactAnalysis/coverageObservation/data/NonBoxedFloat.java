@@ -16,6 +16,14 @@ public class NonBoxedFloat extends NonBoxed{
       return Float.toString(f);
    }
 
+   @Override public long getValueBits(){
+      return Float.floatToRawIntBits(f);
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_FLOAT;
+   }
+
    @Override
    public String getTypeString() {
       return "float";
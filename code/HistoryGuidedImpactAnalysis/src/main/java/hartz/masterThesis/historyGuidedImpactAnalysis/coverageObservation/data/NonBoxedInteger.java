@@ -16,6 +16,14 @@ public class NonBoxedInteger extends NonBoxed{
       return Integer.toString(i);
    }
 
+   @Override public long getValueBits(){
+      return i;
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_INT;
+   }
+
    @Override
    public String getTypeString() {
       return "int";
@@ -16,6 +16,14 @@ public class NonBoxedLong extends NonBoxed{
       return Long.toString(l);
    }
 
+   @Override public long getValueBits(){
+      return l;
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_LONG;
+   }
+
    @Override
    public String getTypeString() {
       return "long";
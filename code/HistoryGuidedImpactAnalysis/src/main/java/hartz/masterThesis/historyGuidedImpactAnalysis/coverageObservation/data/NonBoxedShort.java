@@ -16,6 +16,14 @@ public class NonBoxedShort extends NonBoxed{
       return Short.toString(s);
    }
 
+   @Override public long getValueBits(){
+      return s;
+   }
+
+   @Override public byte getTypeTag(){
+      return TYPE_SHORT;
+   }
+
    @Override
    public String getTypeString() {
       return "short";
@@ -5,54 +5,109 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.j
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
 import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.ConcurrentModificationException;
 
 /**
  * Special data container for storing a method's execution during actual runtime of the instrumented project.
+ * An instance is only ever written to by the thread executing the method, hence nothing in here is synchronized.
+ * Exporting while that thread is still running is detected and reported as a ConcurrentModificationException.
  */
 public class ObservedMethod {
 
    private final String methodIdentifier;
+   private final int methodId; //as assigned during instrumentation, used by all probes after entering the method
    private final ObservedMethod caller; //may be null
-   private final Object[] parameters; //may be null
+   /* Parameters and return value, primitives are kept as type tag and raw bits and are never boxed */
+   private final byte[] parameterTypes; //may be null
+   private final long[] parameterBits; //may be null if there are no primitive parameters
+   private final Object[] parameterObjects; //may be null if there are no reference parameters
+   private byte returnType;
+   private long returnBits;
    private Object returnValue;
+   private final ValueFingerprints values; //parameters and return value if these are fingerprinted, may be null
 
    /* Used to store coverage data, sort of a manual array-list or buffer implementation to reduce memory footprint.
     * We store the index of the bytecode operation in the method. Note that we might also encounter entries with
-    * Integer-Min as value, this encodes that an instrumented function call was registered here! */
+    * Integer-Min as value, this encodes that an instrumented function call was registered here! Loops are compressed
+    * while recording: an iteration identical to the one before is not stored again, instead a loop marker follows
+    * the first one, holding '-1 - additional iterations' as index and the length of the iteration as opcode. */
    private int[] bytecodeExecuted;
    private int[] opcodesOfExecutedBytecode;
    private int writeBytecodeAtIndex;
+   private int lastInstructionIndex; //bytecode index of the last recorded instruction, used to detect backward jumps
+   private int modifications; //counts all writes, the write index alone does not tell since loop compression shrinks it
+
+   /* Only used if coverage is counted instead of recorded (see 'CoverageObserver.countCoverage'), holds how often
+    * each bytecode index was executed. The buffer above then holds only the calls, to keep their order. */
+   private int[] executionCounts;
 
    private ObservedMethod[] calledMethods;
    private int writeCallIndex;
 
    private static final int initialArraySize = 5; //initial size of the any of the arrays
+   private static final int maximalLoopBodyLength = 4096; //longer iterations are not compressed, searching them costs too much
    private static int entryPointCounter = 0;
+   private static final byte[] noParameters = new byte[0];
 
 
    /**
     * Constructs a new container.
     * 
     * @param methodIdentifier : identifier of the method aka 'ClassName.FullMethodSignature'
+    * @param methodId : ID of the method as assigned during instrumentation
     * @param caller : who called this method, may be 'null'
-    * @param parameters : parameters of this method, may be empty!
+    * @param parameters : parameters of this method as staged by the probe, 'null' if there are none
     */
-   public ObservedMethod(String methodIdentifier, ObservedMethod caller, Object[] parameters) {
+   public ObservedMethod(String methodIdentifier, int methodId, ObservedMethod caller, ParameterStage parameters) {
       assert(methodIdentifier != null && !methodIdentifier.isEmpty());
-      assert(parameters != null);
 
       this.methodIdentifier = methodIdentifier;
+      this.methodId = methodId;
       this.caller = caller; 
-      this.parameters = parameters;
+      this.parameterTypes = parameters != null ? parameters.copyTypes() : noParameters;
+      this.parameterBits = parameters != null ? parameters.copyBits() : null;
+      this.parameterObjects = parameters != null ? parameters.copyObjects() : null;
+      this.values = null;
 
+      returnType = NonBoxed.TYPE_OBJECT;
       returnValue = NotReturnedYetSingleton.getInstance(); //when called, this method has not returned yet!
+      initializeCoverage();
+   }
+
+   /**
+    * Constructs a new container that does not retain the parameters and the return value, only their
+    * fingerprints are kept.
+    *
+    * @param methodIdentifier : identifier of the method aka 'ClassName.FullMethodSignature'
+    * @param methodId : ID of the method as assigned during instrumentation
+    * @param caller : who called this method, may be 'null'
+    * @param values : fingerprints of the parameters, the last slot is reserved for the return value
+    */
+   public ObservedMethod(String methodIdentifier, int methodId, ObservedMethod caller, ValueFingerprints values) {
+      assert(methodIdentifier != null && !methodIdentifier.isEmpty());
+      assert(values != null && values.size() > 0);
+
+      this.methodIdentifier = methodIdentifier;
+      this.methodId = methodId;
+      this.caller = caller;
+      this.parameterTypes = null;
+      this.parameterBits = null;
+      this.parameterObjects = null;
+      this.values = values; //the return value slot is initialized to 'NotReturnedYet'
+      initializeCoverage();
+   }
 
-      //and no code has been executed thus far, chence
+   private void initializeCoverage(){
+      //no code has been executed thus far, chence
       this.bytecodeExecuted = new int[initialArraySize];
       this.opcodesOfExecutedBytecode = new int[initialArraySize];
       Arrays.fill(bytecodeExecuted, -1 /* default value, encodes EMPTY (not method called, that is Integer.Min) */);
       writeBytecodeAtIndex = 0;
+      lastInstructionIndex = -1;
+      modifications = 0;
+      executionCounts = CoverageObserver.countCoverage ? new int[initialArraySize] : null;
 
       //and nothing was called so far
       this.calledMethods = new ObservedMethod[initialArraySize];
@@ -68,6 +123,18 @@ public class ObservedMethod {
       entryPointCounter = 0;
    }
 
+   /**
+    * @param methodIdentifier : identifier of a method aka 'ClassName.FullMethodSignature'
+    * @return the type of the method as it is stored in exported traces
+    */
+   public static String getTypeOf(String methodIdentifier){
+      if (methodIdentifier.contains("<init>"))
+         return "CONSTRUCTOR";
+      else if (methodIdentifier.contains("<cinit>"))
+         return "STATIC_INITIALIZER";
+      else return "METHOD";
+   }
+
    /**
     * Stores that another method has just been called from this method.
     * Needs to be stored in this instance to get the order of calls right as just
@@ -75,7 +142,7 @@ public class ObservedMethod {
     * 
     * @param m : the called method (as ObservedMethod)
     */
-   public synchronized void storeCallToMethod(ObservedMethod m){
+   public void storeCallToMethod(ObservedMethod m){
       expandCalledMethodsArray();
       calledMethods[writeCallIndex] = m;
       ++writeCallIndex;
@@ -91,18 +158,89 @@ public class ObservedMethod {
     * @param bytecodeLine : the index of this bytecode command in the method
     */
    public void updateCoverage(int opcode, int bytecodeLine) {
+      if (executionCounts != null && bytecodeLine >= 0){
+         //only count it, no need to record the order
+         if (bytecodeLine >= executionCounts.length)
+            executionCounts = Arrays.copyOf(executionCounts, Math.max(bytecodeLine+1, executionCounts.length*2));
+         ++executionCounts[bytecodeLine];
+         ++modifications;
+         return;
+      }
+      if (bytecodeLine >= 0){
+         if (bytecodeLine <= lastInstructionIndex)
+            compressLoopIteration(bytecodeLine); //jumped back, an iteration of a loop might just have ended
+         lastInstructionIndex = bytecodeLine;
+      }
+
       expandBytecodeIndexArray();
       opcodesOfExecutedBytecode[writeBytecodeAtIndex] = opcode;
       bytecodeExecuted[writeBytecodeAtIndex] = bytecodeLine;
       ++writeBytecodeAtIndex;
+      ++modifications;
+   }
+
+   /**
+    * Called whenever execution jumps back to an earlier instruction. The section recorded since the last time that
+    * instruction was executed is the iteration of a loop that has just ended. If it is identical to the iteration
+    * before, we drop it and count it in the loop marker instead. Iterations containing calls are never compressed,
+    * the called methods would be lost otherwise.
+    *
+    * @param jumpTarget : bytecode index of the instruction we jumped back to
+    */
+   private void compressLoopIteration(int jumpTarget){
+      final int end = writeBytecodeAtIndex;
+      int start = end-1;
+      while (start >= 0 && end-start <= maximalLoopBodyLength && bytecodeExecuted[start] != jumpTarget)
+         --start;
+      if (start < 0 || bytecodeExecuted[start] != jumpTarget) return; //not the kind of loop we can deal with
+      final int length = end-start;
+
+      if (start > 0 && bytecodeExecuted[start-1] < -1 && bytecodeExecuted[start-1] != Integer.MIN_VALUE &&
+              opcodesOfExecutedBytecode[start-1] == length && isRepetition(start-1-length, start, length)){
+         //just another iteration of a loop we already compress
+         --bytecodeExecuted[start-1];
+         discardFrom(start);
+      }
+      else if (start >= length && isRepetition(start-length, start, length)){
+         //second iteration, turn it into the marker
+         discardFrom(start);
+         bytecodeExecuted[start] = -2;
+         opcodesOfExecutedBytecode[start] = length;
+         writeBytecodeAtIndex = start+1;
+      }
+   }
+
+   /**
+    * @param first : start of the first section in the buffer
+    * @param second : start of the second section in the buffer
+    * @param length : length of both sections
+    * @return 'true' if both sections are equal, free of method calls and do not contain only a part of a loop
+    */
+   private boolean isRepetition(int first, int second, int length){
+      for (int i = 0; i<length; ++i){
+         if (bytecodeExecuted[first+i] == Integer.MIN_VALUE) return false;
+         if (bytecodeExecuted[first+i] < -1 && opcodesOfExecutedBytecode[first+i] > i) return false; //loop started before
+         if (bytecodeExecuted[first+i] != bytecodeExecuted[second+i] ||
+                 opcodesOfExecutedBytecode[first+i] != opcodesOfExecutedBytecode[second+i]) return false;
+      }
+      return true;
+   }
+
+   private void discardFrom(int index){
+      Arrays.fill(bytecodeExecuted, index, writeBytecodeAtIndex, -1);
+      writeBytecodeAtIndex = index;
    }
 
    /**
     * Transforms this data collection into an exportable JSON object.
     * 
     * @return the content as JSON
+    * @throws ConcurrentModificationException if the observed thread is still writing to this method
     */
-   public synchronized JSONObject toJSON(){
+   public JSONObject toJSON(){
+      final int alreadyWritten = writeBytecodeAtIndex; //everything behind this is not ours to read yet
+      final int modificationsBefore = modifications;
+
       JSONObject thisMethod =  new JSONObject();
 
       if (caller == null){
@@ -111,39 +249,79 @@ public class ObservedMethod {
       }
 
       //store the method name first, scan for constructors to make them look nicer
-      String s;
-      if (methodIdentifier.contains("<init>"))
-         s="CONSTRUCTOR";
-      else if (methodIdentifier.contains("<cinit>"))
-         s="STATIC_INITIALIZER";
-      else s="METHOD";
-      thisMethod.put("type", s);
+      thisMethod.put("type", getTypeOf(methodIdentifier));
       thisMethod.put("called", methodIdentifier);
 
       //store the parameters next, use a JSON array to keep the order intact!
       JSONArray parametersArray = new JSONArray();
-      for (int i = 0; i<parameters.length; ++i){
-         parametersArray.put(CoverageObserver.stringifyObjectForExport(parameters[i]));
+      if (values != null){
+         for (int i = 0; i<values.size()-1; ++i)
+            parametersArray.put(values.toJSON(i));
+      }
+      else for (int i = 0; i<parameterTypes.length; ++i){
+         parametersArray.put(parameterTypes[i] == NonBoxed.TYPE_OBJECT ?
+               CoverageObserver.stringifyObjectForExport(parameterObjects[i]) :
+               CoverageObserver.stringifyPrimitiveForExport(parameterTypes[i], parameterBits[i]));
       }
       thisMethod.put("calledWithParameters", parametersArray);
 
 
       //store actual execution data!
       int calledFunctionIndex = 0;
-      JSONArray coverageData = new JSONArray();
-
-      for (int i = 0; i<bytecodeExecuted.length; ++i){
+      ArrayList<Object> coverageData = new ArrayList<>();
+      ArrayList<Integer> startOfEntry = new ArrayList<>(); //index in the buffer each element of 'coverageData' starts at
+
+      int[] bytecodeExecuted = this.bytecodeExecuted; //might be replaced by an expansion meanwhile
+      int[] executionCounts = this.executionCounts;
+      int[] opcodesOfExecutedBytecode = this.opcodesOfExecutedBytecode;
+      ObservedMethod[] calledMethods = this.calledMethods;
+      for (int i = 0; i<alreadyWritten && i<bytecodeExecuted.length; ++i){
          int indexOfInstr = bytecodeExecuted[i];
          if (indexOfInstr == -1) break; //no more data
-         coverageData.put( indexOfInstr == Integer.MIN_VALUE
+         if (indexOfInstr == Integer.MIN_VALUE && (calledFunctionIndex >= calledMethods.length || calledMethods[calledFunctionIndex] == null))
+            throw new ConcurrentModificationException("call inside '"+methodIdentifier+"' is still being recorded");
+         if (indexOfInstr < -1 && indexOfInstr != Integer.MIN_VALUE){
+            //loop marker, everything of the last iteration goes into a nested array
+            int startOfLoop = i-opcodesOfExecutedBytecode[i];
+            int firstElement = startOfEntry.size();
+            while (firstElement > 0 && startOfEntry.get(firstElement-1) >= startOfLoop) --firstElement;
+            JSONArray iteration = new JSONArray();
+            for (int k = firstElement; k<coverageData.size(); ++k) iteration.put(coverageData.get(k));
+            coverageData.subList(firstElement, coverageData.size()).clear();
+            startOfEntry.subList(firstElement, startOfEntry.size()).clear();
+
+            JSONObject loop = new JSONObject();
+            loop.put("iterations", -indexOfInstr /* = marker encodes '-1 - additional iterations' */);
+            loop.put("trace", iteration);
+            coverageData.add(loop);
+            startOfEntry.add(startOfLoop);
+            continue;
+         }
+         coverageData.add( indexOfInstr == Integer.MIN_VALUE
                ? calledMethods[calledFunctionIndex++].toJSON()//call to a function
                      : "["+indexOfInstr+"]> "+ //normal instruction execute
                  OpcodeTranslator.getInstructionStr(opcodesOfExecutedBytecode[i]));
+         startOfEntry.add(i);
+      }
+      JSONArray counts = null;
+      if (executionCounts != null){
+         //how often each instruction was executed, by bytecode index
+         int length = executionCounts.length;
+         while (length > 0 && executionCounts[length-1] == 0) --length;
+         counts = new JSONArray();
+         for (int i = 0; i<length; ++i) counts.put(executionCounts[i]);
       }
-      thisMethod.put("trace", coverageData);
+      if (alreadyWritten != writeBytecodeAtIndex || modificationsBefore != modifications)
+         throw new ConcurrentModificationException("'"+methodIdentifier+"' is still being executed");
+      thisMethod.put("trace", new JSONArray(coverageData));
+      if (counts != null) thisMethod.put("coverage", counts);
 
       //finally, store the returned value!
-      thisMethod.put("returned", CoverageObserver.stringifyObjectForExport(returnValue));
+      if (values != null)
+         thisMethod.put("returned", values.toJSON(values.size()-1));
+      else thisMethod.put("returned", returnType == NonBoxed.TYPE_OBJECT ?
+            CoverageObserver.stringifyObjectForExport(returnValue) :
+            CoverageObserver.stringifyPrimitiveForExport(returnType, returnBits));
       return thisMethod;
    }
 
@@ -153,30 +331,65 @@ public class ObservedMethod {
     * 
     * @param o : returned object
     */
-   public synchronized void storeReturnValue(Object o) {
+   public void storeReturnValue(Object o) {
       assert(o != null);
 
-      if (returnValue != NotReturnedYetSingleton.getInstance()){
-         /* This should not happen of course, it means the observer has an internal error!
-          * We silently ignore those at the moment, making only a debug print...  
-          * 
-          * This problem did not occur thus far, which is good ;-)  */
-         Tool.printDebug("tried to set return value twice for "+methodIdentifier+
-               ", old value was : '"+CoverageObserver.stringifyObjectForExport(returnValue)+
-               "', new value was : '"+CoverageObserver.stringifyObjectForExport(o)+"'");
+      if (values != null){
+         if (!values.isUnset(values.size()-1))
+            Tool.printDebug("tried to set return value twice for "+methodIdentifier);
+         CoverageObserver.fingerprintObject(values, values.size()-1, o);
+         return;
       }
+
+      if (returnValue != NotReturnedYetSingleton.getInstance())
+         reportReturnValueSetTwice(CoverageObserver.stringifyObjectForExport(o));
+      returnType = NonBoxed.TYPE_OBJECT;
       returnValue = o;
    }
 
    /**
-    * Special equals()-method, comparing the identifiers directly. Used as an additional\
-    * check during coverage, since Thread IDs are not completely reliable!
+    * Stores that this method has just returned a primitive value, which is kept as raw bits.
+    *
+    * @param typeTag : type of the returned value, see {@link NonBoxed}
+    * @param bits : raw bits of the returned value
+    */
+   public void storeReturnValue(byte typeTag, long bits) {
+      if (values != null){
+         if (!values.isUnset(values.size()-1))
+            Tool.printDebug("tried to set return value twice for "+methodIdentifier);
+         values.capturePrimitive(values.size()-1, typeTag, bits);
+         return;
+      }
+
+      if (returnValue != NotReturnedYetSingleton.getInstance())
+         reportReturnValueSetTwice(CoverageObserver.stringifyPrimitiveForExport(typeTag, bits));
+      returnType = typeTag;
+      returnBits = bits;
+      returnValue = null; //primitive return values are not objects
+   }
+
+   private void reportReturnValueSetTwice(JSONObject newValue){
+      /* This should not happen of course, it means the observer has an internal error!
+       * We silently ignore those at the moment, making only a debug print...  
+       * 
+       * This problem did not occur thus far, which is good ;-)  */
+      Tool.printDebug("tried to set return value twice for "+methodIdentifier+
+            ", old value was : '"+(returnType == NonBoxed.TYPE_OBJECT ?
+                  CoverageObserver.stringifyObjectForExport(returnValue) :
+                  CoverageObserver.stringifyPrimitiveForExport(returnType, returnBits))+
+            "', new value was : '"+newValue+"'");
+   }
+
+   /**
+    * Special equals()-method, comparing the IDs assigned during instrumentation directly. Used as
+    * an additional check during coverage, since it is executed for every single instruction this
+    * is an integer comparison and not a comparison of the identifiers!
     * 
-    * @param otherIdentifier : other method identifier to compare against
-    * @return 'true' if this method data instance has the same identifier
+    * @param otherId : other method ID to compare against
+    * @return 'true' if this method data instance has the same ID
     */
-   public boolean matchesIdentifier(String otherIdentifier) {
-      return methodIdentifier.equals(otherIdentifier);
+   public boolean matchesIdentifier(int otherId) {
+      return methodId == otherId;
    }
 
    /**
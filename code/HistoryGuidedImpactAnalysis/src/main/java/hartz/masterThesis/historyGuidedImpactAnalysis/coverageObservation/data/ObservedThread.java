@@ -0,0 +1,108 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Per-thread recording state of the coverage observer. Every thread executing instrumented code owns
+ * exactly one instance (handed out through a ThreadLocal, which is keyed by the Thread object itself and
+ * not by its re-usable ID) and is the only one ever writing to it. Consequently, none of the operations
+ * in here are synchronized, the hot path of observation does not need to acquire any shared lock.
+ */
+public class ObservedThread {
+
+   private final String threadName;
+   private final WeakReference<Thread> thread; //must not keep a terminated thread alive
+   private ObservedMethod currentMethod; //top of this thread's observed callstack, may be null
+   private BinaryTraceWriter traceWriter; //only used in streaming mode, may be null
+
+   /* During object-stringification, functions like 'hashCode()' and 'toString()' are used and would thus modify
+    * this thread's callstack with nonsense data if implemented by an instrumented class. Since stringification
+    * happens on the thread that requested it, this flag is thread-confined as well! */
+   private boolean stringifyInProgress;
+
+   /* Parameters are staged here by the probes before a method is entered. Methods called while stringifying
+    * the staged parameters would overwrite them, hence these calls are pointed to a second stage instead. */
+   private final ParameterStage parameterStage;
+   private final ParameterStage discardedParameterStage;
+
+
+   /**
+    * Constructs the recording state for a thread.
+    *
+    * @param t : the thread this state belongs to
+    */
+   public ObservedThread(Thread t) {
+      this.threadName = t.toString();
+      this.thread = new WeakReference<Thread>(t);
+      this.currentMethod = null;
+      this.traceWriter = null;
+      this.stringifyInProgress = false;
+      this.parameterStage = new ParameterStage(this);
+      this.discardedParameterStage = new ParameterStage(this);
+   }
+
+   @Override
+   public String toString(){
+      return threadName;
+   }
+
+   /**
+    * @return 'true' if the thread this state belongs to has terminated, may be called by any thread
+    */
+   public boolean hasTerminated() {
+      Thread t = thread.get();
+      return t == null || !t.isAlive();
+   }
+
+   /**
+    * @return the method this thread is currently executing, 'null' if it is not inside any observed method
+    */
+   public ObservedMethod getCurrentMethod() {
+      return currentMethod;
+   }
+
+   /**
+    * @param m : the method this thread is now executing, 'null' if the observed callstack is now empty
+    */
+   public void setCurrentMethod(ObservedMethod m) {
+      currentMethod = m;
+   }
+
+   /**
+    * @return 'true' if the observer is currently stringifying an object on this thread
+    */
+   public boolean isStringifyInProgress() {
+      return stringifyInProgress;
+   }
+
+   /**
+    * @param inProgress : whether stringification on this thread is starting or has ended
+    */
+   public void setStringifyInProgress(boolean inProgress) {
+      stringifyInProgress = inProgress;
+   }
+
+   /**
+    * @return the writer this thread streams its execution to, 'null' if its execution is kept in memory
+    */
+   public BinaryTraceWriter getTraceWriter() {
+      return traceWriter;
+   }
+
+   /**
+    * @param w : the writer this thread streams its execution to from now on, 'null' to keep it in memory
+    */
+   public void setTraceWriter(BinaryTraceWriter w) {
+      traceWriter = w;
+   }
+
+   /**
+    * @param expectedSize : number of parameters that are about to be staged
+    * @return an empty stage for the parameters of the method this thread is about to enter
+    */
+   public ParameterStage getParameterStage(int expectedSize) {
+      ParameterStage stage = stringifyInProgress ? discardedParameterStage : parameterStage;
+      stage.reset(expectedSize);
+      return stage;
+   }
+}
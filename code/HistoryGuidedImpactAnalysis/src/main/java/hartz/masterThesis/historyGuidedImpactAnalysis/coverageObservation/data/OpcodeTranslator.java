@@ -9,6 +9,16 @@ import java.util.HashSet;
  */
 public class OpcodeTranslator {
 
+    /* Reserved opcode 'impdep2' which never appears in class files. Probes pass it instead of a real opcode
+     * if they stand for the entire basic block that starts at the given bytecode index. */
+    public static final int BASIC_BLOCK = 255;
+    public static final String BASIC_BLOCK_STR = "BASIC_BLOCK";
+
+    /* Reserved opcode 'impdep1' which never appears in class files either. Stands for an instruction that is
+     * not known by name, see 'getOpcode(...)'. */
+    public static final int UNKNOWN = 254;
+    public static final String UNKNOWN_STR = "UNKNOWN";
+
     private static final String[] OPCODES;
     static {
         String s = "NOP,ACONST_NULL,ICONST_M1,ICONST_0,ICONST_1,ICONST_2,"
@@ -41,6 +51,23 @@ public class OpcodeTranslator {
         }
     }
 
+    /* open addressing hash table from names to opcodes, looked up without creating a string, see 'getOpcode(...)' */
+    private static final String[] NAMES_BY_HASH = new String[512];
+    private static final int[] OPCODES_BY_HASH = new int[512];
+    static {
+        for (int opcode = 0; opcode < OPCODES.length; ++opcode)
+            if (OPCODES[opcode] != null && !OPCODES[opcode].isEmpty()) storeOpcode(OPCODES[opcode], opcode);
+        storeOpcode(BASIC_BLOCK_STR, BASIC_BLOCK);
+        storeOpcode(UNKNOWN_STR, UNKNOWN);
+    }
+
+    private static void storeOpcode(String name, int opcode){
+        int slot = name.hashCode() & (NAMES_BY_HASH.length - 1);
+        while (NAMES_BY_HASH[slot] != null) slot = (slot + 1) & (NAMES_BY_HASH.length - 1);
+        NAMES_BY_HASH[slot] = name;
+        OPCODES_BY_HASH[slot] = opcode;
+    }
+
     private static final HashSet<String> branchingInstr = new HashSet<>();
     static{
         String[] str = new String[]{ /** we consider these 28 instr to be branch altering */
@@ -51,10 +78,36 @@ public class OpcodeTranslator {
     }
 
     public static String getInstructionStr(int opcode) {
+        if (opcode == BASIC_BLOCK) return BASIC_BLOCK_STR;
+        if (opcode == UNKNOWN) return UNKNOWN_STR;
         assert(opcode>=0 && opcode < OPCODES.length);
         return OPCODES[opcode];
     }
 
+    /**
+     * @param instr : name of an instruction, as returned by 'getInstructionStr(...)'
+     * @return its opcode, 'UNKNOWN' if there is no instruction of that name
+     */
+    public static int getOpcode(String instr) {
+        return getOpcode(instr, 0);
+    }
+
+    /**
+     * @param s : string that ends with the name of an instruction, e.g. a trace line like '[86]> INVOKESTATIC'
+     * @param start : index in the string at which the name starts
+     * @return its opcode, 'UNKNOWN' if there is no instruction of that name
+     */
+    public static int getOpcode(String s, int start) {
+        int length = s.length() - start;
+        int hash = 0; //same as 'String.hashCode()' of the name
+        for (int i = start; i < s.length(); ++i)
+            hash = 31 * hash + s.charAt(i);
+        for (int slot = hash & (NAMES_BY_HASH.length - 1); NAMES_BY_HASH[slot] != null; slot = (slot + 1) & (NAMES_BY_HASH.length - 1))
+            if (NAMES_BY_HASH[slot].length() == length && s.regionMatches(start, NAMES_BY_HASH[slot], 0, length))
+                return OPCODES_BY_HASH[slot];
+        return UNKNOWN;
+    }
+
     public static boolean modifiesControlFlow(int opcode) {
         assert(opcode>=0 && opcode < OPCODES.length);
         return modifiesControlFlow(OPCODES[opcode]);
@@ -0,0 +1,150 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data;
+
+/**
+ * Per-thread staging area for the parameters of a method that is being entered. The probe injected at the
+ * beginning of each method obtains the stage of its thread from the observer, pushes every parameter with
+ * the method matching its type and finally hands the stage back when entering the method. Primitives are
+ * stored as a type tag and their raw bits, so neither a wrapper object nor an array is allocated for them.
+ * The arrays are re-used by all calls of the thread and only ever grow.
+ */
+public class ParameterStage {
+
+   private byte[] types;
+   private long[] bits;
+   private Object[] objects;
+   private int size;
+   private int primitives; //how many of the staged parameters are primitives
+   private final ObservedThread owner;
+
+   private static final int initialArraySize = 8;
+
+
+   /**
+    * @param owner : the thread this stage belongs to, handed back to the observer together with the stage
+    */
+   public ParameterStage(ObservedThread owner) {
+      this.owner = owner;
+      types = new byte[initialArraySize];
+      bits = new long[initialArraySize];
+      objects = new Object[initialArraySize];
+      size = 0;
+      primitives = 0;
+   }
+
+   /**
+    * Empties the stage, references staged before are released.
+    *
+    * @param expectedSize : number of parameters that are about to be staged
+    */
+   public void reset(int expectedSize){
+      for (int i = 0; i<size; ++i)
+         objects[i] = null;
+      size = 0;
+      primitives = 0;
+      if (expectedSize > types.length){
+         int newSize = Math.max(types.length*2, expectedSize);
+         types = new byte[newSize];
+         bits = new long[newSize];
+         objects = new Object[newSize];
+      }
+   }
+
+   /* The methods below are called by instrumented code, one call per parameter of the entered method. Size
+    * checks are left to the JVM, 'reset' has been called with the number of parameters beforehand. */
+
+   public void putBoolean(boolean b){ putBits(NonBoxed.TYPE_BOOLEAN, b ? 1 : 0); }
+
+   public void putByte(byte b){ putBits(NonBoxed.TYPE_BYTE, b); }
+
+   public void putChar(char c){ putBits(NonBoxed.TYPE_CHAR, c); }
+
+   public void putShort(short s){ putBits(NonBoxed.TYPE_SHORT, s); }
+
+   public void putInt(int i){ putBits(NonBoxed.TYPE_INT, i); }
+
+   public void putLong(long l){ putBits(NonBoxed.TYPE_LONG, l); }
+
+   public void putFloat(float f){ putBits(NonBoxed.TYPE_FLOAT, Float.floatToRawIntBits(f)); }
+
+   public void putDouble(double d){ putBits(NonBoxed.TYPE_DOUBLE, Double.doubleToRawLongBits(d)); }
+
+   public void putObject(Object o){
+      types[size] = NonBoxed.TYPE_OBJECT;
+      objects[size] = o == null ? NullSingleton.getInstance() : o;
+      ++size;
+   }
+
+   private void putBits(byte type, long value){
+      types[size] = type;
+      bits[size] = value;
+      ++size;
+      ++primitives;
+   }
+
+   /**
+    * @return the thread this stage belongs to
+    */
+   public ObservedThread getOwner(){
+      return owner;
+   }
+
+   /**
+    * @return number of staged parameters
+    */
+   public int size(){
+      return size;
+   }
+
+   /**
+    * @param i : index of a staged parameter
+    * @return its type tag, see {@link NonBoxed}
+    */
+   public byte getType(int i){
+      return types[i];
+   }
+
+   /**
+    * @param i : index of a staged primitive parameter
+    * @return its raw bits
+    */
+   public long getBits(int i){
+      return bits[i];
+   }
+
+   /**
+    * @param i : index of a staged reference parameter
+    * @return the object, the NullSingleton is used instead of 'null'
+    */
+   public Object getObject(int i){
+      return objects[i];
+   }
+
+   /**
+    * @return a copy of the type tags of all staged parameters
+    */
+   public byte[] copyTypes(){
+      byte[] copy = new byte[size];
+      System.arraycopy(types, 0, copy, 0, size);
+      return copy;
+   }
+
+   /**
+    * @return a copy of the bits of all staged parameters, 'null' if there are no primitives
+    */
+   public long[] copyBits(){
+      if (primitives == 0) return null;
+      long[] copy = new long[size];
+      System.arraycopy(bits, 0, copy, 0, size);
+      return copy;
+   }
+
+   /**
+    * @return a copy of the objects of all staged parameters, 'null' if there are no references
+    */
+   public Object[] copyObjects(){
+      if (primitives == size) return null;
+      Object[] copy = new Object[size];
+      System.arraycopy(objects, 0, copy, 0, size);
+      return copy;
+   }
+}
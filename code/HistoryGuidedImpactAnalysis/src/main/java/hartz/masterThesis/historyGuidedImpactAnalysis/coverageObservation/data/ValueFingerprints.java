@@ -0,0 +1,221 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact record of a fixed number of values, e.g. the parameters and the return value of a single method
+ * invocation. Instead of keeping the objects themselves (and thereby everything reachable from them) alive until
+ * the export, a fingerprint is taken at the moment a value is stored: the ID of its class, a 64-bit hash of its
+ * string representation and its hash code. Primitives are stored as their type and raw bits, their value is not lost.
+ * Everything is kept in primitive arrays, an instance is only ever written to by the thread that created it.
+ */
+public class ValueFingerprints {
+
+   /* the lower two bits of a property encode the kind of value, the others are flags */
+   private static final byte KIND_SPECIAL = 0; //one of the singletons, fingerprint is the index in 'specialValues'
+   private static final byte KIND_PRIMITIVE = 1; //fingerprint holds the raw bits of the value
+   private static final byte KIND_OBJECT = 2; //fingerprint holds the hash of 'toString()'
+   private static final byte KIND_UNDETERMINED = 3; //the object crashed while we fingerprinted it
+   private static final byte KIND_MASK = 3;
+   private static final byte DEFAULT_TO_STRING = 4;
+   private static final byte DEFAULT_HASH_CODE = 8;
+   private static final byte IDENTITY_DEPENDENT = 16; //string representation contained an '@'
+
+   private static final SpecialReturnValue[] specialValues = new SpecialReturnValue[]{
+           NullSingleton.getInstance(), VoidSingleton.getInstance(), NotReturnedYetSingleton.getInstance()
+   };
+   private static final int notReturnedYet = 2;
+
+   /* Class IDs are shared by all instances, the lookup itself is lock-free once a class is known. The value
+    * stored for a class is its ID shifted by four, the lower bits remember whether it relies on the default
+    * implementations of 'toString()' and 'hashCode()' so that we do not need reflection on every call. */
+   private static final ConcurrentHashMap<Class<?>, Integer> classDescriptors = new ConcurrentHashMap<>();
+   private static final ArrayList<String> classNames = new ArrayList<>();
+
+   private final byte[] properties;
+   private final int[] classIds;
+   private final long[] fingerprints;
+   private final int[] hashCodes;
+
+
+   /**
+    * Creates a new container, all slots are initialized with the 'NotReturnedYet' singleton.
+    *
+    * @param size : number of values to store
+    */
+   public ValueFingerprints(int size) {
+      properties = new byte[size];
+      classIds = new int[size];
+      fingerprints = new long[size];
+      hashCodes = new int[size];
+      for (int i = 0; i<size; ++i){
+         properties[i] = KIND_SPECIAL;
+         classIds[i] = -1;
+         fingerprints[i] = notReturnedYet;
+      }
+   }
+
+   /**
+    * @return number of values stored in this container
+    */
+   public int size(){
+      return properties.length;
+   }
+
+   /**
+    * @param i : index of the value
+    * @return 'true' if nothing but the initial 'NotReturnedYet' singleton was stored at this index
+    */
+   public boolean isUnset(int i){
+      return properties[i] == KIND_SPECIAL && fingerprints[i] == notReturnedYet;
+   }
+
+   /**
+    * Fingerprints a value and stores the result. Note that this calls 'toString()' and 'hashCode()' of
+    * the given object, the caller needs to make sure that this is not observed itself!
+    *
+    * @param i : index to store the value at
+    * @param value : the value to fingerprint, use the NullSingleton instead of 'null'
+    */
+   public void capture(int i, Object value){
+      assert(value != null);
+
+      classIds[i] = -1;
+      fingerprints[i] = 0;
+      hashCodes[i] = 0;
+      try {
+         if (value instanceof SpecialReturnValue){
+            properties[i] = KIND_SPECIAL;
+            for (int s = 0; s<specialValues.length; ++s)
+               if (specialValues[s] == value) fingerprints[i] = s;
+         }
+         else if (value instanceof NonBoxed){
+            capturePrimitive(i, ((NonBoxed) value).getTypeTag(), ((NonBoxed) value).getValueBits());
+         }
+         else {
+            properties[i] = KIND_UNDETERMINED; //until we are done
+            int descriptor = getClassDescriptor(value.getClass(), null);
+            classIds[i] = descriptor >> 4;
+            byte p = (byte) (KIND_OBJECT | (descriptor & (DEFAULT_TO_STRING | DEFAULT_HASH_CODE)));
+            if ((p & DEFAULT_TO_STRING) == 0){
+               String s = value.toString();
+               fingerprints[i] = fingerprintOf(s);
+               if (s.indexOf('@') >= 0) p |= IDENTITY_DEPENDENT;
+            }
+            if ((p & DEFAULT_HASH_CODE) == 0)
+               hashCodes[i] = value.hashCode();
+            properties[i] = p;
+         }
+      } catch (Throwable t){
+         /* programmer has implemented something that crashes or is concurrently modified, cannot determine stuff for this... */
+         properties[i] = KIND_UNDETERMINED;
+      }
+   }
+
+   /**
+    * Stores a primitive value, which is not hashed but kept exactly.
+    *
+    * @param i : index to store the value at
+    * @param typeTag : type of the value, see {@link NonBoxed}
+    * @param bits : raw bits of the value
+    */
+   public void capturePrimitive(int i, byte typeTag, long bits){
+      properties[i] = KIND_PRIMITIVE;
+      classIds[i] = typeTag; //primitives do not need an entry in the class registry
+      fingerprints[i] = bits;
+      hashCodes[i] = 0;
+   }
+
+   /**
+    * Transforms a stored value into the format used by exported traces. Objects are described by their
+    * fingerprint instead of their string representation.
+    *
+    * @param i : index of the value
+    * @return the value as JSON
+    */
+   public JSONObject toJSON(int i){
+      JSONObject result = new JSONObject();
+      switch (properties[i] & KIND_MASK){
+         case KIND_SPECIAL:
+            result.put("stringRepresentation", specialValues[(int) fingerprints[i]].toString());
+            //no hash code or class!
+            break;
+         case KIND_PRIMITIVE:
+            result.put("class", NonBoxed.getTypeString((byte) classIds[i]));
+            result.put("value", NonBoxed.valueBitsToString((byte) classIds[i], fingerprints[i]));
+            break;
+         case KIND_OBJECT:
+            result.put("class", getClassName(classIds[i]));
+            if ((properties[i] & DEFAULT_TO_STRING) != 0)
+               result.put("stringRepresentation", "toString() of object");
+            else {
+               result.put("fingerprint", fingerprints[i]);
+               if ((properties[i] & IDENTITY_DEPENDENT) != 0)
+                  result.put("identityDependent", true);
+            }
+            if ((properties[i] & DEFAULT_HASH_CODE) != 0)
+               result.put("hashCode", "hashCode() of object");
+            else result.put("hashCode", hashCodes[i]);
+            break;
+         default:
+            result.put("class", classIds[i] >= 0 ? getClassName(classIds[i]) : "!-could not be determined -!");
+            result.put("stringRepresentation","!-could not be determined -!");
+            result.put("hashCode","!-could not be determined -!");
+      }
+      return result;
+   }
+
+   /**
+    * Computes the 64-bit FNV-1a hash of a string, which is what we store instead of the string itself.
+    *
+    * @param s : string to hash
+    * @return the fingerprint
+    */
+   public static long fingerprintOf(String s){
+      long hash = 0xcbf29ce484222325L;
+      for (int i = 0; i<s.length(); ++i){
+         char c = s.charAt(i);
+         hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+         hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+      }
+      return hash;
+   }
+
+   /**
+    * @param c : class of a value
+    * @param name : name to store for the class, 'null' to use its canonical name
+    * @return the ID of the class shifted by four, the lower bits tell if 'toString()' and 'hashCode()' are
+    *         the ones inherited from 'Object'
+    * @throws NoSuchMethodException should actually never ever happen
+    */
+   private static int getClassDescriptor(Class<?> c, String name) throws NoSuchMethodException {
+      Integer descriptor = classDescriptors.get(c);
+      if (descriptor != null) return descriptor;
+
+      int flags = 0;
+      if (c.getMethod("toString").getDeclaringClass() == Object.class) flags |= DEFAULT_TO_STRING;
+      if (c.getMethod("hashCode").getDeclaringClass() == Object.class) flags |= DEFAULT_HASH_CODE;
+      synchronized (classNames){
+         descriptor = classDescriptors.get(c);
+         if (descriptor == null){
+            classNames.add(name != null ? name : c.getCanonicalName());
+            descriptor = ((classNames.size()-1) << 4) | flags;
+            classDescriptors.put(c, descriptor);
+         }
+      }
+      return descriptor;
+   }
+
+   /**
+    * @param classId : ID of a class as assigned by this container
+    * @return the name of the class, may be 'null' for anonymous classes
+    */
+   private static String getClassName(int classId){
+      synchronized (classNames){
+         return classNames.get(classId);
+      }
+   }
+}
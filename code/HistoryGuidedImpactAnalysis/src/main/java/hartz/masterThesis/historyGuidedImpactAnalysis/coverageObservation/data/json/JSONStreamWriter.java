@@ -0,0 +1,52 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json;
+
+import java.io.*;
+
+/**
+ * A {@link JSONWriter} that serializes directly into a file or stream, in one pass and without ever holding
+ * the whole JSON text in memory. Large exports should build at most one element as a {@link JSONObject} or
+ * {@link JSONArray} at a time, hand it to {@link #value(Object)} and forget about it. With an indentation
+ * factor, the output is formatted like {@link JSONObject#toString(int)} formats it.
+ * <p>
+ * Errors while writing are reported as a {@link JSONException} caused by an {@link IOException}, except for
+ * {@link #flush()} and {@link #close()}, which are where most of them occur due to the buffer.
+ */
+public class JSONStreamWriter extends JSONWriter implements Closeable, Flushable {
+
+    private static final int bufferSize = 1 << 16;
+
+    /**
+     * @param out : stream to write to, closed by {@link #close()}
+     * @param indentFactor : number of spaces per level of indentation, 0 for compact output
+     */
+    public JSONStreamWriter(OutputStream out, int indentFactor) {
+        super(new BufferedWriter(new OutputStreamWriter(out) /* default charset, like FileWriter */, bufferSize), indentFactor);
+    }
+
+    /**
+     * @param f : file to write to, existing content is overwritten
+     * @param indentFactor : number of spaces per level of indentation, 0 for compact output
+     * @throws FileNotFoundException if the file cannot be opened for writing
+     */
+    public JSONStreamWriter(File f, int indentFactor) throws FileNotFoundException {
+        this(new FileOutputStream(f), indentFactor);
+    }
+
+    /**
+     * @param w : writer to write to, closed by {@link #close()}
+     * @param indentFactor : number of spaces per level of indentation, 0 for compact output
+     */
+    public JSONStreamWriter(Writer w, int indentFactor) {
+        super(w, indentFactor);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
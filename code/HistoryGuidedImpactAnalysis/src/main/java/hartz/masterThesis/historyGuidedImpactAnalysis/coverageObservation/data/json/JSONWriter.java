@@ -30,7 +30,8 @@ SOFTWARE.
 /**
  * JSONWriter provides a quick and convenient way of producing JSON text.
  * The texts produced strictly conform to JSON syntax rules. No whitespace is
- * added, so the results are ready for transmission or storage. Each instance of
+ * added unless an indentation factor is given, so the results are ready for
+ * transmission or storage. Each instance of
  * JSONWriter can produce one JSON text.
  * <p>
  * A JSONWriter instance provides a <code>value</code> method for appending
@@ -90,15 +91,33 @@ public class JSONWriter {
      */
     protected Writer writer;
 
+    /* TEMPERED - We want the same indentation as JSONObject.toString(int) */
+    /**
+     * The number of spaces to add to each level of indentation, 0 for none.
+     */
+    protected final int indentFactor;
+
     /**
      * Make a fresh JSONWriter. It can be used to build one JSON text.
      */
     public JSONWriter(Writer w) {
+        this(w, 0);
+    }
+
+    /**
+     * Make a fresh JSONWriter that prettyprints. It can be used to build one
+     * JSON text.
+     * @param w The writer that will receive the output.
+     * @param indentFactor The number of spaces to add to each level of
+     * indentation.
+     */
+    public JSONWriter(Writer w, int indentFactor) {
         this.comma = false;
         this.mode = 'i';
         this.stack = new JSONObject[maxdepth];
         this.top = 0;
         this.writer = w;
+        this.indentFactor = indentFactor;
     }
 
     /**
@@ -111,22 +130,49 @@ public class JSONWriter {
         if (string == null) {
             throw new JSONException("Null pointer");
         }
-        if (this.mode == 'o' || this.mode == 'a') {
-            try {
-                if (this.comma && this.mode == 'a') {
-                    this.writer.write(',');
-                }
-                this.writer.write(string);
-            } catch (IOException e) {
-                throw new JSONException(e);
+        try {
+            this.beginValue();
+            this.writer.write(string);
+        } catch (IOException e) {
+            throw new JSONException(e);
+        }
+        this.endValue();
+        return this;
+    }
+
+    /**
+     * Write whatever has to precede the next value.
+     * @throws JSONException If the value is out of sequence.
+     */
+    private void beginValue() throws JSONException, IOException {
+        if (this.mode == 'a') {
+            if (this.comma) {
+                this.writer.write(',');
             }
-            if (this.mode == 'o') {
-                this.mode = 'k';
+            if (this.top > 0) {
+                this.newline(this.top);
             }
-            this.comma = true;
-            return this;
+        } else if (this.mode != 'o') {
+            throw new JSONException("Value out of sequence.");
+        }
+    }
+
+    private void endValue() {
+        if (this.mode == 'o') {
+            this.mode = 'k';
+        }
+        this.comma = true;
+    }
+
+    /**
+     * Start a new line indented by the given level, if prettyprinting.
+     * @param level The nesting level.
+     */
+    private void newline(int level) throws IOException {
+        if (this.indentFactor > 0) {
+            this.writer.write('\n');
+            JSONObject.indent(this.writer, level * this.indentFactor);
         }
-        throw new JSONException("Value out of sequence.");
     }
 
     /**
@@ -139,9 +185,12 @@ public class JSONWriter {
      * outermost array or object).
      */
     public JSONWriter array() throws JSONException {
-        if (this.mode == 'i' || this.mode == 'o' || this.mode == 'a') {
-            this.push(null);
+        if (this.mode == 'i') {
+            this.mode = 'a';
+        }
+        if (this.mode == 'o' || this.mode == 'a') {
             this.append("[");
+            this.push(null);
             this.comma = false;
             return this;
         }
@@ -161,8 +210,11 @@ public class JSONWriter {
                 ? "Misplaced endArray."
                 : "Misplaced endObject.");
         }
-        this.pop(mode);
         try {
+            if (this.comma) {
+                this.newline(this.top - 1);
+            }
+            this.pop(mode);
             this.writer.write(c);
         } catch (IOException e) {
             throw new JSONException(e);
@@ -209,8 +261,12 @@ public class JSONWriter {
                 if (this.comma) {
                     this.writer.write(',');
                 }
+                this.newline(this.top);
                 this.writer.write(JSONObject.quote(string));
                 this.writer.write(':');
+                if (this.indentFactor > 0) {
+                    this.writer.write(' ');
+                }
                 this.comma = false;
                 this.mode = 'o';
                 return this;
@@ -315,13 +371,25 @@ public class JSONWriter {
 
 
     /**
-     * Append an object value.
+     * Append an object value. JSONObjects and JSONArrays are written directly
+     * instead of being turned into a string first.
      * @param object The object to append. It can be null, or a Boolean, Number,
      *   String, JSONObject, or JSONArray, or an object that implements JSONString.
      * @return this
      * @throws JSONException If the value is out of sequence.
      */
     public JSONWriter value(Object object) throws JSONException {
+        if (object instanceof JSONObject || object instanceof JSONArray) {
+            try {
+                this.beginValue();
+                JSONObject.writeValue(this.writer, object, this.indentFactor,
+                        this.top * this.indentFactor);
+            } catch (IOException e) {
+                throw new JSONException(e);
+            }
+            this.endValue();
+            return this;
+        }
         return this.append(JSONObject.valueToString(object));
     }
 }
@@ -235,14 +235,15 @@ public class FileUtils{
     /**
      * Checks if a given directory or file is a sub-directory of
      * another given directory. This method does NOT check for
-     * existence of any of the files!
+     * existence of any of the files! Entries of a JAR or ZIP archive, e.g. 'a.jar/b/C.class',
+     * count as being inside the archive.
      *
-     * @param supposedParent : the supposed super-directory
+     * @param supposedParent : the supposed super-directory or archive
      * @param toCheck : the supposed child directory or file
      * @return 'true' if the later is a sub-directory of the former
      */
     public static boolean isSubDirectoryOrFile(File supposedParent, File toCheck){
-        if (!supposedParent.isDirectory()) return false;
+        if (!supposedParent.isDirectory() && !isArchive(supposedParent)) return false;
 
         try{
             supposedParent = supposedParent.getCanonicalFile();
@@ -392,66 +393,39 @@ public class FileUtils{
      * Helper-method to inject parts of this tool's source code into another project, namely
      * the dependencies for coverage observation and exporting!
      *
-     * @param compiledSources : classpath folder of the project under test
+     * @param compiledSources : classpath folder or JAR/ZIP archive of the project under test
      * @param outputTargetFile : path to a file where to store output in the future (which may
      *                           not exist at the time of this call)
+     * @param streamBinaryTraces : 'true' if traces should be streamed to disk in binary format
+     *                             during execution instead of being kept in memory
+     * @param fingerprintValues : 'true' if only fingerprints of parameters and return values should
+     *                            be recorded instead of retaining the objects until the export
+     * @param countCoverage : 'true' if only the number of executions of each instruction should be
+     *                        recorded instead of the execution traces
      * @throws Exception : if anything goes wrong...
      */
-    public static void injectCodeIntoProjectUnderTest(File compiledSources, File outputTargetFile) throws IOException{
+    public static void injectCodeIntoProjectUnderTest(File compiledSources, File outputTargetFile, boolean streamBinaryTraces,
+                                                      boolean fingerprintValues, boolean countCoverage) throws IOException{
         Tool.printExtraInfo("     - injecting mechanisms to observe instrumented code");
 
         try {
-          /*################################################################################
-           *##### Inject all Coverage Observation functionality into target project!  ######
-           *################################################################################*/
-            Class[] toInject = new Class[]{
-                    //the main coverage observer class, which is instrumented before injecting it!
-                    CoverageObserver.class,
-
-                    ObservedMethod.class,
-                    SpecialReturnValue.class,
-                    NotReturnedYetSingleton.class,
-                    ShutdownHook.class,
-                    VoidSingleton.class,
-                    NullSingleton.class,
-                    JSONArray.class,
-                    JSONObject.class,
-                    JSONNull.class,
-                    JSONException.class,
-                    JSONString.class,
-                    JSONStringer.class,
-                    JSONTokener.class,
-                    JSONWriter.class,
-                    OpcodeTranslator.class,
-                    NonBoxed.class,
-                    NonBoxedDouble.class,
-                    NonBoxedFloat.class,
-                    NonBoxedInteger.class,
-                    NonBoxedLong.class,
-                    NonBoxedBoolean.class,
-                    NonBoxedChar.class,
-                    NonBoxedShort.class,
-                    NonBoxedByte.class,
-
-                    //special instance of the coverage observer that is only called during a tool run
-                    CoverageObserverNoHook.class
-            };
+            LinkedHashMap<String, byte[]> toInject = getCodeToInject(outputTargetFile, streamBinaryTraces, fingerprintValues, countCoverage);
+            if (isArchive(compiledSources)){
+                rewriteArchive(compiledSources, null, toInject);
+                return;
+            }
 
             //create all the directories necessary!
             File injectedPackageMain = new File(compiledSources + "/" + CoverageObserver.coverageObserverPackageStructure);
             injectedPackageMain.mkdirs();
 
-            for (int dep = 0; dep < toInject.length; ++dep) {
-                String name = toInject[dep].getCanonicalName();
-                File classToInject = new File(compiledSources + "/" + name.replace(".","/") + ".class");
+            for (Map.Entry<String, byte[]> e : toInject.entrySet()) {
+                File classToInject = new File(compiledSources + "/" + e.getKey());
                 assert(!classToInject.exists());
-
-                byte[] codeToInject = (dep == 0) ? Instrumenter.instrumentCoverageObserver(name, outputTargetFile) : Instrumenter.getBytecodeOfClass(name);
                 classToInject.createNewFile();
 
-                Tool.printDebug("   -> injecting '"+name+"' into subject version");
                 DataOutputStream dout = new DataOutputStream(new FileOutputStream(classToInject));
-                dout.write(codeToInject);
+                dout.write(e.getValue());
                 dout.close();
             }
 
@@ -462,6 +436,233 @@ public class FileUtils{
         }
     }
 
+    /**
+     * Gathers the bytecode of everything that {@link #injectCodeIntoProjectUnderTest(File, File, boolean, boolean, boolean)}
+     * injects, see there for the parameters.
+     *
+     * @return bytecode by path of the class file relative to the classpath, e.g. 'a/b/C.class'
+     * @throws IOException : if the bytecode of this tool cannot be accessed
+     */
+    public static LinkedHashMap<String, byte[]> getCodeToInject(File outputTargetFile, boolean streamBinaryTraces,
+                                                               boolean fingerprintValues, boolean countCoverage) throws IOException{
+      /*################################################################################
+       *##### Inject all Coverage Observation functionality into target project!  ######
+       *################################################################################*/
+        Class[] toInject = new Class[]{
+                //the main coverage observer class, which is instrumented before injecting it!
+                CoverageObserver.class,
+
+                ObservedMethod.class,
+                ObservedThread.class,
+                BinaryTraceOutput.class,
+                BinaryTraceWriter.class,
+                ValueFingerprints.class,
+                ParameterStage.class,
+                SpecialReturnValue.class,
+                NotReturnedYetSingleton.class,
+                ShutdownHook.class,
+                VoidSingleton.class,
+                NullSingleton.class,
+                JSONArray.class,
+                JSONObject.class,
+                JSONNull.class,
+                JSONException.class,
+                JSONString.class,
+                JSONStringer.class,
+                JSONTokener.class,
+                JSONWriter.class,
+                JSONStreamWriter.class,
+                OpcodeTranslator.class,
+                NonBoxed.class,
+                NonBoxedDouble.class,
+                NonBoxedFloat.class,
+                NonBoxedInteger.class,
+                NonBoxedLong.class,
+                NonBoxedBoolean.class,
+                NonBoxedChar.class,
+                NonBoxedShort.class,
+                NonBoxedByte.class,
+
+                //special instance of the coverage observer that is only called during a tool run
+                CoverageObserverNoHook.class
+        };
+
+        LinkedHashMap<String, byte[]> code = new LinkedHashMap<>();
+        for (int dep = 0; dep < toInject.length; ++dep) {
+            String name = toInject[dep].getCanonicalName();
+            Tool.printDebug("   -> injecting '"+name+"' into subject version");
+            code.put(name.replace(".", "/") + ".class", (dep == 0) ?
+                    Instrumenter.instrumentCoverageObserver(name, outputTargetFile, streamBinaryTraces, fingerprintValues, countCoverage) :
+                    Instrumenter.getBytecodeOfClass(name));
+        }
+        return code;
+    }
+
+    /**
+     * @param f : file to check
+     * @return 'true' if the given file is a JAR or ZIP archive that can be used as a classpath
+     */
+    public static boolean isArchive(File f){
+        String name = f.getName().toLowerCase();
+        return f.isFile() && (name.endsWith(".jar") || name.endsWith(".zip"));
+    }
+
+    /**
+     * Callback for processing the entries of an archive one by one.
+     */
+    public interface ArchiveEntryHandler {
+        /**
+         * @param entryName : name of an entry, e.g. 'a/b/C.class'
+         * @return 'true' if the content of the entry is needed, all other entries are skipped or copied as they are
+         */
+        boolean accepts(String entryName);
+
+        /**
+         * @param entryName : name of an accepted entry
+         * @param content : content of the entry
+         * @return new content of the entry or 'null' to keep it as it is
+         * @throws IOException : aborts processing
+         */
+        byte[] handle(String entryName, byte[] content) throws IOException;
+    }
+
+    /**
+     * Reads the accepted entries of a JAR or ZIP archive without unpacking it.
+     *
+     * @param archive : archive to read
+     * @param handler : receives the accepted entries in order, anything returned is ignored
+     * @throws IOException : if the archive cannot be read
+     */
+    public static void readArchive(File archive, ArchiveEntryHandler handler) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            Enumeration<? extends ZipEntry> e = zip.entries();
+            while (e.hasMoreElements()) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory() && handler.accepts(entry.getName()))
+                    handler.handle(entry.getName(), readEntry(zip, entry));
+            }
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Rewrites a JAR or ZIP archive in a single pass without unpacking it. All entries are streamed into
+     * a new archive next to the original, which then replaces it atomically. Previously injected coverage
+     * observation code is dropped, just like signature files since signatures cannot match rewritten code.
+     *
+     * @param archive : archive to rewrite
+     * @param rewriter : decides about the new content of entries, may be 'null'
+     * @param entriesToAdd : entries to append by name, replacing existing ones, may be 'null'
+     * @return 'true' if the archive was replaced, it is left untouched if nothing was rewritten or added
+     * @throws IOException : if the archive cannot be read or replaced
+     */
+    public static boolean rewriteArchive(File archive, ArchiveEntryHandler rewriter, Map<String, byte[]> entriesToAdd)
+            throws IOException {
+        File temporary = File.createTempFile(archive.getName(), ".tmp", archive.getAbsoluteFile().getParentFile());
+        boolean changed;
+        try {
+            changed = writeRewrittenArchive(archive, temporary, rewriter, entriesToAdd);
+        } catch (IOException | RuntimeException e){
+            temporary.delete();
+            throw e;
+        }
+
+        if (changed) Files.move(temporary.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        else temporary.delete();
+        return changed;
+    }
+
+    private static boolean writeRewrittenArchive(File archive, File target, ArchiveEntryHandler rewriter,
+                                                 Map<String, byte[]> entriesToAdd) throws IOException {
+        String injectedCode = CoverageObserver.coverageObserverClass.substring(0, CoverageObserver.coverageObserverClass.lastIndexOf("/")+1);
+        boolean changed = entriesToAdd != null && !entriesToAdd.isEmpty();
+        byte[] buffer = new byte[Globals.zipReaderBufferSize];
+
+        ZipFile zip = new ZipFile(archive);
+        try {
+            ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(target)));
+            try {
+                Enumeration<? extends ZipEntry> e = zip.entries();
+                while (e.hasMoreElements()) {
+                    ZipEntry entry = e.nextElement();
+                    String name = entry.getName();
+                    if (name.startsWith(injectedCode) || (entriesToAdd != null && entriesToAdd.containsKey(name))){
+                        changed = true;
+                        continue;
+                    }
+                    if (isSignatureFile(name)) continue;
+
+                    if (rewriter != null && !entry.isDirectory() && rewriter.accepts(name)){
+                        byte[] content = readEntry(zip, entry);
+                        byte[] rewritten = rewriter.handle(name, content);
+                        if (rewritten != null) {
+                            ZipEntry replacement = new ZipEntry(name);
+                            replacement.setTime(entry.getTime());
+                            out.putNextEntry(replacement);
+                            out.write(rewritten);
+                            changed = true;
+                        } else {
+                            out.putNextEntry(copyOf(entry));
+                            out.write(content);
+                        }
+                    } else {
+                        //everything else is streamed through, stored entries keep their exact bytes
+                        out.putNextEntry(copyOf(entry));
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            int read;
+                            while (-1 != (read = in.read(buffer))) out.write(buffer, 0, read);
+                        } finally {
+                            in.close();
+                        }
+                    }
+                    out.closeEntry();
+                }
+
+                if (entriesToAdd != null)
+                    for (Map.Entry<String, byte[]> toAdd : entriesToAdd.entrySet()){
+                        out.putNextEntry(new ZipEntry(toAdd.getKey()));
+                        out.write(toAdd.getValue());
+                        out.closeEntry();
+                    }
+            } finally {
+                out.close();
+            }
+        } finally {
+            zip.close();
+        }
+        return changed;
+    }
+
+    private static ZipEntry copyOf(ZipEntry entry){
+        ZipEntry copy = new ZipEntry(entry);
+        copy.setCompressedSize(-1); //deflated entries are compressed again and may end up with a different size
+        return copy;
+    }
+
+    private static byte[] readEntry(ZipFile zip, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : Globals.zipReaderBufferSize);
+        byte[] buffer = new byte[Globals.zipReaderBufferSize];
+        InputStream in = zip.getInputStream(entry);
+        try {
+            int read;
+            while (-1 != (read = in.read(buffer))) content.write(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        return content.toByteArray();
+    }
+
+    /** Signatures of signed JARs, these are located directly in 'META-INF' */
+    private static boolean isSignatureFile(String entryName){
+        if (!entryName.startsWith("META-INF/") || entryName.indexOf('/', 9) >= 0) return false;
+        String upperCase = entryName.toUpperCase();
+        return upperCase.endsWith(".SF") || upperCase.endsWith(".RSA") || upperCase.endsWith(".DSA") ||
+                upperCase.endsWith(".EC") || upperCase.startsWith("META-INF/SIG-");
+    }
+
     /**
      * Removes a previously injected package structure from a compiled sources directory. Note that
      * this assumes that the subject project does not use a package named 'hartz' ;-)
@@ -77,11 +77,22 @@ public class Commands {
     public static final String runCommandShort = "-rc";
     public static final String coverageBasedTraces = "--coverageBased";
     public static final String distanceBasedTraces = "--distanceBased";
+    public static final String maximalTraceDistance = "-maxTraceDistance";
     public static final String compatibleInstr ="--saferInstrumentation";
+    public static final String binaryTraces ="--binaryTraces";
+    public static final String fingerprintValues ="--fingerprintValues";
+    public static final String countCoverage ="--countCoverage";
+    public static final String basicBlockProbes ="--probeBasicBlocks";
+    public static final String javaAgent ="--javaAgent";
+    public static final String impactScope ="-impactScope";
+    public static final String instrumentationThreads ="-instrumentationThreads";
+    public static final String cacheInstrumentation ="--cacheInstrumentation";
     public static final String keepTraces =    "--keepTraces";
     public static final String keepTracesShort = "--kt";
     public static final String flatDivergences = "--exportFlat";
     public static final String filterObjectCharacteristics ="--filterObjects";
+    public static final String analysisThreads ="-analysisThreads";
+    public static final String cacheDivergences ="--cacheDivergences";
 
 
     //misc
@@ -322,7 +333,52 @@ public class Commands {
                         "                                              => short: '"+Commands.excludeMethodFromInstrumentationShort +" [[<string>, ...], ...]'\n"+
                         "    '"+Commands.compatibleInstr+"' = if this is provided, a safer and more compatible instrumentation method\n"+
                         "                               will be used. Resulting data is unaffected, use this if you have problems!\n"+
-                        "                               => short: -------unavailable-------\n\n"+
+                        "                               => short: -------unavailable-------\n"+
+                        "    '"+Commands.binaryTraces+"' = if this is provided, instrumented code streams its traces to disk\n"+
+                        "                            in a compact binary format while it is running instead of keeping\n"+
+                        "                            them in memory until it terminates. Use this for long executions,\n"+
+                        "                            the traces are converted back automatically when they are imported.\n"+
+                        "                            => short: -------unavailable-------\n"+
+                        "    '"+Commands.fingerprintValues+"' = if this is provided, parameters and return values are not kept\n"+
+                        "                                 alive until the traces are exported. Only a fingerprint\n"+
+                        "                                 of each value (class, hash of its string representation\n"+
+                        "                                 and hash code) is taken when the method is called or\n"+
+                        "                                 returns. Primitive values are recorded exactly.\n"+
+                        "                                 => short: -------unavailable-------\n"+
+                        "    '"+Commands.countCoverage+"' = if this is provided, instrumented code only counts how often each\n"+
+                        "                             instruction is executed instead of recording the execution traces,\n"+
+                        "                             which is a lot cheaper. Only the calls are still recorded in order.\n"+
+                        "                             Implies '"+Commands.coverageBasedTraces+"', cannot be combined with\n"+
+                        "                             '"+Commands.distanceBasedTraces+"' or '"+Commands.binaryTraces+"'.\n"+
+                        "                             => short: -------unavailable-------\n"+
+                        "    '"+Commands.basicBlockProbes+"' = if this is provided, only the first instruction of each basic\n"+
+                        "                                block is probed instead of every single one, which keeps methods\n"+
+                        "                                a lot smaller and speeds up execution. Traces are expanded again\n"+
+                        "                                using the exported bytecode, do not combine with '"+Commands.doNotExportSource+"'!\n"+
+                        "                                => short: -------unavailable-------\n"+
+                        "    '"+Commands.javaAgent+"' = if this is provided, compiled classes are not rewritten on disc.\n"+
+                        "                         Instead, every JVM started to generate traces loads this tool's\n"+
+                        "                         JAR as a Java agent that instruments classes in memory while they\n"+
+                        "                         are loaded, so only classes actually used pay for instrumentation.\n"+
+                        "                         Requires running this tool from its JAR (jar-with-dependencies).\n"+
+                        "                         => short: -------unavailable-------\n"+
+                        "    '"+Commands.impactScope+" <int>' = if this is provided, syntax changes are computed before the\n"+
+                        "                                 instrumentation and only methods that can call or be called\n"+
+                        "                                 by a changed method with at most the given number of calls\n"+
+                        "                                 in between are instrumented, plus main methods and tests.\n"+
+                        "                                 Traces shrink accordingly but may miss effects of changes\n"+
+                        "                                 that propagate further, e.g. through fields.\n"+
+                        "                                 => short: -------unavailable-------\n"+
+                        "    '"+Commands.instrumentationThreads+" <int>' = number of classes that are instrumented at the\n"+
+                        "                                            same time, defaults to 1. The instrumented code\n"+
+                        "                                            is the same no matter how many are used.\n"+
+                        "                                            => short: -------unavailable-------\n"+
+                        "    '"+Commands.cacheInstrumentation+"' = if this is provided, instrumented classes are kept in\n"+
+                        "                                    the output directory and reused for every version in\n"+
+                        "                                    which a class is unchanged, so that instrumenting many\n"+
+                        "                                    versions only costs the classes that actually differ.\n"+
+                        "                                    Has no effect together with '"+Commands.javaAgent+"'.\n"+
+                        "                                    => short: -------unavailable-------\n\n"+
 
 
                         "  ## GENERATING TRACES FOR CHANGE APPROXIMATION: ##\n\n"+
@@ -405,6 +461,10 @@ public class Commands {
                         "                        can be combined with '"+Commands.coverageBasedTraces+"' to include both\n"+
                         "                        quantitative metrics in the final computation.\n"+
                         "                        => short: -------unavailable-------\n\n"+
+                        "    '"+Commands.maximalTraceDistance+" <int>' = caps the trace distance computed by '"+Commands.distanceBasedTraces+"'\n"+
+                        "                        at the given value, so that the comparison of very\n"+
+                        "                        different traces can stop early. Defaults to no limit.\n"+
+                        "                        => short: -------unavailable-------\n\n"+
                         "    '"+Commands.keepTraces+"' = provide this flag to disable the purging of traces before creating\n"+
                         "                     new ones. Existing traces inside the version's directory will be taken\n"+
                         "                     into account by the testing target computation just like newly created\n"+
@@ -490,6 +550,16 @@ public class Commands {
                         "                        during trace divergence analysis. This will of course\n"+
                         "                        gravely impact your final results!\n"+
                         "                        => short: -------unavailable-------\n"+
+                        "    '"+Commands.analysisThreads+" <int>' = number of trace files that are imported and of trace\n"+
+                        "                                     pairs that are compared at the same time, defaults\n"+
+                        "                                     to 1. Traces and results are the same no matter how\n"+
+                        "                                     many are used.\n"+
+                        "                                     => short: -------unavailable-------\n"+
+                        "    '"+Commands.cacheDivergences+"' = if this is provided, the trace divergences of each version\n"+
+                        "                              are stored in its directory and reused by later analyses\n"+
+                        "                              as long as the traces and syntactic changes of both\n"+
+                        "                              versions and the comparison settings are unchanged.\n"+
+                        "                              => short: -------unavailable-------\n"+
                         "    '"+Commands.noTargetDetails+"' = provide this flag to prune all additional data from\n"+
                         "                         your testing targets.\n"+"" +
                         "                         => short: -------unavailable-------\n\n\n"+
@@ -6,8 +6,12 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.configuration.constants.Gl
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.Core;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.fileLevelChanges.FileLevelChange;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.DivergenceCache;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.Trace;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.TraceStore;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.InstrumentationCache;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.callGraph.CallGraph;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.LoadTimeInstrumenter;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.divergences.TraceDivergence;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.targets.ImpactBasedTestingTarget;
@@ -16,13 +20,15 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.core.targets.special.Synta
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.targets.special.TraceDivergenceTestingTarget;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONException;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONStreamWriter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONWriter;
 import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.*;
 
 /**
@@ -113,9 +119,25 @@ public class MainFunctionality {
         if (config.getBehavior()==Behavior.COMPILE) return;
 
         //################### STEP 4: Instrument present code (all of it) #############################
+        TreeMap<Version, HashMap<String, List<SyntaxChange>>> syntaxChangesByVersion = null;
+        if (config.getImpactScopeDistance()>=0){
+            if (versions.length<2)
+                Tool.print(" * NOTE: cannot restrict instrumentation to the impact of changes for initial version, everything will be instrumented!");
+            else {
+                //step 5 needs to come first, the changes decide what is instrumented
+                Tool.print(" * processing syntactic source code changes");
+                assert(allFileLevelChanges != null);
+                syntaxChangesByVersion = step5_computeSyntaxChanges(
+                        versions, allFileLevelChanges, !config.areRenamedElementsToBeTreatedAsSyntaxChanges());
+            }
+        }
         Tool.print(" * starting instrumentation of source code:");
         TreeMap<Version, CallGraph> callGraphsByVersion = step4_instrumentCode(versions,
-                config.exportSourceCodeToDirectory(),config.needToInjectCoverageObserverTwice(), config.useMoreCompatibleInstrumentation());
+                config.exportSourceCodeToDirectory(),config.needToInjectCoverageObserverTwice(), config.useMoreCompatibleInstrumentation(),
+                config.streamBinaryTraces(), config.fingerprintValues(), config.countCoverage(), config.useBasicBlockProbes(),
+                config.useLoadTimeInstrumentation(),
+                syntaxChangesByVersion, config.getImpactScopeDistance(), config.getNumberOfInstrumentationThreads(),
+                config.useInstrumentationCache() ? new File(config.getOutputDirectory(), "instrumentationCache") : null);
         if (config.getBehavior()==Behavior.INSTRUMENT) return;
 
         //################### STEP 5: Compute syntactical differences between versions ################
@@ -124,10 +146,12 @@ public class MainFunctionality {
             Tool.print(" * NOTE: cannot execute change approximation heuristics for initial version, as there is nothing to compare against!");
             return;
         }
-        Tool.print(" * processing syntactic source code changes");
-        assert(allFileLevelChanges != null);
-        TreeMap<Version, HashMap<String, List<SyntaxChange>>> syntaxChangesByVersion = step5_computeSyntaxChanges(
-                versions, allFileLevelChanges, !config.areRenamedElementsToBeTreatedAsSyntaxChanges());
+        if (syntaxChangesByVersion == null) {
+            Tool.print(" * processing syntactic source code changes");
+            assert(allFileLevelChanges != null);
+            syntaxChangesByVersion = step5_computeSyntaxChanges(
+                    versions, allFileLevelChanges, !config.areRenamedElementsToBeTreatedAsSyntaxChanges());
+        }
 
         //################### STEP 6: Generate execution traces #######################################
         if (weHaveExecutionCommands) step6_generateExecutionTraces(versions, config.areTracesToBeDeleted());
@@ -135,13 +159,15 @@ public class MainFunctionality {
         if (config.getBehavior()==Behavior.DATA_COMPUTATION) return;
 
         //################### STEP 7: Compute trace divergences #######################################
-        Tool.print(" * importing trace data:");
-        TreeMap<Version, Trace[]> tracesByVersion = Core.gatherTraces(//import trace data
-                versions, syntaxChangesByVersion, config.compareTraceCoverage(), config.compareTraceDistance());
+        MethodData.setMaximalTraceDistance(config.getMaximalTraceDistance());
+        TraceStore traceStore = Core.openTraceStore(//trace data is imported version by version during the analysis
+                versions, syntaxChangesByVersion, config.compareTraceCoverage(), config.compareTraceDistance(),
+                config.getNumberOfAnalysisThreads());
         Tool.print(" * analyzing trace divergences:");
         TreeMap<Version, TraceDivergence[][]> traceDivergencesByVersion =
-                step7_compareTraces(versions, tracesByVersion, config.areTracesToBeExportedAsList(),
-                        config.needToUseManualTraceMatchingFile(), config.filterObjectCharacteristics());
+                step7_compareTraces(versions, traceStore, config.areTracesToBeExportedAsList(),
+                        config.needToUseManualTraceMatchingFile(), config.filterObjectCharacteristics(),
+                        config.getNumberOfAnalysisThreads(), config.useDivergenceCache());
 
         //################### STEP 8: Generate testing targets #########################################
 
@@ -173,27 +199,29 @@ public class MainFunctionality {
         assert(typeOfTarget != null);
 
         for (Version v : targets.keySet()){
-            JSONArray results = new JSONArray();
-            for (TestingTarget t : targets.get(v))
-                results.put(t.toJSON());
-
             try {
                 String s = typeOfTarget.trim().replace(" ", "");
                 if (!s.isEmpty()) s="_"+s;
                 File testingTargets = new File(v.getMainDirectory().getAbsoluteFile() + "/testingTargets"+s);
-                if (testingTargets.exists()) testingTargets.delete(); //always remove previous results!
-                BufferedWriter writer = new BufferedWriter(new FileWriter(testingTargets));
-                writer.write(results.toString(Globals.jsonIndentFactor));//store as JSON
-                writer.close();
+                JSONStreamWriter writer = new JSONStreamWriter(testingTargets, Globals.jsonIndentFactor); //always replace previous results!
+                try {
+                    writer.array();
+                    for (TestingTarget t : targets.get(v))
+                        writer.value(t.toJSON());//store as JSON
+                    writer.endArray();
+                } finally {
+                    writer.close();
+                }
                 if (!s.isEmpty())
                     Tool.printExtraInfo("   - exported testing targets based on "+typeOfTarget.replace("T", " t")+" for version "+v.identifier);
                 else Tool.printExtraInfo("   - exported impact-based testing targets for version "+v.identifier);
-            } catch (IOException e) {
+            } catch (IOException | JSONException e) {
                 Tool.printDebug(e);
                 Tool.printError("Failed to export "+typeOfTarget.replace("T", " t")+" testing targets for version '" + v.identifier + "', printing results instead!");
                 Tool.activateDebugMode();
                 Tool.print("---------- TESTING TARGET OUTPUT ----------------------------");
-                Tool.print(results.toString(Globals.jsonIndentFactor));
+                for (TestingTarget t : targets.get(v))
+                    Tool.print(t.toJSON().toString(Globals.jsonIndentFactor));
                 Tool.print("---------- END OF TESTING TARGET OUTPUT ---------------------");
                 Tool.deactivateDebugMode();
             }
@@ -376,22 +404,25 @@ public class MainFunctionality {
      * Will compare previously gathered execution traces and compute the divergences.
      *
      * @param versions : all versions to work on
-     * @param tracesByVersion : contains the gathered traces for each version, all versions must be
-     *                          represented as a key, their trace array may be empty but not 'null'
+     * @param traceStore : provides the traces of each version, the traces of a version are released as soon
+     *                     as no later comparison needs them anymore
      *
      * @param exportAsList : set to 'true' to use the flat-export method instead of the tree-based one
      * @param manualMatching : set to 'true' to search for a user-provided trace matching file and use
      *                        'false' to disable that feature and always use the entry point matcher.
      * @param filterObjectCharacteristics : set to 'true' to stop comparing object stringOf and hashCodes
      *                                      when their string-representation contained the '@' character!
+     * @param threads : number of trace pairs that are compared at the same time
+     * @param useCache : set to 'true' to reuse the divergences of a previous analysis if neither the traces
+     *                   nor any setting changed since, see {@link DivergenceCache}
      * @return a map that contains for each version, the trace divergences as TraceDivergence[][].
      *         The outer array encodes the index of the *newer* trace and the inner holds the detected
      *         divergences (which may be an empty array). If the trace could not be matched, the inner
      *         array will be 'null' (to differentiate between "no divergences" and "no matching trace").
      */
     public static TreeMap<Version, TraceDivergence[][]> step7_compareTraces(
-            Version[] versions, TreeMap<Version, Trace[]> tracesByVersion, boolean exportAsList, boolean manualMatching,
-            boolean filterObjectCharacteristics) {
+            Version[] versions, TraceStore traceStore, boolean exportAsList, boolean manualMatching,
+            boolean filterObjectCharacteristics, int threads, boolean useCache) {
 
         assert(versions.length>=2);
         TreeMap<Version, TraceDivergence[][]> traceDivergencesByVersion = new TreeMap<>();
@@ -402,76 +433,132 @@ public class MainFunctionality {
                 continue;//this first version is the 'base', we compare against it but do NOT compare it against something, so skip!
             }
 
-            Trace[] tracesInOld = tracesByVersion.get(v.getVersionComparingAgainst());
-            Trace[] tracesInNew = tracesByVersion.get(v);
+            Trace[] tracesInNew = traceStore.getTraces(v);
+            String cacheKey = null;
+            TraceDivergence[][] cached = null;
+            if (useCache && tracesInNew != null && tracesInNew.length != 0){
+                try {
+                    cacheKey = DivergenceCache.computeKey(v, manualMatching, filterObjectCharacteristics);
+                    cached = DivergenceCache.lookup(v, cacheKey, tracesInNew);
+                } catch (IOException e) {
+                    Tool.printDebug(e);
+                }
+            }
+            //there is no need to import the older traces if the divergences are known already
+            Trace[] tracesInOld = cached == null ? traceStore.getTraces(v.getVersionComparingAgainst()) : null;
 
-            if (tracesInNew == null || tracesInOld == null || tracesInOld.length == 0 || tracesInNew.length == 0){
+            if (tracesInNew == null || tracesInNew.length == 0 || (cached == null && (tracesInOld == null || tracesInOld.length == 0))){
                 Tool.print("   - cannot compute testing targets based on trace data without execution traces present in both this version and the one comparing against!'" +
                         v.identifier + "' [" + (i + 1) + "/" + versions.length + "]");
             } else {
                 Tool.print("   - analyzing trace differences for version '" +
                         v.identifier + "' [" + (i + 1) + "/" + versions.length + "]");
 
-                /* Compute the differences between the traces, results in a list holding each newer trace differences when
-                 * compared to a matching older. Some of the lists contained may be empty of course... */
-                ArrayList<List<TraceDivergence>> divergencesByTrace = Core.obtainTraceDivergences(tracesInNew, tracesInOld,
-                                             manualMatching, v, filterObjectCharacteristics);
-
-                TraceDivergence[][] result = new TraceDivergence[divergencesByTrace.size()][];
-                int copyIndex = 0;
-                for (List<TraceDivergence> l : divergencesByTrace){
-                    if (l != null){
-                        //could be matched
-                        result[copyIndex] = l.toArray(new TraceDivergence[l.size()]);
+                TraceDivergence[][] result = cached;
+                ArrayList<List<TraceDivergence>> divergencesByTrace;
+                if (result != null){
+                    Tool.print("     ~> reused trace divergences from previous analysis");
+                    divergencesByTrace = new ArrayList<>(result.length);
+                    for (TraceDivergence[] divergences : result)
+                        divergencesByTrace.add(divergences == null ? null : Arrays.asList(divergences));
+                } else {
+                    /* Compute the differences between the traces, results in a list holding each newer trace differences when
+                     * compared to a matching older. Some of the lists contained may be empty of course... */
+                    divergencesByTrace = Core.obtainTraceDivergences(tracesInNew, tracesInOld,
+                            manualMatching, v, filterObjectCharacteristics, threads);
+
+                    result = new TraceDivergence[divergencesByTrace.size()][];
+                    int copyIndex = 0;
+                    for (List<TraceDivergence> l : divergencesByTrace){
+                        if (l != null){
+                            //could be matched
+                            result[copyIndex] = l.toArray(new TraceDivergence[l.size()]);
+                        }
+                        ++copyIndex;
+                    }
+
+                    if (cacheKey != null){
+                        try {
+                            DivergenceCache.store(v, cacheKey, tracesInNew, result);
+                        } catch (IOException e) {
+                            Tool.printDebug(e);
+                            Tool.printError("Failed to cache trace divergences for version '"+v.identifier+"'!");
+                        }
                     }
-                    ++copyIndex;
                 }
 
 
                 traceDivergencesByVersion.put(v,result);
 
                 //Export the results!
-                JSONArray output = new JSONArray();
-                for (int div = 0; div<divergencesByTrace.size(); ++div){
-                    List<TraceDivergence> divergences = divergencesByTrace.get(div);
-                    JSONObject traceDivJSON;
-
-                    //convert the list of divergences to a JSON tree structure!
-                    if (divergences == null){
-                        /** could not be matched */
-                        traceDivJSON = new JSONObject();
-                        traceDivJSON.put("entryPoint",tracesInNew[div].getEntryMethodIdentifier());
-                        traceDivJSON.put("traceDivergences", "!-- none, trace could not be matched --!");
-                        output.put(traceDivJSON);
-                    } else if (!divergences.isEmpty()){
-                        /** could be matched */
-                        if (exportAsList)
-                            traceDivJSON = TraceDivergence.convertTraceDivToJSON(divergences.iterator());
-                        else
-                            traceDivJSON = TraceDivergence.convertTraceDivToJSON(
-                                    divergences.iterator(), divergences.get(0).getEntryPointMethodData());
-                        output.put(traceDivJSON);
-                    }
-                }
+                File divergenceFile = new File(v.getMainDirectory().getAbsoluteFile() + "/traceDivergences");
                 try {
-                    File divergenceFile = new File(v.getMainDirectory().getAbsoluteFile() + "/traceDivergences");
-                    if (divergenceFile.exists()) divergenceFile.delete(); //always remove previous results!
-                    BufferedWriter writer = new BufferedWriter(new FileWriter(divergenceFile));
-                    writer.write(output.toString(Globals.jsonIndentFactor));//store as JSON
-                    writer.close();
+                    JSONStreamWriter writer = new JSONStreamWriter(divergenceFile, Globals.jsonIndentFactor); //always replace previous results!
+                    try {
+                        writeTraceDivergences(writer, tracesInNew, divergencesByTrace, exportAsList);
+                    } finally {
+                        writer.close();
+                    }
                     Tool.printExtraInfo("   - exported trace divergences changes to file '" + divergenceFile.getAbsolutePath() + "'");
-                } catch (IOException e) {
+                } catch (IOException | JSONException e) {
                     Tool.printDebug(e);
                     Tool.printError("Failed to export trace divergences for version '"+v.identifier+"', printing results instead!");
+                    StringWriter output = new StringWriter();
+                    writeTraceDivergences(new JSONStreamWriter(output, Globals.jsonIndentFactor), tracesInNew,
+                            divergencesByTrace, exportAsList);
                     Tool.print("---------- TRACE DIVERGENCE OUTPUT ---------------------");
-                    Tool.print(output.toString(Globals.jsonIndentFactor));
+                    Tool.print(output.toString());
                     Tool.print("---------- END OF TRACE DIVERGENCE OUTPUT --------------");
                 }
             }
+
+            //only the traces of the versions compared next are kept, the others will not be needed anymore
+            for (Version compared : new Version[]{v, v.getVersionComparingAgainst()}){
+                boolean neededLater = false;
+                for (int j = i+1; j<versions.length && !neededLater; ++j)
+                    neededLater = compared.equals(versions[j]) || compared.equals(versions[j].getVersionComparingAgainst());
+                if (!neededLater) traceStore.release(compared);
+            }
         }
         return traceDivergencesByVersion;
     }
 
+    /**
+     * Writes the divergences of all traces of a version as a JSON array, one trace at a time. Traces without
+     * divergences are omitted, unmatched ones are reported as such.
+     *
+     * @param writer : writer to use, must not have written anything yet
+     * @param tracesInNew : traces of the version
+     * @param divergencesByTrace : divergences of each of these traces, 'null' if a trace could not be matched
+     * @param exportAsList : set to 'true' to use the flat-export method instead of the tree-based one
+     */
+    private static void writeTraceDivergences(JSONWriter writer, Trace[] tracesInNew,
+                                              List<List<TraceDivergence>> divergencesByTrace, boolean exportAsList){
+        writer.array();
+        for (int div = 0; div<divergencesByTrace.size(); ++div){
+            List<TraceDivergence> divergences = divergencesByTrace.get(div);
+            JSONObject traceDivJSON;
+
+            //convert the list of divergences to a JSON tree structure!
+            if (divergences == null){
+                /** could not be matched */
+                traceDivJSON = new JSONObject();
+                traceDivJSON.put("entryPoint",tracesInNew[div].getEntryMethodIdentifier());
+                traceDivJSON.put("traceDivergences", "!-- none, trace could not be matched --!");
+                writer.value(traceDivJSON);
+            } else if (!divergences.isEmpty()){
+                /** could be matched */
+                if (exportAsList)
+                    traceDivJSON = TraceDivergence.convertTraceDivToJSON(divergences.iterator());
+                else
+                    traceDivJSON = TraceDivergence.convertTraceDivToJSON(
+                            divergences.iterator(), divergences.get(0).getEntryPointMethodData());
+                writer.value(traceDivJSON);
+            }
+        }
+        writer.endArray();
+    }
+
 
     public static void step6_generateExecutionTraces(Version[] versions, boolean deletePresentTraces) {
             Tool.print(" * generating execution traces");
@@ -517,12 +604,41 @@ public class MainFunctionality {
 
     public static TreeMap<Version, CallGraph> step4_instrumentCode(Version[] versions, boolean exportSource,
                                                                    boolean injectFunctionalityIntoAdditionalClasspathToo,
-                                                                   boolean useStaticMaxStackIncrease) {
+                                                                   boolean useStaticMaxStackIncrease,
+                                                                   boolean streamBinaryTraces,
+                                                                   boolean fingerprintValues,
+                                                                   boolean countCoverage,
+                                                                   boolean basicBlockProbes,
+                                                                   boolean loadTimeInstrumentation,
+                                                                   TreeMap<Version, HashMap<String, List<SyntaxChange>>> syntaxChangesByVersion,
+                                                                   int impactScopeDistance,
+                                                                   int instrumentationThreads,
+                                                                   File instrumentationCacheDir) {
+        if (basicBlockProbes && !exportSource){
+            Tool.printError("Probing basic blocks requires the human-readable bytecode to be exported, every instruction will be probed instead!");
+            basicBlockProbes = false;
+        }
+        if (loadTimeInstrumentation && LoadTimeInstrumenter.getAgentJar() == null){
+            Tool.printError("Instrumentation at load-time requires this tool to be run from its JAR, classes will be instrumented on disc instead!");
+            loadTimeInstrumentation = false;
+        }
+
         //create class loaders now that the source has been build and verified :-)
         for (Version v : versions){
             v.createFreshClassLoader();
         }
 
+        //shared by all versions, this is where unchanged classes save us from instrumenting them over and over
+        InstrumentationCache cache = null;
+        if (instrumentationCacheDir != null && !loadTimeInstrumentation){
+            try {
+                cache = new InstrumentationCache(instrumentationCacheDir);
+            } catch (IOException e) {
+                Tool.printError("Failed to open instrumentation cache, every class will be instrumented! Reason: "+e.getMessage());
+                Tool.printDebug(e);
+            }
+        }
+
         TreeMap<Version, CallGraph> callGraphs = new TreeMap<>();
 
         //Write the output to a class file
@@ -561,7 +677,22 @@ public class MainFunctionality {
                  */
                 FileUtils.clearCodeFromProjectUnderTest(v.getCompiledSourcesDir());
 
-                callGraphs.put(v, Core.instrumentVersion(v, exportSource, injectFunctionalityIntoAdditionalClasspathToo, useStaticMaxStackIncrease));
+                HashSet<String> changedEntities = null;
+                if (syntaxChangesByVersion != null){
+                    //the version is compared against its predecessor and its successors are compared against it
+                    changedEntities = new HashSet<>();
+                    for (Version other : versions)
+                        if ((other == v || other.getVersionComparingAgainst() == v) && syntaxChangesByVersion.containsKey(other))
+                            changedEntities.addAll(syntaxChangesByVersion.get(other).keySet());
+                }
+
+                callGraphs.put(v, Core.instrumentVersion(v, exportSource, injectFunctionalityIntoAdditionalClasspathToo, useStaticMaxStackIncrease,
+                        streamBinaryTraces, fingerprintValues, countCoverage, basicBlockProbes, loadTimeInstrumentation, changedEntities, impactScopeDistance,
+                        instrumentationThreads, cache));
+                if (cache != null){
+                    cache.persist(); //entries are useless without the IDs they were created with
+                    Tool.printExtraInfo("     - instrumentation cache: "+cache.getStatistics());
+                }
                 Tool.print("   - completed instrumentation of compiled source code for version '"+v.identifier+"' ["+(i+1)+"/"+versions.length+"]");
             }
             catch (Exception e){
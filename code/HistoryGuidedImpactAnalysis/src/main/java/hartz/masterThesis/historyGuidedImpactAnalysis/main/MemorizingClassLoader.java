@@ -1,12 +1,22 @@
 package hartz.masterThesis.historyGuidedImpactAnalysis.main;
 
+import hartz.masterThesis.historyGuidedImpactAnalysis.configuration.constants.Globals;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.LoadTimeInstrumenter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
+
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 /** Custom classloader of our tool, reports errors and remembers if a class loaded has failed. Comes with up to two
  * separate classpaths. */
@@ -15,7 +25,7 @@ public class MemorizingClassLoader extends ClassLoader{
     private final File classpath;
     private final File additionalClasspath;
 
-    private static final HashSet<String> errorsAlreadyReported = new HashSet<>();
+    private static final Set<String> errorsAlreadyReported = Collections.synchronizedSet(new HashSet<String>()); //classes may be loaded by multiple instrumentation workers
 
     public static MemorizingClassLoader getClassLoader(File classpath) throws IllegalArgumentException{
         return getClassLoader(classpath, null);
@@ -39,18 +49,33 @@ public class MemorizingClassLoader extends ClassLoader{
      *         cannot be accessed!
      */
     public static MemorizingClassLoader getClassLoader(File classpath, File additionalClasspath) throws IllegalArgumentException{
+        return getClassLoader(classpath, additionalClasspath, null);
+    }
+
+    /**
+     * Obtains a new loader.
+     *
+     * @param classpath : primary classpath to load classes from
+     * @param additionalClasspath : additional classpath, may be 'null'
+     * @param instrumenter : instrumenter to apply to every class loaded from the classpaths, may
+     *                       be 'null' to load classes as they are on disc
+     * @return new loader
+     * @throws IllegalArgumentException if directory does not exist or
+     *         cannot be accessed!
+     */
+    public static MemorizingClassLoader getClassLoader(File classpath, File additionalClasspath, LoadTimeInstrumenter instrumenter)
+            throws IllegalArgumentException{
         assert(classpath != null);
 
         MemorizingClassLoader loader = null;
         try{
             Tool.printExtraInfo(" * Loading classes from '"+classpath.getAbsolutePath()+"'");
-            if (classpath.isDirectory() && (additionalClasspath == null || additionalClasspath.isDirectory())){
+            if (isClasspath(classpath) && (additionalClasspath == null || isClasspath(additionalClasspath))){
                 URL url = classpath.toURI().toURL();
-                if (additionalClasspath == null)
-                    loader = new MemorizingClassLoader( new URLClassLoader(new URL[]{url} ), classpath, null);
-                else loader = new MemorizingClassLoader( new URLClassLoader(new URL[]{url, additionalClasspath.toURI().toURL()}),
-                        classpath, additionalClasspath);
-            } else throw new IllegalArgumentException("Classpath '"+classpath.getAbsolutePath()+"' is not a directory!");
+                URL[] urls = additionalClasspath == null ? new URL[]{url} : new URL[]{url, additionalClasspath.toURI().toURL()};
+                loader = new MemorizingClassLoader(instrumenter == null ? new URLClassLoader(urls) :
+                        new InstrumentingClassLoader(urls, instrumenter), classpath, additionalClasspath);
+            } else throw new IllegalArgumentException("Classpath '"+classpath.getAbsolutePath()+"' is neither a directory nor an archive!");
 
         }
         catch(Throwable e){
@@ -59,6 +84,11 @@ public class MemorizingClassLoader extends ClassLoader{
         return loader;
     }
 
+    /** @return 'true' if classes can be loaded from the given file, i.e. if it is a directory or an archive */
+    private static boolean isClasspath(File f){
+        return f.isDirectory() || FileUtils.isArchive(f);
+    }
+
     private MemorizingClassLoader(ClassLoader l, File classpath, File additionalClasspath){
         this.classpath = classpath;
         this.additionalClasspath = additionalClasspath;
@@ -139,4 +169,59 @@ public class MemorizingClassLoader extends ClassLoader{
             return null;
         }
     }
+
+    /** Hands every class found on its classpaths to an instrumenter before defining it. */
+    private static class InstrumentingClassLoader extends URLClassLoader{
+        private final LoadTimeInstrumenter instrumenter;
+        private final Set<String> definedPackages; //by this loader, for classes defined by 'findClass'
+
+        private InstrumentingClassLoader(URL[] urls, LoadTimeInstrumenter instrumenter){
+            super(urls);
+            this.instrumenter = instrumenter;
+            this.definedPackages = new HashSet<>();
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            URL resource = findResource(name.replace(".", "/")+".class");
+            if (resource == null || !("file".equals(resource.getProtocol()) || "jar".equals(resource.getProtocol())))
+                return super.findClass(name);
+            try {
+                File classFile;
+                byte[] code;
+                if ("jar".equals(resource.getProtocol())){
+                    //e.g. 'jar:file:/a/b.jar!/c/D.class', treated as if the archive was a directory
+                    String path = resource.getPath();
+                    int separator = path.indexOf("!/");
+                    classFile = new File(new File(new URL(path.substring(0, separator)).toURI()), path.substring(separator+2));
+                    InputStream in = resource.openStream();
+                    try {
+                        ByteArrayOutputStream out = new ByteArrayOutputStream();
+                        byte[] buffer = new byte[Globals.zipReaderBufferSize];
+                        int read;
+                        while (-1 != (read = in.read(buffer))) out.write(buffer, 0, read);
+                        code = out.toByteArray();
+                    } finally {
+                        in.close();
+                    }
+                } else {
+                    classFile = new File(resource.toURI());
+                    code = Files.readAllBytes(classFile.toPath());
+                }
+                byte[] instrumented = instrumenter.instrument(name.replace(".", "/"), classFile, code, this);
+                if (instrumented != null) code = instrumented;
+
+                int lastDot = name.lastIndexOf(".");
+                if (lastDot > 0){
+                    synchronized (definedPackages){
+                        if (definedPackages.add(name.substring(0, lastDot)))
+                            definePackage(name.substring(0, lastDot), null, null, null, null, null, null, null);
+                    }
+                }
+                return defineClass(name, code, 0, code.length);
+            } catch (IOException | URISyntaxException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
 }
@@ -343,6 +343,18 @@ public class Tool {
                             config.enableDistanceBasedTraces();
                             break;
                         }
+                        case Commands.maximalTraceDistance :{
+                            int distance;
+                            try {
+                                distance = Integer.parseInt(args[++i]);
+                            } catch (NumberFormatException e){
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.maximalTraceDistance+"', must be a number");
+                            }
+                            if (distance < 1)
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.maximalTraceDistance+"', must be at least 1");
+                            config.setMaximalTraceDistance(distance);
+                            break;
+                        }
                         case Commands.loud :{
                             moreOutput = true;
                             TestingTarget.enableNotes();
@@ -369,6 +381,71 @@ public class Tool {
                             config.enableInstrumentationCompatibiltyMode();
                             break;
                         }
+                        case Commands.binaryTraces:{
+                            config.enableBinaryTraceStreaming();
+                            break;
+                        }
+                        case Commands.fingerprintValues:{
+                            config.enableValueFingerprints();
+                            break;
+                        }
+                        case Commands.countCoverage:{
+                            config.enableCoverageCounting();
+                            config.enableCoverageBasedTraces(); //nothing else can be compared
+                            break;
+                        }
+                        case Commands.basicBlockProbes:{
+                            config.enableBasicBlockProbes();
+                            break;
+                        }
+                        case Commands.javaAgent:{
+                            config.enableLoadTimeInstrumentation();
+                            break;
+                        }
+                        case Commands.impactScope:{
+                            int distance;
+                            try {
+                                distance = Integer.parseInt(args[++i]);
+                            } catch (NumberFormatException e){
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.impactScope+"', must be a number");
+                            }
+                            if (distance < 0)
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.impactScope+"', must not be negative");
+                            config.setImpactScopeDistance(distance);
+                            break;
+                        }
+                        case Commands.instrumentationThreads:{
+                            int threads;
+                            try {
+                                threads = Integer.parseInt(args[++i]);
+                            } catch (NumberFormatException e){
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.instrumentationThreads+"', must be a number");
+                            }
+                            if (threads < 1)
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.instrumentationThreads+"', must be at least 1");
+                            config.setNumberOfInstrumentationThreads(threads);
+                            break;
+                        }
+                        case Commands.analysisThreads:{
+                            int threads;
+                            try {
+                                threads = Integer.parseInt(args[++i]);
+                            } catch (NumberFormatException e){
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.analysisThreads+"', must be a number");
+                            }
+                            if (threads < 1)
+                                throw new IllegalArgumentException("Invalid value given for '"+Commands.analysisThreads+"', must be at least 1");
+                            config.setNumberOfAnalysisThreads(threads);
+                            break;
+                        }
+                        case Commands.cacheInstrumentation:{
+                            config.enableInstrumentationCache();
+                            break;
+                        }
+                        case Commands.cacheDivergences:{
+                            config.enableDivergenceCache();
+                            break;
+                        }
                         case Commands.doNotExportSource :{
                             config.disableSourceExport();
                             break;
@@ -423,6 +500,9 @@ public class Tool {
         catch (ArrayIndexOutOfBoundsException e){
             throw new IllegalArgumentException("Invalid arguments, please consult the documentation via the 'help'-command!\n\n");
         }
+        if (config.countCoverage() && (config.compareTraceDistance() || config.streamBinaryTraces()))
+            throw new IllegalArgumentException("'"+Commands.countCoverage+"' does not record traces, it cannot be combined with '"+
+                    Commands.distanceBasedTraces+"' or '"+Commands.binaryTraces+"'!");
 
         //##################### CHECK THAT WE HAVE A REPO  #################################################
         if( !noRepo && ((repoDir ==null || !repoDir.exists()) && (repoURL == null || repoURL.isEmpty())))
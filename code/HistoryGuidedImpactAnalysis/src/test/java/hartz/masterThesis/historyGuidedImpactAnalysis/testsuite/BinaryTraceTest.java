@@ -0,0 +1,194 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.testsuite;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.BinaryTraceReader;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.Trace;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserverNoHook;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.BinaryTraceOutput;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.BinaryTraceWriter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.NonBoxed;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.NotReturnedYetSingleton;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.ParameterStage;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.VoidSingleton;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.Opcodes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryTraceTest {
+
+    private File traceFile;
+
+    @Before
+    public void setUp() throws IOException {
+        traceFile = File.createTempFile("observedTrace", null);
+        new CoverageObserverNoHook(traceFile); //stringification must not register a shutdown hook
+    }
+
+    @After
+    public void tearDown() {
+        traceFile.delete();
+    }
+
+    @Test
+    public void roundTripTest() throws IOException {
+        BinaryTraceOutput output = new BinaryTraceOutput(traceFile);
+        BinaryTraceWriter first = output.newWriter();
+        BinaryTraceWriter second = output.newWriter();
+
+        ParameterStage stage = new ParameterStage(null);
+        stage.reset(1);
+        stage.putObject("arg");
+        first.enter(0, "a.B.main([Ljava/lang/String;)V", stage);
+        first.instruction(0, Opcodes.ICONST_1, 0);
+        second.enter(1, "a.B.<init>()V", null);
+        stage.reset(1);
+        stage.putInt(42);
+        first.enter(2, "a.B.calc(I)I", stage);
+        second.instruction(1, Opcodes.RETURN, 0);
+        assertTrue(first.instruction(2, Opcodes.IRETURN, 3));
+        assertFalse(first.instruction(0, Opcodes.NOP, 1)); //not inside 'main' right now
+        first.exit(2, NonBoxed.TYPE_INT, 43);
+        second.exit(1, VoidSingleton.getInstance());
+        first.instruction(0, Opcodes.RETURN, 1);
+        first.exit(0, VoidSingleton.getInstance());
+        first.flush();
+        second.flush();
+        output.close();
+
+        assertTrue(BinaryTraceReader.isBinaryTrace(traceFile));
+        JSONObject o = BinaryTraceReader.readTrace(traceFile);
+        assertFalse(o.has("errors"));
+        JSONArray traces = o.getJSONArray("executionTraces");
+        assertEquals(2, traces.length());
+
+        JSONObject main = traces.getJSONObject(0);
+        assertEquals(1, main.getInt("traceIndex"));
+        assertEquals("METHOD", main.getString("type"));
+        assertEquals("a.B.main([Ljava/lang/String;)V", main.getString("called"));
+        assertEquals("arg", main.getJSONArray("calledWithParameters").getJSONObject(0).getString("stringRepresentation"));
+        JSONArray mainTrace = main.getJSONArray("trace");
+        assertEquals(3, mainTrace.length());
+        assertEquals("[0]> ICONST_1", mainTrace.getString(0));
+        assertEquals("[1]> RETURN", mainTrace.getString(2));
+
+        JSONObject calc = mainTrace.getJSONObject(1);
+        assertEquals("42", calc.getJSONArray("calledWithParameters").getJSONObject(0).getString("value"));
+        assertEquals("[3]> IRETURN", calc.getJSONArray("trace").getString(0));
+        assertEquals("43", calc.getJSONObject("returned").getString("value"));
+
+        JSONObject constructor = traces.getJSONObject(1);
+        assertEquals(2, constructor.getInt("traceIndex"));
+        assertEquals("CONSTRUCTOR", constructor.getString("type"));
+    }
+
+    @Test
+    public void truncatedTraceTest() throws IOException {
+        BinaryTraceOutput output = new BinaryTraceOutput(traceFile);
+        BinaryTraceWriter w = output.newWriter();
+        w.enter(0, "a.B.run()V", null);
+        w.flush();
+        w.instruction(0, Opcodes.NOP, 0);
+        w.flush();
+        output.close();
+
+        //cut off the last chunk as if the observed program had been killed while writing
+        RandomAccessFile raf = new RandomAccessFile(traceFile, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+
+        JSONObject o = BinaryTraceReader.readTrace(traceFile);
+        assertTrue(o.has("errors"));
+        JSONObject run = o.getJSONArray("executionTraces").getJSONObject(0);
+        assertEquals("a.B.run()V", run.getString("called"));
+        assertEquals(NotReturnedYetSingleton.getInstance().toString(), run.getJSONObject("returned").getString("stringRepresentation"));
+    }
+
+    @Test
+    public void streamingImportTest() throws IOException {
+        BinaryTraceOutput output = new BinaryTraceOutput(traceFile);
+        BinaryTraceWriter first = output.newWriter();
+        BinaryTraceWriter second = output.newWriter();
+
+        first.enter(0, "a.B.main([Ljava/lang/String;)V", null);
+        second.enter(1, "a.B.<init>()V", null);
+        for (int i = 0; i<50000; ++i){ //records of both threads are spread over many interleaved chunks
+            first.instruction(0, Opcodes.ICONST_1, 0);
+            second.instruction(1, Opcodes.NOP, 1);
+        }
+        ParameterStage stage = new ParameterStage(null);
+        stage.reset(1);
+        stage.putInt(42);
+        first.enter(2, "a.B.calc(I)I", stage);
+        first.instruction(2, Opcodes.IRETURN, 3);
+        first.exit(2, NonBoxed.TYPE_INT, 43);
+        first.instruction(0, Opcodes.RETURN, 1);
+        first.exit(0, VoidSingleton.getInstance());
+        second.flush(); //the constructor never returns
+        first.flush();
+        output.close();
+
+        Version dummyVersion = new Version(0,"a","","","");
+        List<Trace> traces = new ArrayList<>();
+        List<String> errors = new ArrayList<>();
+        BinaryTraceReader.readTraces(traceFile, dummyVersion, new HashMap<String, List<SyntaxChange>>(), "file0", traces, errors);
+        assertTrue(errors.isEmpty());
+        assertEquals(2, traces.size());
+        assertEquals("file0_trace1", traces.get(0).getTraceIdentifier());
+        assertEquals("file0_trace2", traces.get(1).getTraceIdentifier());
+
+        //same result as importing the JSON the file can be converted into
+        JSONArray expected = BinaryTraceReader.readTrace(traceFile).getJSONArray("executionTraces");
+        for (int i = 0; i<2; ++i)
+            assertTrue(new MethodData(dummyVersion, expected.getJSONObject(i), null, new HashMap<String, List<SyntaxChange>>())
+                    .equalsMethodData(traces.get(i).getEntryMethod()));
+
+        MethodData main = traces.get(0).getEntryMethod();
+        assertEquals(50002, main.getBytecodeIndices().length);
+        assertEquals(1, main.getAmountOfMethodCalls());
+        assertEquals("43", main.getCalledMethod(0).getToStringOfReturnedValue());
+        assertEquals(NotReturnedYetSingleton.getInstance().toString(), traces.get(1).getEntryMethod().getToStringOfReturnedValue());
+    }
+
+    @Test
+    public void writerReuseTest() throws IOException {
+        BinaryTraceOutput output = new BinaryTraceOutput(traceFile);
+        BinaryTraceWriter first = output.newWriter();
+        first.enter(0, "a.B.run()V", null);
+        first.instruction(0, Opcodes.NOP, 0);
+        first.exit(0, VoidSingleton.getInstance());
+        output.releaseWriter(first); //thread has left all observed methods
+
+        BinaryTraceWriter second = output.newWriter();
+        assertSame(first, second); //no new buffer for the next thread
+        second.enter(0, "a.B.run()V", null);
+        BinaryTraceWriter third = output.newWriter();
+        assertNotSame(second, third);
+        third.enter(1, "a.B.other()V", null);
+        output.closeWriters(new ArrayList<String>()); //export while both are still running
+        third.instruction(1, Opcodes.NOP, 0); //dropped
+        third.flush();
+        output.close();
+
+        JSONObject o = BinaryTraceReader.readTrace(traceFile);
+        assertFalse(o.has("errors"));
+        JSONArray traces = o.getJSONArray("executionTraces");
+        assertEquals(3, traces.length());
+        assertEquals("[0]> NOP", traces.getJSONObject(0).getJSONArray("trace").getString(0));
+        assertEquals("a.B.run()V", traces.getJSONObject(1).getString("called"));
+        assertEquals(0, traces.getJSONObject(2).getJSONArray("trace").length());
+    }
+}
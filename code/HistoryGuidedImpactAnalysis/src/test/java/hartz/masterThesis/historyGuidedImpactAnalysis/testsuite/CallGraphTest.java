@@ -1,14 +1,28 @@
 package hartz.masterThesis.historyGuidedImpactAnalysis.testsuite;
 
+import hartz.masterThesis.historyGuidedImpactAnalysis.configuration.constants.Globals;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.Instrumenter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.MethodIdentifierTable;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.callGraph.CallGraph;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.TypeHierarchy;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONStreamWriter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class CallGraphTest {
@@ -180,4 +194,85 @@ public class CallGraphTest {
                 new int[]{    4,    4,    3}
         );
     }
+
+    @Test
+    public void testImpactCone() {
+        HashMap<String, List<String>> graph = new HashMap<>();
+        graph.put("a.Main.main([Ljava/lang/String;)V", getList("a.Service.run()V"));
+        graph.put("a.Service.run()V", getList("a.Service.step(I)I", "a.Task.execute()V"));
+        graph.put("a.Service.step(I)I", getList("a.Util.clamp(I)I", "java.lang.Math.max(II)I"));
+        graph.put("a.Util.clamp(I)I", getList("a.Util.log()V"));
+        graph.put("a.Other.unrelated()V", getList("a.Util.log()V"));
+        CallGraph g = new CallGraph(graph);
+
+        HashSet<String> declared = getHashSet("a.Main.main([Ljava/lang/String;)V", "a.Service.run()V", "a.Service.step(I)I",
+                "a.Util.clamp(I)I", "a.Util.log()V", "a.Other.unrelated()V", "a.Task.execute()V", "a.FastTask.execute()V",
+                "a.Changed.<init>()V", "a.Changed.leaf()V");
+
+        //only the change itself
+        assertEquals(getHashSet("a.Service.step(I)I"), g.getImpactCone(getHashSet("a.Service.step(I)I"), declared, 0));
+
+        //callers and callees, foreign methods are not part of the cone
+        assertEquals(getHashSet("a.Service.step(I)I", "a.Service.run()V", "a.Util.clamp(I)I"),
+                g.getImpactCone(getHashSet("a.Service.step(I)I"), declared, 1));
+        assertEquals(getHashSet("a.Service.step(I)I", "a.Service.run()V", "a.Util.clamp(I)I", "a.Util.log()V",
+                "a.Main.main([Ljava/lang/String;)V"), g.getImpactCone(getHashSet("a.Service.step(I)I"), declared, 2));
+
+        //an implementation may be reached through a call to another class' method with the same signature
+        assertTrue(g.getImpactCone(getHashSet("a.FastTask.execute()V"), declared, 1).contains("a.Service.run()V"));
+
+        //class-level changes affect all methods of the class, even if they do not appear in the call graph
+        assertEquals(getHashSet("a.Changed.<init>()V", "a.Changed.leaf()V"), g.getImpactCone(getHashSet("a.Changed"), declared, 3));
+    }
+
+    @Test
+    public void testCallGraphDuringInstrumentation() throws IOException, URISyntaxException {
+        String name = CallGraphTest.class.getName();
+        byte[] code = Files.readAllBytes(new File(CallGraphTest.class.getResource("CallGraphTest.class").toURI()).toPath());
+
+        HashMap<String, List<String>> expected = new HashMap<>();
+        Instrumenter.updateCallGraph(new ByteArrayInputStream(code), name, expected);
+
+        //must not contain the calls injected by the instrumentation
+        HashMap<String, List<String>> actual = new HashMap<>();
+        assertNotNull(Instrumenter.instrumentClass(new ByteArrayInputStream(code), name, new HashSet<String>(), new MethodIdentifierTable(),
+                null, null, null, null, new TypeHierarchy(CallGraphTest.class.getClassLoader()), false, null, actual));
+        assertEquals(expected, actual);
+        assertTrue(actual.get(name+".testImpactCone()V").contains(CallGraph.class.getName()+".<init>(Ljava/util/HashMap;)V"));
+    }
+
+    @Test
+    public void testStreamingExport() throws IOException {
+        HashMap<String, List<String>> graph = new HashMap<>();
+        graph.put("A", getList("B", "C"));
+        graph.put("B", getList());
+        graph.put("C", getList("A", "B", "C"));
+        CallGraph g = new CallGraph(graph);
+
+        //streaming must yield exactly what serializing the JSON representation yields, with and without indentation
+        for (int indentFactor : new int[]{0, Globals.jsonIndentFactor}){
+            StringWriter output = new StringWriter();
+            JSONStreamWriter writer = new JSONStreamWriter(output, indentFactor);
+            g.write(writer);
+            writer.close();
+            assertEquals(g.toJSON().toString(indentFactor), output.toString());
+        }
+
+        //nested in other streamed data and written to a file
+        File f = File.createTempFile("callGraph", null);
+        try {
+            JSONStreamWriter writer = new JSONStreamWriter(f, Globals.jsonIndentFactor);
+            writer.object().key("callGraph");
+            g.write(writer);
+            writer.key("methods").value(graph.size()).endObject();
+            writer.close();
+
+            JSONObject imported = new JSONObject(FileUtils.readData(f));
+            assertEquals(3, imported.getInt("methods"));
+            CallGraph g2 = new CallGraph(imported.getJSONArray("callGraph"));
+            assertEquals(g.toJSON().toString(0), g2.toJSON().toString(0));
+        } finally {
+            f.delete();
+        }
+    }
 }
@@ -2,7 +2,13 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.testsuite;
 
 import hartz.masterThesis.historyGuidedImpactAnalysis.commandExecution.Executor;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.JSONTraceReader;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.Trace;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.InstrumentationCache;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.Instrumenter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.LoadTimeInstrumenter;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.MethodIdentifierTable;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.instrumentation.onTarget.TypeHierarchy;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserverNoHook;
@@ -18,11 +24,18 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.Result;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.Assert.*;
 
@@ -412,6 +425,222 @@ public class InstrumenterTest extends TestingConstants {
         verify(expectedData, actualData);
     }
 
+    private void verifyTree(MethodData expected, MethodData actual) {
+        assertTrue(expected.equalsMethodData(actual));
+        assertArrayEquals(expected.getTrace(), actual.getTrace());
+        assertArrayEquals(expected.getBytecodeIndices(), actual.getBytecodeIndices());
+        assertEquals(expected.getAmountOfMethodCalls(), actual.getAmountOfMethodCalls());
+        for (int i = 0; i<expected.getAmountOfMethodCalls(); ++i){
+            assertSame(actual, actual.getCalledMethod(i).getCaller());
+            verifyTree(expected.getCalledMethod(i), actual.getCalledMethod(i));
+        }
+    }
+
+    @Test
+    public void testStreamingTraceImport() throws IOException {
+        Version dummyVersion = new Version(0,"a","","","");
+        dummyVersion.enrichWithToolData(testResultDir,".",".",".",".","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion,false,false);
+
+        //loops, escapes, non-ASCII characters and keys in unusual order do not appear in the recorded examples
+        File handmade = new File(testResultDir, "handmade");
+        String call = "{\"trace\": [\"[0]> RETURN\"], \"type\": \"METHOD\", \"called\": \"p.C.m()V\", " +
+                "\"calledWithParameters\": [], \"returned\": {\"class\": \"---\", \"stringRepresentation\": \"void\"}}";
+        Files.write(handmade.toPath(), ("{\"unknown\": {\"a\": [1, 2.5, true, null]}, \"executionTraces\": [ {\n" +
+                "  \"traceIndex\": 3, \"called\": \"p.T.test(Ljava/lang/String;J)I\", \"type\": \"METHOD\",\n" +
+                "  \"calledWithParameters\": [ {\"class\": \"java.lang.String\", \"stringRepresentation\": \"\\u00e9\\\"\u00fc\u20ac\\\\\\n\", \"hashCode\": -7},\n" +
+                "                            {\"class\": \"long\", \"stringRepresentation\": \"123456789012\", \"fingerprint\": -1234567890123} ],\n" +
+                "  \"returned\": {\"class\": \"int\", \"stringRepresentation\": \"42\", \"hashCode\": 42},\n" +
+                "  \"trace\": [ \"[0]> ICONST_0\", {\"iterations\": 3, \"trace\": [\"[1]> ILOAD\", " + call + ", " +
+                "{\"trace\": [\"[2]> IINC\"], \"iterations\": 2}]}, {\"iterations\": 2, \"trace\": [\"[3]> NOP\"]}, " + call +
+                ", \"[4]> IRETURN\", ] } ],\n\"errors\": [\"something went wrong\"]}").getBytes());
+
+        File[] files = new File(resourceDir, "expected").listFiles();
+        files = Arrays.copyOf(files, files.length+1);
+        files[files.length-1] = handmade;
+        for (File f : files){
+            JSONArray expected = new JSONObject(FileUtils.readData(f)).getJSONArray("executionTraces");
+            List<Trace> actual = new LinkedList<>();
+            List<String> errors = new LinkedList<>();
+            JSONTraceReader.readTraces(f, dummyVersion, new HashMap<String, List<SyntaxChange>>(), "file0", actual, errors);
+
+            assertEquals(expected.length(), actual.size());
+            for (int i = 0; i<expected.length(); ++i){
+                JSONObject trace = expected.getJSONObject(i);
+                assertEquals("file0_trace"+trace.optInt("traceIndex", 0), actual.get(i).getTraceIdentifier());
+                verifyTree(new MethodData(dummyVersion, trace, null, new HashMap<String, List<SyntaxChange>>()),
+                        actual.get(i).getEntryMethod());
+            }
+            if (f == handmade){
+                assertEquals(Arrays.asList("something went wrong"), errors);
+                assertEquals(17, actual.get(0).getEntryMethod().getTrace().length); //loops are expanded, calls count too
+                HashSet<MethodData> invocations = new HashSet<>(); //every iteration of a loop must be a distinct invocation
+                for (int i = 0; i<actual.get(0).getEntryMethod().getAmountOfMethodCalls(); ++i)
+                    invocations.add(actual.get(0).getEntryMethod().getCalledMethod(i));
+                assertEquals(4, invocations.size());
+            }
+            else assertTrue(errors.isEmpty());
+        }
+    }
+
+    @Test
+    public void testLoadTimeInstrumentationFilter() throws IOException, URISyntaxException {
+        File compiledSources = new File(testResultDir, "version/bin");
+        new File(compiledSources, "excluded").mkdirs();
+        Version v = new Version(0,"a","","","");
+        v.enrichWithToolData(testResultDir, "", "bin", "", ".", "", new String[0], new String[]{"Ignored"}, new String[0],
+                new String[]{"bin/excluded"}, v, false, false);
+
+        //settings must survive being handed over to the agent
+        LoadTimeInstrumenter instrumenter = new LoadTimeInstrumenter(new LoadTimeInstrumenter(v,
+                new File(testResultDir, "observedTrace"), false, false, false, true, false).toJSON());
+
+        //any class will do, the instrumenter does not care where the bytecode actually came from
+        byte[] code = Files.readAllBytes(new File(TestingConstants.class.getResource("TestingConstants.class").toURI()).toPath());
+        ClassLoader loader = InstrumenterTest.class.getClassLoader();
+        assertNotNull(instrumenter.instrument("myPackage/MyClass", new File(compiledSources, "myPackage/MyClass.class"), code, loader));
+        assertNull(instrumenter.instrument("myPackage/IgnoredClass", new File(compiledSources, "myPackage/IgnoredClass.class"), code, loader));
+        assertNull(instrumenter.instrument("excluded/MyClass", new File(compiledSources, "excluded/MyClass.class"), code, loader));
+        assertNull(instrumenter.instrument("myPackage/MyClass", new File(testResultDir, "myPackage/MyClass.class"), code, loader));
+    }
+
+    @Test
+    public void testInstrumentationCache() throws IOException, URISyntaxException {
+        String name = TestingConstants.class.getName();
+        byte[] code = Files.readAllBytes(new File(TestingConstants.class.getResource("TestingConstants.class").toURI()).toPath());
+        TypeHierarchy hierarchy = new TypeHierarchy(InstrumenterTest.class.getClassLoader());
+        File cacheDir = new File(testResultDir, "instrumentationCache");
+        InstrumentationCache cache = new InstrumentationCache(cacheDir);
+
+        String[] methods = Instrumenter.getMethodsToInstrument(new ByteArrayInputStream(code), name, new HashSet<String>());
+        String key = InstrumentationCache.computeKey(name, code, methods, false, false, false);
+        assertNotEquals(key, InstrumentationCache.computeKey(name, code, methods, false, true, false));
+        assertNotEquals(key, InstrumentationCache.computeKey(name, code, Arrays.copyOf(methods, methods.length-1), false, false, false));
+        assertNull(cache.lookup(key, hierarchy));
+
+        List<String[]> queries = new ArrayList<>();
+        byte[] instrumented = Instrumenter.instrumentClass(new ByteArrayInputStream(code), name, new HashSet<String>(),
+                cache.getMethodIdentifierTable(), null, null, null, null, hierarchy, false, queries, null);
+        int[] ids = new int[methods.length];
+        for (int i = 0; i<ids.length; ++i) ids[i] = cache.getMethodIdentifierTable().getIdOf(methods[i]);
+        assertEquals(methods.length, cache.getMethodIdentifierTable().size());
+        cache.store(key, new InstrumentationCache.Entry(methods, ids, instrumented, null,
+                new LinkedHashMap<String, List<String>>(), queries));
+        assertArrayEquals(instrumented, cache.lookup(key, hierarchy).getInstrumentedCode());
+
+        //entries are dropped if the IDs they were created with are lost
+        assertNull(new InstrumentationCache(cacheDir).lookup(key, hierarchy));
+        cache = new InstrumentationCache(cacheDir);
+        cache.getMethodIdentifierTable().getIdOf(methods[0]);
+        cache.store(key, new InstrumentationCache.Entry(new String[]{methods[0]}, new int[]{0}, instrumented, "listing",
+                new LinkedHashMap<String, List<String>>(), new ArrayList<String[]>()));
+        cache.persist();
+        cache = new InstrumentationCache(cacheDir);
+        assertEquals("listing", cache.lookup(key, hierarchy).getBytecodeListing());
+
+        //as are entries whose stack map frames were computed for a different class hierarchy
+        List<String[]> wrongQuery = new ArrayList<>();
+        wrongQuery.add(new String[]{"java/lang/String", "java/lang/Integer", "java/lang/String"});
+        cache.store(key, new InstrumentationCache.Entry(new String[0], new int[0], instrumented, null,
+                new LinkedHashMap<String, List<String>>(), wrongQuery));
+        assertNull(cache.lookup(key, hierarchy));
+    }
+
+    @Test
+    public void testTypeHierarchy() throws IOException, URISyntaxException {
+        String nonBoxed = "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NonBoxed";
+        String nullSingleton = "hartz/masterThesis/historyGuidedImpactAnalysis/coverageObservation/data/NullSingleton";
+        TypeHierarchy hierarchy = new TypeHierarchy(null); //nothing can be looked up, only what is added is known
+        for (String name : new String[]{nonBoxed, nonBoxed+"Double", nonBoxed+"Long", nullSingleton})
+            hierarchy.add(Files.readAllBytes(new File(TestingConstants.class.getResource("/"+name+".class").toURI()).toPath()));
+
+        assertEquals(nonBoxed, hierarchy.getCommonSuperClass(nonBoxed+"Double", nonBoxed+"Long"));
+        assertEquals(nonBoxed, hierarchy.getCommonSuperClass(nonBoxed, nonBoxed+"Long"));
+        assertEquals(nonBoxed+"Long", hierarchy.getCommonSuperClass(nonBoxed+"Long", nonBoxed+"Long"));
+        assertEquals("java/lang/Object", hierarchy.getCommonSuperClass(nonBoxed+"Double", nullSingleton));
+        assertEquals("java/lang/Object", hierarchy.getCommonSuperClass(nonBoxed+"Double", "some/missing/Dependency"));
+
+        //types that were not added are looked up without loading them, the result must match the one of the JVM
+        hierarchy = new TypeHierarchy(InstrumenterTest.class.getClassLoader());
+        assertEquals("java/lang/Number", hierarchy.getCommonSuperClass("java/lang/Integer", "java/lang/Long"));
+        assertEquals("java/util/AbstractList", hierarchy.getCommonSuperClass("java/util/ArrayList", "java/util/LinkedList"));
+        assertEquals("java/lang/Object", hierarchy.getCommonSuperClass("java/util/List", "java/util/HashMap"));
+        assertEquals("java/util/List", hierarchy.getCommonSuperClass("java/util/List", "java/util/ArrayList"));
+        assertEquals(nonBoxed, hierarchy.getCommonSuperClass(nonBoxed+"Double", nonBoxed+"Long"));
+
+        //same lookups when the loader is only referenced weakly, as done when caching one index per loader
+        hierarchy = TypeHierarchy.withWeakFallback(InstrumenterTest.class.getClassLoader());
+        assertEquals("java/lang/Number", hierarchy.getCommonSuperClass("java/lang/Integer", "java/lang/Long"));
+        assertEquals(nonBoxed, hierarchy.getCommonSuperClass(nonBoxed+"Double", nonBoxed+"Long"));
+    }
+
+    @Test
+    public void testInstrumentArchive() throws IOException, URISyntaxException {
+        final String entry = TestingConstants.class.getName().replace(".", "/")+".class";
+        byte[] code = Files.readAllBytes(new File(TestingConstants.class.getResource("TestingConstants.class").toURI()).toPath());
+        byte[] resource = "some resource".getBytes("UTF-8");
+        File jar = new File(testResultDir, "subject.jar");
+
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        out.putNextEntry(new ZipEntry(entry));
+        out.write(code);
+        ZipEntry stored = new ZipEntry("stored.txt");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(resource.length);
+        CRC32 crc = new CRC32();
+        crc.update(resource);
+        stored.setCrc(crc.getValue());
+        out.putNextEntry(stored);
+        out.write(resource);
+        out.putNextEntry(new ZipEntry("META-INF/SIGNER.SF"));
+        out.write(resource);
+        out.close();
+        assertTrue(FileUtils.isArchive(jar));
+
+        //nothing is replaced if nothing changes
+        long lastModified = jar.lastModified();
+        assertFalse(FileUtils.rewriteArchive(jar, null, null));
+        assertEquals(lastModified, jar.lastModified());
+
+        final MethodIdentifierTable table = new MethodIdentifierTable();
+        final TypeHierarchy hierarchy = new TypeHierarchy(InstrumenterTest.class.getClassLoader());
+        assertTrue(FileUtils.rewriteArchive(jar, new FileUtils.ArchiveEntryHandler() {
+            @Override
+            public boolean accepts(String entryName) {
+                assertFalse(entryName.startsWith("META-INF")); //signatures are dropped before
+                return entryName.endsWith(".class");
+            }
+
+            @Override
+            public byte[] handle(String entryName, byte[] content) throws IOException {
+                assertEquals(entry, entryName);
+                return Instrumenter.instrumentClass(new ByteArrayInputStream(content), TestingConstants.class.getName(),
+                        new HashSet<String>(), table, null, null, null, null, hierarchy, false, null, null);
+            }
+        }, null));
+        FileUtils.injectCodeIntoProjectUnderTest(jar, new File(testResultDir, "observedTrace"), false, false, false);
+
+        ZipFile result = new ZipFile(jar);
+        try {
+            assertTrue(table.size() > 0);
+            assertNotNull(result.getEntry(CoverageObserverNoHook.class.getName().replace(".", "/")+".class"));
+            assertNull(result.getEntry("META-INF/SIGNER.SF")); //signatures do not match the instrumented code anymore
+            assertEquals(ZipEntry.STORED, result.getEntry("stored.txt").getMethod());
+            byte[] copied = new byte[resource.length];
+            new DataInputStream(result.getInputStream(result.getEntry("stored.txt"))).readFully(copied);
+            assertArrayEquals(resource, copied);
+            byte[] instrumented = new byte[(int) result.getEntry(entry).getSize()];
+            new DataInputStream(result.getInputStream(result.getEntry(entry))).readFully(instrumented);
+            assertFalse(Arrays.equals(code, instrumented));
+        } finally {
+            result.close();
+        }
+
+        //classes can be loaded right from the archive
+        MemorizingClassLoader loader = MemorizingClassLoader.getClassLoader(jar);
+        assertNotNull(loader.loadClass(TestingConstants.class.getName()));
+    }
+
     @Before
     public void setUp() throws Exception {
         Tool.activateDebugMode();
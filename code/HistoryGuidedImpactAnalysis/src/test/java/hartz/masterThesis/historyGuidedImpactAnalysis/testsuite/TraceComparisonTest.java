@@ -3,11 +3,21 @@ package hartz.masterThesis.historyGuidedImpactAnalysis.testsuite;
 
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.Core;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.syntax.SyntaxChange;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.DivergenceCache;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.JSONTraceReader;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.Trace;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.TraceStore;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodData;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.MethodSource;
+import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.TraceUtil;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.changeComputation.traces.traceData.divergences.*;
 import hartz.masterThesis.historyGuidedImpactAnalysis.core.versions.Version;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserver;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserverNoHook;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.ObservedMethod;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.OpcodeTranslator;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.ParameterStage;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.VoidSingleton;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
 import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
 import hartz.masterThesis.historyGuidedImpactAnalysis.fileUtils.FileUtils;
@@ -16,13 +26,17 @@ import hartz.masterThesis.historyGuidedImpactAnalysis.main.Tool;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.objectweb.asm.Opcodes;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Random;
 import java.util.TreeMap;
 
 import static org.junit.Assert.*;
@@ -482,15 +496,42 @@ public class TraceComparisonTest {
 
         /**----------------------- Test the actual trace gathering functionality ------------------------*/
         Version[] versions = new Version[]{dummyVersion1, dummyVersion2};
-        TreeMap<Version, Trace[]> traces = Core.gatherTraces(versions, noSyntaxChanges, false, false);
+        TreeMap<Version, Trace[]> traces = Core.gatherTraces(versions, noSyntaxChanges, false, false, 1);
         Trace[] tracesInOld = traces.get(dummyVersion1);
         Trace[] tracesInNew = traces.get(dummyVersion2);
         assertEquals(6, tracesInOld.length); //there are six traces contained in 2 files
         assertEquals(7, tracesInNew.length); //there are seven traces contained in 3 files
 
+        //importing files concurrently must not change anything
+        TreeMap<Version, Trace[]> tracesImportedConcurrently = Core.gatherTraces(versions, noSyntaxChanges, false, false, 4);
+        for (Version v : versions){
+            assertEquals(traces.get(v).length, tracesImportedConcurrently.get(v).length);
+            for (int i = 0; i<traces.get(v).length; ++i){
+                assertEquals(traces.get(v)[i].getTraceIdentifier(), tracesImportedConcurrently.get(v)[i].getTraceIdentifier());
+                assertTrue(traces.get(v)[i].getEntryMethod().equalsMethodData(tracesImportedConcurrently.get(v)[i].getEntryMethod()));
+            }
+        }
+
         /**----------------------- Test the trace comparison on that data -------------------------------*/
-        TreeMap<Version, TraceDivergence[][]> traceDivergences = MainFunctionality.step7_compareTraces(versions, traces,
-                false, true, false);
+        TreeMap<Version, TraceDivergence[][]> traceDivergencesComparedConcurrently = MainFunctionality.step7_compareTraces(versions, new TraceStore(traces),
+                false, true, false, 4, false);
+        TreeMap<Version, TraceDivergence[][]> traceDivergences = MainFunctionality.step7_compareTraces(versions, new TraceStore(traces),
+                false, true, false, 1, false);
+
+        //comparing traces concurrently must not change anything, not even the order
+        TraceDivergence[][] concurrently = traceDivergencesComparedConcurrently.get(dummyVersion2);
+        assertEquals(traceDivergences.get(dummyVersion2).length, concurrently.length);
+        for (int i = 0; i<concurrently.length; ++i){
+            TraceDivergence[] d = traceDivergences.get(dummyVersion2)[i];
+            if (d == null) assertNull(concurrently[i]);
+            else {
+                assertEquals(d.length, concurrently[i].length);
+                for (int j = 0; j<d.length; ++j){
+                    assertEquals(d[j].getClass(), concurrently[i][j].getClass());
+                    assertSame(d[j].getMethodData(), concurrently[i][j].getMethodData());
+                }
+            }
+        }
         assertFalse(traceDivergences.keySet().contains(dummyVersion1)); //computed only for more recent version!
         assertTrue(traceDivergences.keySet().contains(dummyVersion2));
         assertEquals(1, traceDivergences.size()); //no magic versions have been added out of nowhere
@@ -561,6 +602,537 @@ public class TraceComparisonTest {
         }
     }
 
+    @Test
+    public void testLazyTraceStore() throws IOException, URISyntaxException {
+        Version dummyVersion1 = new Version(0, "a", "", "", "");
+        Version dummyVersion2 = new Version(1, "b", "", "", "");
+        File oldDir = new File(TraceComparisonTest.class.getResource("/for_trace_comparison_test/oldVersion").toURI());
+        File newDir = new File(TraceComparisonTest.class.getResource("/for_trace_comparison_test/newVersion").toURI());
+        dummyVersion1.enrichWithToolData(oldDir, "","","","","", new String[0], new String[0], new String[0],
+                new String[0], null, false, false);
+        dummyVersion2.enrichWithToolData(newDir, "","","","","", new String[0], new String[0], new String[0],
+                new String[0], dummyVersion1, false, false);
+        MethodData.setTraceDistanceBasedComparison(false);
+        MethodData.setCoverageBasedComparison(false);
+
+        TreeMap<Version,HashMap<String, List<SyntaxChange>>> noSyntaxChanges = new TreeMap<>();
+        noSyntaxChanges.put(dummyVersion1, new HashMap<String, List<SyntaxChange>>());
+        noSyntaxChanges.put(dummyVersion2, new HashMap<String, List<SyntaxChange>>());
+        Version[] versions = new Version[]{dummyVersion1, dummyVersion2};
+        TreeMap<Version, Trace[]> traces = Core.gatherTraces(versions, noSyntaxChanges, false, false, 1);
+
+        /** nothing is imported until it is requested, and then exactly what is imported all at once */
+        TraceStore store = Core.openTraceStore(versions, noSyntaxChanges, false, false, 2);
+        assertFalse(store.isLoaded(dummyVersion1));
+        assertFalse(store.isLoaded(dummyVersion2));
+        Trace[] tracesInNew = store.getTraces(dummyVersion2);
+        assertTrue(store.isLoaded(dummyVersion2));
+        assertFalse(store.isLoaded(dummyVersion1));
+        assertSame(tracesInNew, store.getTraces(dummyVersion2));
+        assertEquals(traces.get(dummyVersion2).length, tracesInNew.length);
+        for (int i = 0; i<tracesInNew.length; ++i){
+            assertEquals(traces.get(dummyVersion2)[i].getTraceIdentifier(), tracesInNew[i].getTraceIdentifier());
+            assertTrue(traces.get(dummyVersion2)[i].getEntryMethod().equalsMethodData(tracesInNew[i].getEntryMethod()));
+        }
+        assertNull(store.getTraces(new Version(2, "c", "", "", "")));
+
+        store.release(dummyVersion2);
+        assertFalse(store.isLoaded(dummyVersion2));
+        assertNotSame(tracesInNew, store.getTraces(dummyVersion2)); //imported again
+
+        /** injected sources cannot be loaded again, so releasing must not drop them */
+        injectMiniFunction(dummyVersion2, "myPackage.myClass.injected()V");
+        MethodSource injected = Core.lookupSources(dummyVersion2, "myPackage.myClass.injected()V");
+        assertNotNull(injected);
+        store.release(dummyVersion2);
+        assertSame(injected, Core.lookupSources(dummyVersion2, "myPackage.myClass.injected()V"));
+        store.getTraces(dummyVersion2);
+
+        /** the comparison yields the same results and releases all traces it does not need anymore */
+        File divergenceFile = new File(newDir, "traceDivergences");
+        try {
+            TraceDivergence[][] expected = MainFunctionality.step7_compareTraces(versions, new TraceStore(traces),
+                    false, true, false, 1, false).get(dummyVersion2);
+            TraceDivergence[][] actual = MainFunctionality.step7_compareTraces(versions, store,
+                    false, true, false, 1, false).get(dummyVersion2);
+            assertEquals(expected.length, actual.length);
+            for (int i = 0; i<expected.length; ++i){
+                if (expected[i] == null){
+                    assertNull(actual[i]);
+                    continue;
+                }
+                assertEquals(expected[i].length, actual[i].length);
+                for (int j = 0; j<expected[i].length; ++j)
+                    assertEquals(expected[i][j].toJSON().toString(), actual[i][j].toJSON().toString());
+            }
+            assertFalse(store.isLoaded(dummyVersion1));
+            assertFalse(store.isLoaded(dummyVersion2));
+        } finally {
+            divergenceFile.delete();
+        }
+    }
+
+    @Test
+    public void testCachingOfTraceDivergences() throws IOException, URISyntaxException {
+        Version dummyVersion1 = new Version(0, "a", "", "", "");
+        Version dummyVersion2 = new Version(1, "b", "", "", "");
+        File oldDir = new File(TraceComparisonTest.class.getResource("/for_trace_comparison_test/oldVersion").toURI());
+        File newDir = new File(TraceComparisonTest.class.getResource("/for_trace_comparison_test/newVersion").toURI());
+        dummyVersion1.enrichWithToolData(oldDir, "","","","","", new String[0], new String[0], new String[0],
+                new String[0], null, false, false);
+        dummyVersion2.enrichWithToolData(newDir, "","","","","", new String[0], new String[0], new String[0],
+                new String[0], dummyVersion1, false, false);
+        MethodData.setTraceDistanceBasedComparison(true);
+        MethodData.setCoverageBasedComparison(true);
+
+        TreeMap<Version,HashMap<String, List<SyntaxChange>>> noSyntaxChanges = new TreeMap<>();
+        noSyntaxChanges.put(dummyVersion1, new HashMap<String, List<SyntaxChange>>());
+        noSyntaxChanges.put(dummyVersion2, new HashMap<String, List<SyntaxChange>>());
+        Version[] versions = new Version[]{dummyVersion1, dummyVersion2};
+        TreeMap<Version, Trace[]> traces = Core.gatherTraces(versions, noSyntaxChanges, true, true, 1);
+
+        File cacheFile = new File(newDir, "traceDivergenceCache");
+        File divergenceFile = new File(newDir, "traceDivergences");
+        try {
+            TraceDivergence[][] computed = MainFunctionality.step7_compareTraces(versions, new TraceStore(traces),
+                    false, true, false, 1, true).get(dummyVersion2);
+            assertTrue(cacheFile.exists());
+            String exported = FileUtils.readData(divergenceFile);
+
+            /** nothing changed, so the divergences are taken from the cache and refer to the same invocations */
+            String key = DivergenceCache.computeKey(dummyVersion2, true, false);
+            TraceDivergence[][] cached = DivergenceCache.lookup(dummyVersion2, key, traces.get(dummyVersion2));
+            assertNotNull(cached);
+            assertEquals(computed.length, cached.length);
+            int numberOfDivergences = 0;
+            for (int i = 0; i<computed.length; ++i){
+                if (computed[i] == null){
+                    assertNull(cached[i]);
+                    continue;
+                }
+                assertEquals(computed[i].length, cached[i].length);
+                for (int j = 0; j<computed[i].length; ++j){
+                    assertEquals(computed[i][j].getClass(), cached[i][j].getClass());
+                    assertSame(computed[i][j].getMethodData(), cached[i][j].getMethodData());
+                    assertEquals(computed[i][j].toJSON().toString(), cached[i][j].toJSON().toString());
+                    ++numberOfDivergences;
+                }
+            }
+            assertTrue(numberOfDivergences > 0);
+
+            //and the exported results are the same as well
+            MainFunctionality.step7_compareTraces(versions, new TraceStore(traces), false, true, false, 1, true);
+            assertEquals(exported, FileUtils.readData(divergenceFile));
+
+            /** other settings must not use these divergences */
+            assertFalse(key.equals(DivergenceCache.computeKey(dummyVersion2, true, true)));
+            assertFalse(key.equals(DivergenceCache.computeKey(dummyVersion2, false, false)));
+
+            /** neither must other bytecode listings, which define basic blocks and coverage sizes */
+            File listings = dummyVersion1.getHumanReadableBytecodeDir();
+            assertFalse(listings.exists());
+            File listing = new File(listings, "a.B");
+            try {
+                assertTrue(listings.mkdirs());
+                Files.write(listing.toPath(), "some bytecode".getBytes("UTF-8"));
+                assertFalse(key.equals(DivergenceCache.computeKey(dummyVersion2, true, false)));
+            } finally {
+                listing.delete();
+                listings.delete();
+            }
+            assertEquals(key, DivergenceCache.computeKey(dummyVersion2, true, false));
+
+            MethodData.setCoverageBasedComparison(false);
+            assertNull(DivergenceCache.lookup(dummyVersion2, DivergenceCache.computeKey(dummyVersion2, true, false),
+                    traces.get(dummyVersion2)));
+        } finally {
+            MethodData.setTraceDistanceBasedComparison(false);
+            MethodData.setCoverageBasedComparison(false);
+            cacheFile.delete();
+            divergenceFile.delete();
+        }
+    }
+
+
+    /**
+     * Records a method consisting of a loop, exactly like the coverage observer would.
+     *
+     * @param iterations : how often the loop is executed
+     * @return the recorded method as exported
+     */
+    private JSONObject recordLoop(int iterations){
+        return observeLoop(iterations, null).toJSON();
+    }
+
+    private ObservedMethod observeLoop(int iterations, ObservedMethod caller){
+        ObservedMethod m = new ObservedMethod("myPackage.myClass.loop()V", 0, caller, (ParameterStage) null);
+        m.updateCoverage(Opcodes.ICONST_0, 0);
+        m.updateCoverage(Opcodes.ISTORE, 1);
+        for (int i = 0; i<iterations; ++i){
+            m.updateCoverage(Opcodes.ILOAD, 2); //loop head
+            m.updateCoverage(Opcodes.IFGE, 3);
+            m.updateCoverage(Opcodes.IINC, 4);
+            m.updateCoverage(Opcodes.GOTO, 5);
+        }
+        m.updateCoverage(Opcodes.ILOAD, 2);
+        m.updateCoverage(Opcodes.IFGE, 3);
+        m.updateCoverage(Opcodes.RETURN, 6);
+        m.storeReturnValue(VoidSingleton.getInstance());
+        return m;
+    }
+
+    /**
+     * Records a method that calls the loop of {@link #recordLoop(int)} several times.
+     *
+     * @param iterations : how often the loop is executed in each call
+     * @return the recorded method as exported
+     */
+    private JSONObject recordLoopCalls(int... iterations){
+        ObservedMethod m = new ObservedMethod("myPackage.myClass.run()V", 1, null, (ParameterStage) null);
+        for (int i = 0; i<iterations.length; ++i){
+            m.updateCoverage(Opcodes.INVOKESTATIC, i);
+            m.storeCallToMethod(observeLoop(iterations[i], m));
+        }
+        m.updateCoverage(Opcodes.RETURN, iterations.length);
+        m.storeReturnValue(VoidSingleton.getInstance());
+        return m.toJSON();
+    }
+
+    @Test
+    public void testCompressedLoopComparison() throws IOException, URISyntaxException {
+        /* scaffolding...    its okay, we will not access this stuff anyway */
+        Version dummyVersion1 = new Version(0,"a","","","");
+        Version dummyVersion2 = new Version(1,"b","","","");
+        dummyVersion1.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        dummyVersion2.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        MethodData.setTraceDistanceBasedComparison(false);
+        MethodData.setCoverageBasedComparison(false);
+
+        /**---------------- The recorder stores each loop iteration only once ------------------------*/
+        new CoverageObserverNoHook(new File(dummyVersion, "observedTrace")); //stringification must not register a shutdown hook
+        JSONObject oldJSON = recordLoop(1000);
+        JSONArray trace = oldJSON.getJSONArray("trace");
+        assertEquals(2 + 1 + 3, trace.length()); //the start, then the compressed loop, then the end
+        assertEquals(1000, trace.getJSONObject(2).getInt("iterations"));
+        assertEquals(4, trace.getJSONObject(2).getJSONArray("trace").length());
+
+        MethodData old = new MethodData(dummyVersion1, oldJSON, null, new HashMap<String, List<SyntaxChange>>());
+        assertEquals(2 + 4*1000 + 3, old.getBytecodeIndices().length); //expands to the original trace
+        assertEquals(2, old.getBytecodeIndices()[4*1000 + 2]);
+        assertEquals(" RETURN", old.getTrace()[4*1000 + 4]);
+
+        /**---------------- Only the additional iterations make a difference ------------------------*/
+        Trace oldTraceData = new Trace(dummyVersion1, oldJSON, new HashMap<String, List<SyntaxChange>>(), "oldtrace");
+        Trace newTraceData = new Trace(dummyVersion2, recordLoop(1003), new HashMap<String, List<SyntaxChange>>(), "newtrace");
+        List<TraceDivergence> traceDivergences = oldTraceData.compareAgainstNewerTrace(newTraceData, false);
+        assertEquals(2, traceDivergences.size());
+        assertEquals(3*4, ((MetricDivergence) traceDivergences.get(0)).metricValue); //distance
+        assertEquals(1, ((MetricDivergence) traceDivergences.get(1)).metricValue); //how often it diverged
+
+        assertTrue(oldTraceData.compareAgainstNewerTrace(
+                new Trace(dummyVersion2, recordLoop(1000), new HashMap<String, List<SyntaxChange>>(), "newtrace"), false).isEmpty());
+    }
+
+    @Test
+    public void testCompactTraceStorage() throws IOException, URISyntaxException {
+        /* scaffolding...    its okay, we will not access this stuff anyway */
+        Version dummyVersion1 = new Version(0,"a","","","");
+        dummyVersion1.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        MethodData.setTraceDistanceBasedComparison(false);
+        MethodData.setCoverageBasedComparison(false);
+        new CoverageObserverNoHook(new File(dummyVersion, "observedTrace")); //stringification must not register a shutdown hook
+
+        /**---------------- Opcodes are looked up by name ----------------------------------------------*/
+        for (int opcode = 0; opcode < 200; ++opcode){
+            String name = OpcodeTranslator.getInstructionStr(opcode);
+            if (name != null && !name.isEmpty()) assertEquals(opcode, OpcodeTranslator.getOpcode(name)); //there are gaps
+        }
+        assertEquals(OpcodeTranslator.BASIC_BLOCK, OpcodeTranslator.getOpcode(OpcodeTranslator.BASIC_BLOCK_STR));
+        assertEquals(Opcodes.INVOKESTATIC, OpcodeTranslator.getOpcode("[86]> INVOKESTATIC", 6));
+        assertEquals(OpcodeTranslator.UNKNOWN, OpcodeTranslator.getOpcode("INVOKE"));
+
+        /**---------------- The trace is described just like it was recorded ---------------------------*/
+        MethodData run = new MethodData(dummyVersion1, recordLoopCalls(3, 2), null, new HashMap<String, List<SyntaxChange>>());
+        assertArrayEquals(new String[]{" INVOKESTATIC", "myPackage.myClass.loop()V", " INVOKESTATIC",
+                "myPackage.myClass.loop()V", " RETURN"}, run.getTrace());
+        assertArrayEquals(new int[]{0, -1, 1, -2, 2}, run.getBytecodeIndices());
+        assertEquals(" ILOAD", run.getCalledMethod(0).getTrace()[2]);
+        assertEquals(" IFGE", run.getCalledMethod(1).getTrace()[2*4 + 3]);
+
+        /**---------------- All invocations of a method share its identifier ---------------------------*/
+        MethodData other = new MethodData(dummyVersion1, recordLoop(1), null, new HashMap<String, List<SyntaxChange>>());
+        assertSame(run.getCalledMethod(0).getIdentifier(), run.getCalledMethod(1).getIdentifier());
+        assertSame(run.getCalledMethod(0).getIdentifier(), other.getIdentifier());
+        assertTrue(other.isSameMethod(run.getCalledMethod(1)));
+        assertFalse(other.isSameMethod(run));
+    }
+
+    @Test
+    public void testCountedCoverageComparison() throws IOException, URISyntaxException {
+        /* scaffolding...    its okay, we will not access this stuff anyway */
+        Version dummyVersion1 = new Version(0,"a","","","");
+        Version dummyVersion2 = new Version(1,"b","","","");
+        dummyVersion1.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        dummyVersion2.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        MethodData.setTraceDistanceBasedComparison(false);
+        MethodData.setCoverageBasedComparison(true);
+        new CoverageObserverNoHook(new File(dummyVersion, "observedTrace")); //stringification must not register a shutdown hook
+
+        /**---------------- The observer only counts instructions, calls are still recorded ------------*/
+        JSONObject recorded = recordLoopCalls(1000, 5);
+        JSONObject counted;
+        CoverageObserver.countCoverage = true;
+        try {
+            counted = recordLoopCalls(1000, 5);
+        } finally {
+            CoverageObserver.countCoverage = false;
+        }
+        assertEquals(2, counted.getJSONArray("trace").length()); //just the calls
+        assertArrayEquals(new int[]{1, 1, 1}, toArray(counted.getJSONArray("coverage")));
+        JSONObject countedLoop = counted.getJSONArray("trace").getJSONObject(0);
+        assertEquals(0, countedLoop.getJSONArray("trace").length());
+        assertArrayEquals(new int[]{1, 1, 1001, 1001, 1000, 1000, 1}, toArray(countedLoop.getJSONArray("coverage")));
+
+        /**---------------- Counted coverage equals the coverage of the recorded trace -----------------*/
+        Trace recordedTrace = new Trace(dummyVersion1, recorded, new HashMap<String, List<SyntaxChange>>(), "oldtrace");
+        Trace countedTrace = new Trace(dummyVersion2, counted, new HashMap<String, List<SyntaxChange>>(), "newtrace");
+        assertTrue(recordedTrace.compareAgainstNewerTrace(countedTrace, false).isEmpty());
+
+        File traceFile = new File(dummyVersion, "countedTrace");
+        Files.write(traceFile.toPath(), new JSONObject().put("executionTraces", new JSONArray().put(counted)).toString().getBytes());
+        List<Trace> read = new ArrayList<>();
+        JSONTraceReader.readTraces(traceFile, dummyVersion2, new HashMap<String, List<SyntaxChange>>(), "file0", read,
+                new ArrayList<String>());
+        assertEquals(1, read.size());
+        assertTrue(recordedTrace.compareAgainstNewerTrace(read.get(0), false).isEmpty());
+
+        /**---------------- Only instructions executed a different number of times diverge ------------*/
+        CoverageObserver.countCoverage = true;
+        try {
+            countedTrace = new Trace(dummyVersion2, observeLoop(1003, null).toJSON(), new HashMap<String, List<SyntaxChange>>(), "newtrace");
+        } finally {
+            CoverageObserver.countCoverage = false;
+        }
+        List<TraceDivergence> traceDivergences = new Trace(dummyVersion1, recordLoop(1000), new HashMap<String, List<SyntaxChange>>(),
+                "oldtrace").compareAgainstNewerTrace(countedTrace, false);
+        assertEquals(4, traceDivergences.size()); //the loop body
+        for (int i = 0; i<4; ++i){
+            CoverageDivergence c = (CoverageDivergence) traceDivergences.get(i);
+            assertEquals(2+i, c.instrIndex);
+            assertEquals(3, c.getCoverageDifference());
+        }
+        MethodData.setCoverageBasedComparison(false);
+    }
+
+    private static int[] toArray(JSONArray a){
+        int[] result = new int[a.length()];
+        for (int i = 0; i<result.length; ++i)
+            result[i] = a.getInt(i);
+        return result;
+    }
+
+    @Test
+    public void testSkippingOfIdenticalCallTrees() throws IOException, URISyntaxException {
+        /* scaffolding...    its okay, we will not access this stuff anyway */
+        Version dummyVersion1 = new Version(0,"a","","","");
+        Version dummyVersion2 = new Version(1,"b","","","");
+        dummyVersion1.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        dummyVersion2.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        MethodData.setTraceDistanceBasedComparison(false);
+        MethodData.setCoverageBasedComparison(false);
+        new CoverageObserverNoHook(new File(dummyVersion, "observedTrace")); //stringification must not register a shutdown hook
+
+        /**---------------- Equal call trees have equal hashes in every version ----------------------*/
+        Trace oldTraceData = new Trace(dummyVersion1, recordLoopCalls(1000, 5, 7), new HashMap<String, List<SyntaxChange>>(), "oldtrace");
+        Trace newTraceData = new Trace(dummyVersion2, recordLoopCalls(1000, 5, 7), new HashMap<String, List<SyntaxChange>>(), "newtrace");
+        MethodData oldEntry = oldTraceData.getEntryMethod();
+        MethodData newEntry = newTraceData.getEntryMethod();
+        assertEquals(3, newEntry.getAmountOfMethodCalls());
+        assertEquals(oldEntry.getHashOfCallTree(), newEntry.getHashOfCallTree());
+        assertNotEquals(newEntry.getCalledMethod(0).getHashOfCallTree(), newEntry.getCalledMethod(1).getHashOfCallTree());
+        assertTrue(oldTraceData.compareAgainstNewerTrace(newTraceData, false).isEmpty());
+
+        /**---------------- A difference in a callee changes the hashes of all its callers ------------*/
+        newTraceData = new Trace(dummyVersion2, recordLoopCalls(1000, 6, 7), new HashMap<String, List<SyntaxChange>>(), "newtrace");
+        newEntry = newTraceData.getEntryMethod();
+        assertNotEquals(oldEntry.getHashOfCallTree(), newEntry.getHashOfCallTree());
+        assertEquals(oldEntry.getCalledMethod(0).getHashOfCallTree(), newEntry.getCalledMethod(0).getHashOfCallTree());
+        assertNotEquals(oldEntry.getCalledMethod(1).getHashOfCallTree(), newEntry.getCalledMethod(1).getHashOfCallTree());
+        assertEquals(oldEntry.getCalledMethod(2).getHashOfCallTree(), newEntry.getCalledMethod(2).getHashOfCallTree());
+        List<TraceDivergence> traceDivergences = oldTraceData.compareAgainstNewerTrace(newTraceData, false);
+        assertEquals(2, traceDivergences.size()); //only the second call diverges
+        assertEquals(4, ((MetricDivergence) traceDivergences.get(0)).metricValue);
+        assertEquals(1, ((MetricDivergence) traceDivergences.get(1)).metricValue);
+
+        /**---------------- Skipped traces still report their distance ------------------------------*/
+        MethodData.setTraceDistanceBasedComparison(true);
+        newTraceData = new Trace(dummyVersion2, recordLoopCalls(1000, 5, 7), new HashMap<String, List<SyntaxChange>>(), "newtrace");
+        traceDivergences = oldTraceData.compareAgainstNewerTrace(newTraceData, false);
+        assertEquals(1, traceDivergences.size());
+        assertEquals(0, ((MetricDivergence) traceDivergences.get(0)).metricValue);
+        MethodData.setTraceDistanceBasedComparison(false);
+    }
+
+    @Test
+    public void testTraceDistanceWithoutCostMatrix() {
+        /**---------------- Sections are stored like the backtracking on the cost matrix did ---------*/
+        TraceUtil.TraceInstrDiff diff = TraceUtil.computeTraceDistanceFull(
+                new int[]{0, 1, 2, 3, 4, 5, 6, 7},
+                new int[]{0, 1, 9, 3, 4, 5, 6, 7, 8}, 0);
+        assertEquals(2, diff.distanceMetricValue);
+        assertEquals(2, diff.differences.size());
+        assertArrayEquals(new int[]{2}, diff.differences.get(2)[0]); //first one, traces were equal before
+        assertArrayEquals(new int[]{9}, diff.differences.get(2)[1]);
+        assertArrayEquals(new int[0], diff.differences.get(7)[0]); //stored at the equal entry before it
+        assertArrayEquals(new int[]{8}, diff.differences.get(7)[1]);
+
+        /**---------------- Long traces with few differences, the cost matrix would not fit ----------*/
+        int[] oldTrace = new int[200000];
+        for (int i = 0; i<oldTrace.length; ++i)
+            oldTrace[i] = i % 97;
+        int[] newTrace = oldTrace.clone();
+        for (int i = 1; i<=20; ++i)
+            newTrace[i*9000] = 1000 + i; //replacements
+        newTrace = Arrays.copyOf(newTrace, newTrace.length + 5); //insertions at the end
+        diff = TraceUtil.computeTraceDistanceFull(newTrace, oldTrace, 0);
+        assertEquals(25, diff.distanceMetricValue);
+        assertEquals(21, diff.differences.size());
+
+        /**---------------- Very different traces give the same distance as the quick computation ----*/
+        Random random = new Random(42);
+        newTrace = new int[3000];
+        for (int i = 0; i<newTrace.length; ++i)
+            newTrace[i] = random.nextInt(10) - (random.nextInt(8) == 0 ? 10 : 0);
+        oldTrace = new int[2500];
+        for (int i = 0; i<oldTrace.length; ++i)
+            oldTrace[i] = random.nextInt(10) - (random.nextInt(8) == 0 ? 10 : 0);
+        diff = TraceUtil.computeTraceDistanceFull(newTrace, oldTrace, 0);
+        assertEquals(TraceUtil.computeTraceDistanceQuick(newTrace, oldTrace, 0), diff.distanceMetricValue);
+    }
+
+    /**
+     * Creates a method invocation whose trace consists of the given instructions and loops.
+     */
+    private MethodData toMethodData(Version v, List<Object> trace){
+        return new MethodData(v, "myPackage.myClass.run()V", "METHOD", new JSONArray(),
+                new JSONObject().put("stringRepresentation", "void"), "---", trace, null, new HashMap<String, List<SyntaxChange>>());
+    }
+
+    private List<Object> toInstructions(int[] indices){
+        List<Object> trace = new ArrayList<>();
+        for (int index : indices)
+            trace.add("["+index+"]> NOP");
+        return trace;
+    }
+
+    @Test
+    public void testCompressedTraceDistanceWithoutCostMatrix() throws IOException {
+        Version dummyVersion1 = new Version(0,"a","","","");
+        Version dummyVersion2 = new Version(1,"b","","","");
+        dummyVersion1.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+        dummyVersion2.enrichWithToolData(dummyVersion,"","","","","", new String[0],new String[0],new String[0],
+                new String[0],dummyVersion1,false,false);
+
+        /**---------------- A single compressed loop next to a long trace, the cost matrix would not fit ---*/
+        int[] indices = new int[120000];
+        for (int i = 0; i<indices.length; ++i)
+            indices[i] = i % 97;
+        List<Object> oldTrace = toInstructions(indices);
+        List<Object> newTrace = toInstructions(indices);
+        newTrace.set(30000, "[500]> NOP"); //replacements
+        newTrace.set(90000, "[501]> NOP");
+        oldTrace.add(60000, new MethodData.RecordedLoop(3, toInstructions(new int[]{200, 201})));
+        newTrace.add(60000, new MethodData.RecordedLoop(5, toInstructions(new int[]{200, 201})));
+        MethodData older = toMethodData(dummyVersion1, oldTrace);
+        MethodData newer = toMethodData(dummyVersion2, newTrace);
+
+        TraceUtil.TraceInstrDiff diff = TraceUtil.computeCompressedTraceDistance(newer, older, false, 0);
+        assertEquals(2*2 + 2, diff.distanceMetricValue); //two additional iterations of the loop and the replacements
+        assertEquals(3, diff.differences.size());
+        assertArrayEquals(new int[]{500}, diff.differences.get(30000)[0]); //first one, traces were equal before
+        assertArrayEquals(new int[]{30000 % 97}, diff.differences.get(30000)[1]);
+        assertEquals(1, diff.differences.get(59999)[0].length); //the loop, stored at the equal entry before it
+        assertArrayEquals(new int[]{501}, diff.differences.get(90000)[0]);
+        assertEquals(0, TraceUtil.computeCompressedTraceDistance(newer, newer, false, 0).distanceMetricValue);
+
+        /**---------------- The distance alone can stop early, also when comparing in distance mode ------*/
+        assertEquals(6, TraceUtil.computeCompressedTraceDistanceQuick(newer, older, false, 0, 7));
+        assertEquals(5, TraceUtil.computeCompressedTraceDistanceQuick(newer, older, false, 0, 5));
+        assertEquals(5, TraceUtil.computeCompressedTraceDistanceQuick(newer, older, false, 60000, 10)); //offset skips the first replacement
+        assertEquals(1, TraceUtil.computeCompressedTraceDistanceQuick(newer, older, false, 0, 1));
+        MethodData.setTraceDistanceBasedComparison(true);
+        MethodData.setMaximalTraceDistance(5);
+        try {
+            List<TraceDivergence> traceDivergences = new Trace(dummyVersion1, older, "oldtrace")
+                    .compareAgainstNewerTrace(new Trace(dummyVersion2, newer, "newtrace"), false);
+            assertEquals(1, traceDivergences.size());
+            assertEquals(5, ((MetricDivergence) traceDivergences.get(0)).metricValue);
+        } finally {
+            MethodData.setTraceDistanceBasedComparison(false);
+            MethodData.setMaximalTraceDistance(Integer.MAX_VALUE);
+        }
+
+        /**---------------- Without loops, the distance is the same as for uncompressed traces ------------*/
+        Random random = new Random(3);
+        int[] newIndices = new int[1500];
+        for (int i = 0; i<newIndices.length; ++i)
+            newIndices[i] = random.nextInt(6);
+        int[] oldIndices = new int[1300];
+        for (int i = 0; i<oldIndices.length; ++i)
+            oldIndices[i] = random.nextInt(6);
+        diff = TraceUtil.computeCompressedTraceDistance(toMethodData(dummyVersion2, toInstructions(newIndices)),
+                toMethodData(dummyVersion1, toInstructions(oldIndices)), false, 0);
+        assertEquals(TraceUtil.computeTraceDistanceQuick(newIndices, oldIndices, 0), diff.distanceMetricValue);
+        assertEquals(diff.distanceMetricValue, TraceUtil.computeCompressedTraceDistanceQuick(toMethodData(dummyVersion2,
+                toInstructions(newIndices)), toMethodData(dummyVersion1, toInstructions(oldIndices)), false, 0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testBoundedQuickTraceDistance() {
+        /**---------------- Long traces with few differences --------------------------------------------*/
+        int[] oldTrace = new int[200000];
+        for (int i = 0; i<oldTrace.length; ++i)
+            oldTrace[i] = i % 97;
+        int[] newTrace = oldTrace.clone();
+        for (int i = 1; i<=20; ++i)
+            newTrace[i*9000] = 1000 + i;
+        assertEquals(20, TraceUtil.computeTraceDistanceQuick(newTrace, oldTrace, 0));
+        assertEquals(20, TraceUtil.computeTraceDistanceQuick(newTrace, null, oldTrace, null, 0, 21));
+        assertEquals(10, TraceUtil.computeTraceDistanceQuick(newTrace, null, oldTrace, null, 0, 10));
+        assertEquals(10, TraceUtil.computeTraceDistanceQuick(newTrace, oldTrace, 9000*10+1)); //offset skips the first half
+        assertEquals(5, TraceUtil.computeTraceDistanceQuick(new int[0], null, new int[]{1, 2, 3, 4, 5, 6}, null, 0, 5));
+
+        /**---------------- Very different traces, same as the full computation ---------------------------*/
+        Random random = new Random(7);
+        newTrace = new int[2000];
+        for (int i = 0; i<newTrace.length; ++i)
+            newTrace[i] = random.nextInt(6);
+        oldTrace = new int[1800];
+        for (int i = 0; i<oldTrace.length; ++i)
+            oldTrace[i] = random.nextInt(6);
+        int distance = TraceUtil.computeTraceDistanceFull(newTrace, oldTrace, 0).distanceMetricValue;
+        assertEquals(distance, TraceUtil.computeTraceDistanceQuick(newTrace, oldTrace, 0));
+        assertEquals(distance, TraceUtil.computeTraceDistanceQuick(newTrace, null, oldTrace, null, 0, distance));
+        assertEquals(100, TraceUtil.computeTraceDistanceQuick(newTrace, null, oldTrace, null, 0, 100));
+
+        /**---------------- Method calls are only equal if they call the same method ------------------------*/
+        newTrace = new int[]{0, 1, -1, 2, -2, 3};
+        oldTrace = new int[]{0, 1, -1, 2, -2, 3};
+        int[] newCalls = new int[]{7, 8};
+        int[] oldCalls = new int[]{7, 9};
+        assertEquals(0, TraceUtil.computeTraceDistanceQuick(newTrace, oldTrace, 0));
+        assertEquals(1, TraceUtil.computeTraceDistanceQuick(newTrace, newCalls, oldTrace, oldCalls, 0));
+        assertEquals(1, TraceUtil.computeTraceDistanceQuick(newTrace, newCalls, oldTrace, oldCalls, 0, 1));
+        assertEquals(0, TraceUtil.computeTraceDistanceQuick(newTrace, newCalls, oldTrace, new int[]{7, 8}, 0));
+    }
 
     @Before
     public void setUp() throws Exception {
@@ -0,0 +1,105 @@
+package hartz.masterThesis.historyGuidedImpactAnalysis.testsuite;
+
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserver;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.CoverageObserverNoHook;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.*;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONArray;
+import hartz.masterThesis.historyGuidedImpactAnalysis.coverageObservation.data.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ValueFingerprintTest {
+
+    private File traceFile;
+
+    @Before
+    public void setUp() throws IOException {
+        traceFile = File.createTempFile("observedTrace", null);
+        new CoverageObserverNoHook(traceFile); //fingerprinting must not register a shutdown hook
+    }
+
+    @After
+    public void tearDown() {
+        traceFile.delete();
+    }
+
+    @Test
+    public void captureTimeFingerprintTest() {
+        ValueFingerprints values = new ValueFingerprints(6);
+        StringBuilder mutable = new StringBuilder("before");
+        values.capture(0, mutable);
+        mutable.append(" and after"); //must not change what has been recorded
+        values.capture(1, new NonBoxedDouble(-0.5));
+        values.capture(2, new NonBoxedChar('x'));
+        values.capture(3, NullSingleton.getInstance());
+        values.capture(4, new Object());
+
+        JSONObject o = values.toJSON(0);
+        assertEquals("java.lang.StringBuilder", o.getString("class"));
+        assertEquals(ValueFingerprints.fingerprintOf("before"), o.getLong("fingerprint"));
+        assertFalse(o.has("stringRepresentation"));
+        assertEquals("hashCode() of object", o.getString("hashCode"));
+
+        //primitives are not hashed, their value is recorded exactly
+        assertEquals("double", values.toJSON(1).getString("class"));
+        assertEquals("-0.5", values.toJSON(1).getString("value"));
+        assertEquals("x", values.toJSON(2).getString("value"));
+
+        assertEquals("null", values.toJSON(3).getString("stringRepresentation"));
+        assertEquals("toString() of object", values.toJSON(4).getString("stringRepresentation"));
+
+        assertTrue(values.isUnset(5));
+        assertEquals(NotReturnedYetSingleton.getInstance().toString(), values.toJSON(5).getString("stringRepresentation"));
+        assertNotEquals(ValueFingerprints.fingerprintOf("before"), ValueFingerprints.fingerprintOf("befor"));
+    }
+
+    @Test
+    public void observedMethodWithFingerprintsTest() {
+        ValueFingerprints values = new ValueFingerprints(3);
+        CoverageObserver.fingerprintObject(values, 0, "java.lang.Object@1b6d3586");
+        CoverageObserver.fingerprintObject(values, 1, new NonBoxedLong(Long.MIN_VALUE));
+        ObservedMethod m = new ObservedMethod("a.B.calc(Ljava/lang/String;J)I", 0, null, values);
+        m.updateCoverage(172 /* IRETURN */, 0);
+        m.storeReturnValue(new NonBoxedInteger(7));
+
+        JSONObject o = m.toJSON();
+        JSONArray parameters = o.getJSONArray("calledWithParameters");
+        assertEquals(2, parameters.length());
+        assertEquals(ValueFingerprints.fingerprintOf("java.lang.Object@1b6d3586"), parameters.getJSONObject(0).getLong("fingerprint"));
+        assertTrue(parameters.getJSONObject(0).getBoolean("identityDependent"));
+        assertEquals("java.lang.Object@1b6d3586".hashCode(), parameters.getJSONObject(0).getInt("hashCode"));
+        assertEquals(Long.toString(Long.MIN_VALUE), parameters.getJSONObject(1).getString("value"));
+        assertEquals("7", o.getJSONObject("returned").getString("value"));
+        assertEquals("int", o.getJSONObject("returned").getString("class"));
+    }
+
+    @Test
+    public void unboxedParametersTest() {
+        ParameterStage stage = new ParameterStage(null);
+        stage.reset(4);
+        stage.putLong(-3L);
+        stage.putObject(null);
+        stage.putDouble(0.25);
+        stage.putBoolean(true);
+        ObservedMethod m = new ObservedMethod("a.B.calc(JLjava/lang/Object;DZ)C", 0, null, stage);
+        stage.reset(0); //the method must have copied what it needs
+        m.storeReturnValue(NonBoxed.TYPE_CHAR, 'c');
+
+        JSONObject o = m.toJSON();
+        JSONArray parameters = o.getJSONArray("calledWithParameters");
+        assertEquals(4, parameters.length());
+        assertEquals("long", parameters.getJSONObject(0).getString("class"));
+        assertEquals("-3", parameters.getJSONObject(0).getString("value"));
+        assertEquals("null", parameters.getJSONObject(1).getString("stringRepresentation"));
+        assertEquals("0.25", parameters.getJSONObject(2).getString("value"));
+        assertEquals("true", parameters.getJSONObject(3).getString("value"));
+        assertEquals("char", o.getJSONObject("returned").getString("class"));
+        assertEquals("c", o.getJSONObject("returned").getString("value"));
+    }
+}